@@ -0,0 +1,83 @@
+/*
+This file is part of Free Analysis and Interactive Reconstruction
+for Structured Illumination Microscopy (fairSIM).
+
+fairSIM is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 2 of the License, or
+(at your option) any later version.
+
+fairSIM is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package org.fairsim.benchmark;
+
+import java.util.Random;
+
+import org.fairsim.linalg.NativeVector;
+import org.fairsim.linalg.Vec;
+import org.fairsim.linalg.VectorFactory;
+import org.fairsim.linalg.VectorPool;
+
+/** Selects the vector factory a benchmark runs with, by name */
+final class Factories {
+
+    private Factories() {}
+
+    /** The default (heap, float[]) factory, as set on startup */
+    static final VectorFactory BASIC = Vec.getVectorFactory();
+
+    /** Names accepted by {@link #select} */
+    static final String NAMES = "basic, native, pool";
+
+    /** Set the vector factory: 'basic' (heap arrays), 'native'
+     *  (direct buffers) or 'pool' (recycling heap vectors) */
+    static void select( String name ) {
+	if ( name.equals("basic") )
+	    Vec.setVectorFactory( BASIC );
+	else if ( name.equals("native") )
+	    Vec.setVectorFactory( NativeVector.getFactory() );
+	else if ( name.equals("pool") )
+	    Vec.setVectorFactory( new VectorPool( BASIC ) );
+	else
+	    throw new RuntimeException("Unknown vector factory '"+name+"', use: "+NAMES);
+    }
+
+    /** Fill with random values in [-1,1] */
+    static void random( Vec.Real v, long seed ) {
+	Random r = new Random( seed );
+	float [] d = v.vectorData();
+	for (int i=0; i<v.vectorSize(); i++)
+	    d[i] = r.nextFloat()*2-1;
+	v.syncBuffer();
+    }
+
+    /** Fill with random values in [-1,1] (re and im) */
+    static void random( Vec.Cplx v, long seed ) {
+	Random r = new Random( seed );
+	float [] d = v.vectorData();
+	for (int i=0; i<2*v.vectorSize(); i++)
+	    d[i] = r.nextFloat()*2-1;
+	v.syncBuffer();
+    }
+
+    /** Fill with random phases of magnitude 1, so repeated
+     *  multiplication neither overflows nor underflows */
+    static void randomPhase( Vec.Cplx v, long seed ) {
+	Random r = new Random( seed );
+	float [] d = v.vectorData();
+	for (int i=0; i<v.vectorSize(); i++) {
+	    double p = r.nextDouble()*2*Math.PI;
+	    d[2*i  ] = (float)Math.cos( p );
+	    d[2*i+1] = (float)Math.sin( p );
+	}
+	v.syncBuffer();
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+This file is part of Free Analysis and Interactive Reconstruction
+for Structured Illumination Microscopy (fairSIM).
+
+fairSIM is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 2 of the License, or
+(at your option) any later version.
+
+fairSIM is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package org.fairsim.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.fairsim.linalg.Transforms;
+import org.fairsim.linalg.Vec3d;
+
+/** 3D FFTs, as one 3D transform and slab-decomposed
+ *  (see Transforms.setSlabFftThreshold). Sizes are 'w x h x d'. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Fft3dBenchmark {
+
+    @Param({"128x128x16", "256x256x32", "250x250x30", "512x512x64"})
+    String size;
+
+    @Param({"false", "true"})
+    boolean slab;
+
+    Vec3d.Cplx c;
+    long oldThreshold;
+
+    @Setup(Level.Trial)
+    public void setup() {
+	int [] d = FftBenchmark.parseSize( size, 3 );
+	c = Vec3d.createCplx( d[0], d[1], d[2] );
+	Factories.random( c, 1 );
+	oldThreshold = Transforms.getSlabFftThreshold();
+	Transforms.setSlabFftThreshold( slab ? 1 : Long.MAX_VALUE );
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+	Transforms.setSlabFftThreshold( oldThreshold );
+    }
+
+    @Benchmark
+    public void fft3d() {
+	Transforms.fft3d( c, false );
+	Transforms.fft3d( c, true );
+    }
+
+}
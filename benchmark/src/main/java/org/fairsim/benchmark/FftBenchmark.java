@@ -0,0 +1,86 @@
+/*
+This file is part of Free Analysis and Interactive Reconstruction
+for Structured Illumination Microscopy (fairSIM).
+
+fairSIM is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 2 of the License, or
+(at your option) any later version.
+
+fairSIM is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package org.fairsim.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.fairsim.linalg.Transforms;
+import org.fairsim.linalg.Vec2d;
+
+/** 2D FFTs, power-of-two and other sizes. Each invocation runs a
+ *  forward and an inverse transform, so the data stays bounded. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FftBenchmark {
+
+    @Param({"256", "512", "1024", "2048", "300", "1000", "1536"})
+    int size;
+
+    @Param({"basic", "native"})
+    String factory;
+
+    Vec2d.Cplx c;
+    Vec2d.Real r;
+    Vec2d.Cplx half;
+
+    @Setup(Level.Trial)
+    public void setup() {
+	Factories.select( factory );
+	c = Vec2d.createCplx( size, size );
+	r = Vec2d.createReal( size, size );
+	half = Vec2d.createCplx( Transforms.halfSpectrumWidth( size ), size );
+	Factories.random( c, 1 );
+	Factories.random( r, 2 );
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+	Factories.select( "basic" );
+    }
+
+    @Benchmark
+    public void fft2d() {
+	Transforms.fft2d( c, false );
+	Transforms.fft2d( c, true );
+    }
+
+    @Benchmark
+    public void fft2dReal() {
+	Transforms.fft2dReal( r, half );
+	Transforms.ifft2dReal( half, r );
+    }
+
+    /** Parse 'w x h (x d)' into 'n' integers */
+    static int [] parseSize( String s, int n ) {
+	String [] p = s.split("x");
+	if ( p.length != n )
+	    throw new RuntimeException("Size '"+s+"' needs "+n+" dimensions");
+	int [] ret = new int[ n ];
+	for (int i=0; i<n; i++)
+	    ret[i] = Integer.parseInt( p[i].trim() );
+	return ret;
+    }
+
+}
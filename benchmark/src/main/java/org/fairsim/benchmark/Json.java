@@ -0,0 +1,181 @@
+/*
+This file is part of Free Analysis and Interactive Reconstruction
+for Structured Illumination Microscopy (fairSIM).
+
+fairSIM is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 2 of the License, or
+(at your option) any later version.
+
+fairSIM is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package org.fairsim.benchmark;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Minimal JSON reader, enough for the result files written by
+ *  {@link ReconstructionBenchmark}. Objects become maps, arrays lists,
+ *  numbers doubles. */
+final class Json {
+
+    private final String s;
+    private int pos = 0;
+
+    private Json( String s ) {
+	this.s = s;
+    }
+
+    /** Parse a JSON document */
+    static Object parse( String s ) {
+	Json j = new Json( s );
+	Object o = j.value();
+	j.skipWhitespace();
+	if ( j.pos != s.length() )
+	    throw j.error("Trailing characters");
+	return o;
+    }
+
+    /** Field 'k' of object 'o', failing if missing */
+    @SuppressWarnings("unchecked")
+    static Object get( Object o, String k ) {
+	if ( !( o instanceof Map ))
+	    throw new RuntimeException("Not a JSON object, looking for '"+k+"'");
+	Object v = ((Map<String,Object>) o).get( k );
+	if ( v == null )
+	    throw new RuntimeException("Missing JSON field '"+k+"'");
+	return v;
+    }
+
+    static double num( Object o, String k ) {
+	return ((Number) get( o, k )).doubleValue();
+    }
+
+    static String str( Object o, String k ) {
+	return (String) get( o, k );
+    }
+
+    private Object value() {
+	skipWhitespace();
+	if ( pos >= s.length() )
+	    throw error("Unexpected end of input");
+	char c = s.charAt( pos );
+	switch ( c ) {
+	    case '{': return object();
+	    case '[': return array();
+	    case '"': return string();
+	    case 't': return literal("true", Boolean.TRUE );
+	    case 'f': return literal("false", Boolean.FALSE );
+	    case 'n': return literal("null", null );
+	    default:  return number();
+	}
+    }
+
+    private Map<String,Object> object() {
+	Map<String,Object> m = new LinkedHashMap<String,Object>();
+	pos++;
+	skipWhitespace();
+	if ( peek('}') ) return m;
+	while ( true ) {
+	    skipWhitespace();
+	    String k = string();
+	    skipWhitespace();
+	    expect(':');
+	    m.put( k, value() );
+	    skipWhitespace();
+	    if ( peek('}') ) return m;
+	    expect(',');
+	}
+    }
+
+    private List<Object> array() {
+	List<Object> l = new ArrayList<Object>();
+	pos++;
+	skipWhitespace();
+	if ( peek(']') ) return l;
+	while ( true ) {
+	    l.add( value() );
+	    skipWhitespace();
+	    if ( peek(']') ) return l;
+	    expect(',');
+	}
+    }
+
+    private String string() {
+	expect('"');
+	StringBuilder sb = new StringBuilder();
+	while ( pos < s.length() ) {
+	    char c = s.charAt( pos++ );
+	    if ( c == '"' )
+		return sb.toString();
+	    if ( c == '\\' ) {
+		if ( pos >= s.length() ) break;
+		char e = s.charAt( pos++ );
+		switch ( e ) {
+		    case 'n': sb.append('\n'); break;
+		    case 't': sb.append('\t'); break;
+		    case 'r': sb.append('\r'); break;
+		    case 'b': sb.append('\b'); break;
+		    case 'f': sb.append('\f'); break;
+		    case 'u':
+			if ( pos+4 > s.length() ) throw error("Bad escape");
+			sb.append( (char) Integer.parseInt( s.substring( pos, pos+4 ), 16 ));
+			pos += 4;
+			break;
+		    default: sb.append( e );
+		}
+	    } else {
+		sb.append( c );
+	    }
+	}
+	throw error("Unterminated string");
+    }
+
+    private Double number() {
+	int start = pos;
+	while ( pos < s.length() && "+-0123456789.eE".indexOf( s.charAt( pos )) >= 0 )
+	    pos++;
+	if ( start == pos )
+	    throw error("Unexpected character '"+s.charAt( pos )+"'");
+	return Double.valueOf( s.substring( start, pos ));
+    }
+
+    private Object literal( String word, Object v ) {
+	if ( !s.startsWith( word, pos ))
+	    throw error("Unexpected token");
+	pos += word.length();
+	return v;
+    }
+
+    private boolean peek( char c ) {
+	if ( pos < s.length() && s.charAt( pos ) == c ) {
+	    pos++;
+	    return true;
+	}
+	return false;
+    }
+
+    private void expect( char c ) {
+	if ( !peek( c ))
+	    throw error("Expected '"+c+"'");
+    }
+
+    private void skipWhitespace() {
+	while ( pos < s.length() && Character.isWhitespace( s.charAt( pos )))
+	    pos++;
+    }
+
+    private RuntimeException error( String msg ) {
+	return new RuntimeException( "JSON: "+msg+" at position "+pos );
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+This file is part of Free Analysis and Interactive Reconstruction
+for Structured Illumination Microscopy (fairSIM).
+
+fairSIM is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 2 of the License, or
+(at your option) any later version.
+
+fairSIM is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package org.fairsim.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.fairsim.utils.SimpleMT;
+
+/** SimpleMT loops compared to a serial loop, a fixed split over an
+ *  ExecutorService and Java 8 parallel streams. 'axpy' is memory-bound,
+ *  'sin' compute-bound. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelLoopBenchmark {
+
+    @Param({"65536", "1048576", "16777216"})
+    int n;
+
+    @Param({"axpy", "sin"})
+    String kernel;
+
+    float [] x, y;
+    boolean axpy;
+    int nrThreads;
+    ExecutorService pool;
+
+    @Setup(Level.Trial)
+    public void setup() {
+	axpy = kernel.equals("axpy");
+	x = new float[ n ];
+	y = new float[ n ];
+	for (int i=0; i<n; i++)
+	    x[i] = (float)i/n;
+	nrThreads = SimpleMT.getNrThreads();
+	pool = Executors.newFixedThreadPool( nrThreads );
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+	pool.shutdown();
+    }
+
+    /** The loop body, element i */
+    final void body( int i ) {
+	if ( axpy )
+	    y[i] += .5f * x[i];
+	else
+	    y[i] = (float)Math.sin( x[i] );
+    }
+
+    /** The loop body, elements [s,e) */
+    final void range( int s, int e ) {
+	for (int i=s; i<e; i++)
+	    body( i );
+    }
+
+    @Benchmark
+    public void serial() {
+	range( 0, n );
+    }
+
+    @Benchmark
+    public void simpleMTPFor() {
+	new SimpleMT.PFor( 0, n ) {
+	    public void at( int i ) {
+		body( i );
+	    }
+	};
+    }
+
+    @Benchmark
+    public void simpleMTBlocks() {
+	final int bl = 1<<15;
+	new SimpleMT.StrPFor( 0, (n+bl-1)/bl ) {
+	    public void at( int b ) {
+		range( b*bl, Math.min( n, (b+1)*bl ));
+	    }
+	};
+    }
+
+    @Benchmark
+    public void executorSplit() throws Exception {
+	List<Callable<Void>> jobs = new ArrayList<Callable<Void>>();
+	for (int t=0; t<nrThreads; t++) {
+	    final int s = (int)((long)n*t/nrThreads), e = (int)((long)n*(t+1)/nrThreads);
+	    jobs.add( new Callable<Void>() {
+		public Void call() {
+		    range( s, e );
+		    return null;
+		}
+	    });
+	}
+	pool.invokeAll( jobs );
+    }
+
+    @Benchmark
+    public void parallelStream() {
+	IntStream.range( 0, n ).parallel().forEach( i -> body( i ) );
+    }
+
+}
@@ -0,0 +1,352 @@
+/*
+This file is part of Free Analysis and Interactive Reconstruction
+for Structured Illumination Microscopy (fairSIM).
+
+fairSIM is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 2 of the License, or
+(at your option) any later version.
+
+fairSIM is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package org.fairsim.benchmark;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.fairsim.linalg.Vec2d;
+import org.fairsim.sim_algorithm.SimAlgorithm;
+import org.fairsim.sim_algorithm.SimParam;
+import org.fairsim.sim_algorithm.SimSimulator;
+import org.fairsim.sim_algorithm.SimUtils;
+import org.fairsim.sim_algorithm.StageTimes;
+import org.fairsim.utils.Args;
+
+/** End-to-end throughput of the SIM pipeline (input FFT, parameter
+ *  estimation, reconstruction) on synthetic bead data, for a matrix of
+ *  image sizes, band / direction / phase counts and filter styles.
+ *  <p>
+ *  Not a JMH benchmark: each run is long (up to seconds), and the point
+ *  is the break-down into pipeline stages, which JMH does not report.
+ *  Every configuration is warmed up first, then timed over several runs.
+ *  Allocation is measured through the HotSpot thread MX bean, summed
+ *  over all threads (including the SimpleMT pool), if available.
+ *  */
+public class ReconstructionBenchmark {
+
+    /** One point of the benchmark matrix */
+    static final class Config {
+	final int size, bands, dirs, phases, oversample, rlIterations;
+	final SimParam.FilterStyle filter;
+
+	Config( int size, int bands, int dirs, int phases, SimParam.FilterStyle f,
+	    int oversample, int rlIterations ) {
+	    this.size = size; this.bands = bands; this.dirs = dirs;
+	    this.phases = phases; this.filter = f;
+	    this.oversample = oversample; this.rlIterations = rlIterations;
+	}
+
+	/** Name, e.g. '512_b2d3p3_Wiener' */
+	String name() {
+	    return String.format("%d_b%dd%dp%d_%s", size, bands, dirs, phases, filter.name());
+	}
+
+	/** Raw pixels per reconstruction */
+	long rawPixels() {
+	    return (long)size*size*dirs*phases;
+	}
+    }
+
+    /** Timings of one configuration, mean and median over all runs */
+    static final class Result {
+	final Config cfg;
+	final int runs;
+	final double [] stageMs = new double[ StageTimes.Stage.values().length ];
+	final double [] stageMedianMs = new double[ StageTimes.Stage.values().length ];
+	final double [] stageMB = new double[ StageTimes.Stage.values().length ];
+	double totalMs, totalMedianMs, totalMB;
+
+	Result( Config c, int runs ) {
+	    cfg = c; this.runs = runs;
+	}
+
+	/** Reconstructions per second */
+	double perSecond() {
+	    return 1000. / totalMs;
+	}
+
+	/** Raw input megapixels per second */
+	double mpxPerSecond() {
+	    return cfg.rawPixels() / 1e6 * perSecond();
+	}
+
+	/** Allocation rate, MB per second */
+	double allocRate() {
+	    return totalMB * perSecond();
+	}
+    }
+
+    /** Bytes allocated by all live threads, through the HotSpot MX bean */
+    static final class Allocations implements StageTimes.AllocationCounter {
+	private final com.sun.management.ThreadMXBean bean;
+
+	private Allocations( com.sun.management.ThreadMXBean b ) {
+	    bean = b;
+	}
+
+	/** Counter for this VM, or null if not supported */
+	static Allocations create() {
+	    java.lang.management.ThreadMXBean b = ManagementFactory.getThreadMXBean();
+	    if ( !( b instanceof com.sun.management.ThreadMXBean ))
+		return null;
+	    com.sun.management.ThreadMXBean sb = (com.sun.management.ThreadMXBean) b;
+	    if ( !sb.isThreadAllocatedMemorySupported() )
+		return null;
+	    sb.setThreadAllocatedMemoryEnabled( true );
+	    return new Allocations( sb );
+	}
+
+	@Override
+	public long allocatedBytes() {
+	    long sum = 0;
+	    for ( long b : bean.getThreadAllocatedBytes( bean.getAllThreadIds() ))
+		if ( b > 0 ) sum += b;
+	    return sum;
+	}
+    }
+
+    final int warmup, runs;
+    final Allocations alloc = Allocations.create();
+
+    ReconstructionBenchmark( int warmup, int runs ) {
+	if ( runs < 1 )
+	    throw new RuntimeException("Need at least one timed run");
+	this.warmup = warmup; this.runs = runs;
+    }
+
+    /** Warm up and time one configuration */
+    Result run( Config c ) {
+
+	SimSimulator sim = new SimSimulator( c.size, c.bands, c.dirs, c.phases )
+	    .setOversample( c.oversample );
+	Vec2d.Real [][] raw = sim.simulate();
+
+	for (int i=0; i<warmup; i++)
+	    runOnce( c, sim, raw );
+
+	final int ns = StageTimes.Stage.values().length;
+	final double [][] stageMs = new double[ ns ][ runs ];
+	final double [] totalMs = new double[ runs ];
+
+	StageTimes st = StageTimes.install( alloc );
+	Result res = new Result( c, runs );
+	try {
+	    long b0 = ( alloc != null ) ? alloc.allocatedBytes() : 0;
+	    for (int i=0; i<runs; i++) {
+		st.reset();
+		long t0 = System.nanoTime();
+		runOnce( c, sim, raw );
+		totalMs[i] = ( System.nanoTime() - t0 ) / 1e6;
+
+		for ( StageTimes.Stage s : StageTimes.Stage.values() ) {
+		    stageMs[ s.ordinal() ][i] = st.ms( s );
+		    res.stageMB[ s.ordinal() ] += st.bytes( s ) / 1048576. / runs;
+		}
+	    }
+	    res.totalMB = ( alloc != null ) ?
+		( alloc.allocatedBytes() - b0 ) / 1048576. / runs : 0;
+	} finally {
+	    StageTimes.uninstall();
+	}
+
+	for (int s=0; s<ns; s++) {
+	    res.stageMs[s] = mean( stageMs[s] );
+	    res.stageMedianMs[s] = median( stageMs[s] );
+	}
+	res.totalMs = mean( totalMs );
+	res.totalMedianMs = median( totalMs );
+	return res;
+    }
+
+    static double mean( double [] v ) {
+	double sum = 0;
+	for ( double d : v ) sum += d;
+	return sum / v.length;
+    }
+
+    static double median( double [] v ) {
+	double [] s = v.clone();
+	Arrays.sort( s );
+	return ( s.length % 2 == 1 ) ? s[ s.length/2 ] :
+	    ( s[ s.length/2-1 ] + s[ s.length/2 ] ) / 2;
+    }
+
+    /** Run the full pipeline once, as in the StepByStep example */
+    Vec2d.Real runOnce( Config c, SimSimulator sim, Vec2d.Real [][] raw ) {
+
+	SimParam param = sim.createParam();
+	param.setFilterStyle( c.filter );
+	param.setWienerFilter( 0.05 );
+	param.setApoCutoff( 1.9 );
+	param.setApoBend( 0.8 );
+	param.setRLiterations( c.rlIterations );
+	param.otf().setAttenuation( 0.995, 1.2 );
+	param.otf().switchAttenuation( true );
+
+	StageTimes.begin( StageTimes.Stage.IMPORT_FFT );
+	Vec2d.Cplx [][] inFFT = new Vec2d.Cplx[ c.dirs ][ c.phases ];
+	for (int a=0; a<c.dirs; a++) {
+	    for (int p=0; p<c.phases; p++) {
+		inFFT[a][p] = Vec2d.createCplx( c.size, c.size );
+		inFFT[a][p].copy( raw[a][p] );
+		SimUtils.subtractBackground( inFFT[a][p], 100 );
+		SimUtils.fadeBorderCos( inFFT[a][p], 15 );
+		inFFT[a][p].fft2d( false );
+	    }
+	}
+	StageTimes.end( StageTimes.Stage.IMPORT_FFT );
+
+	// fit to band 1, the more robust choice on three-beam data,
+	// where it sits at half the pattern frequency
+	SimAlgorithm.estimateParameters( param, inFFT, 1,
+	    ( c.bands == 3 ) ? 0.3 : 0.6, null, -1, null );
+
+	return SimAlgorithm.runReconstruction( param, inFFT, null, -1, true,
+	    SimParam.CLIPSCALE.NONE, null );
+    }
+
+    // ------ output ------
+
+    static void printHeader() {
+	StringBuilder sb = new StringBuilder( String.format(Locale.US,
+	    "%-26s %10s %8s %9s %9s %9s", "config", "total ms", "recon/s",
+	    "MPx/s", "MB/recon", "MB/s" ));
+	for ( StageTimes.Stage s : StageTimes.Stage.values() )
+	    sb.append( String.format(" %16s", s+" ms" ));
+	System.out.println( sb );
+    }
+
+    static void print( Result r ) {
+	StringBuilder sb = new StringBuilder( String.format(Locale.US,
+	    "%-26s %10.2f %8.3f %9.2f %9.1f %9.1f", r.cfg.name(), r.totalMs,
+	    r.perSecond(), r.mpxPerSecond(), r.totalMB, r.allocRate() ));
+	for ( StageTimes.Stage s : StageTimes.Stage.values() )
+	    sb.append( String.format(Locale.US, " %16.2f", r.stageMs[ s.ordinal() ] ));
+	System.out.println( sb );
+    }
+
+    /** Write results as JSON: an array of one object per configuration */
+    static void writeJson( List<Result> res, Writer w ) throws IOException {
+	w.write("[\n");
+	for (int i=0; i<res.size(); i++) {
+	    Result r = res.get(i);
+	    w.write( String.format(Locale.US,
+		"  { \"config\": \"%s\", \"size\": %d, \"bands\": %d, \"dirs\": %d, "
+		+"\"phases\": %d, \"filter\": \"%s\", \"oversample\": %d, "
+		+"\"rlIterations\": %d, \"runs\": %d,\n"
+		+"    \"totalMs\": %.4f, \"totalMedianMs\": %.4f, \"totalMB\": %.4f, "
+		+"\"reconPerSecond\": %.4f, \"mpxPerSecond\": %.4f, "
+		+"\"allocMBPerSecond\": %.4f,\n",
+		r.cfg.name(), r.cfg.size, r.cfg.bands, r.cfg.dirs, r.cfg.phases,
+		r.cfg.filter.name(), r.cfg.oversample, r.cfg.rlIterations, r.runs,
+		r.totalMs, r.totalMedianMs, r.totalMB, r.perSecond(),
+		r.mpxPerSecond(), r.allocRate() ));
+	    w.write("    \"stages\": {");
+	    StageTimes.Stage [] st = StageTimes.Stage.values();
+	    for (int s=0; s<st.length; s++) {
+		w.write( String.format(Locale.US,
+		    "%s\n      \"%s\": { \"ms\": %.4f, \"medianMs\": %.4f, \"MB\": %.4f }",
+		    (s>0) ? "," : "", st[s], r.stageMs[s], r.stageMedianMs[s], r.stageMB[s] ));
+	    }
+	    w.write("\n    } }"+ ((i<res.size()-1) ? ",\n" : "\n"));
+	}
+	w.write("]\n");
+    }
+
+    // ------ parameter matrix ------
+
+    /** Parse a list like '256,512' */
+    static int [] parseInts( String s ) {
+	String [] p = s.split(",");
+	int [] r = new int[ p.length ];
+	for (int i=0; i<p.length; i++)
+	    r[i] = Integer.parseInt( p[i].trim() );
+	return r;
+    }
+
+    /** Build the matrix: sizes x patterns ('b2d3p3') x filters */
+    static List<Config> matrix( String sizes, String patterns, String filters,
+	int oversample, int rlIterations ) {
+	List<Config> cfg = new ArrayList<Config>();
+	for ( int size : parseInts( sizes ))
+	    for ( String pat : patterns.split(",") ) {
+		String [] p = pat.trim().split("[bdp]");
+		if ( p.length != 4 || !pat.trim().startsWith("b") )
+		    throw new RuntimeException("Pattern '"+pat+"' not like 'b2d3p3'");
+		for ( String f : filters.split(",") )
+		    cfg.add( new Config( size, Integer.parseInt( p[1] ),
+			Integer.parseInt( p[2] ), Integer.parseInt( p[3] ),
+			SimParam.FilterStyle.valueOf( f.trim() ),
+			oversample, rlIterations ));
+	    }
+	return cfg;
+    }
+
+    static Args arguments() {
+	Args arg = new Args();
+	arg.addStr("sizes",	"256,512,1024",	"Raw image sizes (pxl), comma-separated");
+	arg.addStr("patterns",	"b2d3p3,b3d3p5","Bands / directions / phases, comma-separated");
+	arg.addStr("filters",	"Wiener,RLin,RLout", "Filter styles, comma-separated");
+	arg.addInt("warmup",	3,	"Warm-up runs per configuration");
+	arg.addInt("runs",	5,	"Timed runs per configuration");
+	arg.addInt("oversample",2,	"Oversampling of the simulation");
+	arg.addInt("rlIter",	5,	"Richardson-Lucy iterations");
+	arg.addStr("json",	"",	"Write results as JSON to this file");
+	return arg;
+    }
+
+    public static void main( String [] args ) throws IOException {
+
+	Args arg = arguments();
+	if ( arg.parseArgs( args ) < 0 )
+	    System.exit(-1);
+	arg.printParams();
+
+	ReconstructionBenchmark b = new ReconstructionBenchmark(
+	    arg.getInt("warmup"), arg.getInt("runs") );
+	if ( b.alloc == null )
+	    System.out.println("Allocation counting not supported by this VM");
+
+	List<Result> res = new ArrayList<Result>();
+	printHeader();
+	for ( Config c : matrix( arg.getStr("sizes"), arg.getStr("patterns"),
+		arg.getStr("filters"), arg.getInt("oversample"), arg.getInt("rlIter") )) {
+	    Result r = b.run( c );
+	    print( r );
+	    res.add( r );
+	}
+
+	if ( arg.getStr("json").length() > 0 ) {
+	    Writer w = new FileWriter( arg.getStr("json") );
+	    try {
+		writeJson( res, w );
+	    } finally {
+		w.close();
+	    }
+	}
+    }
+
+}
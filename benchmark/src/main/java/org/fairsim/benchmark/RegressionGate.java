@@ -0,0 +1,277 @@
+/*
+This file is part of Free Analysis and Interactive Reconstruction
+for Structured Illumination Microscopy (fairSIM).
+
+fairSIM is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 2 of the License, or
+(at your option) any later version.
+
+fairSIM is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package org.fairsim.benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.fairsim.linalg.FftProvider;
+import org.fairsim.linalg.Vec;
+import org.fairsim.linalg.VectorKernels;
+import org.fairsim.sim_algorithm.SimParam;
+import org.fairsim.sim_algorithm.StageTimes;
+import org.fairsim.utils.Args;
+import org.fairsim.utils.SimpleMT;
+
+/** Performance regression gate for the reconstruction pipeline.
+ *  <p>
+ *  'mode=record' runs the {@link ReconstructionBenchmark} on a fixed
+ *  synthetic dataset and stores per-stage timings and allocation as a
+ *  baseline JSON file. 'mode=compare' reruns the configurations stored
+ *  in the baseline and exits with status 1 if a gated stage got slower
+ *  (median time) or allocates more (mean MB) than its tolerance allows.
+ *  A stage regresses if
+ *  <pre>current &gt; baseline * (1 + tolerance) + absolute slack</pre>
+ *  where the slack keeps tiny stages from failing on timer noise.
+ *  <p>
+ *  Baselines are only meaningful on the setup they were recorded on,
+ *  so the baseline also stores the thread count, FFT provider, vector
+ *  factory and kernels, JVM and machine. 'mode=compare' refuses to run
+ *  (exit status 2) if these differ, unless 'force=true' is given, which
+ *  compares anyway and prints the differences.
+ *  */
+public class RegressionGate {
+
+    /** Stages gated by default */
+    static final String DEFAULT_STAGES =
+	"IMPORT_FFT,ESTIMATION,BAND_SEPARATION,SHIFT,WIENER_FILTER";
+
+    final double timeTol, allocTol, minMs, minMB;
+    final List<StageTimes.Stage> stages = new ArrayList<StageTimes.Stage>();
+
+    RegressionGate( double timeTol, double allocTol, double minMs, double minMB,
+	String stageList ) {
+	this.timeTol = timeTol; this.allocTol = allocTol;
+	this.minMs = minMs; this.minMB = minMB;
+	for ( String s : stageList.split(",") )
+	    stages.add( StageTimes.Stage.valueOf( s.trim() ));
+    }
+
+    /** Configuration stored in a baseline entry */
+    static ReconstructionBenchmark.Config config( Object e ) {
+	return new ReconstructionBenchmark.Config(
+	    (int) Json.num( e, "size" ), (int) Json.num( e, "bands" ),
+	    (int) Json.num( e, "dirs" ), (int) Json.num( e, "phases" ),
+	    SimParam.FilterStyle.valueOf( Json.str( e, "filter" )),
+	    (int) Json.num( e, "oversample" ), (int) Json.num( e, "rlIterations" ));
+    }
+
+    /** Compare a result to its baseline entry, print a line per
+     *  gated stage, and return the number of regressions */
+    int compare( ReconstructionBenchmark.Result cur, Object base ) {
+
+	int failed = 0;
+	Object bStages = Json.get( base, "stages" );
+	boolean allocKnown = Json.num( base, "totalMB" ) > 0 && cur.totalMB > 0;
+
+	System.out.println( cur.cfg.name()+":" );
+	for ( StageTimes.Stage s : stages ) {
+	    Object b = Json.get( bStages, s.name() );
+	    double bMs = Json.num( b, "medianMs" ), cMs = cur.stageMedianMs[ s.ordinal() ];
+	    double bMB = Json.num( b, "MB" ),	    cMB = cur.stageMB[ s.ordinal() ];
+
+	    boolean slow  = cMs > bMs * ( 1 + timeTol ) + minMs;
+	    boolean alloc = allocKnown && ( cMB > bMB * ( 1 + allocTol ) + minMB );
+	    boolean fast  = cMs < bMs * ( 1 - timeTol ) - minMs;
+
+	    String status = ( slow || alloc ) ? "REGRESSION" : ( fast ? "faster" : "ok" );
+	    System.out.println( String.format( Locale.US,
+		"  %-16s %10.2f -> %10.2f ms (%+6.1f%%)  %8.1f -> %8.1f MB (%+6.1f%%)  %s",
+		s, bMs, cMs, change( bMs, cMs ), bMB, cMB, change( bMB, cMB ), status ));
+	    if ( slow || alloc )
+		failed++;
+	}
+	return failed;
+    }
+
+    static double change( double base, double cur ) {
+	return ( base > 0 ) ? ( cur / base - 1 ) * 100 : 0;
+    }
+
+    // ------ environment ------
+
+    /** Everything besides the code that the timings depend on */
+    static Map<String,String> environment() {
+	Map<String,String> m = new LinkedHashMap<String,String>();
+	FftProvider fft = FftProvider.getFftFactory();
+	m.put("threads", ""+SimpleMT.getNrThreads() );
+	m.put("cpus",	 ""+Runtime.getRuntime().availableProcessors() );
+	m.put("fft",	 ( fft == null ) ? "none" : fft.getImplementationName() );
+	m.put("vectors", Vec.getVectorFactory().getClass().getName() );
+	m.put("kernels", VectorKernels.get().getName() );
+	m.put("jvm",	 System.getProperty("java.vm.name")+" "
+	    +System.getProperty("java.version") );
+	m.put("os",	 System.getProperty("os.name")+" "+System.getProperty("os.arch") );
+	return m;
+    }
+
+    /** Differences between the baseline environment and the current one,
+     *  one line per entry, empty if they match */
+    static List<String> environmentChanges( Object base, Map<String,String> cur ) {
+	List<String> ret = new ArrayList<String>();
+	for ( Map.Entry<String,String> e : cur.entrySet() ) {
+	    String b;
+	    try {
+		b = Json.str( base, e.getKey() );
+	    } catch ( RuntimeException ex ) {
+		b = "(not recorded)";
+	    }
+	    if ( !b.equals( e.getValue() ))
+		ret.add( String.format( "  %-8s baseline: %s, now: %s", 
+		    e.getKey(), b, e.getValue() ));
+	}
+	return ret;
+    }
+
+    static String readFile( File f ) throws IOException {
+	InputStream in = new FileInputStream( f );
+	try {
+	    byte [] b = new byte[ (int) f.length() ];
+	    int off = 0;
+	    while ( off < b.length ) {
+		int n = in.read( b, off, b.length - off );
+		if ( n < 0 ) break;
+		off += n;
+	    }
+	    return new String( b, 0, off, "UTF-8" );
+	} finally {
+	    in.close();
+	}
+    }
+
+    /** Write results as baseline: the environment, and the results
+     *  in the format of {@link ReconstructionBenchmark#writeJson} */
+    static void write( List<ReconstructionBenchmark.Result> res, File f ) throws IOException {
+	Writer w = new FileWriter( f );
+	try {
+	    w.write("{ \"environment\": {");
+	    int i=0;
+	    for ( Map.Entry<String,String> e : environment().entrySet() )
+		w.write( String.format( "%s\n    \"%s\": \"%s\"", ( i++ > 0 ) ? "," : "",
+		    e.getKey(), e.getValue().replace("\\","\\\\").replace("\"","\\\"") ));
+	    w.write("\n  },\n\"results\": ");
+	    ReconstructionBenchmark.writeJson( res, w );
+	    w.write("}\n");
+	} finally {
+	    w.close();
+	}
+    }
+
+    static Args arguments() {
+	Args arg = new Args();
+	arg.addStr("mode",	"compare",	"'record' a new baseline or 'compare' to it");
+	arg.addStr("baseline",	"perf-baseline.json", "Baseline file");
+	arg.addStr("sizes",	"512",		"Image sizes (record only)");
+	arg.addStr("patterns",	"b2d3p3,b3d3p5","Bands / directions / phases (record only)");
+	arg.addStr("filters",	"Wiener",	"Filter styles (record only)");
+	arg.addInt("oversample",2,		"Oversampling of the simulation (record only)");
+	arg.addInt("rlIter",	5,		"Richardson-Lucy iterations (record only)");
+	arg.addInt("warmup",	3,		"Warm-up runs per configuration");
+	arg.addInt("runs",	7,		"Timed runs per configuration");
+	arg.addDbl("timeTol",	0.15,		"Allowed relative increase of median stage time");
+	arg.addDbl("allocTol",	0.10,		"Allowed relative increase of allocation");
+	arg.addDbl("minMs",	2.0,		"Absolute slack on stage times (ms)");
+	arg.addDbl("minMB",	1.0,		"Absolute slack on allocation (MB)");
+	arg.addStr("stages",	DEFAULT_STAGES,	"Stages to gate, comma-separated");
+	arg.addStr("json",	"",		"Also write the current results to this file");
+	arg.addStr("force",	"false",	"Compare even if the environment differs from the baseline");
+	return arg;
+    }
+
+    public static void main( String [] args ) throws IOException {
+
+	Args arg = arguments();
+	if ( arg.parseArgs( args ) < 0 )
+	    System.exit(-1);
+	arg.printParams();
+
+	final String mode = arg.getStr("mode");
+	final File baseline = new File( arg.getStr("baseline") );
+	ReconstructionBenchmark bench = new ReconstructionBenchmark(
+	    arg.getInt("warmup"), arg.getInt("runs") );
+	List<ReconstructionBenchmark.Result> res =
+	    new ArrayList<ReconstructionBenchmark.Result>();
+
+	if ( mode.equals("record") ) {
+	    for ( ReconstructionBenchmark.Config c : ReconstructionBenchmark.matrix(
+		    arg.getStr("sizes"), arg.getStr("patterns"), arg.getStr("filters"),
+		    arg.getInt("oversample"), arg.getInt("rlIter") )) {
+		ReconstructionBenchmark.Result r = bench.run( c );
+		ReconstructionBenchmark.print( r );
+		res.add( r );
+	    }
+	    write( res, baseline );
+	    System.out.println("Baseline written to "+baseline);
+	    return;
+	}
+
+	if ( !mode.equals("compare") )
+	    throw new RuntimeException("Unknown mode '"+mode+"', use 'record' or 'compare'");
+	if ( !baseline.exists() )
+	    throw new RuntimeException("No baseline "+baseline+", run with mode=record first");
+
+	RegressionGate gate = new RegressionGate(
+	    arg.getDbl("timeTol"), arg.getDbl("allocTol"),
+	    arg.getDbl("minMs"), arg.getDbl("minMB"), arg.getStr("stages") );
+
+	// baselines written by older versions (or by ReconstructionBenchmark)
+	// are a plain list of results, without environment
+	Object base = Json.parse( readFile( baseline ));
+	List<String> changes = environmentChanges( 
+	    ( base instanceof List ) ? new LinkedHashMap<String,Object>() 
+		: Json.get( base, "environment" ), environment() );
+	if ( !changes.isEmpty() ) {
+	    System.out.println("!! Environment differs from the baseline "+baseline+":");
+	    for ( String c : changes )
+		System.out.println( c );
+	    if ( !Boolean.valueOf( arg.getStr("force") )) {
+		System.out.println("!! Timings are not comparable, not running. Record a new"
+		    +" baseline, or use force=true to compare anyway.");
+		System.exit(2);
+	    }
+	    System.out.println("!! Comparing anyway (force=true), results may be meaningless");
+	}
+
+	int failed = 0;
+	for ( Object e : (List<?>)( ( base instanceof List ) ? base : Json.get( base, "results" ))) {
+	    ReconstructionBenchmark.Result r = bench.run( config( e ));
+	    res.add( r );
+	    failed += gate.compare( r, e );
+	}
+
+	if ( arg.getStr("json").length() > 0 )
+	    write( res, new File( arg.getStr("json") ));
+
+	if ( failed > 0 ) {
+	    System.out.println( failed+" stage(s) regressed against "+baseline );
+	    System.exit(1);
+	}
+	System.out.println("No regressions against "+baseline);
+    }
+
+}
@@ -0,0 +1,91 @@
+/*
+This file is part of Free Analysis and Interactive Reconstruction
+for Structured Illumination Microscopy (fairSIM).
+
+fairSIM is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 2 of the License, or
+(at your option) any later version.
+
+fairSIM is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package org.fairsim.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.fairsim.linalg.Cplx;
+import org.fairsim.linalg.Vec3d;
+
+/** Kernels on 3D vectors. Sizes are given as 'w x h x d' */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Vector3dBenchmark {
+
+    @Param({"256x256x16", "512x512x32"})
+    String size;
+
+    @Param({"basic", "native"})
+    String factory;
+
+    Vec3d.Cplx a, b, big;
+
+    @Setup(Level.Trial)
+    public void setup() {
+	Factories.select( factory );
+	int [] d = FftBenchmark.parseSize( size, 3 );
+	a   = Vec3d.createCplx( d[0], d[1], d[2] );
+	b   = Vec3d.createCplx( d[0], d[1], d[2] );
+	big = Vec3d.createCplx( 2*d[0], 2*d[1], 2*d[2] );
+	Factories.randomPhase( a, 1 );
+	Factories.randomPhase( b, 2 );
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+	Factories.select( "basic" );
+    }
+
+    @Benchmark
+    public void add() {
+	a.add( b );
+    }
+
+    @Benchmark
+    public void timesConj() {
+	a.timesConj( b );
+    }
+
+    @Benchmark
+    public void fourierShift() {
+	a.fourierShift( 1.5, -2.25, .5 );
+    }
+
+    @Benchmark
+    public void pasteFreq() {
+	big.pasteFreq( a );
+    }
+
+    @Benchmark
+    public double norm2() {
+	return a.norm2();
+    }
+
+    @Benchmark
+    public Cplx.Double dot() {
+	return a.dot( b );
+    }
+
+}
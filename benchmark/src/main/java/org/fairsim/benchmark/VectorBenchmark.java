@@ -0,0 +1,136 @@
+/*
+This file is part of Free Analysis and Interactive Reconstruction
+for Structured Illumination Microscopy (fairSIM).
+
+fairSIM is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 2 of the License, or
+(at your option) any later version.
+
+fairSIM is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package org.fairsim.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import org.fairsim.linalg.Cplx;
+import org.fairsim.linalg.Vec2d;
+
+/** Element-wise kernels and reductions on 2D vectors */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VectorBenchmark {
+
+    @Param({"512", "1024", "2048"})
+    int size;
+
+    @Param({"basic", "native"})
+    String factory;
+
+    Vec2d.Cplx a, b, big;
+    Vec2d.Real r, s;
+
+    @Setup(Level.Trial)
+    public void setup() {
+	Factories.select( factory );
+	a   = Vec2d.createCplx( size, size );
+	b   = Vec2d.createCplx( size, size );
+	big = Vec2d.createCplx( 2*size, 2*size );
+	r   = Vec2d.createReal( size, size );
+	s   = Vec2d.createReal( size, size );
+	Factories.randomPhase( a, 1 );
+	Factories.randomPhase( b, 2 );
+	Factories.random( r, 3 );
+	Factories.random( s, 4 );
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+	Factories.select( "basic" );
+    }
+
+    @Benchmark
+    public void add() {
+	a.add( b );
+    }
+
+    @Benchmark
+    public void axpy() {
+	a.axpy( -.5f, b );
+    }
+
+    @Benchmark
+    public void times() {
+	a.times( b );
+    }
+
+    @Benchmark
+    public void timesConj() {
+	a.timesConj( b );
+    }
+
+    @Benchmark
+    public void timesReal() {
+	a.times( r );
+    }
+
+    @Benchmark
+    public void fourierShift() {
+	a.fourierShift( 1.5, -2.25 );
+    }
+
+    @Benchmark
+    public void pasteFreq() {
+	big.pasteFreq( a );
+    }
+
+    @Benchmark
+    public void copy() {
+	a.copy( b );
+    }
+
+    @Benchmark
+    public double norm2() {
+	return a.norm2();
+    }
+
+    @Benchmark
+    public Cplx.Double dot() {
+	return a.dot( b );
+    }
+
+    @Benchmark
+    public Cplx.Double sumElements() {
+	return a.sumElements();
+    }
+
+    @Benchmark
+    public double realDot() {
+	return r.dot( s );
+    }
+
+    @Benchmark
+    public void realTimes() {
+	r.times( s );
+	r.copy( s );
+    }
+
+    @Benchmark
+    public double median() {
+	return r.median();
+    }
+
+}
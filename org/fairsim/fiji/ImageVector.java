@@ -70,6 +70,16 @@ public class ImageVector extends AbstractVectorReal implements Vec2d.Real {
 	    return data[x+y*width];
 	}
 
+	@Override
+	public void getRow(int y, float [] row) {
+	    System.arraycopy( data, y*width, row, 0, width );
+	}
+
+	@Override
+	public void setRow(int y, float [] row) {
+	    System.arraycopy( row, 0, data, y*width, width );
+	}
+
 	/** Internal constructor, use factory methods instead */
 	private ImageVector( int w, int h, FloatProcessor f ) {
 	    super( (float [])f.getPixels() ); 
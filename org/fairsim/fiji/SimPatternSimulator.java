@@ -19,34 +19,26 @@ along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
 package org.fairsim.fiji;
 
 import org.fairsim.sim_algorithm.OtfProvider;
+import org.fairsim.sim_algorithm.SimSimulator;
 import org.fairsim.sim_algorithm.SimUtils;
 
-import org.fairsim.utils.Conf;
 import org.fairsim.utils.Tool;
 import org.fairsim.linalg.Vec2d;
-import org.fairsim.linalg.Vec;
-import org.fairsim.linalg.Cplx;
 
-import java.io.File;
-
-import javax.swing.JFileChooser;
-import javax.swing.filechooser.FileNameExtensionFilter;
 import java.util.Random;
 
 import ij.plugin.PlugIn;
-import ij.ImageStack;
 import ij.ImagePlus;
 import ij.IJ;
 import ij.gui.GenericDialog;
 
 import ij.process.ImageProcessor;
 
-import org.fairsim.utils.Args;
-
 
 
 /** 
- * Small plugin that generate bead surfaces
+ * Small plugin that simulates SIM raw data of the current image,
+ * with the model of {@link SimSimulator}
  * */
 public class SimPatternSimulator implements PlugIn {
 
@@ -116,9 +108,23 @@ public class SimPatternSimulator implements PlugIn {
 	final int inputSize	    = ip.getWidth();
 	if (inputSize % downSample != 0 ) {
 	    IJ.showMessage("image size has to be a multiple of 'downsample'");
+	    return;
 	}
 	final int outputSize	    = ip.getWidth()/downSample;
 
+	SimSimulator sim;
+	try {
+	    sim = new SimSimulator( outputSize, 2, angles, phases )
+		.setPixelSize( pxlSize/1000. )
+		.setOversample( downSample )
+		.setObjective( NA, wavelength )
+		.setPattern( simResImpr, simModDepth )
+		.setCamera( photons, bgrOffset, bgrNoise )
+		.setSeed( prngSeed );
+	} catch ( RuntimeException e ) {
+	    IJ.showMessage( e.getMessage() );
+	    return;
+	}
 
 	Vec2d.Real groundTruth = ImageVector.copy( ip );
 	Random noisePRNG  = new Random(prngSeed*2+123);
@@ -145,9 +151,7 @@ public class SimPatternSimulator implements PlugIn {
 	dwGT.addImage( groundTruth, "Ground truth");
 	
 	// initialize OTF
-	final double cyclPerMicron = 1./(pxlSize/1000. * outputSize);
-	OtfProvider otf = OtfProvider.fromEstimate(NA, wavelength, .7);
-	otf.setPixelSize( cyclPerMicron );
+	OtfProvider otf = sim.createOtf();
 
 
 	// create wide-field
@@ -161,8 +165,8 @@ public class SimPatternSimulator implements PlugIn {
 
 
 	// create SIM
-	Vec2d.Cplx sim  = Vec2d.createCplx( groundTruth );
-	Vec2d.Real tmp  = Vec2d.createReal( groundTruth );
+	Vec2d.Real pattern = Vec2d.createReal( groundTruth );
+	Vec2d.Real tmp     = Vec2d.createReal( groundTruth );
 	
 	ImageVector tmp2  = ImageVector.create( outputSize, outputSize );
 	ImageVector resWF = ImageVector.create( outputSize, outputSize );
@@ -170,67 +174,33 @@ public class SimPatternSimulator implements PlugIn {
 	final double abbeLimit = 1. / otf.getCutoff();
 	final double simPttrLen = abbeLimit / simResImpr ;
 
-	final double k0 = otf.getCutoff()*simResImpr / cyclPerMicron;
-
-
-	Tool.trace(" Abbe (um): "+abbeLimit+" sim spacing (um): "+simPttrLen+" k0 (len): "+k0);
+	Tool.trace(" Abbe (um): "+abbeLimit+" sim spacing (um): "+simPttrLen);
 
 
 	for ( int a=0; a<angles; a++) { 
 	    
-	    double kx = Math.sin( (a/3.+.2)*Math.PI*2 )*k0;
-	    double ky = Math.cos( (a/3.+.2)*Math.PI*2 )*k0;
-	   
-    
+	    final double [] k = sim.pattern( a );
 
 	    for ( int p=0; p<phases; p++) {
 	    
 		Tool.trace(String.format("calculating SIM for: kx %5.3f ky %5.3f phase %6.3f",
-		    kx,ky,(p*Math.PI*2/(double)phases)));
+		    k[0],k[1],(p*Math.PI*2/(double)phases)));
 		
-		simPattern( sim, kx, ky, p*Math.PI * 2 / (double)phases, simModDepth);
-		tmp.copy( sim );
-
-		dwIL.addImage(  tmp , "SIM field  a:"+a+" p:"+p);
+		sim.simPattern( pattern, k[0], k[1], p*Math.PI * 2 / (double)phases );
+		dwIL.addImage(  pattern , "SIM field  a:"+a+" p:"+p);
 		
-		img.copy( groundTruth );
-		img.times( sim );
-		tmp.copy( img );
+		tmp.copy( groundTruth );
+		tmp.times( pattern );
 		dwGT.addImage( tmp , "SIM signal a:"+a+" p:"+p);
-		img.fft2d( false );
-		otf.applyOtf( img,0 );
-		img.fft2d( true );
-		tmp.copy( img );
-		dwGT.addImage( tmp, "SIM band limited a:"+a+" p:"+p);
-
-		// convert to photons
-		tmp2.zero();
-
-		for ( int y=0;y<outputSize;y++) {
-		    for ( int x=0;x<outputSize;x++) {
-    
-			// down-sample
-			float acc = 0;
-			
-			for ( int y1 = 0; y1< downSample; y1++) {
-			    for ( int x1 = 0; x1< downSample; x1++) {
-				acc += tmp.get( x*downSample + x1, y*downSample+y1); 
-			    }
-			}
-
-			acc *= photons/downSample/downSample;
-			acc += (float)(noisePRNG.nextGaussian() * Math.sqrt( acc )); 
-
-			acc += (float)(bgrOffset + noisePRNG.nextGaussian()*bgrNoise);
-
-			if (acc<0) {
-			    acc=0;
-			}
 
-			tmp2.set( x,y,(int)acc);
-		    }
-		}
+		sim.bandLimit( groundTruth, pattern, otf, img, tmp );
+		dwGT.addImage( tmp, "SIM band limited a:"+a+" p:"+p);
 
+		// convert to photons, as integer counts
+		Vec2d.Real counts = sim.camera( tmp, noisePRNG );
+		for ( int y=0;y<outputSize;y++)
+		    for ( int x=0;x<outputSize;x++)
+			tmp2.set( x,y,(int)counts.get(x,y));
 
 		dwSI.addImage( tmp2, "simulated SIM a:"+a+" p:"+p);
 		resWF.add(tmp2);
@@ -245,19 +215,4 @@ public class SimPatternSimulator implements PlugIn {
 	dwWF.display();
     }
 
-    private static void simPattern(Vec2d.Cplx dat,
-	    final double kx, final double ky, final double pha, final double modDepth ) {
-
-	    final int len = dat.vectorWidth();
-	    
-	    for (int y=0;y<len; y++)
-	    for (int x=0;x<len; x++) {
-		double v = Math.cos( 2*Math.PI* (-kx*x + ky*y)/(len) + pha );
-		dat.set(x,y,new Cplx.Float( (float)((v+1)*0.5*modDepth) + (float)(1-modDepth), 0f)) ;
-	    }
-    }
-
-
-
-
 }
@@ -163,76 +163,101 @@ public abstract class AbstractVectorCplx implements Vec.Cplx {
 	Vec.failSize(this, in);
 	this.readyBuffer();
 	for (int i=0;i<in.length;i++) {
-	    float [] id = in[i].vectorData();
-	    for (int j=0;j<elemCount*2;j++)
-		data[j] += id[j];
+	    final float [] id = in[i].vectorData();
+	    VectorBlocks.forEach( elemCount, new VectorBlocks.Range() {
+		void run( int s, int e ) {
+		    for (int j=2*s;j<2*e;j++)
+			data[j] += id[j];
+		}
+	    });
 	}
 	this.syncBuffer();
     }
     
     /** Computes this += a * x */
-    public void axpy( float a , Vec.Cplx x ) {
+    public void axpy( final float a , Vec.Cplx x ) {
 	Vec.failSize(this, x);
 	this.readyBuffer();
-	float [] id = x.vectorData();
+	final float [] id = x.vectorData();
+	final VectorKernels k = VectorKernels.get();
 	
-	for (int j=0;j<elemCount*2;j++)
-	    data[j] += a * id[j];
+	VectorBlocks.forEach( elemCount, new VectorBlocks.Range() {
+	    void run( int s, int e ) {
+		k.axpy( a, id, data, 2*s, 2*e );
+	    }
+	});
 	this.syncBuffer();
     }
 
     /** Computes this += a * x */
-    public void axpy( org.fairsim.linalg.Cplx.Float a , Vec.Cplx x ) {
+    public void axpy( final org.fairsim.linalg.Cplx.Float a , Vec.Cplx x ) {
 	Vec.failSize(this, x);
 	this.readyBuffer();
-	float [] id = x.vectorData();
+	final float [] id = x.vectorData();
 	
-	for (int i=0;i<elemCount;i++) {
-	    data[Rl(i)] += multReal( a.re, a.im, id[Rl(i)], id[Ig(i)] )  ;
-	    data[Ig(i)] += multImag( a.re, a.im, id[Rl(i)], id[Ig(i)] )  ;
-	}
+	VectorBlocks.forEach( elemCount, new VectorBlocks.Range() {
+	    void run( int s, int e ) {
+		for (int i=s;i<e;i++) {
+		    data[Rl(i)] += multReal( a.re, a.im, id[Rl(i)], id[Ig(i)] )  ;
+		    data[Ig(i)] += multImag( a.re, a.im, id[Rl(i)], id[Ig(i)] )  ;
+		}
+	    }
+	});
 	this.syncBuffer();
     }
 
     /** Set every element to 1/element */
-    public void addConst(Cplx.Float a) {
+    public void addConst( final Cplx.Float a) {
 	this.readyBuffer();
-	for (int i=0; i<elemCount; i++) {
-	    data[ 2*i   ] +=  a.re;
-	    data[ 2*i+1 ] +=  a.im;
-	}
+	VectorBlocks.forEach( elemCount, new VectorBlocks.Range() {
+	    void run( int s, int e ) {
+		for (int i=s; i<e; i++) {
+		    data[ 2*i   ] +=  a.re;
+		    data[ 2*i+1 ] +=  a.im;
+		}
+	    }
+	});
 	this.syncBuffer();
     }
 
     /** Set every element to 1/element */
     public void reciproc() {
 	this.readyBuffer();
-	for (int i=0; i<elemCount; i++) {
-	    float s = data[2*i]*data[2*i] + data[2*i+1]*data[2*i+1];
-	    data[ 2*i   ] =  data[2*i  ] / s;
-	    data[ 2*i+1 ] = -data[2*i+1] / s;
-	}
+	final VectorKernels k = VectorKernels.get();
+	VectorBlocks.forEach( elemCount, new VectorBlocks.Range() {
+	    void run( int s, int e ) {
+		k.reciproc( data, s, e );
+	    }
+	});
 	this.syncBuffer();
     }
 
 
     /** Multiply by scalar, ie this *= a */
-    public void scal( float a ) {
+    public void scal( final float a ) {
 	this.readyBuffer();
-	for (int j=0;j<elemCount*2;j++)
-	    data[j] *= a;
+	VectorBlocks.forEach( elemCount, new VectorBlocks.Range() {
+	    void run( int s, int e ) {
+		for (int j=2*s;j<2*e;j++)
+		    data[j] *= a;
+	    }
+	});
 	this.syncBuffer();
     }
     
     /** Scale by 'in', ie this *= in */
-    public void scal(org.fairsim.linalg.Cplx.Float in) {
-	float []  y = data;
+    public void scal( final org.fairsim.linalg.Cplx.Float in) {
 	this.readyBuffer();
-	for (int i=0;i<elemCount;i++) {
-	    float y1R = y[Rl(i)], y1I = y[Ig(i)];
-	    y[Rl(i)] = multReal( in.re, in.im, y1R, y1I )  ;
-	    y[Ig(i)] = multImag( in.re, in.im, y1R, y1I )  ;
-	}
+	final float []  y = data;
+	VectorBlocks.forEach( elemCount, new VectorBlocks.Range() {
+	    void run( int s, int e ) {
+		for (int i=s;i<e;i++) {
+		    float y1R = y[Rl(i)], y1I = y[Ig(i)];
+		    y[Rl(i)] = multReal( in.re, in.im, y1R, y1I )  ;
+		    y[Ig(i)] = multImag( in.re, in.im, y1R, y1I )  ;
+		}
+	    }
+	});
 	this.syncBuffer();
     }
 
@@ -240,17 +265,23 @@ public abstract class AbstractVectorCplx implements Vec.Cplx {
     /** Return the squared norm <this, this> */
     public double norm2() {
 	this.readyBuffer();
-	double ret=0;
-	for (int i=0;i<elemCount*2;i++) 
-	    ret+= data[i] * data[i];
-	return ret;
+	final VectorKernels k = VectorKernels.get();
+	return VectorBlocks.sum( elemCount, 1, new VectorBlocks.Sum() {
+	    void run( int s, int e, double [] acc ) {
+		acc[0] = k.norm2( data, 2*s, 2*e );
+	    }
+	})[0];
     }
 
     /** Complex conjugate every element of this vector */
     public void conj() {
 	this.readyBuffer();
-	for (int i=0;i<elemCount;i++)
-	    data[2*i+1]*=-1;
+	VectorBlocks.forEach( elemCount, new VectorBlocks.Range() {
+	    void run( int s, int e ) {
+		for (int i=s;i<e;i++)
+		    data[2*i+1]*=-1;
+	    }
+	});
 	this.syncBuffer();
     }
 
@@ -258,15 +289,20 @@ public abstract class AbstractVectorCplx implements Vec.Cplx {
     public org.fairsim.linalg.Cplx.Double dot(Vec.Cplx yIn) {
 	Vec.failSize( this, yIn );
 	this.readyBuffer();
-	float [] x = this.data, y = yIn.vectorData();
-	double resre=0, resim=0;
-
-	for (int i=0;i<elemCount;i++) {
-		resre += multReal( x[ Rl(i) ], -x[ Ig(i) ], y[ Rl(i) ], y[ Ig(i) ] );
-		resim += multImag( x[ Rl(i) ], -x[ Ig(i) ], y[ Rl(i) ], y[ Ig(i) ] );
-	}
+	final float [] x = this.data, y = yIn.vectorData();
+
+	double [] res = VectorBlocks.sum( elemCount, 2, new VectorBlocks.Sum() {
+	    void run( int s, int e, double [] acc ) {
+		double resre=0, resim=0;
+		for (int i=s;i<e;i++) {
+		    resre += multReal( x[ Rl(i) ], -x[ Ig(i) ], y[ Rl(i) ], y[ Ig(i) ] );
+		    resim += multImag( x[ Rl(i) ], -x[ Ig(i) ], y[ Rl(i) ], y[ Ig(i) ] );
+		}
+		acc[0] = resre; acc[1] = resim;
+	    }
+	});
 
-	return new org.fairsim.linalg.Cplx.Double( resre, resim);
+	return new org.fairsim.linalg.Cplx.Double( res[0], res[1]);
     }
 
 
@@ -289,17 +325,13 @@ public abstract class AbstractVectorCplx implements Vec.Cplx {
 	
 	Vec.failSize( this, in );
 	this.readyBuffer();
-	float [] x = in.vectorData(), y = data;
-	for (int i=0;i<elemCount;i++) {
-	    float y1R = y[Rl(i)], y1I = y[Ig(i)];
-	    if (!conj) {
-		y[Rl(i)] = multReal( x[Rl(i)], x[Ig(i)], y1R, y1I )  ;
-		y[Ig(i)] = multImag( x[Rl(i)], x[Ig(i)], y1R, y1I )  ;
-	    } else {
-		y[Rl(i)] = multReal( x[Rl(i)], -x[Ig(i)], y1R, y1I )  ;
-		y[Ig(i)] = multImag( x[Rl(i)], -x[Ig(i)], y1R, y1I )  ;
+	final float [] x = in.vectorData(), y = data;
+	final VectorKernels k = VectorKernels.get();
+	VectorBlocks.forEach( elemCount, new VectorBlocks.Range() {
+	    void run( int s, int e ) {
+		k.times( y, x, s, e, conj );
 	    }
-	}
+	});
 	this.syncBuffer();
     }
     
@@ -308,25 +340,106 @@ public abstract class AbstractVectorCplx implements Vec.Cplx {
 	Vec.failSize( this, in );
 	this.readyBuffer();
 
-	float [] x = in.vectorData(), y = data;
-	for (int i=0;i<elemCount;i++) {
-	    y[Rl(i)] *= x[i]; 
-	    y[Ig(i)] *= x[i]; 
-	}
+	final float [] x = in.vectorData(), y = data;
+	final VectorKernels k = VectorKernels.get();
+	VectorBlocks.forEach( elemCount, new VectorBlocks.Range() {
+	    void run( int s, int e ) {
+		k.timesReal( y, x, s, e );
+	    }
+	});
+	this.syncBuffer();
+    }
+
+    /** Compute element-wise multiplication this = this.*a.*b, in one pass */
+    public void times(Vec.Real aIn, Vec.Cplx bIn) {
+	Vec.failSize( this, aIn );
+	Vec.failSize( this, bIn );
+	this.readyBuffer();
+
+	final float [] a = aIn.vectorData(), b = bIn.vectorData(), y = data;
+	VectorBlocks.forEach( elemCount, new VectorBlocks.Range() {
+	    void run( int s, int e ) {
+		for (int i=s;i<e;i++) {
+		    float y1R = y[Rl(i)] * a[i], y1I = y[Ig(i)] * a[i];
+		    y[Rl(i)] = multReal( b[Rl(i)], b[Ig(i)], y1R, y1I )  ;
+		    y[Ig(i)] = multImag( b[Rl(i)], b[Ig(i)], y1R, y1I )  ;
+		}
+	    }
+	});
+	this.syncBuffer();
+    }
+
+    /** Compute this += a * ( x.*m ), in one pass */
+    public void axpyTimes( final float a, Vec.Cplx xIn, Vec.Real mIn ) {
+	Vec.failSize( this, xIn );
+	Vec.failSize( this, mIn );
+	this.readyBuffer();
+
+	final float [] x = xIn.vectorData(), m = mIn.vectorData(), y = data;
+	VectorBlocks.forEach( elemCount, new VectorBlocks.Range() {
+	    void run( int s, int e ) {
+		for (int i=s;i<e;i++) {
+		    y[Rl(i)] += a * m[i] * x[Rl(i)];
+		    y[Ig(i)] += a * m[i] * x[Ig(i)];
+		}
+	    }
+	});
 	this.syncBuffer();
     }
 
+    /** Return sum( this.*conj(in) ), without modifying this vector */
+    public org.fairsim.linalg.Cplx.Double timesConjSum( Vec.Cplx in ) {
+	Vec.failSize( this, in );
+	this.readyBuffer();
+
+	final float [] x = in.vectorData(), y = data;
+	double [] res = VectorBlocks.sum( elemCount, 2, new VectorBlocks.Sum() {
+	    void run( int s, int e, double [] acc ) {
+		double re=0, im=0;
+		for (int i=s;i<e;i++) {
+		    re += multReal( x[Rl(i)], -x[Ig(i)], y[Rl(i)], y[Ig(i)] );
+		    im += multImag( x[Rl(i)], -x[Ig(i)], y[Rl(i)], y[Ig(i)] );
+		}
+		acc[0] = re; acc[1] = im;
+	    }
+	});
+	return new org.fairsim.linalg.Cplx.Double( res[0], res[1] );
+    }
+
+    /** Return the squared distance | this - in |^2 */
+    public double distanceNorm2( Vec.Cplx in ) {
+	Vec.failSize( this, in );
+	this.readyBuffer();
+
+	final float [] x = in.vectorData();
+	return VectorBlocks.sum( elemCount, 1, new VectorBlocks.Sum() {
+	    void run( int s, int e, double [] acc ) {
+		double ret=0;
+		for (int i=2*s;i<2*e;i++) {
+		    float d = data[i] - x[i];
+		    ret += d*d;
+		}
+		acc[0] = ret;
+	    }
+	})[0];
+    }
+
 
     /** Return the sum of all vector elements */
     public org.fairsim.linalg.Cplx.Double sumElements( ) {
-	double re=0,im=0;
 	this.readyBuffer();
 
-	for (int i=0;i<elemCount; i++) {
-	    re += data[2*i+0];	
-	    im += data[2*i+1];	
-	}
-	return new org.fairsim.linalg.Cplx.Double(re,im);
+	double [] res = VectorBlocks.sum( elemCount, 2, new VectorBlocks.Sum() {
+	    void run( int s, int e, double [] acc ) {
+		double re=0,im=0;
+		for (int i=s;i<e; i++) {
+		    re += data[2*i+0];	
+		    im += data[2*i+1];	
+		}
+		acc[0] = re; acc[1] = im;
+	    }
+	});
+	return new org.fairsim.linalg.Cplx.Double(res[0],res[1]);
     }
     
     /** Compute this += x^2 */
@@ -334,9 +447,13 @@ public abstract class AbstractVectorCplx implements Vec.Cplx {
 	Vec.failSize( xIn, this);
 	this.readyBuffer();
 
-	float [] x = xIn.vectorData(), y = data;
-	for (int i=0;i<elemCount;i++) 
-	    y[Rl(i)] += x[Rl(i)]*x[Rl(i)]+x[Ig(i)]*x[Ig(i)] ;
+	final float [] x = xIn.vectorData(), y = data;
+	VectorBlocks.forEach( elemCount, new VectorBlocks.Range() {
+	    void run( int s, int e ) {
+		for (int i=s;i<e;i++) 
+		    y[Rl(i)] += x[Rl(i)]*x[Rl(i)]+x[Ig(i)]*x[Ig(i)] ;
+	    }
+	});
 
 	this.syncBuffer();
     }
@@ -18,8 +18,6 @@ along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
 
 package org.fairsim.linalg;
 
-import java.util.Arrays;    // for the median sort function
-
 /** Default implementation of {@link Vec.Real}, 
  *  backed by a float [].
  *  By implementing readyBuffer, syncBuffer, performance-critial
@@ -150,40 +148,56 @@ public abstract class AbstractVectorReal implements  Vec.Real {
 	this.readyBuffer();
 	
 	for (int i=0;i<in.length;i++) {
-	    float [] id = in[i].vectorData();
-	    for (int j=0;j<elemCount;j++)
-		data[j] += id[j];
+	    final float [] id = in[i].vectorData();
+	    VectorBlocks.forEach( elemCount, new VectorBlocks.Range() {
+		void run( int s, int e ) {
+		    for (int j=s;j<e;j++)
+			data[j] += id[j];
+		}
+	    });
 	}
 	this.syncBuffer();
     }
     
     /** Computes this += a * x */
     @Override
-    public void axpy( float a , Vec.Real x ) {
+    public void axpy( final float a , Vec.Real x ) {
 	Vec.failSize(this, x);
 	this.readyBuffer();
-	float [] id = x.vectorData();
+	final float [] id = x.vectorData();
 	
-	for (int j=0;j<elemCount;j++)
-	    data[j] += a * id[j];
+	VectorBlocks.forEach( elemCount, new VectorBlocks.Range() {
+	    void run( int s, int e ) {
+		for (int j=s;j<e;j++)
+		    data[j] += a * id[j];
+	    }
+	});
 	this.syncBuffer();
     }
 
     /** Add a constant to each element, ie this[i] += a */
     @Override
-    public void addConst( float a ) {
+    public void addConst( final float a ) {
 	this.readyBuffer();
-	for (int j=0;j<elemCount;j++)
-	    data[j] += a;
+	VectorBlocks.forEach( elemCount, new VectorBlocks.Range() {
+	    void run( int s, int e ) {
+		for (int j=s;j<e;j++)
+		    data[j] += a;
+	    }
+	});
 	this.syncBuffer();
     }
     
     /** Multiply by scalar, ie this *= a */
     @Override
-    public void scal( float a ) {
+    public void scal( final float a ) {
 	this.readyBuffer();
-	for (int j=0;j<elemCount;j++)
-	    data[j] *= a;
+	VectorBlocks.forEach( elemCount, new VectorBlocks.Range() {
+	    void run( int s, int e ) {
+		for (int j=s;j<e;j++)
+		    data[j] *= a;
+	    }
+	});
 	this.syncBuffer();
     }
 
@@ -192,21 +206,29 @@ public abstract class AbstractVectorReal implements  Vec.Real {
     public double dot(Vec.Real x) {
 	Vec.failSize( this, x);
 	this.readyBuffer();
-	float [] id = x.vectorData();
-	double ret=0;
-	for (int i=0;i<elemCount;i++) 
-	    ret+= id[i] * data[i];
-	return ret;
+	final float [] id = x.vectorData();
+	return VectorBlocks.sum( elemCount, 1, new VectorBlocks.Sum() {
+	    void run( int s, int e, double [] acc ) {
+		double ret=0;
+		for (int i=s;i<e;i++) 
+		    ret+= id[i] * data[i];
+		acc[0] = ret;
+	    }
+	})[0];
     }
 
     /** Return the squared norm <this, this> */
     @Override
     public double norm2() {
-	double ret=0;
 	this.readyBuffer();
-	for (int i=0;i<elemCount;i++) 
-	    ret+= data[i] * data[i];
-	return ret;
+	return VectorBlocks.sum( elemCount, 1, new VectorBlocks.Sum() {
+	    void run( int s, int e, double [] acc ) {
+		double ret=0;
+		for (int i=s;i<e;i++) 
+		    ret+= data[i] * data[i];
+		acc[0] = ret;
+	    }
+	})[0];
     }
     
     /** Compute the elemnt-wise multiplication this = this.*x */
@@ -214,21 +236,29 @@ public abstract class AbstractVectorReal implements  Vec.Real {
     public void times(Vec.Real x) {
 	Vec.failSize(this, x);
 	this.readyBuffer();
-	float [] id = x.vectorData();
-	for (int i=0;i<elemCount;i++) 
-	    data[i] = data[i] * id[i];
+	final float [] id = x.vectorData();
+	VectorBlocks.forEach( elemCount, new VectorBlocks.Range() {
+	    void run( int s, int e ) {
+		for (int i=s;i<e;i++) 
+		    data[i] = data[i] * id[i];
+	    }
+	});
 	this.syncBuffer();
     }
 
     /** Return the sum of all vector elements */
     @Override
     public double sumElements() {
-	double ret=0;
 	this.readyBuffer();
-	for (int i=0;i<elemCount; i++) {
-	    ret += data[i];	
-	}
-	return ret;
+	return VectorBlocks.sum( elemCount, 1, new VectorBlocks.Sum() {
+	    void run( int s, int e, double [] acc ) {
+		double ret=0;
+		for (int i=s;i<e; i++) {
+		    ret += data[i];	
+		}
+		acc[0] = ret;
+	    }
+	})[0];
     }
     
     /** Normalize the vector to 0..1 */
@@ -267,8 +297,12 @@ public abstract class AbstractVectorReal implements  Vec.Real {
     @Override
     public void reciproc() {
 	this.readyBuffer();
-	for (int i=0; i<elemCount; i++)
-	    data[i] = 1.f/data[i];
+	VectorBlocks.forEach( elemCount, new VectorBlocks.Range() {
+	    void run( int s, int e ) {
+		for (int i=s; i<e; i++)
+		    data[i] = 1.f/data[i];
+	    }
+	});
 	this.syncBuffer();
     }
 
@@ -279,9 +313,13 @@ public abstract class AbstractVectorReal implements  Vec.Real {
 	Vec.failSize(this, xIn);
 	
 	this.readyBuffer();
-	float [] x = xIn.vectorData(), y = data;
-	for (int i=0;i<elemCount;i++) 
-	    y[i] += x[i]*x[i] ; 
+	final float [] x = xIn.vectorData(), y = data;
+	VectorBlocks.forEach( elemCount, new VectorBlocks.Range() {
+	    void run( int s, int e ) {
+		for (int i=s;i<e;i++) 
+		    y[i] += x[i]*x[i] ; 
+	    }
+	});
 	
 	this.syncBuffer();
     }
@@ -297,20 +335,11 @@ public abstract class AbstractVectorReal implements  Vec.Real {
     }
 
 
-    /** Compute the median.
-     *  TODO: this is not actually a very effective implementation, see QuickSelect */
+    /** Compute the median, see {@link VectorStatistics#median}. Allocates
+     *  a copy of the vector on each call, callers computing many medians
+     *  should keep a {@link VectorStatistics} instance instead. */
     public double median() {
-
-	float [] dataCopy = new float[elemCount];
-
-	System.arraycopy(data,0,dataCopy,0,data.length);
-	Arrays.sort( dataCopy );
-
-	if ( elemCount % 2 == 0 ) {
-	    return (dataCopy[elemCount/2-1] + dataCopy[elemCount/2]);
-	} else {
-	    return dataCopy[elemCount/2];
-	}
+	return new VectorStatistics().median( this );
     }
 
 
@@ -362,41 +391,9 @@ public abstract class AbstractVectorReal implements  Vec.Real {
     }
 
 
+    /** Indices of the n largest elements, see {@link VectorStatistics#largestIdx} */
     public int[] nLargestIdx(final int n) {
-	this.readyBuffer();
-	// TODO: add an exception should n>vectorSize;
-
-
-	double vals [] = new double[n];
-	int idx [] = new int[n];
-
-	for (int i=0; i<n; i++) {
-	    vals[i] = Double.MIN_VALUE;
-	    idx[i] = -1;
-	}
-
-
-	for ( int j=0;j<data.length; j++ ) {
-	
-	    final float v = data[j];
-
-	    int pos = -1;
-	    for ( int i=n-1;i>=0; i--) {
-		if (v>vals[i]) pos = i;
-	    }
-
-	    if (pos<n&&pos>=0) {
-		for (int i=n-1; i>pos;i--) {
-		    vals[i] = vals[i-1];
-		    idx[i]  = idx[i-1];
-		}
-		vals[pos]=v;
-		idx[pos] =j;
-	    }
-
-	}
-
-	return idx;
+	return VectorStatistics.largestIdx( this, n );
     }
 
 
@@ -18,7 +18,6 @@ along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
 
 package org.fairsim.linalg;
 
-import org.fairsim.utils.SimpleMT;
 import org.fairsim.utils.Tool;
 
 /** Basic, pure java implementation of the Vector interfaces
@@ -159,6 +158,15 @@ class BasicVector implements VectorFactory {
 	    data[ x + y*width ] = a;
 	}
 
+	@Override
+	public void getRow(int y, float [] row) {
+	    System.arraycopy( data, y*width, row, 0, width );
+	}
+	@Override
+	public void setRow(int y, float [] row) {
+	    System.arraycopy( row, 0, data, y*width, width );
+	}
+
 	@Override
 	public void project(Vec3d.Real inV, int start, int end) {
 	    
@@ -243,6 +251,28 @@ class BasicVector implements VectorFactory {
 	    data[ (x + y*width)*2+0 ] = (float)a.re;
 	    data[ (x + y*width)*2+1 ] = (float)a.im;
 	}
+	@Override
+	public float getRe(int x, int y) {
+	    return data[ (x + y*width)*2+0 ];
+	}
+	@Override
+	public float getIm(int x, int y) {
+	    return data[ (x + y*width)*2+1 ];
+	}
+	@Override
+	public void setReIm(int x, int y, float re, float im) {
+	    data[ (x + y*width)*2+0 ] = re;
+	    data[ (x + y*width)*2+1 ] = im;
+	}
+
+	@Override
+	public void getRow(int y, float [] row) {
+	    System.arraycopy( data, 2*y*width, row, 0, 2*width );
+	}
+	@Override
+	public void setRow(int y, float [] row) {
+	    System.arraycopy( row, 0, data, 2*y*width, 2*width );
+	}
 	
 	@Override
 	public void paste(Vec2d.Cplx in, int x, int y, boolean zero) {
@@ -307,35 +337,7 @@ class BasicVector implements VectorFactory {
     	
 	@Override
 	public void fourierShift( final double kx, final double ky ) {
-
-	    final boolean fast = true; // TODO: make this user-settable??
-	    
-	    final float [] val = vectorData();
-	    final int N = Vec2d.checkSquare( this );
-
-	    // run outer loop in parallel
-	    new SimpleMT.PFor(0,N) {
-		public void at(int y) {
-		    for (int x=0; x<N; x++) {
-			float phaVal = (float)(2*Math.PI*(kx*x+ky*y)/N);
-			float si,co;
-			if (fast) {
-			    co = (float)MTool.fcos( phaVal );
-			    si = (float)MTool.fsin( phaVal );
-			} else {
-			    co = (float)Math.cos( phaVal );
-			    si = (float)Math.sin( phaVal );
-			}
-			// get
-			float re = val[ (y*N+x)*2+0 ] ;
-			float im = val[ (y*N+x)*2+1 ] ;
-			// set
-			val[ (y*N+x)*2+0 ] = Cplx.multReal( re, im, co, si );
-			val[ (y*N+x)*2+1 ] = Cplx.multImag( re, im, co, si );
-		    }
-		}
-	    };
-	
+	    FourierShift.shift( this, kx, ky );
 	}
     
 	@Override
@@ -472,6 +474,19 @@ class BasicVector implements VectorFactory {
 	    data[ (x + y*width + z*width*height)*2+0 ] = (float)a.re;
 	    data[ (x + y*width + z*width*height)*2+1 ] = (float)a.im;
 	}
+	@Override
+	public float getRe(int x, int y, int z) {
+	    return data[ (x + y*width + z*width*height)*2+0 ];
+	}
+	@Override
+	public float getIm(int x, int y, int z) {
+	    return data[ (x + y*width + z*width*height)*2+1 ];
+	}
+	@Override
+	public void setReIm(int x, int y, int z, float re, float im) {
+	    data[ (x + y*width + z*width*height)*2+0 ] = re;
+	    data[ (x + y*width + z*width*height)*2+1 ] = im;
+	}
 	
 	@Override
 	public void fft3d(boolean inverse) {
@@ -549,38 +564,7 @@ class BasicVector implements VectorFactory {
 	@Override
 	public void fourierShift(
 	    final double kx, final double ky, final double kz ) {
-	   
-	    final boolean fast = true; //TODO: user-settable??, see above
-	    final float [] val = vectorData();
-	    final int w = vectorWidth();
-	    final int h = vectorHeight();
-	    final int d = vectorDepth();
-
-	    // run outer loop in parallel
-	    new SimpleMT.PFor(0,d) {
-		public void at(int z) {
-		    for (int y=0; y<h; y++)
-		    for (int x=0; x<w; x++) {
-			float phaVal = (float)(2*Math.PI*(
-			    ((float)x*kx)/w+((float)y*ky)/h+((float)z*kz)/d));
-			float si,co;
-			if (fast) {
-			    co = (float)MTool.fcos( phaVal );
-			    si = (float)MTool.fsin( phaVal );
-			} else {
-			    co = (float)Math.cos( phaVal );
-			    si = (float)Math.sin( phaVal );
-			}
-			// get
-			float re = val[ (z*w*h+y*w+x)*2+0 ] ;
-			float im = val[ (z*w*h+y*w+x)*2+1 ] ;
-			// set
-			val[ (z*w*h+y*w+x)*2+0 ] = Cplx.multReal( re, im, co, si );
-			val[ (z*w*h+y*w+x)*2+1 ] = Cplx.multImag( re, im, co, si );
-		    }
-		}
-	    };
-	
+	    FourierShift.shift( this, kx, ky, kz );
 	}
 
 		
@@ -330,6 +330,14 @@ public class Cplx {
     static float multImag( float Xr, float Xi, float Yr, float Yi ) {
 	    return ((Xi * Yr ) + (Xr*Yi));
     }
+    /** Helper function, real part of complex mult */
+    static double multReal( double Xr, double Xi, double Yr, double Yi ) {
+	    return ((Xr * Yr ) - (Xi*Yi));
+    }
+    /** Helper function, imag part of complex mult */
+    static double multImag( double Xr, double Xi, double Yr, double Yi ) {
+	    return ((Xi * Yr ) + (Xr*Yi));
+    }
 
 
 
@@ -0,0 +1,206 @@
+/*
+This file is part of Free Analysis and Interactive Reconstruction
+for Structured Illumination Microscopy (fairSIM).
+
+fairSIM is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 2 of the License, or
+(at your option) any later version.
+
+fairSIM is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package org.fairsim.linalg;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Thread-safe cache of FFT instances (plans).
+ *  FFT implementations may keep scratch space in their instances,
+ *  so an instance is only ever used by one thread at a time: callers
+ *  {@link #borrow} an instance for a given size, run the transform
+ *  and hand it back through {@link #giveBack}, typically in a
+ *  finally block. Concurrent transforms of the same size each get
+ *  their own instance, idle instances are kept for reuse.
+ *  <p>
+ *  The number of sizes and the (estimated) memory held by idle
+ *  instances is bounded, the least recently used sizes are dropped
+ *  once the budget is exceeded.
+ *  */
+final class FftPlanCache<T> {
+
+    /** Creates new instances for a given key */
+    interface Factory<T> {
+	/** Create a new instance */
+	public T create( Transforms.FFTkey k );
+    }
+
+    /** Idle instances and usage info for one size */
+    private static class Entry<T> {
+	final ConcurrentLinkedQueue<T> idle = new ConcurrentLinkedQueue<T>();
+	final AtomicInteger idleCount = new AtomicInteger(0);
+	volatile long lastUsed;
+    }
+
+    private final Factory<T> factory;
+    private final ConcurrentHashMap<Transforms.FFTkey, Entry<T>> entries =
+	new ConcurrentHashMap<Transforms.FFTkey, Entry<T>>();
+
+    private volatile int  maxEntries;
+    private volatile long maxBytes;
+    private final int maxIdlePerKey;
+
+    private final AtomicLong pooledBytes = new AtomicLong(0);
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+    private final AtomicLong evictions = new AtomicLong(0);
+    private final AtomicLong creationNanos = new AtomicLong(0);
+
+    /** Create a cache.
+     *  @param f Factory to create new instances
+     *  @param maxEntries Maximum number of distinct sizes to keep
+     *  @param maxBytes Maximum (estimated) memory held by idle instances */
+    FftPlanCache( Factory<T> f, int maxEntries, long maxBytes ) {
+	factory = f;
+	this.maxEntries = maxEntries;
+	this.maxBytes = maxBytes;
+	maxIdlePerKey = Runtime.getRuntime().availableProcessors()+1;
+    }
+
+    /** Set the budget. Takes effect on the next eviction check. */
+    void setBudget( int maxEntries, long maxBytes ) {
+	this.maxEntries = maxEntries;
+	this.maxBytes = maxBytes;
+	evict();
+    }
+
+    /** Obtain an instance for 'k', creating a new one if none is idle.
+     *  Has to be handed back through {@link #giveBack}. */
+    T borrow( Transforms.FFTkey k ) {
+	Entry<T> e = entries.get( k );
+	if ( e == null ) {
+	    e = new Entry<T>();
+	    Entry<T> old = entries.putIfAbsent( k, e );
+	    if ( old != null )
+		e = old;
+	}
+	e.lastUsed = System.nanoTime();
+
+	T ret = e.idle.poll();
+	if ( ret != null ) {
+	    e.idleCount.decrementAndGet();
+	    pooledBytes.addAndGet( -k.planBytes() );
+	    hits.incrementAndGet();
+	    return ret;
+	}
+
+	misses.incrementAndGet();
+	long start = System.nanoTime();
+	ret = factory.create( k );
+	creationNanos.addAndGet( System.nanoTime() - start );
+	if ( ret == null )
+	    throw new RuntimeException("Unsupported dimensions");
+	return ret;
+    }
+
+    /** Hand back an instance obtained through {@link #borrow}. Does not
+     *  lock, so concurrent transforms do not serialize here; only
+     *  {@link #evict} locks, once over budget. Instances larger than
+     *  the whole budget are not kept, so they never push other sizes
+     *  out of the cache. */
+    void giveBack( Transforms.FFTkey k, T inst ) {
+	final long bytes = k.planBytes();
+	if ( bytes > maxBytes )
+	    return;
+	Entry<T> e = entries.get( k );
+	if ( e == null )
+	    return;
+	if ( e.idleCount.incrementAndGet() > maxIdlePerKey ) {
+	    e.idleCount.decrementAndGet();
+	    return;
+	}
+	e.idle.offer( inst );
+	final long total = pooledBytes.addAndGet( bytes );
+
+	// the entry may have been dropped meanwhile, its instances then
+	// no longer count (whoever polls one first accounts for it)
+	if ( entries.get( k ) != e ) {
+	    drain( k, e );
+	    return;
+	}
+	if ( total > maxBytes || entries.size() > maxEntries )
+	    evict();
+    }
+
+    /** Drop least recently used sizes until the budget is met */
+    synchronized void evict() {
+	while ( entries.size() > 0 &&
+	    ( entries.size() > maxEntries || pooledBytes.get() > maxBytes )) {
+
+	    Transforms.FFTkey lruKey = null;
+	    long lruTime = Long.MAX_VALUE;
+	    for ( Map.Entry<Transforms.FFTkey, Entry<T>> i : entries.entrySet() ) {
+		if ( i.getValue().lastUsed < lruTime ) {
+		    lruTime = i.getValue().lastUsed;
+		    lruKey  = i.getKey();
+		}
+	    }
+
+	    Entry<T> e = entries.remove( lruKey );
+	    if ( e == null )
+		continue;
+	    drain( lruKey, e );
+	    evictions.incrementAndGet();
+	}
+    }
+
+    /** Drop all cached instances */
+    synchronized void clear() {
+	for ( Transforms.FFTkey k : keys() ) {
+	    Entry<T> e = entries.remove( k );
+	    if ( e != null )
+		drain( k, e );
+	}
+    }
+
+    /** Remove the idle instances of a dropped entry from the byte count.
+     *  Instances a concurrent borrow or drain polls first are accounted
+     *  there. */
+    private void drain( Transforms.FFTkey k, Entry<T> e ) {
+	while ( e.idle.poll() != null ) {
+	    e.idleCount.decrementAndGet();
+	    pooledBytes.addAndGet( -k.planBytes() );
+	}
+    }
+
+    /** Sizes currently cached */
+    java.util.Set<Transforms.FFTkey> keys() {
+	return new java.util.HashSet<Transforms.FFTkey>( entries.keySet() );
+    }
+
+    long getHits() { return hits.get(); }
+    long getMisses() { return misses.get(); }
+    long getEvictions() { return evictions.get(); }
+    long getPooledBytes() { return pooledBytes.get(); }
+
+    /** Total time spent creating new instances, in nanoseconds */
+    long getCreationNanos() { return creationNanos.get(); }
+
+    @Override
+    public String toString() {
+	return String.format(
+	    "%d sizes, %d hits, %d misses, %d evicted, %7.2f ms creating, %7.2f MB idle",
+	    entries.size(), hits.get(), misses.get(), evictions.get(),
+	    creationNanos.get()/1e6, pooledBytes.get()/1024./1024. );
+    }
+
+}
@@ -18,7 +18,12 @@ along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
 
 package org.fairsim.linalg;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
 import org.fairsim.utils.Tool;
+import org.fairsim.utils.SimpleMT;
 
 /** Interface defining all the methods we need an FFT implementation to provide */
 public abstract class FftProvider {
@@ -29,18 +34,77 @@ public abstract class FftProvider {
 	public void fftTransform( float [] v, boolean inverse );
     }
 
+    /** Instances that can transform a batch of same-sized arrays in
+     *  one call (e.g. on an accelerator) may implement this. */
+    public static interface BatchInstance extends Instance {
+	/** run the fft on all arrays in 'v' */
+	public void fftTransform( float [][] v, boolean inverse );
+    }
+
+    /** Transform of real-valued input. The spectrum is stored as
+     *  Hermitian-packed half spectrum, holding (w/2+1) x h (x d)
+     *  complex elements, interleaved (re,im) and row-major. */
+    public static interface RealInstance {
+	/** run the forward fft of real-valued 'in' into half spectrum 'out' */
+	public void fftForward( float [] in, float [] out );
+	/** run the inverse fft of half spectrum 'in' into real-valued 'out'.
+	 *  The content of 'in' is overwritten. */
+	public void fftInverse( float [] in, float [] out );
+    }
+
     private static FftProvider defaultFftFactory = null;
+    private static boolean listensToPool = false;
+
+    /** Set once the implementations are found, cleared once the
+     *  stored wisdom is loaded (or an implementation is set explicitly) */
+    private static volatile boolean wisdomPending = false;
+    private static final Object wisdomLock = new Object();
+
+    /** All implementations that have been set, see {@link #getAvailableProviders} */
+    private static final List<FftProvider> available = new ArrayList<FftProvider>();
+
+    /** Passes changes of the SimpleMT thread pool on to the current implementation */
+    private static final SimpleMT.PoolListener poolListener = new SimpleMT.PoolListener() {
+	public void threadPoolChanged( ExecutorService pool, int nrThreads ) {
+	    FftProvider f = defaultFftFactory;
+	    if ( f != null )
+		f.useThreadPool( pool, nrThreads );
+	}
+    };
 
     public abstract Instance create1Dfft( int n );
     public abstract Instance create2Dfft( int x, int y );
     public abstract Instance create3Dfft( int x, int y, int z );
     public abstract String getImplementationName();
 
+    /** Real-to-complex 2D transform. Composed from this provider's
+     *  1D transforms, override to supply a dedicated implementation. */
+    public RealInstance createReal2Dfft( int x, int y ) {
+	return new RealFft( this, x, y, 1 );
+    }
+    
+    /** Real-to-complex 3D transform. Composed from this provider's
+     *  1D transforms, override to supply a dedicated implementation. */
+    public RealInstance createReal3Dfft( int x, int y, int z ) {
+	return new RealFft( this, x, y, z );
+    }
+
+    /** Called with the thread pool and number of threads used by
+     *  {@link SimpleMT}. Implementations running their own threads should
+     *  use the pool, or at least limit their thread count accordingly, so
+     *  FFTs and parallel loops do not oversubscribe the cores. */
+    protected void useThreadPool( ExecutorService pool, int nrThreads ) {
+    }
+
 
 
     // this code pokes classes to add them to the factory system
     static {
 	
+	// the pure-Java implementation is always there; it is set first,
+	// so a JTransforms connector found below becomes the default
+	new StockhamFft();
+
 	// poke an instance of the connector to original JTransforms
 	try  {
 	    Class.forName("org.fairsim.linalg.JTransformsConnector").newInstance();
@@ -66,39 +130,107 @@ public abstract class FftProvider {
 	// see if any of those have succeeded in setting an FFT factory
 	if (isFftFactorySet()==false) {
 	    Tool.error("No FFT implementation available!",true);
+	} else {
+	    // the choices of an earlier tuning run, if stored, are loaded
+	    // on first use, so a broken file cannot fail class initialization
+	    wisdomPending = true;
+	}
+    }
+
+    /** Load the stored wisdom, once. Failures are only traced. */
+    private static void loadWisdom() {
+	synchronized ( wisdomLock ) {
+	    if ( !wisdomPending )
+		return;
+	    wisdomPending = false;
+	    try {
+		FftWisdom.loadDefault();
+	    } catch ( Exception e ) {
+		Tool.trace("FFT wisdom: could not load: "+e);
+	    } catch ( LinkageError e ) {
+		Tool.trace("FFT wisdom: could not load: "+e);
+	    }
 	}
     }
 
 
     public static void setFftFactory( FftProvider ft ) {
+	synchronized ( available ) {
+	    if ( !( ft instanceof FftWisdom.Tuned ) && !available.contains( ft ))
+		available.add( ft );
+	}
+	// an explicit choice replaces the stored wisdom
+	if ( !( ft instanceof FftWisdom.Tuned ))
+	    wisdomPending = false;
 	defaultFftFactory = ft;
 	Tool.trace("FFT implementation set to: "+ft.getImplementationName());
+	if (!listensToPool) {
+	    listensToPool = true;
+	    SimpleMT.addPoolListener( poolListener );
+	} else {
+	    ft.useThreadPool( SimpleMT.getThreadPool(), SimpleMT.getNrThreads() );
+	}
     }
 
     public static boolean isFftFactorySet() {
 	return defaultFftFactory != null;
     }
 
+    /** The implementation currently in use. The first call loads
+     *  the stored {@link FftWisdom}, if any. */
+    public static FftProvider getFftFactory() {
+	if ( wisdomPending )
+	    loadWisdom();
+	return defaultFftFactory;
+    }
+
+    /** All implementations that have been set as FFT factory
+     *  (in order), i.e. the candidates for {@link FftWisdom} */
+    public static List<FftProvider> getAvailableProviders() {
+	synchronized ( available ) {
+	    return new ArrayList<FftProvider>( available );
+	}
+    }
+
 
     final static Instance get1Dfft( int n ) {
-	if ( defaultFftFactory == null ) {
+	FftProvider f = getFftFactory();
+	if ( f == null ) {
 	    throw new RuntimeException("No FFT implementation available!");
 	}
-	return defaultFftFactory.create1Dfft( n );
+	return f.create1Dfft( n );
     }
 
     final static Instance get2Dfft( int x, int y ) {
-	if ( defaultFftFactory == null ) {
+	FftProvider f = getFftFactory();
+	if ( f == null ) {
 	    throw new RuntimeException("No FFT implementation available!");
 	}
-	return defaultFftFactory.create2Dfft( x,y );
+	return f.create2Dfft( x,y );
     }
 
     final static Instance get3Dfft( int x, int y, int z ) {
-	if ( defaultFftFactory == null ) {
+	FftProvider f = getFftFactory();
+	if ( f == null ) {
+	    throw new RuntimeException("No FFT implementation available!");
+	}
+	return f.create3Dfft( x,y,z );
+    }
+
+    final static RealInstance getReal2Dfft( int x, int y ) {
+	FftProvider f = getFftFactory();
+	if ( f == null ) {
+	    throw new RuntimeException("No FFT implementation available!");
+	}
+	return f.createReal2Dfft( x,y );
+    }
+
+    final static RealInstance getReal3Dfft( int x, int y, int z ) {
+	FftProvider f = getFftFactory();
+	if ( f == null ) {
 	    throw new RuntimeException("No FFT implementation available!");
 	}
-	return defaultFftFactory.create3Dfft( x,y,z );
+	return f.createReal3Dfft( x,y,z );
     }
 
 
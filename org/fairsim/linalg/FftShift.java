@@ -0,0 +1,140 @@
+/*
+This file is part of Free Analysis and Interactive Reconstruction
+for Structured Illumination Microscopy (fairSIM).
+
+fairSIM is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 2 of the License, or
+(at your option) any later version.
+
+fairSIM is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package org.fairsim.linalg;
+
+import org.fairsim.utils.SimpleMT;
+
+/** Circular shifts (fftshift / ifftshift) of w x h x d arrays,
+ *  with 'el' floats per element (1 for real, 2 for complex).
+ *  <p>
+ *  Along x, each row is rotated through a temporary row. Along y and
+ *  z, whole rows / planes are moved with System.arraycopy, following
+ *  the cycles of the permutation, so only one row / plane per cycle
+ *  is buffered, in a buffer kept per thread. All sizes, including odd
+ *  ones, are supported.
+ *  */
+final class FftShift {
+
+    private FftShift() {}
+
+    private static final ThreadLocal<float []> buffer = new ThreadLocal<float []>() {
+	@Override
+	protected float [] initialValue() {
+	    return new float[0];
+	}
+    };
+
+    /** Buffer of the current thread, at least 'len' long */
+    static float [] buffer( int len ) {
+	float [] b = buffer.get();
+	if ( b.length < len ) {
+	    b = new float[ len ];
+	    buffer.set( b );
+	}
+	return b;
+    }
+
+    /** Shift in place, so that element (x,y,z) moves to
+     *  (x+sx, y+sy, z+sz), wrapping around at the borders. */
+    static void shift( float [] v, int w, int h, int d, int el,
+	int sx, int sy, int sz ) {
+	rotateRows( v, h*d, w*el, mod( sx, w )*el );
+	rotateBlocks( v, d, h, w*el, mod( sy, h ) );
+	rotateBlocks( v, 1, d, w*h*el, mod( sz, d ) );
+    }
+
+    /** Shift 'in' into 'out', out-of-place, see {@link #shift}.
+     *  Shifts in place if 'in' and 'out' are the same array. */
+    static void shift( final float [] in, final float [] out,
+	final int w, final int h, final int d, final int el,
+	int sx, int sy, int sz ) {
+
+	if ( in == out ) {
+	    shift( out, w, h, d, el, sx, sy, sz );
+	    return;
+	}
+
+	final int rl = w*el;
+	final int ox = mod( sx, w )*el, oy = mod( sy, h ), oz = mod( sz, d );
+
+	new SimpleMT.PFor( 0, h*d ) {
+	    public void at( int r ) {
+		final int y = r%h, z = r/h;
+		final int src = ( z*h + y )*rl;
+		final int dst = ( ((z+oz)%d)*h + (y+oy)%h )*rl;
+		System.arraycopy( in, src, out, dst+ox, rl-ox );
+		System.arraycopy( in, src+rl-ox, out, dst, ox );
+	    }
+	};
+    }
+
+    /** Rotate each of 'n' rows (of 'rl' floats) by 's' floats */
+    static void rotateRows( final float [] v, final int n, final int rl, final int s ) {
+	if ( s == 0 ) return;
+	new SimpleMT.PFor( 0, n ) {
+	    public void at( int r ) {
+		final float [] tmp = buffer( s );
+		final int off = r*rl;
+		System.arraycopy( v, off+rl-s, tmp, 0, s );
+		System.arraycopy( v, off, v, off+s, rl-s );
+		System.arraycopy( tmp, 0, v, off, s );
+	    }
+	};
+    }
+
+    /** View 'v' as [outer][n][bl] floats and rotate
+     *  each of the 'outer' groups by 's' blocks */
+    static void rotateBlocks( final float [] v, final int outer,
+	final int n, final int bl, final int s ) {
+	if ( s == 0 ) return;
+	final int cycles = gcd( n, s );
+
+	new SimpleMT.StrPFor( 0, outer*cycles ) {
+	    public void at( int job ) {
+		final int off = (job/cycles)*n*bl;
+		final int start = job%cycles;
+		final float [] tmp = buffer( bl );
+
+		// block 'start' is overwritten first, keep it
+		System.arraycopy( v, off+start*bl, tmp, 0, bl );
+		int i = start;
+		while ( true ) {
+		    final int src = ( i - s + n ) % n;
+		    if ( src == start )
+			break;
+		    System.arraycopy( v, off+src*bl, v, off+i*bl, bl );
+		    i = src;
+		}
+		System.arraycopy( tmp, 0, v, off+i*bl, bl );
+	    }
+	};
+    }
+
+    static int mod( int a, int n ) {
+	return ((a%n)+n)%n;
+    }
+
+    static int gcd( int a, int b ) {
+	while ( b != 0 ) {
+	    int t = a%b; a = b; b = t;
+	}
+	return a;
+    }
+
+}
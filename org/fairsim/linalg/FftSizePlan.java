@@ -0,0 +1,219 @@
+/*
+This file is part of Free Analysis and Interactive Reconstruction
+for Structured Illumination Microscopy (fairSIM).
+
+fairSIM is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 2 of the License, or
+(at your option) any later version.
+
+fairSIM is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package org.fairsim.linalg;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/** Chooses FFT-friendly image dimensions for padding.
+ *  <p>
+ *  Images are zero-padded to the size with the lowest FFT cost
+ *  among those not smaller than the input, considering both the
+ *  input grid and the grid upsampled by an integer factor (the SIM
+ *  reconstruction works at twice the input size). Candidates are even
+ *  and have only the prime factors 2, 3 and 5, for which FFT
+ *  libraries run their fast kernels. Cost is either modelled from the
+ *  factorization ({@link #MODELLED}) or measured with the current
+ *  FFT implementation ({@link #measured}).
+ *  */
+public final class FftSizePlan {
+
+    /** Size of the input image */
+    public final int inWidth, inHeight;
+    /** Size of the padded grid */
+    public final int width, height;
+    /** Upsampling factor the plan was optimized for */
+    public final int upsample;
+    /** Cost (model units) of one FFT on the padded and the upsampled grid */
+    public final double cost;
+
+    private FftSizePlan( int iw, int ih, int w, int h, int up, double c ) {
+	inWidth = iw; inHeight = ih;
+	width = w; height = h;
+	upsample = up; cost = c;
+    }
+
+    /** Cost of a 1D complex FFT of length n */
+    public interface CostModel {
+	public double cost( int n );
+    }
+
+    /** Cost from the prime factorization: each radix-2 pass counts 1,
+     *  radix-3 and radix-5 passes count more per element, other primes
+     *  go through a (~3x larger) Bluestein transform. */
+    public static final CostModel MODELLED = new CostModel() {
+	public double cost( int n ) {
+	    double stages = 0;
+	    int m = n;
+	    while ( m%2 == 0 ) { m/=2; stages += 1.0; }
+	    while ( m%3 == 0 ) { m/=3; stages += 1.9; }
+	    while ( m%5 == 0 ) { m/=5; stages += 2.9; }
+	    if ( m == 1 )
+		return n * Math.max( stages, 1 );
+	    int p2 = 1;
+	    while ( p2 < 2*n-1 ) p2*=2;
+	    return 3 * cost( p2 );
+	}
+    };
+
+    private static final Map<Integer, Double> measuredCost = new HashMap<Integer, Double>();
+
+    /** Cost measured with the current FFT implementation. Timings are
+     *  cached for the session, so each length is only measured once.
+     *  Falls back to {@link #MODELLED} if no FFT is available. */
+    public static CostModel measured() {
+	if ( !FftProvider.isFftFactorySet() )
+	    return MODELLED;
+	return new CostModel() {
+	    public double cost( int n ) {
+		synchronized ( measuredCost ) {
+		    Double c = measuredCost.get( n );
+		    if ( c == null ) {
+			c = FftWisdom.measure( FftProvider.getFftFactory(),
+			    new Transforms.FFTkey( n ), false, 20L*1000*1000 );
+			measuredCost.put( n, c );
+		    }
+		    return c;
+		}
+	    }
+	};
+    }
+
+    /** Property to plan image padding with measured instead of
+     *  modelled cost, see {@link #getDefault} */
+    public static final String MEASURE_PROPERTY = "fairsim.fftplan.measure";
+
+    /** Cost model for padding imported images. {@link #MODELLED} by
+     *  default, so the padded size is reproducible; {@link #measured}
+     *  only if the system property {@link #MEASURE_PROPERTY} is 'true',
+     *  as timings vary from run to run. */
+    public static CostModel getDefault() {
+	if ( Boolean.getBoolean( MEASURE_PROPERTY ))
+	    return measured();
+	return MODELLED;
+    }
+
+    /** True if n only has the prime factors 2, 3 and 5 */
+    public static boolean isFriendly( int n ) {
+	if ( n < 1 ) return false;
+	while ( n%2 == 0 ) n/=2;
+	while ( n%3 == 0 ) n/=3;
+	while ( n%5 == 0 ) n/=5;
+	return n == 1;
+    }
+
+    /** Smallest even FFT-friendly number not below n */
+    public static int nextFriendly( int n ) {
+	int i = Math.max( 2, n + n%2 );
+	while ( !isFriendly( i ))
+	    i+=2;
+	return i;
+    }
+
+    /** Cost of a 2D FFT of size w x h (row and column passes) */
+    static double cost2d( CostModel m, int w, int h ) {
+	return h * m.cost( w ) + w * m.cost( h );
+    }
+
+    /** Cost of the plan candidate: the padded and the upsampled grid */
+    static double planCost( CostModel m, int w, int h, int up ) {
+	double c = cost2d( m, w, h );
+	if ( up > 1 )
+	    c += cost2d( m, up*w, up*h );
+	return c;
+    }
+
+    /** Find the cheapest padded size for a w x h input.
+     *  @param square Force width == height
+     *  @param up Upsampling factor also optimized for, 1 for none
+     *  @param m Cost model, e.g. {@link #MODELLED} */
+    public static FftSizePlan plan( int w, int h, boolean square, int up, CostModel m ) {
+	if ( w < 1 || h < 1 || up < 1 )
+	    throw new RuntimeException("Invalid size for FFT plan");
+
+	int [] cx = candidates( square ? Math.max( w, h ) : w );
+	int [] cy = square ? cx : candidates( h );
+
+	int bw = -1, bh = -1;
+	double best = Double.MAX_VALUE;
+	for ( int x : cx ) {
+	    if ( square ) {
+		double c = planCost( m, x, x, up );
+		if ( c < best ) { best = c; bw = x; bh = x; }
+		continue;
+	    }
+	    for ( int y : cy ) {
+		double c = planCost( m, x, y, up );
+		if ( c < best ) { best = c; bw = x; bh = y; }
+	    }
+	}
+	return new FftSizePlan( w, h, bw, bh, up, best );
+    }
+
+    /** Even FFT-friendly sizes from n up to the next power of two */
+    static int [] candidates( int n ) {
+	int p2 = 2;
+	while ( p2 < n ) p2*=2;
+	int cnt = 0;
+	for ( int i = nextFriendly( n ); i <= p2; i = nextFriendly( i+1 ))
+	    cnt++;
+	int [] ret = new int[ cnt ];
+	cnt = 0;
+	for ( int i = nextFriendly( n ); i <= p2; i = nextFriendly( i+1 ))
+	    ret[ cnt++ ] = i;
+	return ret;
+    }
+
+    /** True if the input has to be padded */
+    public boolean needsPadding() {
+	return width != inWidth || height != inHeight;
+    }
+
+    /** Zero-pad an input image to the planned size. Returns 'in'
+     *  itself if no padding is needed. */
+    public Vec2d.Real pad( Vec2d.Real in ) {
+	if ( in.vectorWidth() != inWidth || in.vectorHeight() != inHeight )
+	    throw new RuntimeException("Image size does not match plan");
+	if ( !needsPadding() )
+	    return in;
+	Vec2d.Real ret = Vec2d.createReal( width, height );
+	ret.paste( in, 0, 0, false );
+	return ret;
+    }
+
+    /** Crop a result on the padded (factor 1) or upsampled grid
+     *  back to the input's field of view. Returns 'in' itself if no
+     *  padding was done. */
+    public Vec2d.Real crop( Vec2d.Real in, int factor ) {
+	if ( in.vectorWidth() != factor*width || in.vectorHeight() != factor*height )
+	    throw new RuntimeException("Image size does not match plan");
+	if ( !needsPadding() )
+	    return in;
+	Vec2d.Real ret = Vec2d.createReal( factor*inWidth, factor*inHeight );
+	Vec2d.paste( in, ret, 0, 0, factor*inWidth, factor*inHeight, 0, 0, false );
+	return ret;
+    }
+
+    @Override
+    public String toString() {
+	return inWidth+"x"+inHeight+" -> "+width+"x"+height
+	    +( upsample > 1 ? " (x"+upsample+": "+upsample*width+"x"+upsample*height+")" : "" );
+    }
+
+}
@@ -0,0 +1,465 @@
+/*
+This file is part of Free Analysis and Interactive Reconstruction
+for Structured Illumination Microscopy (fairSIM).
+
+fairSIM is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 2 of the License, or
+(at your option) any later version.
+
+fairSIM is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package org.fairsim.linalg;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+
+import org.fairsim.utils.SimpleMT;
+import org.fairsim.utils.Tool;
+
+/** Auto-tuning of the FFT implementation ("wisdom").
+ *  <p>
+ *  Every available {@link FftProvider} is timed, for each FFT size
+ *  and with both single-threaded and fully threaded FFTs, and
+ *  the fastest provider is chosen per size. As the thread count is a
+ *  setting of the whole provider (e.g. JTransforms' global thread
+ *  count), it is chosen per provider, the one giving the lowest total
+ *  time over all tuned sizes. {@link #install} makes these choices the
+ *  active FFT implementation, sizes not tuned use the provider active
+ *  before.
+ *  <p>
+ *  The choices can be stored in a small properties file. On startup,
+ *  the file at {@link #getDefaultFile} (if present, and recorded on a
+ *  machine with the same number of cores) is loaded and installed, so
+ *  later sessions do not re-measure. Set the system property
+ *  'fairsim.fftwisdom' to a different file, or to 'none' to disable.
+ *  Run this class to tune sizes from the command line.
+ *  */
+public class FftWisdom {
+
+    /** Property holding the wisdom file location */
+    public static final String FILE_PROPERTY = "fairsim.fftwisdom";
+
+    private final Map<Transforms.FFTkey, String> cplx =
+	new TreeMap<Transforms.FFTkey, String>();
+    private final Map<Transforms.FFTkey, String> real =
+	new TreeMap<Transforms.FFTkey, String>();
+    private final Map<String, Integer> threads = new HashMap<String, Integer>();
+
+    private long budgetNs = 200L*1000*1000;
+
+    /** Empty wisdom, see {@link #tuneComplex}, {@link #tuneReal}, {@link #load} */
+    public FftWisdom() {}
+
+    /** Time spent measuring each provider and thread setting, per size
+     *  (default 200 ms) */
+    public FftWisdom setMeasureTime( double ms ) {
+	budgetNs = (long)( ms * 1e6 );
+	return this;
+    }
+
+    /** Number of sizes with a stored choice */
+    public int size() {
+	return cplx.size() + real.size();
+    }
+
+    // ------ tuning ------
+
+    /** Tune complex-valued transforms of the given sizes, each
+     *  given as {x}, {x,y} or {x,y,z} */
+    public FftWisdom tuneComplex( int [] ... sizes ) {
+	List<Transforms.FFTkey> k = new ArrayList<Transforms.FFTkey>();
+	for ( int [] s : sizes )
+	    k.add( key( s ));
+	tune( k, new ArrayList<Transforms.FFTkey>() );
+	return this;
+    }
+
+    /** Tune real-valued transforms of the given sizes, each
+     *  given as {x,y} or {x,y,z} */
+    public FftWisdom tuneReal( int [] ... sizes ) {
+	List<Transforms.FFTkey> k = new ArrayList<Transforms.FFTkey>();
+	for ( int [] s : sizes ) {
+	    if ( s.length < 2 )
+		throw new RuntimeException("Real-valued FFTs need 2 or 3 dimensions");
+	    k.add( key( s ));
+	}
+	tune( new ArrayList<Transforms.FFTkey>(), k );
+	return this;
+    }
+
+    /** Tune all sizes currently held in the FFT plan caches,
+     *  i.e. the sizes used so far in this session */
+    public FftWisdom tuneCachedSizes() {
+	tune( new ArrayList<Transforms.FFTkey>( Transforms.getCachedSizes( false )),
+	      new ArrayList<Transforms.FFTkey>( Transforms.getCachedSizes( true )));
+	return this;
+    }
+
+    static Transforms.FFTkey key( int [] s ) {
+	if ( s.length == 1 ) return new Transforms.FFTkey( s[0] );
+	if ( s.length == 2 ) return new Transforms.FFTkey( s[0], s[1] );
+	if ( s.length == 3 ) return new Transforms.FFTkey( s[0], s[1], s[2] );
+	throw new RuntimeException("FFT sizes have 1 to 3 dimensions");
+    }
+
+    /** Measure all providers and thread settings, store the fastest */
+    void tune( List<Transforms.FFTkey> c, List<Transforms.FFTkey> r ) {
+
+	if ( c.isEmpty() && r.isEmpty() ) return;
+
+	final List<FftProvider> prov = FftProvider.getAvailableProviders();
+	final ExecutorService pool = SimpleMT.getThreadPool();
+	final int nt = SimpleMT.getNrThreads();
+	final int [] thr = ( nt > 1 ) ? new int [] { 1, nt } : new int [] { 1 };
+
+	// times [provider][thread setting][size]
+	final int n = c.size() + r.size();
+	double [][][] t = new double[ prov.size() ][ thr.length ][ n ];
+
+	try {
+	    for (int p=0; p<prov.size(); p++) {
+		for (int i=0; i<thr.length; i++) {
+		    prov.get(p).useThreadPool( pool, thr[i] );
+		    for (int k=0; k<n; k++) {
+			boolean isReal = ( k >= c.size() );
+			Transforms.FFTkey key = isReal ? r.get( k-c.size() ) : c.get( k );
+			t[p][i][k] = measure( prov.get(p), key, isReal, budgetNs );
+			Tool.trace(String.format("FFT wisdom: %-12s %s, %d threads: %10.3f ms (%s)",
+			    key, isReal ? "real" : "cplx", thr[i], t[p][i][k]/1e6,
+			    prov.get(p).getImplementationName() ));
+		    }
+		}
+	    }
+	} finally {
+	    for ( FftProvider p : prov )
+		p.useThreadPool( pool, nt );
+	}
+
+	// thread setting per provider: lowest total time
+	int [] best = new int[ prov.size() ];
+	for (int p=0; p<prov.size(); p++) {
+	    double min = Double.MAX_VALUE;
+	    for (int i=0; i<thr.length; i++) {
+		double sum = 0;
+		for (int k=0; k<n; k++)
+		    sum += t[p][i][k];
+		if ( sum < min ) {
+		    min = sum;
+		    best[p] = i;
+		}
+	    }
+	    threads.put( prov.get(p).getImplementationName(), thr[ best[p] ] );
+	}
+
+	// provider per size
+	for (int k=0; k<n; k++) {
+	    int bp = -1;
+	    double min = Double.MAX_VALUE;
+	    for (int p=0; p<prov.size(); p++)
+		if ( t[p][ best[p] ][k] < min ) {
+		    min = t[p][ best[p] ][k];
+		    bp = p;
+		}
+	    if ( bp < 0 )
+		continue;	// no provider could run this size
+	    String name = prov.get( bp ).getImplementationName();
+	    if ( k < c.size() )
+		cplx.put( c.get( k ), name );
+	    else
+		real.put( r.get( k-c.size() ), name );
+	}
+    }
+
+    /** Nanoseconds for one forward and one inverse transform (best of
+     *  several), or Double.MAX_VALUE if the provider fails on this size */
+    static double measure( FftProvider p, Transforms.FFTkey k, boolean isReal,
+	long budgetNs ) {
+
+	try {
+	    Random rnd = new Random( 42 );
+	    final int nRuns;
+	    double min = Double.MAX_VALUE;
+
+	    if ( !isReal ) {
+		FftProvider.Instance fft =
+		    ( k.d==1 ) ? p.create1Dfft( k.x ) :
+		    ( k.d==2 ) ? p.create2Dfft( k.x, k.y ) :
+		    p.create3Dfft( k.x, k.y, k.z );
+		float [] v = new float[ (int)( 2*k.elements() ) ];
+		for (int i=0; i<v.length; i++)
+		    v[i] = rnd.nextFloat();
+
+		long start = System.nanoTime();
+		for (int i=0; i<3 || System.nanoTime()-start < budgetNs; i++) {
+		    long t0 = System.nanoTime();
+		    fft.fftTransform( v, false );
+		    fft.fftTransform( v, true );
+		    if ( i>0 )	// first run: warm-up
+			min = Math.min( min, System.nanoTime()-t0 );
+		}
+	    } else {
+		FftProvider.RealInstance fft = ( k.d==2 ) ?
+		    p.createReal2Dfft( k.x, k.y ) : p.createReal3Dfft( k.x, k.y, k.z );
+		float [] in  = new float[ (int) k.elements() ];
+		float [] out = new float[ (int)( 2*k.elements()/k.x*RealFft.halfWidth( k.x )) ];
+		for (int i=0; i<in.length; i++)
+		    in[i] = rnd.nextFloat();
+
+		long start = System.nanoTime();
+		for (int i=0; i<3 || System.nanoTime()-start < budgetNs; i++) {
+		    long t0 = System.nanoTime();
+		    fft.fftForward( in, out );
+		    fft.fftInverse( out, in );
+		    if ( i>0 )
+			min = Math.min( min, System.nanoTime()-t0 );
+		}
+	    }
+	    return min;
+	} catch ( RuntimeException e ) {
+	    Tool.trace("FFT wisdom: "+p.getImplementationName()+" failed on "+k+": "+e);
+	    return Double.MAX_VALUE;
+	}
+    }
+
+    // ------ installing ------
+
+    /** Make the stored choices the active FFT implementation. Sizes
+     *  without a stored choice use the implementation active before. */
+    public void install() {
+	FftProvider cur = FftProvider.getFftFactory();
+	if ( cur == null )
+	    throw new RuntimeException("No FFT implementation available!");
+	if ( cur instanceof Tuned )
+	    cur = ((Tuned) cur).fallback;
+
+	Map<String, FftProvider> byName = new HashMap<String, FftProvider>();
+	for ( FftProvider p : FftProvider.getAvailableProviders() )
+	    byName.put( p.getImplementationName(), p );
+
+	Tuned t = new Tuned( cur );
+	resolve( cplx, byName, t.cplx );
+	resolve( real, byName, t.real );
+	for ( Map.Entry<String, Integer> e : threads.entrySet() ) {
+	    FftProvider p = byName.get( e.getKey() );
+	    if ( p != null )
+		t.threads.put( p, e.getValue() );
+	}
+
+	FftProvider.setFftFactory( t );
+	Transforms.clearPlanCache();
+    }
+
+    private static void resolve( Map<Transforms.FFTkey, String> in,
+	Map<String, FftProvider> byName, Map<Transforms.FFTkey, FftProvider> out ) {
+	for ( Map.Entry<Transforms.FFTkey, String> e : in.entrySet() ) {
+	    FftProvider p = byName.get( e.getValue() );
+	    if ( p != null )
+		out.put( e.getKey(), p );
+	    else
+		Tool.trace("FFT wisdom: '"+e.getValue()+"' not available, "
+		    +"using default for "+e.getKey());
+	}
+    }
+
+    /** FFT implementation dispatching each size to its tuned provider */
+    static final class Tuned extends FftProvider {
+	final FftProvider fallback;
+	final Map<Transforms.FFTkey, FftProvider> cplx =
+	    new HashMap<Transforms.FFTkey, FftProvider>();
+	final Map<Transforms.FFTkey, FftProvider> real =
+	    new HashMap<Transforms.FFTkey, FftProvider>();
+	final Map<FftProvider, Integer> threads = new HashMap<FftProvider, Integer>();
+
+	Tuned( FftProvider fallback ) {
+	    this.fallback = fallback;
+	}
+
+	private FftProvider pick( Map<Transforms.FFTkey, FftProvider> m,
+	    Transforms.FFTkey k ) {
+	    FftProvider p = m.get( k );
+	    return ( p != null ) ? p : fallback;
+	}
+
+	@Override
+	public Instance create1Dfft( int n ) {
+	    return pick( cplx, new Transforms.FFTkey( n )).create1Dfft( n );
+	}
+	@Override
+	public Instance create2Dfft( int x, int y ) {
+	    return pick( cplx, new Transforms.FFTkey( x, y )).create2Dfft( x, y );
+	}
+	@Override
+	public Instance create3Dfft( int x, int y, int z ) {
+	    return pick( cplx, new Transforms.FFTkey( x, y, z )).create3Dfft( x, y, z );
+	}
+	@Override
+	public RealInstance createReal2Dfft( int x, int y ) {
+	    FftProvider p = real.get( new Transforms.FFTkey( x, y ));
+	    return ( p != null ) ? p.createReal2Dfft( x, y ) : super.createReal2Dfft( x, y );
+	}
+	@Override
+	public RealInstance createReal3Dfft( int x, int y, int z ) {
+	    FftProvider p = real.get( new Transforms.FFTkey( x, y, z ));
+	    return ( p != null ) ? p.createReal3Dfft( x, y, z ) : super.createReal3Dfft( x, y, z );
+	}
+
+	/** Pass the pool on, limiting threads to the tuned setting */
+	@Override
+	protected void useThreadPool( ExecutorService pool, int nrThreads ) {
+	    Set<FftProvider> all = new HashSet<FftProvider>( cplx.values() );
+	    all.addAll( real.values() );
+	    all.add( fallback );
+	    for ( FftProvider p : all ) {
+		Integer t = threads.get( p );
+		p.useThreadPool( pool, ( t != null ) ? Math.min( t, nrThreads ) : nrThreads );
+	    }
+	}
+
+	@Override
+	public String getImplementationName() {
+	    return "tuned ("+( cplx.size()+real.size() )+" sizes, default: "
+		+fallback.getImplementationName()+")";
+	}
+    }
+
+    // ------ persistence ------
+
+    /** Write the choices to a properties file */
+    public void save( File f ) throws IOException {
+	Properties p = new Properties();
+	p.setProperty("cores", ""+Runtime.getRuntime().availableProcessors());
+	for ( Map.Entry<Transforms.FFTkey, String> e : cplx.entrySet() )
+	    p.setProperty( "cplx."+e.getKey(), e.getValue() );
+	for ( Map.Entry<Transforms.FFTkey, String> e : real.entrySet() )
+	    p.setProperty( "real."+e.getKey(), e.getValue() );
+	for ( Map.Entry<String, Integer> e : threads.entrySet() )
+	    p.setProperty( "threads."+e.getKey(), ""+e.getValue() );
+
+	File dir = f.getAbsoluteFile().getParentFile();
+	if ( dir != null && !dir.exists() && !dir.mkdirs() )
+	    throw new IOException("Could not create "+dir);
+	OutputStream out = new FileOutputStream( f );
+	try {
+	    p.store( out, "fairSIM FFT wisdom" );
+	} finally {
+	    out.close();
+	}
+    }
+
+    /** Read choices from a properties file, adding to (or replacing)
+     *  those already held. Files recorded on a machine with a different
+     *  number of cores are ignored, returns false in that case. */
+    public boolean load( File f ) throws IOException {
+	Properties p = new Properties();
+	InputStream in = new FileInputStream( f );
+	try {
+	    p.load( in );
+	} finally {
+	    in.close();
+	}
+
+	String cores = p.getProperty("cores");
+	if ( cores == null ||
+	     Integer.parseInt( cores.trim() ) != Runtime.getRuntime().availableProcessors() ) {
+	    Tool.trace("FFT wisdom: "+f+" recorded on a different machine, ignored");
+	    return false;
+	}
+
+	for ( String k : p.stringPropertyNames() ) {
+	    String v = p.getProperty( k );
+	    if ( k.startsWith("cplx.") )
+		cplx.put( Transforms.FFTkey.parse( k.substring(5) ), v );
+	    else if ( k.startsWith("real.") )
+		real.put( Transforms.FFTkey.parse( k.substring(5) ), v );
+	    else if ( k.startsWith("threads.") )
+		threads.put( k.substring(8), Integer.parseInt( v.trim() ));
+	}
+	return true;
+    }
+
+    /** The file loaded on startup: the system property
+     *  'fairsim.fftwisdom', or '.fairsim/fftwisdom.properties'
+     *  in the user's home. Null if disabled. */
+    public static File getDefaultFile() {
+	String prop = System.getProperty( FILE_PROPERTY );
+	if ( prop != null )
+	    return prop.equals("none") ? null : new File( prop );
+	return new File( new File( System.getProperty("user.home"), ".fairsim" ),
+	    "fftwisdom.properties" );
+    }
+
+    /** Load and install the default file, if it exists. Problems
+     *  are only traced, so a broken file never keeps FFTs from working. */
+    static void loadDefault() {
+	try {
+	    File f = getDefaultFile();
+	    if ( f == null || !f.exists() )
+		return;
+	    FftWisdom w = new FftWisdom();
+	    if ( w.load( f ) && w.size() > 0 ) {
+		w.install();
+		Tool.trace("FFT wisdom: loaded "+w.size()+" sizes from "+f);
+	    }
+	} catch ( Exception e ) {
+	    Tool.trace("FFT wisdom: could not load: "+e);
+	}
+    }
+
+    /** Tune the sizes given as arguments (e.g. '512x512',
+     *  'real:1024x1024', '256x256x32'), add them to the default file
+     *  and save it */
+    public static void main( String [] args ) throws IOException {
+	if ( args.length == 0 ) {
+	    System.out.println("Usage: FftWisdom [real:]WxH[xD] ...");
+	    return;
+	}
+	File f = getDefaultFile();
+	if ( f == null )
+	    throw new RuntimeException("Wisdom file disabled through "+FILE_PROPERTY);
+
+	FftWisdom w = new FftWisdom();
+	if ( f.exists() )
+	    w.load( f );
+
+	List<Transforms.FFTkey> c = new ArrayList<Transforms.FFTkey>();
+	List<Transforms.FFTkey> r = new ArrayList<Transforms.FFTkey>();
+	for ( String a : args ) {
+	    if ( a.startsWith("real:") )
+		r.add( Transforms.FFTkey.parse( a.substring(5) ));
+	    else
+		c.add( Transforms.FFTkey.parse( a ));
+	}
+	w.tune( c, r );
+	w.save( f );
+
+	for ( Map.Entry<Transforms.FFTkey, String> e : w.cplx.entrySet() )
+	    System.out.println( String.format("%-16s %s", e.getKey(), e.getValue() ));
+	for ( Map.Entry<Transforms.FFTkey, String> e : w.real.entrySet() )
+	    System.out.println( String.format("real:%-11s %s", e.getKey(), e.getValue() ));
+	System.out.println("Saved to "+f);
+	System.exit(0);
+    }
+
+}
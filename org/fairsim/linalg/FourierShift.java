@@ -0,0 +1,110 @@
+/*
+This file is part of Free Analysis and Interactive Reconstruction
+for Structured Illumination Microscopy (fairSIM).
+
+fairSIM is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 2 of the License, or
+(at your option) any later version.
+
+fairSIM is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package org.fairsim.linalg;
+
+import java.nio.FloatBuffer;
+
+import org.fairsim.utils.SimpleMT;
+
+/** Multiplies a vector with the phases of the Fourier shift theorem,
+ *  exp( i 2 pi ( kx x/w + ky y/h + kz z/d ) ).
+ *  <p>
+ *  The phase is separable, so it is computed as the product of
+ *  one precomputed cos/sin table per axis, instead of evaluating
+ *  sin/cos for every element. Vectors do not have to be square.
+ *  */
+final class FourierShift {
+
+    final int w, h, d;
+    final float [] cx, sx, cy, sy, cz, sz;
+
+    /** Set up tables for a w x h x d vector (d=1 for 2D) */
+    FourierShift( int w, int h, int d, double kx, double ky, double kz ) {
+	this.w = w; this.h = h; this.d = d;
+	cx = new float[w]; sx = new float[w]; table( kx, w, cx, sx );
+	cy = new float[h]; sy = new float[h]; table( ky, h, cy, sy );
+	cz = new float[d]; sz = new float[d]; table( kz, d, cz, sz );
+    }
+
+    /** cos / sin of 2 pi k i / n */
+    static void table( double k, int n, float [] co, float [] si ) {
+	for (int i=0; i<n; i++) {
+	    double pha = 2*Math.PI*k*i/n;
+	    co[i] = (float)Math.cos( pha );
+	    si[i] = (float)Math.sin( pha );
+	}
+    }
+
+    /** Shift a 2D vector */
+    static void shift( Vec2d.Cplx v, double kx, double ky ) {
+	FourierShift fs = new FourierShift(
+	    v.vectorWidth(), v.vectorHeight(), 1, kx, ky, 0 );
+	fs.apply( v.vectorData() );
+	v.syncBuffer();
+    }
+
+    /** Shift a 3D vector */
+    static void shift( Vec3d.Cplx v, double kx, double ky, double kz ) {
+	FourierShift fs = new FourierShift(
+	    v.vectorWidth(), v.vectorHeight(), v.vectorDepth(), kx, ky, kz );
+	fs.apply( v.vectorData() );
+	v.syncBuffer();
+    }
+
+    /** Apply to interleaved (re,im) data, w x h x d elements */
+    void apply( final float [] val ) {
+	new SimpleMT.PFor(0, h*d) {
+	    public void at(int r) {
+		final int y = r%h, z = r/h;
+		final float rc = Cplx.multReal( cy[y], sy[y], cz[z], sz[z] );
+		final float rs = Cplx.multImag( cy[y], sy[y], cz[z], sz[z] );
+		final int off = 2*r*w;
+		for (int x=0; x<w; x++) {
+		    final float co = Cplx.multReal( cx[x], sx[x], rc, rs );
+		    final float si = Cplx.multImag( cx[x], sx[x], rc, rs );
+		    final float re = val[ off+2*x   ];
+		    final float im = val[ off+2*x+1 ];
+		    val[ off+2*x   ] = Cplx.multReal( re, im, co, si );
+		    val[ off+2*x+1 ] = Cplx.multImag( re, im, co, si );
+		}
+	    }
+	};
+    }
+
+    /** Apply to interleaved (re,im) data in a buffer, w x h x d elements */
+    void apply( final FloatBuffer val ) {
+	new SimpleMT.PFor(0, h*d) {
+	    public void at(int r) {
+		final int y = r%h, z = r/h;
+		final float rc = Cplx.multReal( cy[y], sy[y], cz[z], sz[z] );
+		final float rs = Cplx.multImag( cy[y], sy[y], cz[z], sz[z] );
+		final int off = 2*r*w;
+		for (int x=0; x<w; x++) {
+		    final float co = Cplx.multReal( cx[x], sx[x], rc, rs );
+		    final float si = Cplx.multImag( cx[x], sx[x], rc, rs );
+		    final float re = val.get( off+2*x   );
+		    final float im = val.get( off+2*x+1 );
+		    val.put( off+2*x,   Cplx.multReal( re, im, co, si ));
+		    val.put( off+2*x+1, Cplx.multImag( re, im, co, si ));
+		}
+	    }
+	};
+    }
+
+}
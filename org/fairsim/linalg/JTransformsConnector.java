@@ -110,6 +110,14 @@ class JTransformsConnector extends FftProvider {
 	    return ret;
 	}
 
+	/** JTransforms runs its own threads, limit their number. Its pool
+	 *  is kept separate, as JTransforms blocks its threads while
+	 *  waiting for sub-tasks. */
+	@Override
+	protected void useThreadPool( java.util.concurrent.ExecutorService pool, int nrThreads ) {
+	    pl.edu.icm.jlargearrays.ConcurrencyUtils.setNumberOfThreads( nrThreads );
+	}
+
 	public String getImplementationName() {
 	    return "Original JTransforms connector";
 	}
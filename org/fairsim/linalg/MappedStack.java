@@ -0,0 +1,244 @@
+/*
+This file is part of Free Analysis and Interactive Reconstruction
+for Structured Illumination Microscopy (fairSIM).
+
+fairSIM is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 2 of the License, or
+(at your option) any later version.
+
+fairSIM is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package org.fairsim.linalg;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/** A stack of w x h planes stored in a file and accessed through
+ *  memory mapping, so stacks larger than the Java heap (and larger than
+ *  a single vector) can be processed plane by plane or slab by slab.
+ *  <p>
+ *  The file holds raw floats (interleaved re,im for complex stacks),
+ *  plane after plane, without header. It is mapped in segments of whole
+ *  planes (about 1GB each) on first access. {@link #slice} and
+ *  {@link #slab} return vectors that are views into the mapped file: they
+ *  support all vector operations (e.g. as input to
+ *  {@link Vec3d.Real#setSlice} or {@link Vec2d.Real#project}) without
+ *  copying the stack to the heap, and writes to them go to the file.
+ *  Their {@link Vec.Real#duplicate} yields a normal, native vector.
+ *  Views must not be released to a {@link VectorPool}.
+ *  <p>
+ *  Views of a stack opened read-only can not be modified: direct writes
+ *  throw a ReadOnlyBufferException, changes to their {@link
+ *  Vec.Real#vectorData} array are discarded. Use a duplicate instead.
+ *  */
+public class MappedStack implements Vec3d.Size {
+
+    /** Target size of a mapped segment, in bytes */
+    static final long SEGMENT_BYTES = 1L<<30;
+
+    final int width, height, depth;
+    final boolean cplx, readOnly;
+    final ByteOrder order;
+    final long planeBytes;
+    final int planesPerSegment;
+
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private final MappedByteBuffer [] segments;
+
+    /** Marker for vectors that are views into a mapped stack */
+    interface View {}
+
+    private MappedStack( File f, int w, int h, int d, boolean cplx,
+	boolean create, boolean readOnly, ByteOrder order ) {
+
+	if ( w<1 || h<1 || d<1 )
+	    throw new RuntimeException("Stack size has to be positive");
+
+	this.width = w; this.height = h; this.depth = d;
+	this.cplx = cplx; this.readOnly = readOnly; this.order = order;
+
+	planeBytes = 4L * w * h * ( cplx ? 2 : 1 );
+	if ( planeBytes > Integer.MAX_VALUE )
+	    throw new RuntimeException("Plane too large to be mapped");
+	planesPerSegment = (int)Math.max( 1, Math.min( d, SEGMENT_BYTES / planeBytes ));
+	segments = new MappedByteBuffer[ (d + planesPerSegment - 1) / planesPerSegment ];
+
+	try {
+	    raf = new RandomAccessFile( f, readOnly ? "r" : "rw" );
+	    channel = raf.getChannel();
+	    if ( create )
+		raf.setLength( planeBytes * d );
+	    else if ( channel.size() < planeBytes * d )
+		throw new RuntimeException("File "+f+" too small for a "
+		    +w+"x"+h+"x"+d+" stack");
+	} catch ( IOException e ) {
+	    close();
+	    throw new RuntimeException( e );
+	}
+    }
+
+    /** Create a new (or overwrite an existing) file holding
+     *  a w x h x d stack, initialized to zero.
+     *  @param cplx If the stack is complex-valued */
+    public static MappedStack create( File f, int w, int h, int d, boolean cplx ) {
+	return new MappedStack( f, w, h, d, cplx, true, false, ByteOrder.nativeOrder() );
+    }
+
+    /** Open an existing file holding a w x h x d stack,
+     *  in native byte order. */
+    public static MappedStack open( File f, int w, int h, int d,
+	boolean cplx, boolean readOnly ) {
+	return open( f, w, h, d, cplx, readOnly, ByteOrder.nativeOrder() );
+    }
+
+    /** Open an existing file holding a w x h x d stack. Vector
+     *  operations are fastest for files in native byte order. */
+    public static MappedStack open( File f, int w, int h, int d,
+	boolean cplx, boolean readOnly, ByteOrder order ) {
+	return new MappedStack( f, w, h, d, cplx, false, readOnly, order );
+    }
+
+    @Override
+    public int vectorWidth() { return width; }
+    @Override
+    public int vectorHeight() { return height; }
+    @Override
+    public int vectorDepth() { return depth; }
+
+    /** If the stack is complex-valued */
+    public boolean isComplex() {
+	return cplx;
+    }
+
+    // ------ views ------
+
+    /** Real-valued view of plane z */
+    public Vec2d.Real slice( int z ) {
+	failType( false );
+	return new MReal2D( width, height, planes( z, 1 ));
+    }
+
+    /** Complex-valued view of plane z */
+    public Vec2d.Cplx sliceCplx( int z ) {
+	failType( true );
+	return new MCplx2D( width, height, planes( z, 1 ));
+    }
+
+    /** Real-valued view of planes z .. z+n-1 */
+    public Vec3d.Real slab( int z, int n ) {
+	failType( false );
+	return new MReal3D( width, height, n, planes( z, n ));
+    }
+
+    /** Complex-valued view of planes z .. z+n-1 */
+    public Vec3d.Cplx slabCplx( int z, int n ) {
+	failType( true );
+	return new MCplx3D( width, height, n, planes( z, n ));
+    }
+
+    /** Force changes in the segment mappings to disk. (Slabs spanning
+     *  segments are mapped separately and written back by the OS.) */
+    public synchronized void flush() {
+	if ( readOnly ) return;
+	for ( MappedByteBuffer m : segments )
+	    if ( m != null )
+		m.force();
+    }
+
+    /** Flush and close the file. The mapping (and thus views
+     *  still in use) stays valid until garbage-collected. */
+    public synchronized void close() {
+	if ( channel != null && channel.isOpen() )
+	    flush();
+	for (int i=0; i<segments.length; i++)
+	    segments[i] = null;
+	try {
+	    if ( raf != null )
+		raf.close();
+	} catch ( IOException e ) {
+	    throw new RuntimeException( e );
+	} finally {
+	    raf = null;
+	    channel = null;
+	}
+    }
+
+    // ------ mapping ------
+
+    private void failType( boolean c ) {
+	if ( c != cplx )
+	    throw new RuntimeException("Stack is "+(cplx ? "complex" : "real")+"-valued");
+    }
+
+    /** Float buffer covering planes z .. z+n-1 */
+    synchronized FloatBuffer planes( int z, int n ) {
+	if ( z<0 || n<1 || z+n > depth )
+	    throw new RuntimeException("Planes "+z+" .. "+(z+n-1)+" out of stack depth");
+	if ( channel == null )
+	    throw new RuntimeException("Stack already closed");
+	if ( n * planeBytes > Integer.MAX_VALUE )
+	    throw new RuntimeException("Slab too large to be mapped at once");
+
+	ByteBuffer b;
+	final int seg = z / planesPerSegment;
+	if ( ( z+n-1 ) / planesPerSegment == seg ) {
+	    // within one segment: cut from the (cached) segment mapping
+	    if ( segments[seg] == null ) {
+		long start = seg * planesPerSegment * planeBytes;
+		long len = Math.min( planesPerSegment, depth - seg*planesPerSegment ) * planeBytes;
+		segments[seg] = map( start, len );
+	    }
+	    b = segments[seg].duplicate();
+	    int off = (int)(( z - seg*planesPerSegment ) * planeBytes );
+	    b.limit( off + (int)( n*planeBytes )).position( off );
+	    b = b.slice();
+	} else {
+	    // spanning segments: separate mapping
+	    b = map( z * planeBytes, n * planeBytes );
+	}
+	return b.order( order ).asFloatBuffer();
+    }
+
+    private MappedByteBuffer map( long start, long len ) {
+	try {
+	    return channel.map( readOnly ? FileChannel.MapMode.READ_ONLY
+		: FileChannel.MapMode.READ_WRITE, start, len );
+	} catch ( IOException e ) {
+	    throw new RuntimeException( e );
+	}
+    }
+
+    // ------ view types ------
+
+    static class MReal2D extends NativeVector.NReal2D implements View {
+	MReal2D( int w, int h, FloatBuffer b ) { super( w, h, b ); }
+    }
+
+    static class MCplx2D extends NativeVector.NCplx2D implements View {
+	MCplx2D( int w, int h, FloatBuffer b ) { super( w, h, b ); }
+    }
+
+    static class MReal3D extends NativeVector.NReal3D implements View {
+	MReal3D( int w, int h, int d, FloatBuffer b ) { super( w, h, d, b ); }
+    }
+
+    static class MCplx3D extends NativeVector.NCplx3D implements View {
+	MCplx3D( int w, int h, int d, FloatBuffer b ) { super( w, h, d, b ); }
+    }
+
+}
@@ -21,35 +21,52 @@ package org.fairsim.linalg;
 
 
 /** A simple implementation of complex-valued matrices. 
- *  (TODO: extent to real-valued types)
+ *  Elements are stored in primitive arrays (real and imaginary
+ *  parts, row-major). (TODO: extent to real-valued types)
  * */
 public class MatrixComplex {
 
 
-    final private Cplx.Double [][] vals;
+    final private double [] re, im;
     final private int m,n;
 
     /** Initialize a matrix sizex i x j */
     public MatrixComplex(int i, int j) {
 	m=i; n=j;
-	vals = new Cplx.Double[i][j];
-	for (int k1=0;k1<m;k1++)
-	for (int k2=0;k2<n;k2++) vals[k1][k2] = Cplx.Double.zero();
-
+	re = new double[i*j];
+	im = new double[i*j];
     }
 
+    /** Return a copy of this matrix */
+    public MatrixComplex duplicate() {
+	MatrixComplex ret = new MatrixComplex(m,n);
+	System.arraycopy( re, 0, ret.re, 0, m*n );
+	System.arraycopy( im, 0, ret.im, 0, m*n );
+	return ret;
+    }
 
     /** Obtail unit-matrix sizes n x n */
     public static MatrixComplex unity(int n) {
 	MatrixComplex ret = new MatrixComplex(n,n);
-	for (int i=0;i<n;i++) ret.vals[i][i] = new Cplx.Double(1,0);
+	for (int i=0;i<n;i++) ret.re[i*n+i] = 1;
 	return ret;
     }
 
+    /** Number of rows */
+    public int rows() { return m; }
+    /** Number of columns */
+    public int cols() { return n; }
+
     /** Set element i,j to a */
-    public void	    set(int i, int j, Cplx.Double  a) { vals[i][j] = a; }
+    public void	    set(int i, int j, Cplx.Double  a) { re[i*n+j] = a.re; im[i*n+j] = a.im; }
+    /** Set element i,j to (r,c) */
+    public void	    set(int i, int j, double r, double c) { re[i*n+j] = r; im[i*n+j] = c; }
     /** Get element i,j */
-    public Cplx.Double get(int i, int j ) { return vals[i][j]; }
+    public Cplx.Double get(int i, int j ) { return new Cplx.Double( re[i*n+j], im[i*n+j] ); }
+    /** Get real part of element i,j */
+    public double getRe(int i, int j ) { return re[i*n+j]; }
+    /** Get imaginary part of element i,j */
+    public double getIm(int i, int j ) { return im[i*n+j]; }
 
 
     /** Returns a pivoted copy of the matrix. */
@@ -61,20 +78,24 @@ public class MatrixComplex {
 	for(int i=0;i<n;i++)  {
 		int max_j = i;
 		for(int j=i; j<n; j++)
-			if ( vals[j][i].hypot() > vals[max_j][i].hypot() ) 
+			if ( Math.hypot( re[j*n+i], im[j*n+i] ) > 
+			     Math.hypot( re[max_j*n+i], im[max_j*n+i] )) 
 			    max_j = j;
  
-		if (max_j != i) {
-		    for(int k=0;k<n;k++) {
-			Cplx.Double tmp = p.vals[i][k];
-			p.vals[i][k] = p.vals[max_j][k];
-			p.vals[max_j][k] = tmp;
-		    }
-		}
-		
+		if (max_j != i) 
+		    p.swapRows( i, max_j );
 	}
 	return p;
     }
+
+    /** swap rows i and j */
+    private void swapRows( int i, int j ) {
+	for(int k=0;k<n;k++) {
+	    double t;
+	    t = re[i*n+k]; re[i*n+k] = re[j*n+k]; re[j*n+k] = t;
+	    t = im[i*n+k]; im[i*n+k] = im[j*n+k]; im[j*n+k] = t;
+	}
+    }
  
     /** Computes the LU-decomposition of the matrix.
      *	@return Array containing 3 matrices: L,U,P */
@@ -87,28 +108,37 @@ public class MatrixComplex {
 	MatrixComplex P = this.pivot();
 	MatrixComplex Aprime = mult(P,this);
 
-
 	for (int i=0;i<n;i++)
 	for (int j=0;j<n;j++) {
 		if (j <= i) {
-		    Cplx.Double s = Cplx.Double.zero();
+		    double sr=0, si=0;
 		    for( int k=0;k<j; k++) {
-			s = Cplx.add( s, Cplx.mult( L.vals[j][k], U.vals[k][i] ) );
+			sr += Cplx.multReal( L.re[j*n+k], L.im[j*n+k], U.re[k*n+i], U.im[k*n+i] );
+			si += Cplx.multImag( L.re[j*n+k], L.im[j*n+k], U.re[k*n+i], U.im[k*n+i] );
 		    }
-		    U.vals[j][i] = Cplx.sub( Aprime.vals[j][i] , s );
+		    U.re[j*n+i] = Aprime.re[j*n+i] - sr;
+		    U.im[j*n+i] = Aprime.im[j*n+i] - si;
 		}
 		if (j >= i) {
-		    Cplx.Double s = Cplx.Double.zero();
-		    for( int k=0;k<i; k++)
-			s = Cplx.add( s, Cplx.mult ( L.vals[j][k] , U.vals[k][i]));
-		    L.vals[j][i] = Cplx.div( Cplx.sub( Aprime.vals[j][i] , s) , U.vals[i][i] );
-
+		    double sr=0, si=0;
+		    for( int k=0;k<i; k++) {
+			sr += Cplx.multReal( L.re[j*n+k], L.im[j*n+k], U.re[k*n+i], U.im[k*n+i] );
+			si += Cplx.multImag( L.re[j*n+k], L.im[j*n+k], U.re[k*n+i], U.im[k*n+i] );
+		    }
+		    div( Aprime.re[j*n+i] - sr, Aprime.im[j*n+i] - si, 
+			U.re[i*n+i], U.im[i*n+i], L.re, L.im, j*n+i );
 		}
 	}
 	return new MatrixComplex [] { L,U,P };
     }
 
-    
+    /** store (ar,ai) / (br,bi) in r[pos], i[pos] */
+    private static void div( double ar, double ai, double br, double bi,
+	double [] r, double [] i, int pos ) {
+	final double d = br*br + bi*bi;
+	r[pos] = ( ar*br + ai*bi ) / d;
+	i[pos] = ( ai*br - ar*bi ) / d;
+    }
    
     /** Multiplies matrices. */
     public MatrixComplex mult(MatrixComplex b) {
@@ -119,9 +149,7 @@ public class MatrixComplex {
      *  as in C, imaginary component is set to 0. */
     public static MatrixComplex initReal( int m, int n , double [] dat ) {
 	MatrixComplex ret = new MatrixComplex(m,n);
-	for (int i=0;i<m;i++)
-	for (int j=0;j<n;j++)
-	    ret.vals[i][j] = new Cplx.Double(dat[i*m+j]);
+	System.arraycopy( dat, 0, ret.re, 0, m*n );
 	return ret;
     }
 
@@ -133,10 +161,12 @@ public class MatrixComplex {
 	
 	MatrixComplex c = new MatrixComplex(a.m,b.n);
 	for (int i=0;i<a.m;i++)
-	for (int k=0;k<a.n;k++) 
-	for (int j=0;j<b.n;j++) {
-	    c.vals[i][j] = Cplx.add( 
-		c.vals[i][j], Cplx.mult( a.vals[i][k] , b.vals[k][j]));
+	for (int k=0;k<a.n;k++) {
+	    final double ar = a.re[i*a.n+k], ai = a.im[i*a.n+k];
+	    for (int j=0;j<b.n;j++) {
+		c.re[i*c.n+j] += Cplx.multReal( ar, ai, b.re[k*b.n+j], b.im[k*b.n+j] );
+		c.im[i*c.n+j] += Cplx.multImag( ar, ai, b.re[k*b.n+j], b.im[k*b.n+j] );
+	    }
 	}
 	return c;
     }
@@ -153,7 +183,7 @@ public class MatrixComplex {
 	MatrixComplex ret = new MatrixComplex(g,h);
 	for (int i=0;i<ret.m; i++)
 	for (int j=0;j<ret.n; j++)
-	    ret.vals[i][j] = Cplx.Double.random();
+	    ret.set( i, j, Cplx.Double.random());
 	return ret;
     }
 
@@ -163,12 +193,14 @@ public class MatrixComplex {
 	
 	if (a.n!=b.length) throw new RuntimeException("vector dimension mismatch");
 	
-	Cplx.Double [] c = new Cplx.Double[a.n];
-	for (int i=0;i<c.length;i++) c[i] = Cplx.Double.zero();
-	for (int i=0;i<a.m;i++)
-	for (int k=0;k<a.n;k++) {
-	    c[i] = Cplx.add( c[i], Cplx.mult( a.vals[i][k] , b[k]));
-	    
+	Cplx.Double [] c = new Cplx.Double[a.m];
+	for (int i=0;i<a.m;i++) {
+	    double sr=0, si=0;
+	    for (int k=0;k<a.n;k++) {
+		sr += Cplx.multReal( a.re[i*a.n+k], a.im[i*a.n+k], b[k].re, b[k].im );
+		si += Cplx.multImag( a.re[i*a.n+k], a.im[i*a.n+k], b[k].re, b[k].im );
+	    }
+	    c[i] = new Cplx.Double( sr, si );
 	}
 	return c;
     }
@@ -185,25 +217,32 @@ public class MatrixComplex {
 	
 	Cplx.Double [] b2 = P.mult(b);
 
-	Cplx.Double [] x = new Cplx.Double[n];
-	Cplx.Double [] y = new Cplx.Double[n];
+	double [] xr = new double[n], xi = new double[n];
+	double [] yr = new double[n], yi = new double[n];
 
 	// forward
 	for (int i=0;i<n;i++) {
-	    Cplx.Double res = b2[i];
-	    for (int j=0;j<i;j++)
-		res=Cplx.sub( res, Cplx.mult( L.vals[i][j] , y[j]));
-	    y[i] = Cplx.div( res , L.vals[i][i] );
+	    double rr = b2[i].re, ri = b2[i].im;
+	    for (int j=0;j<i;j++) {
+		rr -= Cplx.multReal( L.re[i*n+j], L.im[i*n+j], yr[j], yi[j] );
+		ri -= Cplx.multImag( L.re[i*n+j], L.im[i*n+j], yr[j], yi[j] );
+	    }
+	    div( rr, ri, L.re[i*n+i], L.im[i*n+i], yr, yi, i );
 	}
 
 	// backward
 	for (int i=n-1;i>=0;i--) {
-	    Cplx.Double res = y[i];
-	    for (int j=i+1;j<n;j++)
-		res=Cplx.sub( res, Cplx.mult( U.vals[i][j], x[j]));
-	    x[i] = Cplx.div( res , U.vals[i][i]);
+	    double rr = yr[i], ri = yi[i];
+	    for (int j=i+1;j<n;j++) {
+		rr -= Cplx.multReal( U.re[i*n+j], U.im[i*n+j], xr[j], xi[j] );
+		ri -= Cplx.multImag( U.re[i*n+j], U.im[i*n+j], xr[j], xi[j] );
+	    }
+	    div( rr, ri, U.re[i*n+i], U.im[i*n+i], xr, xi, i );
 	}
 
+	Cplx.Double [] x = new Cplx.Double[n];
+	for (int i=0;i<n;i++)
+	    x[i] = new Cplx.Double( xr[i], xi[i] );
 	return x;
     }
 
@@ -221,19 +260,23 @@ public class MatrixComplex {
 	// forward
 	for (int k=0;k<n;k++)
 	for (int i=0;i<n;i++) {
-	    Cplx.Double res = P.vals[i][k];
-	    for (int j=0;j<i;j++)
-		res=Cplx.sub( res, Cplx.mult ( L.vals[i][j], y.vals[j][k] ));
-	    y.vals[i][k]  = Cplx.div( res , L.vals[i][i] );
+	    double rr = P.re[i*n+k], ri = P.im[i*n+k];
+	    for (int j=0;j<i;j++) {
+		rr -= Cplx.multReal( L.re[i*n+j], L.im[i*n+j], y.re[j*n+k], y.im[j*n+k] );
+		ri -= Cplx.multImag( L.re[i*n+j], L.im[i*n+j], y.re[j*n+k], y.im[j*n+k] );
+	    }
+	    div( rr, ri, L.re[i*n+i], L.im[i*n+i], y.re, y.im, i*n+k );
 	}
 
 	// backward
 	for (int k=0;k<n;k++)
 	for (int i=n-1;i>=0;i--) {
-	    Cplx.Double res = y.vals[i][k];
-	    for (int j=i+1;j<n;j++)
-		res=Cplx.sub( res, Cplx.mult ( U.vals[i][j], x.vals[j][k] ));
-	    x.vals[i][k] = Cplx.div( res  , U.vals[i][i] );
+	    double rr = y.re[i*n+k], ri = y.im[i*n+k];
+	    for (int j=i+1;j<n;j++) {
+		rr -= Cplx.multReal( U.re[i*n+j], U.im[i*n+j], x.re[j*n+k], x.im[j*n+k] );
+		ri -= Cplx.multImag( U.re[i*n+j], U.im[i*n+j], x.re[j*n+k], x.im[j*n+k] );
+	    }
+	    div( rr, ri, U.re[i*n+i], U.im[i*n+i], x.re, x.im, i*n+k );
 	}
 
 	return x;
@@ -244,8 +287,10 @@ public class MatrixComplex {
     public MatrixComplex conjTranspose() {
 	MatrixComplex ret = new MatrixComplex(n,m);
 	for (int i=0;i<m;i++)
-	for (int j=0;j<n;j++)
-	    ret.vals[j][i] = Cplx.conj( vals[i][j] );
+	for (int j=0;j<n;j++) {
+	    ret.re[j*m+i] =  re[i*n+j];
+	    ret.im[j*m+i] = -im[i*n+j];
+	}
 	return ret;
     }
 
@@ -284,10 +329,7 @@ public class MatrixComplex {
 	double ret =0;
 	for (int i=0;i<m;i++)
 	for (int j=0;j<n;j++)
-	    if (i==j)
-		ret += Cplx.sub( vals[i][j] , new Cplx.Double(1)).hypot();
-	    else 
-		ret += vals[i][j].hypot();
+	    ret += Math.hypot( re[i*n+j] - ((i==j)?(1):(0)), im[i*n+j] );
 	return ret;
     }
 
@@ -297,7 +339,7 @@ public class MatrixComplex {
 	for (int i=0;i<m;i++) {
 	    String ret="";
 	    for (int j=0;j<n;j++)
-		ret+=" "+vals[i][j];
+		ret+=" "+get(i,j);
 	    System.out.println(ret);
 	}
 	System.out.println("---");
@@ -355,10 +397,10 @@ public class MatrixComplex {
     /** Outputs the matrix as (somewhat) formatted string */
     public String toString() {
 	String ret="[";
-	for (int i=0;i<vals.length;i++) {
+	for (int i=0;i<m;i++) {
 	    ret+=" [";
-	    for (int j=0;j<vals[i].length;j++)
-		ret+=vals[i][j];
+	    for (int j=0;j<n;j++)
+		ret+=get(i,j);
 	    ret+="]";
 	}
 	return ret;
@@ -0,0 +1,1213 @@
+/*
+This file is part of Free Analysis and Interactive Reconstruction
+for Structured Illumination Microscopy (fairSIM).
+
+fairSIM is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 2 of the License, or
+(at your option) any later version.
+
+fairSIM is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package org.fairsim.linalg;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+
+/** Vector factory storing all vector data outside the Java heap, in
+ *  direct (native) FloatBuffers. Select it through
+ *  <code>Vec.setVectorFactory( NativeVector.getFactory() )</code>.
+ *  <p>
+ *  Element access and the common arithmetic kernels (copy, add, axpy, scal,
+ *  times, timesConj, dot, norm2, fourierShift, ...) run directly on the native
+ *  buffer. {@link Vec.Real#vectorData} returns a heap staging copy, which
+ *  is kept until {@link Vec.Real#syncBuffer} (or makeCoherent) writes it
+ *  back. While it exists, element access and all kernels work on the
+ *  staging copy, so writes to the array are never lost. The remaining
+ *  functions (FFT, paste, projection, ...) also run on a staging copy; if
+ *  they had to create it, they write it back when done.
+ *  <p>
+ *  Native memory is freed once the vector object is garbage-collected. To
+ *  avoid waiting for that, wrap this factory in a {@link VectorPool}, which
+ *  reuses the buffers.
+ *  */
+public class NativeVector implements VectorFactory {
+
+    static NativeVector instance = null;
+    private NativeVector() {};
+
+    /** Get the factory (singleton) for NativeVectors */
+    public static NativeVector getFactory() {
+	if (instance == null)
+	    instance = new NativeVector();
+	return instance;
+    }
+
+    // ------ Vector factory ------
+
+    @Override
+    public NReal createReal(int n) {
+	return new NReal(n);
+    }
+
+    @Override
+    public NCplx createCplx(int n) {
+	return new NCplx(n);
+    }
+
+    @Override
+    public NReal2D createReal2D(int w, int h) {
+	return new NReal2D(w,h);
+    }
+
+    @Override
+    public NCplx2D createCplx2D(int w, int h) {
+	return new NCplx2D(w,h);
+    }
+
+    @Override
+    public NReal3D createReal3D(int w, int h, int d) {
+	return new NReal3D(w,h,d);
+    }
+
+    @Override
+    public NCplx3D createCplx3D(int w, int h, int d) {
+	return new NCplx3D(w,h,d);
+    }
+
+    @Override
+    public void syncConcurrent() {};
+
+    // ------ buffer helpers ------
+
+    /** Allocate a direct buffer holding n floats */
+    static FloatBuffer allocate( long n ) {
+	if ( n*4 > Integer.MAX_VALUE )
+	    throw new RuntimeException("Vector too large for a single native buffer");
+	return ByteBuffer.allocateDirect( (int)n*4 )
+	    .order( ByteOrder.nativeOrder() ).asFloatBuffer();
+    }
+
+    /** Current buffer of 'v' if it is a native vector, its wrapped
+     *  data array otherwise */
+    static FloatBuffer bufferOf( Vec.Real v ) {
+	if ( v instanceof NReal )
+	    return ((NReal)v).buffer();
+	return FloatBuffer.wrap( v.vectorData() );
+    }
+
+    /** Current buffer of 'v' if it is a native vector, its wrapped
+     *  data array otherwise */
+    static FloatBuffer bufferOf( Vec.Cplx v ) {
+	if ( v instanceof NCplx )
+	    return ((NCplx)v).buffer();
+	return FloatBuffer.wrap( v.vectorData() );
+    }
+
+    /** Copy n floats from src (starting at srcPos) to dst (starting at dstPos) */
+    static void bulkCopy( FloatBuffer src, int srcPos,
+	FloatBuffer dst, int dstPos, int n ) {
+	FloatBuffer s = src.duplicate();
+	FloatBuffer d = dst.duplicate();
+	s.limit( srcPos + n ).position( srcPos );
+	d.position( dstPos );
+	d.put( s );
+    }
+
+
+    // ------ 1D vectors ------
+
+    /** Real-valued vector in native memory */
+    public static class NReal implements Vec.Real {
+	final int elemCount;
+	final FloatBuffer buf;
+	private volatile Vec.Real staged = null;
+
+	NReal(int n) {
+	    this( n, allocate( n ));
+	}
+
+	/** Create a vector on top of an existing buffer, e.g. a mapped file */
+	NReal(int n, FloatBuffer b) {
+	    if ( b.capacity() < n )
+		throw new RuntimeException("Buffer too small for vector");
+	    elemCount = n;
+	    buf = b;
+	}
+
+	/** Create a heap vector of matching type, used for staging */
+	Vec.Real createStaging() {
+	    return Vec.getBasicVectorFactory().createReal( elemCount );
+	}
+
+	/** Return the staging copy, create it if necessary */
+	synchronized Vec.Real stage() {
+	    if (staged == null) {
+		Vec.Real h = createStaging();
+		buf.duplicate().get( h.vectorData(), 0, elemCount );
+		staged = h;
+	    }
+	    return staged;
+	}
+
+	/** Write the staging copy back to native memory and drop it.
+	 *  Read-only buffers (see {@link MappedStack}) are not written to. */
+	synchronized void commit() {
+	    if (staged != null) {
+		if (!buf.isReadOnly())
+		    buf.duplicate().put( staged.vectorData(), 0, elemCount );
+		staged = null;
+	    }
+	}
+
+	/** True while a staging copy exists */
+	final boolean isStaged() {
+	    return staged != null;
+	}
+
+	/** Write back a staging copy created by a staged operation,
+	 *  keep one that existed before (and might be held by a caller) */
+	final void unstage( boolean wasStaged ) {
+	    if (!wasStaged)
+		commit();
+	}
+
+	/** Return the buffer holding the current data: the staging
+	 *  copy while there is one, the native buffer otherwise */
+	final FloatBuffer buffer() {
+	    final Vec.Real s = staged;
+	    return (s != null) ? FloatBuffer.wrap( s.vectorData() ) : buf;
+	}
+
+	/** Read element i (float index) of the current data */
+	final float at( int i ) {
+	    final Vec.Real s = staged;
+	    return (s != null) ? s.vectorData()[i] : buf.get(i);
+	}
+
+	/** Write element i (float index) of the current data */
+	final void put( int i, float v ) {
+	    final Vec.Real s = staged;
+	    if (s != null)
+		s.vectorData()[i] = v;
+	    else
+		buf.put( i, v );
+	}
+
+	@Override
+	public NReal duplicate() {
+	    NReal ret = new NReal( elemCount );
+	    ret.copy( this );
+	    return ret;
+	}
+
+	@Override
+	public int vectorSize() {
+	    return elemCount;
+	}
+
+	@Override
+	public float [] vectorData() {
+	    return stage().vectorData();
+	}
+
+	@Override
+	public void syncBuffer() {
+	    commit();
+	}
+
+	@Override
+	public void makeCoherent() {
+	    commit();
+	}
+
+	@Override
+	public float get(int i) {
+	    return at(i);
+	}
+
+	@Override
+	public void set(int i, float x) {
+	    put( i, x );
+	}
+
+	@Override
+	public void copy(Vec.Real in) {
+	    Vec.failSize( this, in );
+	    if ( in == this ) return;
+	    bulkCopy( bufferOf( in ), 0, buffer(), 0, elemCount );
+	}
+
+	@Override
+	public void copy(Vec.Cplx in, boolean imag) {
+	    Vec.failSize( this, in );
+	    final FloatBuffer x = bufferOf( in ), y = buffer();
+	    final int off = (imag)?(1):(0);
+	    for (int i=0; i<elemCount; i++)
+		y.put( i, x.get( 2*i+off ));
+	}
+
+	@Override
+	public void copy(Vec.Cplx in) {
+	    copy( in, false );
+	}
+
+	@Override
+	public void copyMagnitude(Vec.Cplx in) {
+	    final boolean held = isStaged();
+	    stage().copyMagnitude( in );
+	    unstage( held );
+	}
+
+	@Override
+	public void copyPhase(Vec.Cplx in) {
+	    final boolean held = isStaged();
+	    stage().copyPhase( in );
+	    unstage( held );
+	}
+
+	@Override
+	public void zero() {
+	    final FloatBuffer y = buffer();
+	    for (int i=0; i<elemCount; i++)
+		y.put( i, 0 );
+	}
+
+	@Override
+	public void add( Vec.Real ... in ) {
+	    Vec.failSize( this, in );
+	    final FloatBuffer y = buffer();
+	    for ( Vec.Real v : in ) {
+		final FloatBuffer x = bufferOf( v );
+		for (int i=0; i<elemCount; i++)
+		    y.put( i, y.get(i) + x.get(i) );
+	    }
+	}
+
+	@Override
+	public void axpy( float a, Vec.Real xIn ) {
+	    Vec.failSize( this, xIn );
+	    final FloatBuffer x = bufferOf( xIn ), y = buffer();
+	    for (int i=0; i<elemCount; i++)
+		y.put( i, y.get(i) + a*x.get(i) );
+	}
+
+	@Override
+	public void addConst( float a ) {
+	    final FloatBuffer y = buffer();
+	    for (int i=0; i<elemCount; i++)
+		y.put( i, y.get(i) + a );
+	}
+
+	@Override
+	public void scal( float a ) {
+	    final FloatBuffer y = buffer();
+	    for (int i=0; i<elemCount; i++)
+		y.put( i, y.get(i) * a );
+	}
+
+	@Override
+	public double dot( Vec.Real xIn ) {
+	    Vec.failSize( this, xIn );
+	    final FloatBuffer x = bufferOf( xIn ), y = buffer();
+	    double ret=0;
+	    for (int i=0; i<elemCount; i++)
+		ret += x.get(i) * y.get(i);
+	    return ret;
+	}
+
+	@Override
+	public double norm2() {
+	    final FloatBuffer y = buffer();
+	    double ret=0;
+	    for (int i=0; i<elemCount; i++)
+		ret += y.get(i) * y.get(i);
+	    return ret;
+	}
+
+	@Override
+	public void times( Vec.Real xIn ) {
+	    Vec.failSize( this, xIn );
+	    final FloatBuffer x = bufferOf( xIn ), y = buffer();
+	    for (int i=0; i<elemCount; i++)
+		y.put( i, y.get(i) * x.get(i) );
+	}
+
+	@Override
+	public double sumElements() {
+	    final FloatBuffer y = buffer();
+	    double ret=0;
+	    for (int i=0; i<elemCount; i++)
+		ret += y.get(i);
+	    return ret;
+	}
+
+	@Override
+	public void normalize() {
+	    final boolean held = isStaged();
+	    stage().normalize();
+	    unstage( held );
+	}
+
+	@Override
+	public void normalize(float vmin, float vmax) {
+	    final boolean held = isStaged();
+	    stage().normalize( vmin, vmax );
+	    unstage( held );
+	}
+
+	@Override
+	public void reciproc() {
+	    final boolean held = isStaged();
+	    stage().reciproc();
+	    unstage( held );
+	}
+
+	@Override
+	public void addSqr( Vec.Real xIn ) {
+	    Vec.failSize( this, xIn );
+	    final FloatBuffer x = bufferOf( xIn ), y = buffer();
+	    for (int i=0; i<elemCount; i++)
+		y.put( i, y.get(i) + x.get(i)*x.get(i) );
+	}
+
+	@Override
+	public String first10Elem() {
+	    final boolean held = isStaged();
+	    String ret = stage().first10Elem();
+	    unstage( held );
+	    return ret;
+	}
+
+	@Override
+	public int [] nLargestIdx(int n) {
+	    final boolean held = isStaged();
+	    int [] ret = stage().nLargestIdx( n );
+	    unstage( held );
+	    return ret;
+	}
+
+	@Override
+	public double avr() {
+	    return sumElements() / elemCount;
+	}
+
+	@Override
+	public double median() {
+	    final boolean held = isStaged();
+	    double ret = stage().median();
+	    unstage( held );
+	    return ret;
+	}
+
+	@Override
+	public float min() {
+	    final FloatBuffer y = buffer();
+	    float ret = Float.MAX_VALUE;
+	    for (int i=0; i<elemCount; i++)
+		ret = Math.min( ret, y.get(i) );
+	    return ret;
+	}
+
+	@Override
+	public float max() {
+	    final FloatBuffer y = buffer();
+	    float ret = -Float.MAX_VALUE;
+	    for (int i=0; i<elemCount; i++)
+		ret = Math.max( ret, y.get(i) );
+	    return ret;
+	}
+    }
+
+
+    /** Complex-valued vector in native memory, stored interleaved (re,im) */
+    public static class NCplx implements Vec.Cplx {
+	final int elemCount;
+	final FloatBuffer buf;
+	private volatile Vec.Cplx staged = null;
+
+	NCplx(int n) {
+	    this( n, allocate( 2L*n ));
+	}
+
+	/** Create a vector on top of an existing buffer, e.g. a mapped file */
+	NCplx(int n, FloatBuffer b) {
+	    if ( b.capacity() < 2L*n )
+		throw new RuntimeException("Buffer too small for vector");
+	    elemCount = n;
+	    buf = b;
+	}
+
+	/** Create a heap vector of matching type, used for staging */
+	Vec.Cplx createStaging() {
+	    return Vec.getBasicVectorFactory().createCplx( elemCount );
+	}
+
+	/** Return the staging copy, create it if necessary */
+	synchronized Vec.Cplx stage() {
+	    if (staged == null) {
+		Vec.Cplx h = createStaging();
+		buf.duplicate().get( h.vectorData(), 0, 2*elemCount );
+		staged = h;
+	    }
+	    return staged;
+	}
+
+	/** Write the staging copy back to native memory and drop it.
+	 *  Read-only buffers (see {@link MappedStack}) are not written to. */
+	synchronized void commit() {
+	    if (staged != null) {
+		if (!buf.isReadOnly())
+		    buf.duplicate().put( staged.vectorData(), 0, 2*elemCount );
+		staged = null;
+	    }
+	}
+
+	/** True while a staging copy exists */
+	final boolean isStaged() {
+	    return staged != null;
+	}
+
+	/** Write back a staging copy created by a staged operation,
+	 *  keep one that existed before (and might be held by a caller) */
+	final void unstage( boolean wasStaged ) {
+	    if (!wasStaged)
+		commit();
+	}
+
+	/** Return the buffer holding the current data: the staging
+	 *  copy while there is one, the native buffer otherwise */
+	final FloatBuffer buffer() {
+	    final Vec.Cplx s = staged;
+	    return (s != null) ? FloatBuffer.wrap( s.vectorData() ) : buf;
+	}
+
+	/** Read element i (float index) of the current data */
+	final float at( int i ) {
+	    final Vec.Cplx s = staged;
+	    return (s != null) ? s.vectorData()[i] : buf.get(i);
+	}
+
+	/** Write element i (float index) of the current data */
+	final void put( int i, float v ) {
+	    final Vec.Cplx s = staged;
+	    if (s != null)
+		s.vectorData()[i] = v;
+	    else
+		buf.put( i, v );
+	}
+
+	@Override
+	public NCplx duplicate() {
+	    NCplx ret = new NCplx( elemCount );
+	    ret.copy( this );
+	    return ret;
+	}
+
+	@Override
+	public int vectorSize() {
+	    return elemCount;
+	}
+
+	@Override
+	public float [] vectorData() {
+	    return stage().vectorData();
+	}
+
+	@Override
+	public void syncBuffer() {
+	    commit();
+	}
+
+	@Override
+	public void makeCoherent() {
+	    commit();
+	}
+
+	@Override
+	public Cplx.Float get( int n ) {
+	    return new Cplx.Float( at(2*n), at(2*n+1) );
+	}
+
+	@Override
+	public void set( int n, Cplx.Float v ) {
+	    put( 2*n, v.re );
+	    put( 2*n+1, v.im );
+	}
+
+	@Override
+	public void set( int n, Cplx.Double v ) {
+	    put( 2*n, (float)v.re );
+	    put( 2*n+1, (float)v.im );
+	}
+
+	@Override
+	public NReal duplicateReal() {
+	    NReal ret = new NReal( elemCount );
+	    ret.copy( this, false );
+	    return ret;
+	}
+
+	@Override
+	public NReal duplicateImag() {
+	    NReal ret = new NReal( elemCount );
+	    ret.copy( this, true );
+	    return ret;
+	}
+
+	@Override
+	public NReal duplicateMagnitude() {
+	    NReal ret = new NReal( elemCount );
+	    ret.copyMagnitude( this );
+	    return ret;
+	}
+
+	@Override
+	public NReal duplicatePhase() {
+	    NReal ret = new NReal( elemCount );
+	    ret.copyPhase( this );
+	    return ret;
+	}
+
+	@Override
+	public void copy( Vec.Cplx in ) {
+	    Vec.failSize( this, in );
+	    if ( in == this ) return;
+	    bulkCopy( bufferOf( in ), 0, buffer(), 0, 2*elemCount );
+	}
+
+	@Override
+	public void copy( Vec.Real in ) {
+	    Vec.failSize( this, in );
+	    final FloatBuffer x = bufferOf( in ), y = buffer();
+	    for (int i=0; i<elemCount; i++) {
+		y.put( 2*i,   x.get(i) );
+		y.put( 2*i+1, 0 );
+	    }
+	}
+
+	@Override
+	public void zero() {
+	    final FloatBuffer y = buffer();
+	    for (int i=0; i<2*elemCount; i++)
+		y.put( i, 0 );
+	}
+
+	@Override
+	public void add( Vec.Cplx ... in ) {
+	    Vec.failSize( this, in );
+	    final FloatBuffer y = buffer();
+	    for ( Vec.Cplx v : in ) {
+		final FloatBuffer x = bufferOf( v );
+		for (int i=0; i<2*elemCount; i++)
+		    y.put( i, y.get(i) + x.get(i) );
+	    }
+	}
+
+	@Override
+	public void axpy( float a, Vec.Cplx xIn ) {
+	    Vec.failSize( this, xIn );
+	    final FloatBuffer x = bufferOf( xIn ), y = buffer();
+	    for (int i=0; i<2*elemCount; i++)
+		y.put( i, y.get(i) + a*x.get(i) );
+	}
+
+	@Override
+	public void axpy( Cplx.Float a, Vec.Cplx xIn ) {
+	    Vec.failSize( this, xIn );
+	    final FloatBuffer x = bufferOf( xIn ), y = buffer();
+	    for (int i=0; i<elemCount; i++) {
+		final float xr = x.get(2*i), xi = x.get(2*i+1);
+		y.put( 2*i,   y.get(2*i)   + Cplx.multReal( a.re, a.im, xr, xi ));
+		y.put( 2*i+1, y.get(2*i+1) + Cplx.multImag( a.re, a.im, xr, xi ));
+	    }
+	}
+
+	@Override
+	public void reciproc() {
+	    final boolean held = isStaged();
+	    stage().reciproc();
+	    unstage( held );
+	}
+
+	@Override
+	public void addConst( Cplx.Float a ) {
+	    final FloatBuffer y = buffer();
+	    for (int i=0; i<elemCount; i++) {
+		y.put( 2*i,   y.get(2*i)   + a.re );
+		y.put( 2*i+1, y.get(2*i+1) + a.im );
+	    }
+	}
+
+	@Override
+	public void scal( float a ) {
+	    final FloatBuffer y = buffer();
+	    for (int i=0; i<2*elemCount; i++)
+		y.put( i, y.get(i) * a );
+	}
+
+	@Override
+	public void scal( Cplx.Float a ) {
+	    final FloatBuffer y = buffer();
+	    for (int i=0; i<elemCount; i++) {
+		final float yr = y.get(2*i), yi = y.get(2*i+1);
+		y.put( 2*i,   Cplx.multReal( a.re, a.im, yr, yi ));
+		y.put( 2*i+1, Cplx.multImag( a.re, a.im, yr, yi ));
+	    }
+	}
+
+	@Override
+	public double norm2() {
+	    final FloatBuffer y = buffer();
+	    double ret=0;
+	    for (int i=0; i<2*elemCount; i++)
+		ret += y.get(i) * y.get(i);
+	    return ret;
+	}
+
+	@Override
+	public void conj() {
+	    final FloatBuffer y = buffer();
+	    for (int i=0; i<elemCount; i++)
+		y.put( 2*i+1, -y.get(2*i+1) );
+	}
+
+	@Override
+	public Cplx.Double dot( Vec.Cplx yIn ) {
+	    Vec.failSize( this, yIn );
+	    final FloatBuffer x = buffer(), y = bufferOf( yIn );
+	    double re=0, im=0;
+	    for (int i=0; i<elemCount; i++) {
+		final float xr = x.get(2*i), xi = -x.get(2*i+1);
+		final float yr = y.get(2*i), yi =  y.get(2*i+1);
+		re += Cplx.multReal( xr, xi, yr, yi );
+		im += Cplx.multImag( xr, xi, yr, yi );
+	    }
+	    return new Cplx.Double( re, im );
+	}
+
+	@Override
+	public void times( Vec.Cplx in ) {
+	    times( in, false );
+	}
+
+	@Override
+	public void timesConj( Vec.Cplx in ) {
+	    times( in, true );
+	}
+
+	@Override
+	public void times( Vec.Cplx in, final boolean conj ) {
+	    Vec.failSize( this, in );
+	    final FloatBuffer x = bufferOf( in ), y = buffer();
+	    final float sgn = (conj)?(-1):(1);
+	    for (int i=0; i<elemCount; i++) {
+		final float xr = x.get(2*i), xi = sgn * x.get(2*i+1);
+		final float yr = y.get(2*i), yi = y.get(2*i+1);
+		y.put( 2*i,   Cplx.multReal( xr, xi, yr, yi ));
+		y.put( 2*i+1, Cplx.multImag( xr, xi, yr, yi ));
+	    }
+	}
+
+	@Override
+	public void times( Vec.Real in ) {
+	    Vec.failSize( this, in );
+	    final FloatBuffer x = bufferOf( in ), y = buffer();
+	    for (int i=0; i<elemCount; i++) {
+		final float f = x.get(i);
+		y.put( 2*i,   y.get(2*i)   * f );
+		y.put( 2*i+1, y.get(2*i+1) * f );
+	    }
+	}
+
+	@Override
+	public void times( Vec.Real aIn, Vec.Cplx bIn ) {
+	    Vec.failSize( this, aIn );
+	    Vec.failSize( this, bIn );
+	    final FloatBuffer a = bufferOf( aIn ), b = bufferOf( bIn ), y = buffer();
+	    for (int i=0; i<elemCount; i++) {
+		final float f = a.get(i);
+		final float yr = y.get(2*i)*f, yi = y.get(2*i+1)*f;
+		final float br = b.get(2*i), bi = b.get(2*i+1);
+		y.put( 2*i,   Cplx.multReal( br, bi, yr, yi ));
+		y.put( 2*i+1, Cplx.multImag( br, bi, yr, yi ));
+	    }
+	}
+
+	@Override
+	public void axpyTimes( float a, Vec.Cplx xIn, Vec.Real mIn ) {
+	    Vec.failSize( this, xIn );
+	    Vec.failSize( this, mIn );
+	    final FloatBuffer x = bufferOf( xIn ), m = bufferOf( mIn ), y = buffer();
+	    for (int i=0; i<elemCount; i++) {
+		final float f = a * m.get(i);
+		y.put( 2*i,   y.get(2*i)   + f*x.get(2*i) );
+		y.put( 2*i+1, y.get(2*i+1) + f*x.get(2*i+1) );
+	    }
+	}
+
+	@Override
+	public Cplx.Double timesConjSum( Vec.Cplx in ) {
+	    Vec.failSize( this, in );
+	    final FloatBuffer x = bufferOf( in ), y = buffer();
+	    double re=0, im=0;
+	    for (int i=0; i<elemCount; i++) {
+		final float xr = x.get(2*i), xi = -x.get(2*i+1);
+		final float yr = y.get(2*i), yi =  y.get(2*i+1);
+		re += Cplx.multReal( xr, xi, yr, yi );
+		im += Cplx.multImag( xr, xi, yr, yi );
+	    }
+	    return new Cplx.Double( re, im );
+	}
+
+	@Override
+	public double distanceNorm2( Vec.Cplx in ) {
+	    Vec.failSize( this, in );
+	    final FloatBuffer x = bufferOf( in ), y = buffer();
+	    double ret=0;
+	    for (int i=0; i<2*elemCount; i++) {
+		final float d = y.get(i) - x.get(i);
+		ret += d*d;
+	    }
+	    return ret;
+	}
+
+	@Override
+	public Cplx.Double sumElements() {
+	    final FloatBuffer y = buffer();
+	    double re=0, im=0;
+	    for (int i=0; i<elemCount; i++) {
+		re += y.get(2*i);
+		im += y.get(2*i+1);
+	    }
+	    return new Cplx.Double( re, im );
+	}
+
+	@Override
+	public void addSqr( Vec.Cplx xIn ) {
+	    Vec.failSize( xIn, this );
+	    final FloatBuffer x = bufferOf( xIn ), y = buffer();
+	    for (int i=0; i<elemCount; i++) {
+		final float xr = x.get(2*i), xi = x.get(2*i+1);
+		y.put( 2*i, y.get(2*i) + xr*xr + xi*xi );
+	    }
+	}
+
+	@Override
+	public String first10Elem() {
+	    final boolean held = isStaged();
+	    String ret = stage().first10Elem();
+	    unstage( held );
+	    return ret;
+	}
+    }
+
+
+    // ------ 2D vectors ------
+
+    /** Real-valued 2d vector in native memory */
+    public static class NReal2D extends NReal implements Vec2d.Real {
+	final int width, height;
+
+	NReal2D(int w, int h) {
+	    super(w*h);
+	    width=w; height=h;
+	}
+
+	NReal2D(int w, int h, FloatBuffer b) {
+	    super(w*h, b);
+	    width=w; height=h;
+	}
+
+	@Override
+	Vec2d.Real createStaging() {
+	    return Vec.getBasicVectorFactory().createReal2D( width, height );
+	}
+
+	@Override
+	public int vectorWidth() { return width; }
+	@Override
+	public int vectorHeight() { return height; }
+
+	@Override
+	public NReal2D duplicate() {
+	    NReal2D ret = new NReal2D( width, height );
+	    ret.copy( this );
+	    return ret;
+	}
+
+	@Override
+	public float get(int x, int y) {
+	    return at( x + y*width );
+	}
+
+	@Override
+	public void set(int x, int y, float a) {
+	    put( x + y*width, a );
+	}
+
+	@Override
+	public void getRow(int y, float [] row) {
+	    FloatBuffer b = buffer().duplicate();
+	    b.position( y*width );
+	    b.get( row, 0, width );
+	}
+
+	@Override
+	public void setRow(int y, float [] row) {
+	    FloatBuffer b = buffer().duplicate();
+	    b.position( y*width );
+	    b.put( row, 0, width );
+	}
+
+	@Override
+	public void paste( Vec2d.Real in, int x, int y, boolean zero ) {
+	    final boolean held = isStaged();
+	    ((Vec2d.Real)stage()).paste( in, x, y, zero );
+	    unstage( held );
+	}
+
+	@Override
+	public void project( Vec3d.Real in, int start, int end ) {
+	    final boolean held = isStaged();
+	    ((Vec2d.Real)stage()).project( in, start, end );
+	    unstage( held );
+	}
+
+	@Override
+	public void project( Vec3d.Real in ) {
+	    project( in, 0, in.vectorDepth()-1 );
+	}
+
+	@Override
+	public void slice( Vec3d.Real in, int n ) {
+	    if ( in.vectorWidth() != width || in.vectorHeight() != height ||
+		n<0 || n>= in.vectorDepth() )
+		throw new RuntimeException("Index mismatch");
+	    bulkCopy( bufferOf( in ), n*width*height, buffer(), 0, width*height );
+	}
+
+	@Override
+	public void setFrom16bitPixels( short [] in ) {
+	    if ( width*height != in.length )
+		throw new RuntimeException("Short array to vector size mismatch");
+	    final FloatBuffer y = buffer();
+	    for (int i=0; i<elemCount; i++)
+		y.put( i, in[i]&0xFFFF );
+	}
+    }
+
+
+    /** Complex-valued 2d vector in native memory */
+    public static class NCplx2D extends NCplx implements Vec2d.Cplx {
+	final int width, height;
+
+	NCplx2D(int w, int h) {
+	    super(w*h);
+	    width=w; height=h;
+	}
+
+	NCplx2D(int w, int h, FloatBuffer b) {
+	    super(w*h, b);
+	    width=w; height=h;
+	}
+
+	@Override
+	Vec2d.Cplx createStaging() {
+	    return Vec.getBasicVectorFactory().createCplx2D( width, height );
+	}
+
+	@Override
+	public int vectorWidth() { return width; }
+	@Override
+	public int vectorHeight() { return height; }
+
+	@Override
+	public NCplx2D duplicate() {
+	    NCplx2D ret = new NCplx2D( width, height );
+	    ret.copy( this );
+	    return ret;
+	}
+
+	@Override
+	public Cplx.Float get(int x, int y) {
+	    return get( x + y*width );
+	}
+
+	@Override
+	public void set(int x, int y, Cplx.Float a) {
+	    set( x + y*width, a );
+	}
+
+	@Override
+	public void set(int x, int y, Cplx.Double a) {
+	    set( x + y*width, a );
+	}
+
+	@Override
+	public float getRe(int x, int y) {
+	    return at( 2*(x + y*width) );
+	}
+
+	@Override
+	public float getIm(int x, int y) {
+	    return at( 2*(x + y*width)+1 );
+	}
+
+	@Override
+	public void setReIm(int x, int y, float re, float im) {
+	    put( 2*(x + y*width),   re );
+	    put( 2*(x + y*width)+1, im );
+	}
+
+	@Override
+	public void getRow(int y, float [] row) {
+	    FloatBuffer b = buffer().duplicate();
+	    b.position( 2*y*width );
+	    b.get( row, 0, 2*width );
+	}
+
+	@Override
+	public void setRow(int y, float [] row) {
+	    FloatBuffer b = buffer().duplicate();
+	    b.position( 2*y*width );
+	    b.put( row, 0, 2*width );
+	}
+
+	@Override
+	public void fft2d( boolean inverse ) {
+	    final boolean held = isStaged();
+	    ((Vec2d.Cplx)stage()).fft2d( inverse );
+	    unstage( held );
+	}
+
+	@Override
+	public void paste( Vec2d.Cplx in, int x, int y, boolean zero ) {
+	    final boolean held = isStaged();
+	    ((Vec2d.Cplx)stage()).paste( in, x, y, zero );
+	    unstage( held );
+	}
+
+	@Override
+	public void pasteFreq( Vec2d.Cplx in, int xOff, int yOff ) {
+	    final boolean held = isStaged();
+	    ((Vec2d.Cplx)stage()).pasteFreq( in, xOff, yOff );
+	    unstage( held );
+	}
+
+	@Override
+	public void pasteFreq( Vec2d.Cplx in ) {
+	    pasteFreq( in, 0, 0 );
+	}
+
+	@Override
+	public void fourierShift( final double kx, final double ky ) {
+	    new FourierShift( width, height, 1, kx, ky, 0 ).apply( buffer() );
+	}
+
+	@Override
+	public void project( Vec3d.Cplx in, int start, int end ) {
+	    final boolean held = isStaged();
+	    ((Vec2d.Cplx)stage()).project( in, start, end );
+	    unstage( held );
+	}
+
+	@Override
+	public void project( Vec3d.Cplx in ) {
+	    project( in, 0, in.vectorDepth()-1 );
+	}
+
+	@Override
+	public void slice( Vec3d.Cplx in, int n ) {
+	    final boolean held = isStaged();
+	    ((Vec2d.Cplx)stage()).slice( in, n );
+	    unstage( held );
+	}
+
+	@Override
+	public void setFrom16bitPixels( short [] in ) {
+	    if ( width*height != in.length )
+		throw new RuntimeException("Short array to vector size mismatch");
+	    final FloatBuffer y = buffer();
+	    for (int i=0; i<elemCount; i++) {
+		y.put( 2*i,   in[i]&0xFFFF );
+		y.put( 2*i+1, 0 );
+	    }
+	}
+    }
+
+
+    // ------ 3D vectors ------
+
+    /** Real-valued 3d vector in native memory */
+    public static class NReal3D extends NReal implements Vec3d.Real {
+	final int width, height, depth;
+
+	NReal3D(int w, int h, int d) {
+	    super(w*h*d);
+	    width=w; height=h; depth=d;
+	}
+
+	NReal3D(int w, int h, int d, FloatBuffer b) {
+	    super(w*h*d, b);
+	    width=w; height=h; depth=d;
+	}
+
+	@Override
+	Vec3d.Real createStaging() {
+	    return Vec.getBasicVectorFactory().createReal3D( width, height, depth );
+	}
+
+	@Override
+	public int vectorWidth() { return width; }
+	@Override
+	public int vectorHeight() { return height; }
+	@Override
+	public int vectorDepth() { return depth; }
+
+	@Override
+	public NReal3D duplicate() {
+	    NReal3D ret = new NReal3D( width, height, depth );
+	    ret.copy( this );
+	    return ret;
+	}
+
+	@Override
+	public float get(int x, int y, int z) {
+	    return at( x + y*width + z*width*height );
+	}
+
+	@Override
+	public void set(int x, int y, int z, float a) {
+	    put( x + y*width + z*width*height, a );
+	}
+
+	@Override
+	public void setSlice( int z, Vec2d.Real vec ) {
+	    if (( vec.vectorWidth() != width ) ||
+		( vec.vectorHeight() != height ) ||
+		z<0 || z>= depth )
+		throw new RuntimeException("Index mismatch");
+	    bulkCopy( bufferOf( vec ), 0, buffer(), z*width*height, width*height );
+	}
+    }
+
+
+    /** Complex-valued 3d vector in native memory */
+    public static class NCplx3D extends NCplx implements Vec3d.Cplx {
+	final int width, height, depth;
+
+	NCplx3D(int w, int h, int d) {
+	    super(w*h*d);
+	    width=w; height=h; depth=d;
+	}
+
+	NCplx3D(int w, int h, int d, FloatBuffer b) {
+	    super(w*h*d, b);
+	    width=w; height=h; depth=d;
+	}
+
+	@Override
+	Vec3d.Cplx createStaging() {
+	    return Vec.getBasicVectorFactory().createCplx3D( width, height, depth );
+	}
+
+	@Override
+	public int vectorWidth() { return width; }
+	@Override
+	public int vectorHeight() { return height; }
+	@Override
+	public int vectorDepth() { return depth; }
+
+	@Override
+	public NCplx3D duplicate() {
+	    NCplx3D ret = new NCplx3D( width, height, depth );
+	    ret.copy( this );
+	    return ret;
+	}
+
+	@Override
+	public Cplx.Float get(int x, int y, int z) {
+	    return get( x + y*width + z*width*height );
+	}
+
+	@Override
+	public void set(int x, int y, int z, Cplx.Float a) {
+	    set( x + y*width + z*width*height, a );
+	}
+
+	@Override
+	public void set(int x, int y, int z, Cplx.Double a) {
+	    set( x + y*width + z*width*height, a );
+	}
+
+	@Override
+	public float getRe(int x, int y, int z) {
+	    return at( 2*(x + y*width + z*width*height) );
+	}
+
+	@Override
+	public float getIm(int x, int y, int z) {
+	    return at( 2*(x + y*width + z*width*height)+1 );
+	}
+
+	@Override
+	public void setReIm(int x, int y, int z, float re, float im) {
+	    put( 2*(x + y*width + z*width*height),   re );
+	    put( 2*(x + y*width + z*width*height)+1, im );
+	}
+
+	@Override
+	public void setSlice( int z, Vec2d.Cplx vec ) {
+	    if (( vec.vectorWidth() != width ) ||
+		( vec.vectorHeight() != height ) ||
+		z<0 || z>= depth )
+		throw new RuntimeException("Index mismatch");
+	    bulkCopy( bufferOf( vec ), 0, buffer(),
+		2*z*width*height, 2*width*height );
+	}
+
+	@Override
+	public void setSlice( int z, Vec2d.Real vec ) {
+	    if (( vec.vectorWidth() != width ) ||
+		( vec.vectorHeight() != height ) ||
+		z<0 || z>= depth )
+		throw new RuntimeException("Index mismatch");
+	    final FloatBuffer x = bufferOf( vec ), y = buffer();
+	    final int off = z*width*height;
+	    for (int i=0; i<width*height; i++) {
+		y.put( 2*(i+off),   x.get(i) );
+		y.put( 2*(i+off)+1, 0 );
+	    }
+	}
+
+	@Override
+	public void fft3d( boolean inverse ) {
+	    final boolean held = isStaged();
+	    ((Vec3d.Cplx)stage()).fft3d( inverse );
+	    unstage( held );
+	}
+
+	@Override
+	public void pasteFreq( Vec3d.Cplx in ) {
+	    final boolean held = isStaged();
+	    ((Vec3d.Cplx)stage()).pasteFreq( in );
+	    unstage( held );
+	}
+
+	@Override
+	public void fourierShift( final double kx, final double ky, final double kz ) {
+	    new FourierShift( width, height, depth, kx, ky, kz ).apply( buffer() );
+	}
+    }
+
+}
@@ -0,0 +1,242 @@
+/*
+This file is part of Free Analysis and Interactive Reconstruction
+for Structured Illumination Microscopy (fairSIM).
+
+fairSIM is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 2 of the License, or
+(at your option) any later version.
+
+fairSIM is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package org.fairsim.linalg;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.fairsim.utils.SimpleMT;
+
+/** Real-to-complex 2D / 3D FFT, composed from the 1D complex transforms
+ *  of an {@link FftProvider}.
+ *  <p>
+ *  The half spectrum holds the (w/2+1) x h (x d) non-redundant
+ *  elements, stored interleaved (re,im) and row-major. For even
+ *  widths, each row is transformed as a complex vector of half the
+ *  length (even samples as real, odd samples as imaginary part),
+ *  and separated by one twiddle pass. Odd widths fall back to a
+ *  full-length complex transform of each row.
+ *  */
+class RealFft implements FftProvider.RealInstance {
+
+    final int w, h, d, hw;
+    final boolean even;
+    final Plans rowFft, colFft, depFft;
+    final float [] twCos, twSin;
+
+    /** Create a transform for w x h x d real-valued input, set d=1 for 2D */
+    RealFft( FftProvider p, int w, int h, int d ) {
+	if ( w<2 || h<1 || d<1 )
+	    throw new RuntimeException("Unsupported dimensions");
+	this.w = w; this.h = h; this.d = d;
+	hw   = w/2+1;
+	even = (w%2==0);
+
+	rowFft = new Plans( p, (even)?(w/2):(w) );
+	colFft = (h>1)?(new Plans( p, h )):(null);
+	depFft = (d>1)?(new Plans( p, d )):(null);
+
+	// twiddle factors exp( -2 pi i k / w )
+	twCos = new float[ hw ];
+	twSin = new float[ hw ];
+	for (int k=0; k<hw; k++) {
+	    twCos[k] = (float) Math.cos( 2*Math.PI*k/w );
+	    twSin[k] = (float)-Math.sin( 2*Math.PI*k/w );
+	}
+    }
+
+    /** 1D instances of one size, and work buffers (2n floats) to 
+     *  transform a row or column in. Rows / columns are transformed in 
+     *  parallel, so each thread takes its own instance and buffer. */
+    static final class Plans {
+	final FftProvider p;
+	final int n;
+	final ConcurrentLinkedQueue<FftProvider.Instance> idle =
+	    new ConcurrentLinkedQueue<FftProvider.Instance>();
+	final ConcurrentLinkedQueue<float []> buffers =
+	    new ConcurrentLinkedQueue<float []>();
+
+	Plans( FftProvider p, int n ) {
+	    this.p = p; this.n = n;
+	    idle.offer( p.create1Dfft( n ) );
+	}
+
+	void fftTransform( float [] v, boolean inverse ) {
+	    FftProvider.Instance ffti = idle.poll();
+	    if ( ffti == null )
+		ffti = p.create1Dfft( n );
+	    try {
+		ffti.fftTransform( v, inverse );
+	    } finally {
+		idle.offer( ffti );
+	    }
+	}
+
+	/** Take a work buffer (content undefined), hand it back
+	 *  through {@link #giveBack} */
+	float [] buffer() {
+	    float [] ret = buffers.poll();
+	    return ( ret != null ) ? ret : new float[ 2*n ];
+	}
+
+	void giveBack( float [] b ) {
+	    buffers.offer( b );
+	}
+    }
+
+    /** Width of the half spectrum for an input of width w */
+    static int halfWidth( int w ) {
+	return w/2+1;
+    }
+
+    @Override
+    public void fftForward( final float [] in, final float [] out ) {
+	if ( in.length < w*h*d || out.length < 2*hw*h*d )
+	    throw new RuntimeException("Array size mismatch");
+
+	new SimpleMT.PFor(0, h*d) {
+	    public void at(int r) {
+		forwardRow( in, r*w, out, 2*r*hw );
+	    }
+	};
+	columns( out, false );
+	pencils( out, false );
+    }
+
+    @Override
+    public void fftInverse( final float [] in, final float [] out ) {
+	if ( out.length < w*h*d || in.length < 2*hw*h*d )
+	    throw new RuntimeException("Array size mismatch");
+
+	pencils( in, true );
+	columns( in, true );
+	new SimpleMT.PFor(0, h*d) {
+	    public void at(int r) {
+		inverseRow( in, 2*r*hw, out, r*w );
+	    }
+	};
+    }
+
+    /** Transform one real row into its half spectrum */
+    void forwardRow( float [] in, int iOff, float [] out, int oOff ) {
+
+	final float [] z = rowFft.buffer();
+
+	if (!even) {
+	    for (int i=0; i<w; i++) {
+		z[2*i  ] = in[iOff+i];
+		z[2*i+1] = 0;
+	    }
+	    rowFft.fftTransform( z, false );
+	    System.arraycopy( z, 0, out, oOff, 2*hw );
+	    rowFft.giveBack( z );
+	    return;
+	}
+
+	// even / odd samples packed as re / im
+	final int m = w/2;
+	System.arraycopy( in, iOff, z, 0, w );
+	rowFft.fftTransform( z, false );
+
+	// separate:  X[k] = Fe[k] + W^k Fo[k]
+	for (int k=0; k<=m; k++) {
+	    final int k1 = k%m, k2 = (m-k)%m;
+	    final float ar = z[2*k1], ai =  z[2*k1+1];
+	    final float br = z[2*k2], bi = -z[2*k2+1];
+	    final float er = (ar+br)/2, ei = (ai+bi)/2;
+	    final float or = (ai-bi)/2, oi = (br-ar)/2;
+	    out[ oOff+2*k   ] = er + twCos[k]*or - twSin[k]*oi;
+	    out[ oOff+2*k+1 ] = ei + twCos[k]*oi + twSin[k]*or;
+	}
+	rowFft.giveBack( z );
+    }
+
+    /** Transform one half spectrum row back into a real row */
+    void inverseRow( float [] in, int iOff, float [] out, int oOff ) {
+
+	final float [] z = rowFft.buffer();
+
+	if (!even) {
+	    System.arraycopy( in, iOff, z, 0, 2*hw );
+	    for (int k=1; k<hw; k++) {
+		z[ 2*(w-k)   ] =  in[ iOff+2*k   ];
+		z[ 2*(w-k)+1 ] = -in[ iOff+2*k+1 ];
+	    }
+	    rowFft.fftTransform( z, true );
+	    for (int i=0; i<w; i++)
+		out[oOff+i] = z[2*i];
+	    rowFft.giveBack( z );
+	    return;
+	}
+
+	// combine:  Z[k] = Fe[k] + i Fo[k]
+	final int m = w/2;
+	for (int k=0; k<m; k++) {
+	    final float ar = in[ iOff+2*k ],     ai =  in[ iOff+2*k+1 ];
+	    final float br = in[ iOff+2*(m-k) ], bi = -in[ iOff+2*(m-k)+1 ];
+	    final float er = (ar+br)/2, ei = (ai+bi)/2;
+	    final float gr = (ar-br)/2, gi = (ai-bi)/2;
+	    final float or = gr*twCos[k] + gi*twSin[k];
+	    final float oi = gi*twCos[k] - gr*twSin[k];
+	    z[2*k  ] = er - oi;
+	    z[2*k+1] = ei + or;
+	}
+	rowFft.fftTransform( z, true );
+	System.arraycopy( z, 0, out, oOff, w );
+	rowFft.giveBack( z );
+    }
+
+    /** Transform all columns of the half spectrum */
+    void columns( final float [] a, final boolean inverse ) {
+	if ( colFft == null ) return;
+	new SimpleMT.PFor(0, hw*d) {
+	    public void at(int i) {
+		final int base = (i/hw)*hw*h + i%hw;
+		transformStrided( colFft, a, base, hw, h, inverse );
+	    }
+	};
+    }
+
+    /** Transform all z-pencils of the half spectrum */
+    void pencils( final float [] a, final boolean inverse ) {
+	if ( depFft == null ) return;
+	new SimpleMT.PFor(0, hw*h) {
+	    public void at(int i) {
+		transformStrided( depFft, a, i, hw*h, d, inverse );
+	    }
+	};
+    }
+
+    /** Gather n complex elements, starting at 'base' with 'stride',
+     *  transform and scatter them back */
+    static void transformStrided( Plans fft, float [] a,
+	int base, int stride, int n, boolean inverse ) {
+	final float [] t = fft.buffer();
+	for (int i=0; i<n; i++) {
+	    t[2*i  ] = a[ 2*(base+i*stride)   ];
+	    t[2*i+1] = a[ 2*(base+i*stride)+1 ];
+	}
+	fft.fftTransform( t, inverse );
+	for (int i=0; i<n; i++) {
+	    a[ 2*(base+i*stride)   ] = t[2*i  ];
+	    a[ 2*(base+i*stride)+1 ] = t[2*i+1];
+	}
+	fft.giveBack( t );
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+This file is part of Free Analysis and Interactive Reconstruction
+for Structured Illumination Microscopy (fairSIM).
+
+fairSIM is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 2 of the License, or
+(at your option) any later version.
+
+fairSIM is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package org.fairsim.linalg;
+
+import java.nio.FloatBuffer;
+
+import org.fairsim.utils.SimpleMT;
+
+/** Complex 3D FFT, decomposed into a 2D FFT of each z-plane followed
+ *  by 1D FFTs along z.
+ *  <p>
+ *  The z-transforms work on tiles of neighboring pencils: for each
+ *  plane, the tile's part of the plane is read in one contiguous block,
+ *  so planes are accessed sequentially even if they live in a file.
+ *  Planes and tiles are processed in parallel. Besides the volume itself,
+ *  each thread only holds one plane or one tile, which is what allows
+ *  transforming a {@link MappedStack} larger than the heap.
+ *  */
+final class SlabFft {
+
+    private SlabFft() {}
+
+    /** Target size of a tile of pencils, in floats */
+    static final int TILE_FLOATS = 1<<16;
+
+    /** Access to the z-planes of a volume */
+    static abstract class Planes {
+	/** Buffer holding plane z, interleaved (re,im) */
+	abstract FloatBuffer plane( int z );
+    }
+
+    /** Planes of a w x h x d volume held in an array */
+    static Planes of( final float [] v, final int w, final int h ) {
+	return new Planes() {
+	    FloatBuffer plane( int z ) {
+		return FloatBuffer.wrap( v, 2*z*w*h, 2*w*h ).slice();
+	    }
+	};
+    }
+
+    /** Planes of a (complex-valued) mapped stack */
+    static Planes of( final MappedStack s ) {
+	if ( !s.isComplex() )
+	    throw new RuntimeException("Stack is real-valued");
+	return new Planes() {
+	    FloatBuffer plane( int z ) {
+		return s.planes( z, 1 );
+	    }
+	};
+    }
+
+    /** Run the transform of a w x h x d volume */
+    static void transform( final Planes p, final int w, final int h, final int d,
+	final boolean inverse ) {
+
+	final Transforms.FFTkey planeKey = new Transforms.FFTkey( w, h );
+	final Transforms.FFTkey depthKey = new Transforms.FFTkey( d );
+	final int planeSize = 2*w*h;
+
+	// 2D transform of each plane
+	new SimpleMT.StrPFor( 0, d ) {
+	    public void at( int z ) {
+		final float [] t = new float[ planeSize ];
+		final FloatBuffer b = p.plane( z );
+		b.duplicate().get( t );
+		Transforms.runfft( planeKey, t, inverse );
+		b.duplicate().put( t );
+	    }
+	};
+
+	if ( d < 2 )
+	    return;
+
+	// 1D transforms along z, tile by tile
+	final int pencils = w*h;
+	final int tile = Math.max( 1, Math.min( pencils, TILE_FLOATS / ( 2*d )));
+	final int nrTiles = ( pencils + tile - 1 ) / tile;
+
+	new SimpleMT.StrPFor( 0, nrTiles ) {
+	    public void at( int t ) {
+		final int start = t*tile;
+		final int n = Math.min( tile, pencils - start );
+		final float [] blk = new float[ 2*n*d ];	// [z][pencil]
+		final float [] pen = new float[ 2*d ];
+
+		for (int z=0; z<d; z++) {
+		    FloatBuffer b = p.plane( z ).duplicate();
+		    b.position( 2*start );
+		    b.get( blk, 2*n*z, 2*n );
+		}
+
+		for (int i=0; i<n; i++) {
+		    for (int z=0; z<d; z++) {
+			pen[ 2*z   ] = blk[ 2*(z*n+i)   ];
+			pen[ 2*z+1 ] = blk[ 2*(z*n+i)+1 ];
+		    }
+		    Transforms.runfft( depthKey, pen, inverse );
+		    for (int z=0; z<d; z++) {
+			blk[ 2*(z*n+i)   ] = pen[ 2*z   ];
+			blk[ 2*(z*n+i)+1 ] = pen[ 2*z+1 ];
+		    }
+		}
+
+		for (int z=0; z<d; z++) {
+		    FloatBuffer b = p.plane( z ).duplicate();
+		    b.position( 2*start );
+		    b.put( blk, 2*n*z, 2*n );
+		}
+	    }
+	};
+    }
+
+}
@@ -0,0 +1,481 @@
+/*
+This file is part of Free Analysis and Interactive Reconstruction
+for Structured Illumination Microscopy (fairSIM).
+
+fairSIM is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 2 of the License, or
+(at your option) any later version.
+
+fairSIM is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package org.fairsim.linalg;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+import org.fairsim.utils.SimpleMT;
+
+/** Pure-Java FFT, mixed-radix Stockham (self-sorting, no bit reversal).
+ *  <p>
+ *  Lengths are factored into radix 4, 2, 3, 5 and small generic radix
+ *  passes, lengths with a prime factor above {@link #MAX_RADIX} use
+ *  Bluestein's algorithm. Twiddle factors are precomputed per length
+ *  and shared by all instances of that length. Plans are immutable,
+ *  scratch space is per thread, so an instance can be used by several
+ *  threads at once. 2D and 3D transforms run rows, blocks of columns
+ *  and planes in parallel on the {@link SimpleMT} pool.
+ *  */
+class StockhamFft extends FftProvider {
+
+    /** Largest prime factor handled by a direct radix pass */
+    static final int MAX_RADIX = 13;
+
+    /** Neighboring columns transformed together */
+    static final int BLOCK = 16;
+
+    private volatile boolean parallel = true;
+    private final Map<Integer, Plan> plans = new HashMap<Integer, Plan>();
+
+    /** Add us as an FFT implementation */
+    StockhamFft() {
+	FftProvider.setFftFactory( this );
+    }
+
+    /** Shared plan for length n */
+    Plan plan( int n ) {
+	synchronized ( plans ) {
+	    Plan p = plans.get( n );
+	    if ( p == null ) {
+		p = new Plan( n );
+		plans.put( n, p );
+	    }
+	    return p;
+	}
+    }
+
+    // ------ per-thread scratch ------
+
+    private static final ThreadLocal<float [][]> scratch = new ThreadLocal<float [][]>() {
+	@Override
+	protected float [][] initialValue() {
+	    return new float[2][0];
+	}
+    };
+
+    /** Scratch buffer 'i' (0 or 1) of the current thread, at least 'len' long */
+    static float [] scratch( int i, int len ) {
+	float [][] s = scratch.get();
+	if ( s[i].length < len )
+	    s[i] = new float[ len ];
+	return s[i];
+    }
+
+    // ------ plan for one length ------
+
+    /** Twiddles and radix sequence of one transform length */
+    static final class Plan {
+	final int n;
+	final int [] radix;
+	final float [][] tw;	// per pass: w^(j*u), j<m, u=1..p-1, interleaved
+	final float [][] roots;	// per pass, generic radix only: exp(-2 pi i k/p)
+
+	// Bluestein, if n has a large prime factor
+	final Plan conv;
+	final float [] chirp, chirpFft;
+
+	Plan( int n ) {
+	    if ( n < 1 )
+		throw new RuntimeException("FFT length has to be positive");
+	    this.n = n;
+	    int [] f = factor( n );
+
+	    if ( f != null ) {
+		radix = f;
+		tw    = new float[ f.length ][];
+		roots = new float[ f.length ][];
+		int len = n;
+		for (int s=0; s<f.length; s++) {
+		    int p = f[s], m = len/p;
+		    tw[s] = new float[ 2*m*(p-1) ];
+		    for (int j=0; j<m; j++)
+			for (int u=1; u<p; u++) {
+			    double a = -2*Math.PI*((long)j*u)/len;
+			    tw[s][ 2*(j*(p-1)+u-1)   ] = (float) Math.cos( a );
+			    tw[s][ 2*(j*(p-1)+u-1)+1 ] = (float) Math.sin( a );
+			}
+		    if ( p > 5 ) {
+			roots[s] = new float[ 2*p ];
+			for (int k=0; k<p; k++) {
+			    roots[s][2*k  ] = (float) Math.cos( -2*Math.PI*k/p );
+			    roots[s][2*k+1] = (float) Math.sin( -2*Math.PI*k/p );
+			}
+		    }
+		    len = m;
+		}
+		conv = null; chirp = null; chirpFft = null;
+		return;
+	    }
+
+	    // Bluestein: X_k = w_k * sum_j (x_j w_j) conj(w_(k-j)), w_k = exp(-i pi k^2/n)
+	    radix = null; tw = null; roots = null;
+	    int m = 1;
+	    while ( m < 2*n-1 ) m*=2;
+	    conv  = new Plan( m );
+	    chirp = new float[ 2*n ];
+	    for (int k=0; k<n; k++) {
+		double a = -Math.PI * (( (long)k*k ) % ( 2L*n )) / n;
+		chirp[2*k  ] = (float) Math.cos( a );
+		chirp[2*k+1] = (float) Math.sin( a );
+	    }
+	    chirpFft = new float[ 2*m ];
+	    for (int k=0; k<n; k++) {
+		chirpFft[ 2*k   ] =  chirp[2*k];
+		chirpFft[ 2*k+1 ] = -chirp[2*k+1];
+		if ( k > 0 ) {
+		    chirpFft[ 2*(m-k)   ] =  chirp[2*k];
+		    chirpFft[ 2*(m-k)+1 ] = -chirp[2*k+1];
+		}
+	    }
+	    conv.forward( chirpFft, 0, new float[ 2*m ], 1 );
+	}
+
+	/** Radix sequence for n, null if it has a prime factor above MAX_RADIX */
+	static int [] factor( int n ) {
+	    List<Integer> f = new ArrayList<Integer>();
+	    while ( n%4 == 0 ) { f.add( 4 ); n/=4; }
+	    while ( n%2 == 0 ) { f.add( 2 ); n/=2; }
+	    for (int p=3; p<=MAX_RADIX; p+=2)
+		while ( n%p == 0 ) { f.add( p ); n/=p; }
+	    if ( n != 1 )
+		return null;
+	    int [] ret = new int[ f.size() ];
+	    for (int i=0; i<ret.length; i++)
+		ret[i] = f.get(i);
+	    return ret;
+	}
+
+	/** Forward FFT (unnormalized) of 'batch' interleaved sequences:
+	 *  element k of sequence c is at x[ xo + 2*(c + batch*k) ].
+	 *  'y' is scratch space of at least 2*n*batch floats. */
+	void forward( float [] x, int xo, float [] y, int batch ) {
+	    if ( conv != null ) {
+		bluestein( x, xo, batch );
+		return;
+	    }
+	    float [] src = x, dst = y;
+	    int so = xo, dof = 0;
+	    int len = n, s = batch;
+	    for (int st=0; st<radix.length; st++) {
+		int p = radix[st], m = len/p;
+		switch ( p ) {
+		    case 4:  r4( src, so, dst, dof, m, s, tw[st] ); break;
+		    case 2:  r2( src, so, dst, dof, m, s, tw[st] ); break;
+		    case 3:  r3( src, so, dst, dof, m, s, tw[st] ); break;
+		    case 5:  r5( src, so, dst, dof, m, s, tw[st] ); break;
+		    default: rg( src, so, dst, dof, m, s, p, tw[st], roots[st] );
+		}
+		float [] t = src; src = dst; dst = t;
+		int to = so; so = dof; dof = to;
+		len = m; s *= p;
+	    }
+	    if ( src != x )
+		System.arraycopy( src, so, x, xo, 2*n*batch );
+	}
+
+	private void bluestein( float [] x, int xo, int batch ) {
+	    final int m = conv.n;
+	    float [] a = new float[ 2*m ], t = new float[ 2*m ];
+	    for (int c=0; c<batch; c++) {
+		java.util.Arrays.fill( a, 0 );
+		for (int k=0; k<n; k++) {
+		    int i = xo + 2*(c + batch*k);
+		    cmul( x[i], x[i+1], chirp[2*k], chirp[2*k+1], a, 2*k );
+		}
+		conv.forward( a, 0, t, 1 );
+		// inverse through conjugation: ifft(z) = conj(fft(conj(z)))/m
+		for (int k=0; k<m; k++) {
+		    cmul( a[2*k], a[2*k+1], chirpFft[2*k], chirpFft[2*k+1], a, 2*k );
+		    a[2*k+1] = -a[2*k+1];
+		}
+		conv.forward( a, 0, t, 1 );
+		final float sc = 1.f/m;
+		for (int k=0; k<n; k++) {
+		    int i = xo + 2*(c + batch*k);
+		    cmul( a[2*k]*sc, -a[2*k+1]*sc, chirp[2*k], chirp[2*k+1], x, i );
+		}
+	    }
+	}
+    }
+
+    static void cmul( float ar, float ai, float br, float bi, float [] out, int i ) {
+	out[i  ] = ar*br - ai*bi;
+	out[i+1] = ar*bi + ai*br;
+    }
+
+    // ------ radix passes ------
+    // input element t of butterfly (j,q) is at xo + 2*(q + s*(j + t*m)),
+    // output element u at yo + 2*(q + s*(p*j + u)), multiplied by w^(j*u)
+
+    static void r2( float [] x, int xo, float [] y, int yo, int m, int s, float [] w ) {
+	final int is = 2*s*m;
+	for (int j=0; j<m; j++) {
+	    final float wr = w[2*j], wi = w[2*j+1];
+	    int i = xo + 2*s*j, o = yo + 4*s*j;
+	    for (int q=0; q<s; q++, i+=2, o+=2) {
+		float ar = x[i],    ai = x[i+1];
+		float br = x[i+is], bi = x[i+is+1];
+		y[o] = ar+br; y[o+1] = ai+bi;
+		float dr = ar-br, di = ai-bi;
+		y[o+2*s] = dr*wr - di*wi; y[o+2*s+1] = dr*wi + di*wr;
+	    }
+	}
+    }
+
+    static void r4( float [] x, int xo, float [] y, int yo, int m, int s, float [] w ) {
+	final int is = 2*s*m, os = 2*s;
+	for (int j=0; j<m; j++) {
+	    final float w1r = w[6*j  ], w1i = w[6*j+1];
+	    final float w2r = w[6*j+2], w2i = w[6*j+3];
+	    final float w3r = w[6*j+4], w3i = w[6*j+5];
+	    int i = xo + 2*s*j, o = yo + 8*s*j;
+	    for (int q=0; q<s; q++, i+=2, o+=2) {
+		float a0r = x[i],      a0i = x[i+1];
+		float a1r = x[i+is],   a1i = x[i+is+1];
+		float a2r = x[i+2*is], a2i = x[i+2*is+1];
+		float a3r = x[i+3*is], a3i = x[i+3*is+1];
+		float t0r = a0r+a2r, t0i = a0i+a2i;
+		float t1r = a0r-a2r, t1i = a0i-a2i;
+		float t2r = a1r+a3r, t2i = a1i+a3i;
+		float t3r = a1r-a3r, t3i = a1i-a3i;
+		y[o] = t0r+t2r; y[o+1] = t0i+t2i;
+		// b1 = t1 - i t3, b2 = t0 - t2, b3 = t1 + i t3
+		float b1r = t1r+t3i, b1i = t1i-t3r;
+		float b2r = t0r-t2r, b2i = t0i-t2i;
+		float b3r = t1r-t3i, b3i = t1i+t3r;
+		y[o+os  ] = b1r*w1r - b1i*w1i; y[o+os+1  ] = b1r*w1i + b1i*w1r;
+		y[o+2*os] = b2r*w2r - b2i*w2i; y[o+2*os+1] = b2r*w2i + b2i*w2r;
+		y[o+3*os] = b3r*w3r - b3i*w3i; y[o+3*os+1] = b3r*w3i + b3i*w3r;
+	    }
+	}
+    }
+
+    static final float SIN60 = (float) Math.sin( Math.PI/3 );
+
+    static void r3( float [] x, int xo, float [] y, int yo, int m, int s, float [] w ) {
+	final int is = 2*s*m, os = 2*s;
+	for (int j=0; j<m; j++) {
+	    final float w1r = w[4*j  ], w1i = w[4*j+1];
+	    final float w2r = w[4*j+2], w2i = w[4*j+3];
+	    int i = xo + 2*s*j, o = yo + 6*s*j;
+	    for (int q=0; q<s; q++, i+=2, o+=2) {
+		float a0r = x[i],      a0i = x[i+1];
+		float a1r = x[i+is],   a1i = x[i+is+1];
+		float a2r = x[i+2*is], a2i = x[i+2*is+1];
+		float tr = a1r+a2r, ti = a1i+a2i;
+		y[o] = a0r+tr; y[o+1] = a0i+ti;
+		float mr = a0r - .5f*tr, mi = a0i - .5f*ti;
+		// -i * sin60 * (a1-a2)
+		float nr = SIN60*(a1i-a2i), ni = -SIN60*(a1r-a2r);
+		float b1r = mr+nr, b1i = mi+ni;
+		float b2r = mr-nr, b2i = mi-ni;
+		y[o+os  ] = b1r*w1r - b1i*w1i; y[o+os+1  ] = b1r*w1i + b1i*w1r;
+		y[o+2*os] = b2r*w2r - b2i*w2i; y[o+2*os+1] = b2r*w2i + b2i*w2r;
+	    }
+	}
+    }
+
+    static final float C1 = (float) Math.cos( 2*Math.PI/5 ), C2 = (float) Math.cos( 4*Math.PI/5 );
+    static final float S1 = (float) Math.sin( 2*Math.PI/5 ), S2 = (float) Math.sin( 4*Math.PI/5 );
+
+    static void r5( float [] x, int xo, float [] y, int yo, int m, int s, float [] w ) {
+	final int is = 2*s*m, os = 2*s;
+	for (int j=0; j<m; j++) {
+	    final int wo = 8*j;
+	    int i = xo + 2*s*j, o = yo + 10*s*j;
+	    for (int q=0; q<s; q++, i+=2, o+=2) {
+		float a0r = x[i],      a0i = x[i+1];
+		float a1r = x[i+is],   a1i = x[i+is+1];
+		float a2r = x[i+2*is], a2i = x[i+2*is+1];
+		float a3r = x[i+3*is], a3i = x[i+3*is+1];
+		float a4r = x[i+4*is], a4i = x[i+4*is+1];
+		float t1r = a1r+a4r, t1i = a1i+a4i;
+		float t2r = a2r+a3r, t2i = a2i+a3i;
+		float t3r = a1r-a4r, t3i = a1i-a4i;
+		float t4r = a2r-a3r, t4i = a2i-a3i;
+		y[o] = a0r+t1r+t2r; y[o+1] = a0i+t1i+t2i;
+		float m1r = a0r + C1*t1r + C2*t2r, m1i = a0i + C1*t1i + C2*t2i;
+		float m2r = a0r + C2*t1r + C1*t2r, m2i = a0i + C2*t1i + C1*t2i;
+		float n1r = S1*t3r + S2*t4r, n1i = S1*t3i + S2*t4i;
+		float n2r = S2*t3r - S1*t4r, n2i = S2*t3i - S1*t4i;
+		// b1 = m1 - i n1, b4 = m1 + i n1, b2 = m2 - i n2, b3 = m2 + i n2
+		twStore( m1r+n1i, m1i-n1r, w, wo,   y, o+os   );
+		twStore( m2r+n2i, m2i-n2r, w, wo+2, y, o+2*os );
+		twStore( m2r-n2i, m2i+n2r, w, wo+4, y, o+3*os );
+		twStore( m1r-n1i, m1i+n1r, w, wo+6, y, o+4*os );
+	    }
+	}
+    }
+
+    static void twStore( float br, float bi, float [] w, int wi, float [] y, int o ) {
+	y[o  ] = br*w[wi] - bi*w[wi+1];
+	y[o+1] = br*w[wi+1] + bi*w[wi];
+    }
+
+    /** Generic radix-p pass, direct DFT of the butterfly */
+    static void rg( float [] x, int xo, float [] y, int yo, int m, int s, int p,
+	float [] w, float [] rt ) {
+	final int is = 2*s*m, os = 2*s;
+	final float [] ar = new float[p], ai = new float[p];
+	for (int j=0; j<m; j++) {
+	    int i = xo + 2*s*j, o = yo + 2*p*s*j;
+	    for (int q=0; q<s; q++, i+=2, o+=2) {
+		for (int t=0; t<p; t++) {
+		    ar[t] = x[i+t*is]; ai[t] = x[i+t*is+1];
+		}
+		for (int u=0; u<p; u++) {
+		    float sr = 0, si = 0;
+		    for (int t=0, k=0; t<p; t++, k=(k+u)%p) {
+			sr += ar[t]*rt[2*k] - ai[t]*rt[2*k+1];
+			si += ar[t]*rt[2*k+1] + ai[t]*rt[2*k];
+		    }
+		    if ( u == 0 ) {
+			y[o] = sr; y[o+1] = si;
+		    } else {
+			twStore( sr, si, w, 2*(j*(p-1)+u-1), y, o+u*os );
+		    }
+		}
+	    }
+	}
+    }
+
+    // ------ multi-dimensional transforms ------
+
+    /** Loop body, run in parallel if enabled */
+    abstract class Loop {
+	abstract void at( int i );
+	void run( int n ) {
+	    if ( parallel && n > 1 ) {
+		new SimpleMT.PFor( 0, n ) {
+		    public void at( int i ) {
+			Loop.this.at( i );
+		    }
+		};
+	    } else {
+		for (int i=0; i<n; i++)
+		    at( i );
+	    }
+	}
+    }
+
+    /** Transform 'count' contiguous sequences of length pl.n, starting at 'off' */
+    void rows( final float [] v, final int off, final Plan pl, int count ) {
+	new Loop() {
+	    void at( int r ) {
+		pl.forward( v, off + 2*r*pl.n, scratch( 1, 2*pl.n ), 1 );
+	    }
+	}.run( count );
+    }
+
+    /** Transform sequences along a strided axis: for o &lt; outer and
+     *  c &lt; inner, the elements v[ o*os + c + k*es ], k &lt; pl.n
+     *  (in complex elements). Neighboring c are gathered in blocks. */
+    void strided( final float [] v, final Plan pl, final int outer, final int os,
+	final int inner, final int es ) {
+	final int blocks = ( inner + BLOCK - 1 ) / BLOCK;
+	final int n = pl.n;
+	new Loop() {
+	    void at( int idx ) {
+		final int o  = idx / blocks;
+		final int c0 = ( idx % blocks ) * BLOCK;
+		final int b  = Math.min( BLOCK, inner - c0 );
+		final float [] a = scratch( 0, 2*b*n );
+		final int base = 2*( o*os + c0 );
+		for (int k=0; k<n; k++)
+		    System.arraycopy( v, base + 2*k*es, a, 2*k*b, 2*b );
+		pl.forward( a, 0, scratch( 1, 2*b*n ), b );
+		for (int k=0; k<n; k++)
+		    System.arraycopy( a, 2*k*b, v, base + 2*k*es, 2*b );
+	    }
+	}.run( outer * blocks );
+    }
+
+    /** Prepare an inverse transform: inverse(z) = conj(fwd(conj(z)))/n */
+    static void conj( float [] v, int len ) {
+	for (int i=1; i<2*len; i+=2)
+	    v[i] = -v[i];
+    }
+
+    static void conjScale( float [] v, int len ) {
+	final float s = 1.f/len;
+	for (int i=0; i<2*len; i+=2) {
+	    v[i  ] *= s;
+	    v[i+1] *= -s;
+	}
+    }
+
+    static void checkLength( float [] v, int len ) {
+	if ( v.length < 2*len )
+	    throw new RuntimeException("Array too short for FFT");
+    }
+
+    public FftProvider.Instance create1Dfft( final int n ) {
+	final Plan pl = plan( n );
+	return new FftProvider.Instance() {
+	    public void fftTransform( float [] v, boolean inverse ) {
+		checkLength( v, n );
+		if ( inverse ) conj( v, n );
+		pl.forward( v, 0, scratch( 1, 2*n ), 1 );
+		if ( inverse ) conjScale( v, n );
+	    }
+	};
+    }
+
+    public FftProvider.Instance create2Dfft( final int x, final int y ) {
+	final Plan px = plan( x ), py = plan( y );
+	return new FftProvider.Instance() {
+	    public void fftTransform( float [] v, boolean inverse ) {
+		checkLength( v, x*y );
+		if ( inverse ) conj( v, x*y );
+		rows( v, 0, px, y );
+		strided( v, py, 1, 0, x, x );
+		if ( inverse ) conjScale( v, x*y );
+	    }
+	};
+    }
+
+    public FftProvider.Instance create3Dfft( final int x, final int y, final int z ) {
+	final Plan px = plan( x ), py = plan( y ), pz = plan( z );
+	return new FftProvider.Instance() {
+	    public void fftTransform( float [] v, boolean inverse ) {
+		checkLength( v, x*y*z );
+		if ( inverse ) conj( v, x*y*z );
+		rows( v, 0, px, y*z );
+		strided( v, py, z, x*y, x, x );
+		strided( v, pz, 1, 0, x*y, x*y );
+		if ( inverse ) conjScale( v, x*y*z );
+	    }
+	};
+    }
+
+    /** Loops run on the SimpleMT pool, serial if it has only one thread */
+    @Override
+    protected void useThreadPool( ExecutorService pool, int nrThreads ) {
+	parallel = ( nrThreads > 1 );
+    }
+
+    public String getImplementationName() {
+	return "Stockham (pure Java)";
+    }
+
+}
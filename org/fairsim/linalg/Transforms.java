@@ -20,8 +20,6 @@ package org.fairsim.linalg;
 
 import org.fairsim.utils.SimpleMT;
 
-import java.util.Map;
-import java.util.TreeMap;
 
 /**
  * Provides FFTs for vector elements.
@@ -39,6 +37,110 @@ public abstract class Transforms {
 	in.fft3d(inverse);
     }
 
+    /** Largest transform (in elements) for which batches are spread
+     *  across cores, one transform per thread. Larger transforms run 
+     *  in sequence, each threaded by the FFT implementation. */
+    static private int batchParallelMaxSize = 512*512;
+
+    /** Set the largest transform size (in elements) for which
+     *  batches are spread across cores, see {@link #fft2d(Vec2d.Cplx[], boolean)}. */
+    static public void setBatchParallelMaxSize( int n ) {
+	batchParallelMaxSize = n;
+    }
+
+    /** Two-dimensional FFT of all vectors in 'batch', which have
+     *  to be of the same size. If the FFT implementation supports batches
+     *  (see {@link FftProvider.BatchInstance}), the batch is handed to it 
+     *  in one call. Otherwise, small transforms run concurrently, each
+     *  thread borrowing its own instance from the plan cache. */
+    static public void fft2d( final Vec2d.Cplx [] batch, final boolean inverse ) {
+	if ( batch.length == 0 ) return;
+	Vec2d.failSize( batch );
+	final int w = batch[0].vectorWidth();
+	final int h = batch[0].vectorHeight();
+
+	if ( runBatch( new FFTkey(w,h), batch, inverse ) )
+	    return;
+
+	if ( batch.length > 1 && w*h <= batchParallelMaxSize ) {
+	    new SimpleMT.StrPFor(0, batch.length) {
+		public void at(int i) {
+		    batch[i].fft2d( inverse );
+		}
+	    };
+	} else {
+	    for ( Vec2d.Cplx v : batch )
+		v.fft2d( inverse );
+	}
+    }
+    
+    /** Three-dimensional FFT of all vectors in 'batch', which have
+     *  to be of the same size. See {@link #fft2d(Vec2d.Cplx[], boolean)}. */
+    static public void fft3d( final Vec3d.Cplx [] batch, final boolean inverse ) {
+	if ( batch.length == 0 ) return;
+	Vec3d.failSize( batch );
+	final int w = batch[0].vectorWidth();
+	final int h = batch[0].vectorHeight();
+	final int d = batch[0].vectorDepth();
+
+	if ( runBatch( new FFTkey(w,h,d), batch, inverse ) )
+	    return;
+
+	if ( batch.length > 1 && w*h*d <= batchParallelMaxSize ) {
+	    new SimpleMT.StrPFor(0, batch.length) {
+		public void at(int i) {
+		    batch[i].fft3d( inverse );
+		}
+	    };
+	} else {
+	    for ( Vec3d.Cplx v : batch )
+		v.fft3d( inverse );
+	}
+    }
+
+    /** Forward FFT of all real-valued vectors in 'in' into the full
+     *  spectra 'out', see {@link #fft2d(Vec2d.Real, Vec2d.Cplx)}. All
+     *  vectors have to be of the same size. */
+    static public void fft2d( final Vec2d.Real [] in, final Vec2d.Cplx [] out ) {
+	if ( in.length != out.length )
+	    throw new RuntimeException("Batch length mismatch");
+	if ( in.length == 0 ) return;
+	Vec2d.failSize( in );
+	Vec2d.failSize( out );
+	
+	final int w = in[0].vectorWidth();
+	final int h = in[0].vectorHeight();
+	if ( in.length > 1 && w*h <= batchParallelMaxSize ) {
+	    new SimpleMT.StrPFor(0, in.length) {
+		public void at(int i) {
+		    fft2d( in[i], out[i] );
+		}
+	    };
+	} else {
+	    for (int i=0; i<in.length; i++)
+		fft2d( in[i], out[i] );
+	}
+    }
+
+    /** Hand the batch to the FFT implementation, if it supports batches. 
+     *  Returns false otherwise. */
+    static private boolean runBatch( FFTkey k, Vec.Cplx [] batch, boolean inverse ) {
+	FftProvider.Instance ffti = instances.borrow( k );
+	try {
+	    if (!( ffti instanceof FftProvider.BatchInstance ))
+		return false;
+	    float [][] dat = new float[ batch.length ][];
+	    for (int i=0; i<batch.length; i++)
+		dat[i] = batch[i].vectorData();
+	    ((FftProvider.BatchInstance)ffti).fftTransform( dat, inverse );
+	    for (int i=0; i<batch.length; i++)
+		batch[i].syncBuffer();
+	    return true;
+	} finally {
+	    instances.giveBack( k, ffti );
+	}
+    }
+
 
 
 
@@ -47,10 +149,7 @@ public abstract class Transforms {
 	// get parameters
 	final int w = in.vectorWidth();
 	final int h = in.vectorHeight();
-	// see if we have an instance already, otherwise make one
-	FftProvider.Instance ffti = getOrCreateInstance(new FFTkey(w,h));
-	float [] dat = in.vectorData();
-	ffti.fftTransform( dat , inverse );
+	runfft( new FFTkey(w,h), in.vectorData(), inverse );
 	in.syncBuffer();
     }
 
@@ -59,21 +158,41 @@ public abstract class Transforms {
 	final int w = in.vectorWidth();
 	final int h = in.vectorHeight();
 	final int d = in.vectorDepth();
-	// see if we have an instance already, otherwise make one
-	FftProvider.Instance ffti = getOrCreateInstance(new FFTkey(w,h,d));
-	float [] dat = in.vectorData();
-	ffti.fftTransform( dat , inverse );
+	if ( (long)w*h*d >= slabFftThreshold )
+	    SlabFft.transform( SlabFft.of( in.vectorData(), w, h ), w, h, d, inverse );
+	else
+	    runfft( new FFTkey(w,h,d), in.vectorData(), inverse );
 	in.syncBuffer();
     }
 
+    static private volatile long slabFftThreshold = 1L<<26;
+
+    /** Volumes with at least 'n' elements are transformed plane by plane
+     *  (2D FFTs, then 1D FFTs along z), which needs much less scratch memory
+     *  than a full 3D transform. Set to Long.MAX_VALUE to switch off. */
+    static public void setSlabFftThreshold( long n ) {
+	slabFftThreshold = n;
+    }
+
+    /** See {@link #setSlabFftThreshold} */
+    static public long getSlabFftThreshold() {
+	return slabFftThreshold;
+    }
+
+    /** In-place 3D FFT of a complex-valued {@link MappedStack}. Planes
+     *  are streamed through the mapping, so only a few planes (one per
+     *  thread) have to fit into memory at any time. */
+    static public void fft3d( MappedStack in, boolean inverse ) {
+	SlabFft.transform( SlabFft.of( in ), in.vectorWidth(), 
+	    in.vectorHeight(), in.vectorDepth(), inverse );
+    }
+
 
 
     /** One-dimensional FFT of the complex input vector. */
     static public void fft1d( Vec.Cplx in, boolean inverse ) {
 	final int len = in.vectorSize();
-	FftProvider.Instance ffti = getOrCreateInstance( new FFTkey(len));
-	float [] dat = in.vectorData();
-	ffti.fftTransform( dat, inverse );
+	runfft( new FFTkey(len), in.vectorData(), inverse );
 	in.syncBuffer();
     }
 
@@ -82,8 +201,249 @@ public abstract class Transforms {
      *  the input array */
     static public void fft1d( float [] in, boolean inverse ) {
 	final int len = in.length/2;
-	FftProvider.Instance ffti = getOrCreateInstance( new FFTkey(len));
-	ffti.fftTransform( in, inverse );
+	runfft( new FFTkey(len), in, inverse );
+    }
+
+    // -----------------------------------------------------------
+    // Transforms of real-valued input
+
+    /** Width of the Hermitian-packed half spectrum of a real-valued
+     *  input of width w. */
+    static public int halfSpectrumWidth( int w ) {
+	return RealFft.halfWidth( w );
+    }
+
+    /** Forward FFT of real-valued 'in' (w x h) into its half spectrum 'out', 
+     *  which has to be sized (w/2+1) x h. */
+    static public void fft2dReal( Vec2d.Real in, Vec2d.Cplx out ) {
+	final int w = in.vectorWidth();
+	final int h = in.vectorHeight();
+	if ( out.vectorWidth() != halfSpectrumWidth(w) || out.vectorHeight() != h )
+	    throw new RuntimeException("Half spectrum size mismatch");
+	runRealFft( new FFTkey(w,h), in.vectorData(), out.vectorData(), false );
+	out.syncBuffer();
+    }
+
+    /** Inverse FFT of the half spectrum 'in', sized (w/2+1) x h, into
+     *  real-valued 'out' (w x h). 'in' is not modified. */
+    static public void ifft2dReal( Vec2d.Cplx in, Vec2d.Real out ) {
+	final int w = out.vectorWidth();
+	final int h = out.vectorHeight();
+	if ( in.vectorWidth() != halfSpectrumWidth(w) || in.vectorHeight() != h )
+	    throw new RuntimeException("Half spectrum size mismatch");
+	float [] tmp = in.vectorData().clone();
+	runRealFft( new FFTkey(w,h), tmp, out.vectorData(), true );
+	out.syncBuffer();
+    }
+    
+    /** Forward FFT of real-valued 'in' (w x h x d) into its half spectrum 'out', 
+     *  which has to be sized (w/2+1) x h x d. */
+    static public void fft3dReal( Vec3d.Real in, Vec3d.Cplx out ) {
+	final int w = in.vectorWidth();
+	final int h = in.vectorHeight();
+	final int d = in.vectorDepth();
+	if ( out.vectorWidth() != halfSpectrumWidth(w) || 
+	     out.vectorHeight() != h || out.vectorDepth() != d )
+	    throw new RuntimeException("Half spectrum size mismatch");
+	runRealFft( new FFTkey(w,h,d), in.vectorData(), out.vectorData(), false );
+	out.syncBuffer();
+    }
+
+    /** Inverse FFT of the half spectrum 'in', sized (w/2+1) x h x d, into
+     *  real-valued 'out' (w x h x d). 'in' is not modified. */
+    static public void ifft3dReal( Vec3d.Cplx in, Vec3d.Real out ) {
+	final int w = out.vectorWidth();
+	final int h = out.vectorHeight();
+	final int d = out.vectorDepth();
+	if ( in.vectorWidth() != halfSpectrumWidth(w) || 
+	     in.vectorHeight() != h || in.vectorDepth() != d )
+	    throw new RuntimeException("Half spectrum size mismatch");
+	float [] tmp = in.vectorData().clone();
+	runRealFft( new FFTkey(w,h,d), tmp, out.vectorData(), true );
+	out.syncBuffer();
+    }
+
+    /** Forward FFT of real-valued 'in' into the full spectrum 'out'
+     *  (both w x h). Runs the real-to-complex transform in place and
+     *  fills in the redundant half by Hermitian symmetry. */
+    static public void fft2d( Vec2d.Real in, Vec2d.Cplx out ) {
+	final int w = in.vectorWidth();
+	final int h = in.vectorHeight();
+	Vec2d.failSize( in, out );
+	final float [] o = out.vectorData();
+	runRealFft( new FFTkey(w,h), in.vectorData(), o, false );
+	
+	// spread rows from (w/2+1) to w stride, last row first
+	final int hw = halfSpectrumWidth(w);
+	for (int y=h-1; y>0; y--)
+	    System.arraycopy( o, 2*y*hw, o, 2*y*w, 2*hw );
+	
+	// X[w-x, h-y] = conj( X[x,y] )
+	new SimpleMT.PFor(0,h) {
+	    public void at(int y) {
+		final int yc = (h-y)%h;
+		for (int x=hw; x<w; x++) {
+		    o[ 2*(y*w+x)   ] =  o[ 2*(yc*w+w-x)   ];
+		    o[ 2*(y*w+x)+1 ] = -o[ 2*(yc*w+w-x)+1 ];
+		}
+	    }
+	};
+	out.syncBuffer();
+    }
+
+    /** Inverse FFT of the full spectrum 'in', storing the real part of 
+     *  the result in 'out' (both w x h). Only the Hermitian part of 'in'
+     *  contributes to the real part, so this runs as complex-to-real transform.
+     *  'in' is not modified. */
+    static public void ifft2d( Vec2d.Cplx in, Vec2d.Real out ) {
+	final int w = in.vectorWidth();
+	final int h = in.vectorHeight();
+	Vec2d.failSize( in, out );
+	
+	final int hw = halfSpectrumWidth(w);
+	final float [] x = in.vectorData();
+	final float [] half = scratch( 0, 2*hw*h );
+
+	// H[x,y] = ( X[x,y] + conj( X[w-x,h-y] ) ) / 2
+	new SimpleMT.PFor(0,h) {
+	    public void at(int y) {
+		final int yc = (h-y)%h;
+		for (int k=0; k<hw; k++) {
+		    final int i = y*w+k, j = yc*w+(w-k)%w;
+		    half[ 2*(y*hw+k)   ] = (x[2*i]   + x[2*j]  )/2;
+		    half[ 2*(y*hw+k)+1 ] = (x[2*i+1] - x[2*j+1])/2;
+		}
+	    }
+	};
+	
+	runRealFft( new FFTkey(w,h), half, out.vectorData(), true );
+	out.syncBuffer();
+    }
+
+    // -----------------------------------------------------------
+    // Pruned transforms of zero-padded spectra
+
+    /** Inverse FFT of the spectrum 'in' (w x h), zero-padded to the
+     *  size of 'out': positive frequencies stay at the start, negative
+     *  ones move to the end of each row and column. For an output of
+     *  2w x 2h (as used in SIM) this is the same as out.pasteFreq(in)
+     *  followed by out.fft2d(true); for other sizes pasteFreq places
+     *  the negative frequencies at w/2 and h/2 instead. The first pass
+     *  only transforms the w columns holding data, and no padded copy
+     *  of the spectrum is made. 'in' is not modified. */
+    static public void ifft2dPadded( Vec2d.Cplx in, Vec2d.Cplx out ) {
+	final int wi = in.vectorWidth(),  hi = in.vectorHeight();
+	final int wo = out.vectorWidth(), ho = out.vectorHeight();
+	if ( wo < wi || ho < hi )
+	    throw new RuntimeException("Output smaller than input");
+
+	final float [] o = out.vectorData();
+	paddedColumns( in.vectorData(), o, wi, hi, wo, ho, 1 );
+	paddedRows( o, wi, wo, ho );
+	out.syncBuffer();
+    }
+
+    /** Inverse FFT of the spectrum 'in' (w x h x d), zero-padded in x
+     *  and y to the size of 'out', see {@link #ifft2dPadded}. As with
+     *  Vec3d.Cplx.pasteFreq, the depth is not padded. 'in' is not modified. */
+    static public void ifft3dPadded( Vec3d.Cplx in, Vec3d.Cplx out ) {
+	final int wi = in.vectorWidth(),  hi = in.vectorHeight();
+	final int wo = out.vectorWidth(), ho = out.vectorHeight();
+	final int d  = in.vectorDepth();
+	if ( wo < wi || ho < hi )
+	    throw new RuntimeException("Output smaller than input");
+	if ( out.vectorDepth() != d )
+	    throw new RuntimeException("Depth mismatch");
+
+	// z-pencils, on the (small) input
+	final float [] s = in.vectorData().clone();
+	if ( d > 1 ) {
+	    final FFTkey zKey = new FFTkey( d );
+	    new SimpleMT.PFor(0, wi*hi) {
+		public void at(int i) {
+		    final float [] t = scratch( 0, 2*d );
+		    for (int z=0; z<d; z++) {
+			t[2*z  ] = s[ 2*(i+z*wi*hi)   ];
+			t[2*z+1] = s[ 2*(i+z*wi*hi)+1 ];
+		    }
+		    runfft( zKey, t, true );
+		    for (int z=0; z<d; z++) {
+			s[ 2*(i+z*wi*hi)   ] = t[2*z  ];
+			s[ 2*(i+z*wi*hi)+1 ] = t[2*z+1];
+		    }
+		}
+	    };
+	}
+
+	final float [] o = out.vectorData();
+	paddedColumns( s, o, wi, hi, wo, ho, d );
+	paddedRows( o, wi, wo, ho*d );
+	out.syncBuffer();
+    }
+
+    private static final ThreadLocal<float [][]> scratch = new ThreadLocal<float [][]>() {
+	@Override
+	protected float [][] initialValue() {
+	    return new float[2][0];
+	}
+    };
+
+    /** Scratch array 'i' of the current thread, exactly 'len' long, as
+     *  FFT instances transform the whole array. Slot 0 holds the half
+     *  spectrum of {@link #ifft2d(Vec2d.Cplx,Vec2d.Real)} and the z /
+     *  column rows of the padded transforms, slot 1 their rows. */
+    private static float [] scratch( int i, int len ) {
+	float [][] s = scratch.get();
+	if ( s[i].length != len )
+	    s[i] = new float[ len ];
+	return s[i];
+    }
+
+    /** Padded position of frequency index i (of n) in a vector of length m */
+    static int padIndex( int i, int n, int m ) {
+	return ( i < n/2 ) ? ( i ) : ( i + m - n );
+    }
+
+    /** Inverse FFT along y of the wi input columns of each of the d
+     *  planes, written zero-padded to their columns in the output */
+    private static void paddedColumns( final float [] s, final float [] o,
+	final int wi, final int hi, final int wo, final int ho, int d ) {
+	final FFTkey colKey = new FFTkey( ho );
+	new SimpleMT.PFor(0, wi*d) {
+	    public void at(int i) {
+		final int x = i % wi, z = i / wi;
+		final int xo = padIndex( x, wi, wo );
+		final float [] t = scratch( 0, 2*ho );
+		java.util.Arrays.fill( t, 0 );
+		for (int y=0; y<hi; y++) {
+		    final int yo = padIndex( y, hi, ho );
+		    t[2*yo  ] = s[ 2*(x + wi*y + wi*hi*z)   ];
+		    t[2*yo+1] = s[ 2*(x + wi*y + wi*hi*z)+1 ];
+		}
+		runfft( colKey, t, true );
+		for (int y=0; y<ho; y++) {
+		    o[ 2*(xo + wo*y + wo*ho*z)   ] = t[2*y  ];
+		    o[ 2*(xo + wo*y + wo*ho*z)+1 ] = t[2*y+1];
+		}
+	    }
+	};
+    }
+
+    /** Inverse FFT of all rows, of which only the columns filled by
+     *  {@link #paddedColumns} hold data; the others are taken as zero */
+    private static void paddedRows( final float [] o, final int wi, final int wo, int rows ) {
+	final FFTkey rowKey = new FFTkey( wo );
+	final int lo = wi/2, hiStart = wi/2 + wo - wi;
+	new SimpleMT.PFor(0, rows) {
+	    public void at(int r) {
+		final float [] t = scratch( 1, 2*wo );
+		java.util.Arrays.fill( t, 2*lo, 2*hiStart, 0 );
+		System.arraycopy( o, 2*r*wo, t, 0, 2*lo );
+		System.arraycopy( o, 2*(r*wo+hiStart), t, 2*hiStart, 2*(wo-hiStart) );
+		runfft( rowKey, t, true );
+		System.arraycopy( t, 0, o, 2*r*wo, 2*wo );
+	    }
+	};
     }
 
     // -----------------------------------------------------------
@@ -91,7 +451,7 @@ public abstract class Transforms {
 
 
     /** key to store instances */
-    private static class FFTkey implements  Comparable<FFTkey> { 
+    static final class FFTkey implements  Comparable<FFTkey> { 
 	final int d,x,y,z ; 
 	FFTkey( int xi ) {
 	    d=1; x=xi; y=-1; z=-1;
@@ -110,35 +470,127 @@ public abstract class Transforms {
 	    if (z != t.z) return (t.z -z );
 	    return 0;
 	}
+	@Override
+	public boolean equals(Object o) {
+	    return (o instanceof FFTkey) && compareTo((FFTkey)o)==0;
+	}
+	@Override
+	public int hashCode() {
+	    return ((d*31 + x)*31 + y)*31 + z;
+	}
+	/** rough estimate of the memory held by a plan (twiddles, scratch) */
+	long planBytes() {
+	    return 8L * x * Math.max(y,1) * Math.max(z,1);
+	}
+	/** Number of complex elements transformed */
+	long elements() {
+	    return (long) x * Math.max(y,1) * Math.max(z,1);
+	}
+	/** Size as text, e.g. '512x512', see {@link #parse} */
+	@Override
+	public String toString() {
+	    if (d==1) return ""+x;
+	    if (d==2) return x+"x"+y;
+	    return x+"x"+y+"x"+z;
+	}
+	/** Key from text like '512', '512x512' or '256x256x32' */
+	static FFTkey parse( String s ) {
+	    String [] p = s.trim().split("x");
+	    try {
+		if (p.length==1) return new FFTkey( Integer.parseInt(p[0]) );
+		if (p.length==2) return new FFTkey( Integer.parseInt(p[0]), Integer.parseInt(p[1]) );
+		if (p.length==3) return new FFTkey( Integer.parseInt(p[0]), 
+		    Integer.parseInt(p[1]), Integer.parseInt(p[2]) );
+	    } catch ( NumberFormatException e ) {
+		// fall through
+	    }
+	    throw new RuntimeException("Not an FFT size: '"+s+"'");
+	}
     }
     
-    /** FFT instances */
-    static private Map<FFTkey, FftProvider.Instance> instances; 
-    
-    /** static initialization of the instances list. */
-    static {
-	if (instances==null) {
-	    instances = new TreeMap<FFTkey, FftProvider.Instance>();
+    /** complex-to-complex FFT instances */
+    static private final FftPlanCache<FftProvider.Instance> instances =
+	new FftPlanCache<FftProvider.Instance>( 
+	    new FftPlanCache.Factory<FftProvider.Instance>() {
+		public FftProvider.Instance create( FFTkey k ) {
+		    if (k.d==1) return FftProvider.get1Dfft(k.x);
+		    if (k.d==2) return FftProvider.get2Dfft(k.x,k.y);
+		    if (k.d==3) return FftProvider.get3Dfft(k.x,k.y,k.z);
+		    return null;
+		}
+	    }, 32, 256L*1024*1024 );
+
+    /** real-to-complex FFT instances */
+    static private final FftPlanCache<FftProvider.RealInstance> realInstances =
+	new FftPlanCache<FftProvider.RealInstance>( 
+	    new FftPlanCache.Factory<FftProvider.RealInstance>() {
+		public FftProvider.RealInstance create( FFTkey k ) {
+		    if (k.d==2) return FftProvider.getReal2Dfft(k.x,k.y);
+		    if (k.d==3) return FftProvider.getReal3Dfft(k.x,k.y,k.z);
+		    return null;
+		}
+	    }, 32, 256L*1024*1024 );
+
+    /** run a complex FFT on 'dat', with an instance from the cache */
+    static void runfft( FFTkey k, float [] dat, boolean inverse ) {
+	FftProvider.Instance ffti = instances.borrow( k );
+	try {
+	    ffti.fftTransform( dat, inverse );
+	} finally {
+	    instances.giveBack( k, ffti );
 	}
     }
 
+    /** run a real-to-complex (or inverse) FFT, with an instance from the cache */
+    static void runRealFft( FFTkey k, float [] in, float [] out, boolean inverse ) {
+	FftProvider.RealInstance ffti = realInstances.borrow( k );
+	try {
+	    if (inverse) 
+		ffti.fftInverse( in, out );
+	    else
+		ffti.fftForward( in, out );
+	} finally {
+	    realInstances.giveBack( k, ffti );
+	}
+    }
 
+    /** Limit the FFT plan caches (each, complex and real-valued) to 
+     *  'maxSizes' different sizes and 'maxBytes' (estimated) memory. 
+     *  Least recently used sizes are dropped first. */
+    static public void setPlanCacheBudget( int maxSizes, long maxBytes ) {
+	instances.setBudget( maxSizes, maxBytes );
+	realInstances.setBudget( maxSizes, maxBytes );
+    }
 
-    /** returns an instance, creates one if none exists */
-    static protected FftProvider.Instance getOrCreateInstance(final FFTkey k) {
-	FftProvider.Instance ffti = instances.get(k);
-	if (ffti!=null) return ffti;
-	//Tool.trace("FFT: creating new instance");
-	if (k.d==1)
-	    ffti = FftProvider.get1Dfft(k.x);
-	if (k.d==2)
-	    ffti = FftProvider.get2Dfft(k.x,k.y);
-	if (k.d==3)
-	    ffti = FftProvider.get3Dfft(k.x,k.y,k.z);
-	if (ffti==null) 
-	    throw new RuntimeException("Unsupported dimensions");
-	instances.put( k , ffti );
-	return ffti;
+    /** Sizes in the real-valued or complex-valued plan cache */
+    static java.util.Set<FFTkey> getCachedSizes( boolean real ) {
+	return real ? realInstances.keys() : instances.keys();
+    }
+
+    /** Drop all cached FFT plans, e.g. after switching the FFT provider */
+    static public void clearPlanCache() {
+	instances.clear();
+	realInstances.clear();
+    }
+
+    /** Number of FFT plan lookups served from the cache */
+    static public long getPlanCacheHits() {
+	return instances.getHits() + realInstances.getHits();
+    }
+    
+    /** Number of FFT plan lookups that required creating a new plan */
+    static public long getPlanCacheMisses() {
+	return instances.getMisses() + realInstances.getMisses();
+    }
+    
+    /** Total time spent creating FFT plans, in milliseconds */
+    static public double getPlanCreationTime() {
+	return (instances.getCreationNanos() + realInstances.getCreationNanos())/1e6;
+    }
+
+    /** Human-readable statistics of the FFT plan caches */
+    static public String getPlanCacheInfo() {
+	return "FFT plans: "+instances+" / real-valued: "+realInstances;
     }
 
 
@@ -241,108 +693,119 @@ public abstract class Transforms {
 
     }
 
-    /** Swap quadrands. */
+    /** Swap quadrands. Same as {@link #fftshift(Vec2d.Cplx)}. */
     static public void swapQuadrant(Vec2d.Cplx in) {
-	final int w = in.vectorWidth();
-	final int h = in.vectorHeight();
-	for (int y=0;y<h/2;y++)
-	for (int x=0;x<w/2;x++) {
-	    // 1 <-> 3
-	    Cplx.Float tmp1 = in.get(x,y);
-	    Cplx.Float tmp3 = in.get(x+w/2,y+h/2);
-	    in.set(x,y,tmp3);
-	    in.set(x+w/2,y+h/2,tmp1);
-	    // 2 <-> 3
-	    Cplx.Float tmp2 = in.get(x,y+h/2);
-	    Cplx.Float tmp4 = in.get(x+w/2,y);
-	    in.set(x,y+h/2,tmp4);
-	    in.set(x+w/2,y,tmp2);
-	}
+	fftshift( in );
     }
     
-    /** Swap quadrands. */
+    /** Swap quadrands. Same as {@link #fftshift(Vec2d.Real)}. */
     static public void swapQuadrant(Vec2d.Real in) {
-	final int w = in.vectorWidth();
-	final int h = in.vectorHeight();
-	for (int y=0;y<h/2;y++)
-	for (int x=0;x<w/2;x++) {
-	    // 1 <-> 3
-	    float tmp1 = in.get(x,y);
-	    float tmp3 = in.get(x+w/2,y+h/2);
-	    in.set(x,y,tmp3);
-	    in.set(x+w/2,y+h/2,tmp1);
-	    // 2 <-> 3
-	    float tmp2 = in.get(x,y+h/2);
-	    float tmp4 = in.get(x+w/2,y);
-	    in.set(x,y+h/2,tmp4);
-	    in.set(x+w/2,y,tmp2);
-	}
+	fftshift( in );
     }
     
-    /** Swap quadrands. */
+    /** Swap quadrands. Same as {@link #fftshift(Vec3d.Cplx)}. */
     static public void swapQuadrant(Vec3d.Cplx in) {
-	final int w = in.vectorWidth();
-	final int h = in.vectorHeight();
-	final int d = in.vectorHeight();
-	for (int z0=0;z0<d/2;z0++)
-	for (int y0=0;y0<h/2;y0++)
-	for (int x0=0;x0<w/2;x0++) {
-	    int x1=x0+w/2, y1=y0+h/2, z1=z0+d/2;
-	    Cplx.Float tmpA, tmpB;
-	    // 000 <> 111
-	    tmpA = in.get(x0,y0,z0);
-	    tmpB = in.get(x1,y1,z1);
-	    in.set(x0,y0,z0,tmpB);
-	    in.set(x1,y1,z1,tmpA);
-	    // 010 <> 101
-	    tmpA = in.get(x0,y1,z0);
-	    tmpB = in.get(x1,y0,z1);
-	    in.set(x0,y1,z0,tmpB);
-	    in.set(x1,y0,z1,tmpA);
-	    // 100 <> 011
-	    tmpA = in.get(x1,y0,z0);
-	    tmpB = in.get(x0,y1,z1);
-	    in.set(x1,y0,z0,tmpA);
-	    in.set(x0,y1,z1,tmpB);
-	    // 001 <> 110
-	    tmpA = in.get(x0,y0,z1);
-	    tmpB = in.get(x1,y1,z0);
-	    in.set(x0,y0,z1,tmpB);
-	    in.set(x1,y1,z0,tmpA);
-	}
+	fftshift( in );
     }
     
-    /** Swap quadrands. */
+    /** Swap quadrands. Same as {@link #fftshift(Vec3d.Real)}. */
     static public void swapQuadrant(Vec3d.Real in) {
-	final int w = in.vectorWidth();
-	final int h = in.vectorHeight();
-	final int d = in.vectorHeight();
-	for (int z0=0;z0<d/2;z0++)
-	for (int y0=0;y0<h/2;y0++)
-	for (int x0=0;x0<w/2;x0++) {
-	    int x1=x0+w/2, y1=y0+h/2, z1=z0+d/2;
-	    float tmpA, tmpB;
-	    // 000 <> 111
-	    tmpA = in.get(x0,y0,z0);
-	    tmpB = in.get(x1,y1,z1);
-	    in.set(x0,y0,z0,tmpB);
-	    in.set(x1,y1,z1,tmpA);
-	    // 010 <> 101
-	    tmpA = in.get(x0,y1,z0);
-	    tmpB = in.get(x1,y0,z1);
-	    in.set(x0,y1,z0,tmpB);
-	    in.set(x1,y0,z1,tmpA);
-	    // 100 <> 011
-	    tmpA = in.get(x1,y0,z0);
-	    tmpB = in.get(x0,y1,z1);
-	    in.set(x1,y0,z0,tmpA);
-	    in.set(x0,y1,z1,tmpB);
-	    // 001 <> 110
-	    tmpA = in.get(x0,y0,z1);
-	    tmpB = in.get(x1,y1,z0);
-	    in.set(x0,y0,z1,tmpB);
-	    in.set(x1,y1,z0,tmpA);
+	fftshift( in );
+    }
+
+    // ------ fftshift / ifftshift ------
+
+    /** Move the zero-frequency component to the center, in place.
+     *  Element (x,y) moves to (x+w/2, y+h/2), wrapping at the borders. */
+    static public void fftshift( Vec2d.Real in ) {
+	shift( in, in.vectorWidth()/2, in.vectorHeight()/2 );
+    }
+
+    /** Move the zero-frequency component to the center, in place,
+     *  see {@link #fftshift(Vec2d.Real)}. */
+    static public void fftshift( Vec2d.Cplx in ) {
+	shift( in, in.vectorWidth()/2, in.vectorHeight()/2 );
+    }
+
+    /** Move the zero-frequency component to the center, in place.
+     *  Element (x,y,z) moves to (x+w/2, y+h/2, z+d/2), wrapping at the borders. */
+    static public void fftshift( Vec3d.Real in ) {
+	shift( in, in.vectorWidth()/2, in.vectorHeight()/2, in.vectorDepth()/2 );
+    }
+    
+    /** Move the zero-frequency component to the center, in place,
+     *  see {@link #fftshift(Vec3d.Real)}. */
+    static public void fftshift( Vec3d.Cplx in ) {
+	shift( in, in.vectorWidth()/2, in.vectorHeight()/2, in.vectorDepth()/2 );
+    }
+
+    /** Inverse of {@link #fftshift(Vec2d.Real)}, differs for odd sizes */
+    static public void ifftshift( Vec2d.Real in ) {
+	shift( in, -in.vectorWidth()/2, -in.vectorHeight()/2 );
+    }
+    
+    /** Inverse of {@link #fftshift(Vec2d.Cplx)}, differs for odd sizes */
+    static public void ifftshift( Vec2d.Cplx in ) {
+	shift( in, -in.vectorWidth()/2, -in.vectorHeight()/2 );
+    }
+    
+    /** Inverse of {@link #fftshift(Vec3d.Real)}, differs for odd sizes */
+    static public void ifftshift( Vec3d.Real in ) {
+	shift( in, -in.vectorWidth()/2, -in.vectorHeight()/2, -in.vectorDepth()/2 );
+    }
+    
+    /** Inverse of {@link #fftshift(Vec3d.Cplx)}, differs for odd sizes */
+    static public void ifftshift( Vec3d.Cplx in ) {
+	shift( in, -in.vectorWidth()/2, -in.vectorHeight()/2, -in.vectorDepth()/2 );
+    }
+
+    /** Copy 'in' to 'out' with zero-frequency component moved to the center,
+     *  in one pass. Typically used to prepare spectra for display.
+     *  'in' is not modified, unless it is 'out' (then shifted in place). */
+    static public void fftshift( Vec2d.Real in, Vec2d.Real out ) {
+	if ( in == out ) {
+	    fftshift( in );
+	    return;
 	}
+	Vec2d.failSize( in, out );
+	final int w = in.vectorWidth(), h = in.vectorHeight();
+	FftShift.shift( in.vectorData(), out.vectorData(), w, h, 1, 1, w/2, h/2, 0 );
+	out.syncBuffer();
+    }
+    
+    /** Copy 'in' to 'out' with zero-frequency component moved to the center,
+     *  see {@link #fftshift(Vec2d.Real,Vec2d.Real)} */
+    static public void fftshift( Vec2d.Cplx in, Vec2d.Cplx out ) {
+	if ( in == out ) {
+	    fftshift( in );
+	    return;
+	}
+	Vec2d.failSize( in, out );
+	final int w = in.vectorWidth(), h = in.vectorHeight();
+	FftShift.shift( in.vectorData(), out.vectorData(), w, h, 1, 2, w/2, h/2, 0 );
+	out.syncBuffer();
+    }
+    
+    private static void shift( Vec2d.Real v, int sx, int sy ) {
+	FftShift.shift( v.vectorData(), v.vectorWidth(), v.vectorHeight(), 1, 1, sx, sy, 0 );
+	v.syncBuffer();
+    }
+    
+    private static void shift( Vec2d.Cplx v, int sx, int sy ) {
+	FftShift.shift( v.vectorData(), v.vectorWidth(), v.vectorHeight(), 1, 2, sx, sy, 0 );
+	v.syncBuffer();
+    }
+    
+    private static void shift( Vec3d.Real v, int sx, int sy, int sz ) {
+	FftShift.shift( v.vectorData(), 
+	    v.vectorWidth(), v.vectorHeight(), v.vectorDepth(), 1, sx, sy, sz );
+	v.syncBuffer();
+    }
+    
+    private static void shift( Vec3d.Cplx v, int sx, int sy, int sz ) {
+	FftShift.shift( v.vectorData(), 
+	    v.vectorWidth(), v.vectorHeight(), v.vectorDepth(), 2, sx, sy, sz );
+	v.syncBuffer();
     }
     
     
@@ -386,10 +849,9 @@ public abstract class Transforms {
     } */
 
     /** Multiply a vector with Fourier shift theorem phases.
-     *  Vector has to be of square size (w==h).
      *  @param kx x-coordinate of shift
      *  @param ky y-coordinate of shift
-     *  @param fast Use faster, but less precise sin/cos (see {@link MTool#fsin}) */
+     *  @param fast Ignored, phases are taken from precomputed tables */
     @Deprecated
     static public void timesShiftVector( final Vec2d.Cplx vec,
 	final double kx, final double ky, final boolean fast ) {
@@ -399,33 +861,7 @@ public abstract class Transforms {
 
     static public void runTimesShiftVector( final Vec2d.Cplx vec,
 	final double kx, final double ky, final boolean fast ) {
-	final float [] val = vec.vectorData();
-	final int N = Vec2d.checkSquare( vec );
-	
-	// run outer loop in parallel
-	new SimpleMT.PFor(0,N) {
-	    public void at(int y) {
-		for (int x=0; x<N; x++) {
-		    float phaVal = (float)(2*Math.PI*(kx*x+ky*y)/N);
-		    float si,co;
-		    if (fast) {
-			co = (float)MTool.fcos( phaVal );
-			si = (float)MTool.fsin( phaVal );
-		    } else {
-			co = (float)Math.cos( phaVal );
-			si = (float)Math.sin( phaVal );
-		    }
-		    // get
-		    float re = val[ (y*N+x)*2+0 ] ;
-		    float im = val[ (y*N+x)*2+1 ] ;
-		    // set
-		    val[ (y*N+x)*2+0 ] = Cplx.multReal( re, im, co, si );
-		    val[ (y*N+x)*2+1 ] = Cplx.multImag( re, im, co, si );
-		}
-	    }
-	};
-
-	vec.syncBuffer();
+	FourierShift.shift( vec, kx, ky );
     }
 
     /** See {@link #timesShiftVector}, with fast='false' */
@@ -45,8 +45,11 @@ public final class Vec {
     /** private constructor, so this class only has static methods */
     private Vec() { throw new AssertionError(); }
 
+    /** Default vector factory, vectors on the Java heap */
+    private static final VectorFactory basicVf = BasicVector.getFactory();
+
     /** Vector factory to use */
-    static VectorFactory vf = BasicVector.getFactory();
+    static VectorFactory vf = basicVf;
 
     /** Set the factory used for obtaining vectors through
      * the static 'create' functions. */
@@ -56,7 +59,34 @@ public final class Vec {
 	vf = invf;
     }
 
+    /** Returns the factory currently used for obtaining vectors. */
+    public static VectorFactory getVectorFactory() {
+	return vf;
+    }
+
+    /** Returns the default factory, storing vectors on the Java heap. */
+    public static VectorFactory getBasicVectorFactory() {
+	return basicVf;
+    }
+
+    /** Hand vectors back to the vector factory for reuse.
+     *  This only has an effect if the current factory is a {@link VectorPool},
+     *  otherwise the vectors are left to the garbage collector.
+     *  Either way, the vectors must not be used after this call. */
+    public static void release( Real ... v ) {
+	if (vf instanceof VectorPool)
+	    ((VectorPool)vf).release( v );
+    }
+
+    /** Hand vectors back to the vector factory for reuse.
+     *  See {@link #release(Vec.Real...)}. */
+    public static void release( Cplx ... v ) {
+	if (vf instanceof VectorPool)
+	    ((VectorPool)vf).release( v );
+    }
+
     /** Creates a real-valued vector of size n. */ 
+
     public static Real createReal( int n ) {
 	return vf.createReal(n);
     } 
@@ -82,6 +112,19 @@ public final class Vec {
 	return ret;
     } 
 
+    /** Set the minimum vector size (in elements) above which the
+     *  element-wise and reduction functions of the default (array-backed)
+     *  vector implementations run multi-threaded. Reductions give
+     *  the same result independent of this setting and the number of cores. */
+    public static void setParallelThreshold( int n ) {
+	VectorBlocks.setThreshold( n );
+    }
+
+    /** Returns the minimum vector size for multi-threaded vector functions. */
+    public static int getParallelThreshold() {
+	return VectorBlocks.getThreshold();
+    }
+
     /** Finish whatever parallel / concurrent process is running (for timing CUDA, etc.).
      *	This calls {VectorFactory#syncConcurrent} of the current vector factory. */
     public static void syncConcurrent()  {
@@ -377,6 +420,18 @@ public final class Vec {
 	/** Compute element-wise multiplication this = this.*in */ 
 	public void times(Real in);
 
+	/** Compute element-wise multiplication this = this.*a.*b, in one pass */
+	public void times(Real a, Cplx b);
+
+	/** Compute this += a * ( x.*m ), in one pass */
+	public void axpyTimes( float a, Vec.Cplx x, Vec.Real m );
+
+	/** Return sum( this.*conj(in) ), without modifying this vector */
+	public org.fairsim.linalg.Cplx.Double timesConjSum( Vec.Cplx in );
+
+	/** Return the squared distance | this - in |^2 */
+	public double distanceNorm2( Vec.Cplx in );
+
 	/** Return the sum of all vector elements */
 	public org.fairsim.linalg.Cplx.Double sumElements( );
 
@@ -39,6 +39,18 @@ public final class Vec2d {
 	return Vec.vf.createCplx2D(w,h);
     }
     
+    /** Return a per-thread scratch vector sized w x h, complex-valued.
+     *  If the current factory is a {@link VectorPool}, the same vector is 
+     *  returned for each call from the same thread, with the same
+     *  slot and size. Its content is undefined then. Otherwise,
+     *  a new vector is created. Scratch vectors must not be released.
+     *  @param slot Slot number, to obtain more than one vector of the same size */
+    public static Cplx createScratchCplx( int slot, int w, int h) {
+	if (Vec.vf instanceof VectorPool)
+	    return ((VectorPool)Vec.vf).scratchCplx2D( slot, w, h);
+	return Vec.vf.createCplx2D(w,h);
+    }
+    
     /** Return a 2-dimensional vector, width and height of 'size'
      *  scaled by 'scale' */
     public static Real createReal( Size size, int scale ) {
@@ -118,6 +130,11 @@ public final class Vec2d {
 	public float get(int x, int y);
 	/** Set element x,y */
 	public void set(int x, int y, float v);
+
+	/** Copy row y (width elements) into 'row' */
+	public void getRow(int y, float [] row);
+	/** Set row y (width elements) from 'row' */
+	public void setRow(int y, float [] row);
 	
 	/** Return a duplicate / clone of the input vector */
 	public Real duplicate() ;
@@ -164,6 +181,18 @@ public final class Vec2d {
 	public void set(int x, int y, org.fairsim.linalg.Cplx.Float v);
 	/** Set element x,y */
 	public void set(int x, int y, org.fairsim.linalg.Cplx.Double v);
+
+	/** Get real part of element x,y */
+	public float getRe(int x, int y);
+	/** Get imaginary part of element x,y */
+	public float getIm(int x, int y);
+	/** Set element x,y */
+	public void setReIm(int x, int y, float re, float im);
+
+	/** Copy row y (width elements, interleaved re,im) into 'row' */
+	public void getRow(int y, float [] row);
+	/** Set row y (width elements, interleaved re,im) from 'row' */
+	public void setRow(int y, float [] row);
 	
 	/** Return a duplicate / clone of the input vector */
 	public abstract Cplx duplicate() ; 
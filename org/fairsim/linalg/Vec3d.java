@@ -130,6 +130,13 @@ public final class Vec3d {
 	/** Set element at x,y,z */
 	public void set(int x, int y, int z, 
 	    org.fairsim.linalg.Cplx.Double v);
+
+	/** Get real part of element at x,y,z */
+	public float getRe(int x, int y, int z);
+	/** Get imaginary part of element at x,y,z */
+	public float getIm(int x, int y, int z);
+	/** Set element at x,y,z */
+	public void setReIm(int x, int y, int z, float re, float im);
     
 	/** Return a duplicte / clone of this vector */
 	public Cplx duplicate();
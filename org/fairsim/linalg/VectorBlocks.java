@@ -0,0 +1,107 @@
+/*
+This file is part of Free Analysis and Interactive Reconstruction
+for Structured Illumination Microscopy (fairSIM).
+
+fairSIM is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 2 of the License, or
+(at your option) any later version.
+
+fairSIM is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package org.fairsim.linalg;
+
+import org.fairsim.utils.SimpleMT;
+
+/** Runs element-wise and reduction kernels of the vector
+ *  implementations over fixed-size blocks of elements.
+ *  <p>
+ *  Vectors with at least {@link #getThreshold} elements are processed
+ *  in parallel (through {@link SimpleMT}), smaller ones serially.
+ *  Reductions compute one partial result per block and combine
+ *  them in block order. The block size does not depend on the number
+ *  of threads, so results are bit-identical for any number of cores,
+ *  and with parallel execution switched off.
+ *  */
+final class VectorBlocks {
+
+    private VectorBlocks() {}
+
+    /** Elements per block */
+    static final int BLOCK = 1<<15;
+
+    private static volatile int threshold = 1<<17;
+
+    /** Set the minimum vector size (in elements) for parallel execution */
+    static void setThreshold( int n ) {
+	if ( n < 1 )
+	    throw new RuntimeException("Threshold has to be positive");
+	threshold = n;
+    }
+
+    /** Get the minimum vector size (in elements) for parallel execution */
+    static int getThreshold() {
+	return threshold;
+    }
+
+    /** Element-wise kernel, working on elements [s,e) */
+    static abstract class Range {
+	abstract void run( int s, int e );
+    }
+
+    /** Reduction kernel, adding the result over [s,e) into 'acc' */
+    static abstract class Sum {
+	abstract void run( int s, int e, double [] acc );
+    }
+
+    /** Run 'r' over all elements [0,n) */
+    static void forEach( final int n, final Range r ) {
+	if ( n < threshold ) {
+	    r.run( 0, n );
+	    return;
+	}
+	new SimpleMT.StrPFor( 0, nrBlocks( n ) ) {
+	    public void at( int b ) {
+		r.run( b*BLOCK, Math.min( n, (b+1)*BLOCK ) );
+	    }
+	};
+    }
+
+    /** Run the reduction 'r' over all elements [0,n).
+     *  @param k Number of values reduced (e.g. 2 for complex sums)
+     *  @return The k reduced values */
+    static double [] sum( final int n, final int k, final Sum r ) {
+	final int nb = nrBlocks( n );
+	final double [][] part = new double[ nb ][ k ];
+
+	if ( n < threshold ) {
+	    for (int b=0; b<nb; b++)
+		r.run( b*BLOCK, Math.min( n, (b+1)*BLOCK ), part[b] );
+	} else {
+	    new SimpleMT.StrPFor( 0, nb ) {
+		public void at( int b ) {
+		    r.run( b*BLOCK, Math.min( n, (b+1)*BLOCK ), part[b] );
+		}
+	    };
+	}
+
+	// combine in fixed order
+	double [] ret = new double[ k ];
+	for (int b=0; b<nb; b++)
+	    for (int j=0; j<k; j++)
+		ret[j] += part[b][j];
+	return ret;
+    }
+
+    private static int nrBlocks( int n ) {
+	return Math.max( 1, (n+BLOCK-1)/BLOCK );
+    }
+
+}
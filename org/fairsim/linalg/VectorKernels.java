@@ -0,0 +1,158 @@
+/*
+This file is part of Free Analysis and Interactive Reconstruction
+for Structured Illumination Microscopy (fairSIM).
+
+fairSIM is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 2 of the License, or
+(at your option) any later version.
+
+fairSIM is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package org.fairsim.linalg;
+
+import org.fairsim.utils.Tool;
+
+/** Inner loops of the hottest complex-vector operations, on
+ *  interleaved (re,im) float arrays.
+ *  <p>
+ *  The default implementation is plain Java. An optional SIMD
+ *  implementation, using the Java Vector API, is built separately
+ *  (see the 'simd' directory). It is used if its class is found and
+ *  loads on the running JVM (Java 17 or later, started with
+ *  '--add-modules jdk.incubator.vector'), and the CPU supports at
+ *  least 4 float lanes. Set the system property 'fairsim.simd' to
+ *  'false' to always use plain Java.
+ *  <p>
+ *  Both implementations give bit-identical results for all kernels
+ *  except {@link #norm2}, where the SIMD version sums in a different
+ *  order.
+ *  */
+public abstract class VectorKernels {
+
+    /** Class name of the optional SIMD implementation */
+    static final String SIMD_CLASS = "org.fairsim.linalg.simd.SimdKernels";
+
+    private static final VectorKernels active = select();
+
+    /** Returns the kernels in use */
+    public static VectorKernels get() {
+	return active;
+    }
+
+    /** Returns the plain Java kernels */
+    public static VectorKernels scalar() {
+	return Scalar.instance;
+    }
+
+    /** pick the SIMD kernels if available, plain Java otherwise */
+    private static VectorKernels select() {
+	if ( !Boolean.valueOf( System.getProperty("fairsim.simd", "true") ))
+	    return Scalar.instance;
+	try {
+	    VectorKernels ret = (VectorKernels)Class.forName( SIMD_CLASS )
+		.newInstance();
+	    Tool.trace("Vector kernels: "+ret.getName());
+	    return ret;
+	} catch ( ClassNotFoundException e ) {
+	    // not installed, nothing to report
+	} catch ( Throwable t ) {
+	    Tool.trace("Vector kernels: SIMD not available ("+t+"), using plain Java");
+	}
+	return Scalar.instance;
+    }
+
+    /** Name of the implementation */
+    public abstract String getName();
+
+    /** Complex y = y * x over elements [s,e), x conjugated if 'conj' */
+    public abstract void times( float [] y, float [] x, int s, int e, boolean conj );
+
+    /** Complex y = y * real x, over elements [s,e) */
+    public abstract void timesReal( float [] y, float [] x, int s, int e );
+
+    /** y += a * x over floats [s,e) */
+    public abstract void axpy( float a, float [] x, float [] y, int s, int e );
+
+    /** Complex y = 1/y over elements [s,e) */
+    public abstract void reciproc( float [] y, int s, int e );
+
+    /** Sum of y[i]^2 over floats [s,e) */
+    public abstract double norm2( float [] y, int s, int e );
+
+    @Override
+    public String toString() {
+	return getName();
+    }
+
+    /** Plain Java implementation */
+    static final class Scalar extends VectorKernels {
+
+	static final Scalar instance = new Scalar();
+
+	private Scalar() {}
+
+	@Override
+	public String getName() {
+	    return "plain Java";
+	}
+
+	@Override
+	public void times( float [] y, float [] x, int s, int e, boolean conj ) {
+	    // branch outside the loops, so the loop bodies stay straight-line code
+	    if (!conj) {
+		for (int j=2*s;j<2*e;j+=2) {
+		    final float xR = x[j], xI = x[j+1], yR = y[j], yI = y[j+1];
+		    y[j  ] = xR*yR - xI*yI;
+		    y[j+1] = xI*yR + xR*yI;
+		}
+	    } else {
+		for (int j=2*s;j<2*e;j+=2) {
+		    final float xR = x[j], xI = x[j+1], yR = y[j], yI = y[j+1];
+		    y[j  ] = xR*yR + xI*yI;
+		    y[j+1] = xR*yI - xI*yR;
+		}
+	    }
+	}
+
+	@Override
+	public void timesReal( float [] y, float [] x, int s, int e ) {
+	    for (int i=s;i<e;i++) {
+		final float f = x[i];
+		y[2*i  ] *= f;
+		y[2*i+1] *= f;
+	    }
+	}
+
+	@Override
+	public void axpy( float a, float [] x, float [] y, int s, int e ) {
+	    for (int j=s;j<e;j++)
+		y[j] += a * x[j];
+	}
+
+	@Override
+	public void reciproc( float [] y, int s, int e ) {
+	    for (int i=s; i<e; i++) {
+		final float sq = y[2*i]*y[2*i] + y[2*i+1]*y[2*i+1];
+		y[ 2*i   ] =  y[2*i  ] / sq;
+		y[ 2*i+1 ] = -y[2*i+1] / sq;
+	    }
+	}
+
+	@Override
+	public double norm2( float [] y, int s, int e ) {
+	    double ret=0;
+	    for (int i=s;i<e;i++)
+		ret+= y[i] * y[i];
+	    return ret;
+	}
+    }
+
+}
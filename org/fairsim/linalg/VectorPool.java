@@ -0,0 +1,475 @@
+/*
+This file is part of Free Analysis and Interactive Reconstruction
+for Structured Illumination Microscopy (fairSIM).
+
+fairSIM is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 2 of the License, or
+(at your option) any later version.
+
+fairSIM is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package org.fairsim.linalg;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.fairsim.utils.Tool;
+
+/** A vector factory that recycles vectors.
+ *  Vectors are obtained from an underlying factory (typically
+ *  {@link BasicVector}), and can be handed back to the pool through
+ *  {@link #release}. Further requests for a vector of the same shape
+ *  (dimension, size, real/complex) are then served from the pool,
+ *  so a loop allocating the same temporary vectors over and over
+ *  (as e.g. the reconstruction of a time series) does not
+ *  create new buffers.
+ *  <p>
+ *  Use {@link Vec#setVectorFactory} to install the pool, after that,
+ *  {@link Vec#release} hands vectors back to it. A released vector
+ *  must not be used anymore. Only vectors created by the pool are
+ *  taken back, others (and scratch vectors) are ignored.
+ *  Vectors obtained through the create functions are zero'd, as
+ *  their counterparts from other factories.
+ *  <p>
+ *  Additionally, each thread has a number of scratch slots (see {@link #scratchCplx2D}),
+ *  which return the same vector each time they are called from the same
+ *  thread with the same slot number and shape. Scratch vectors count
+ *  against the pool's memory limit, and are kept until {@link #clearScratch}
+ *  or {@link #clear} is called, or their thread ends.
+ *  */
+public final class VectorPool implements VectorFactory {
+
+    /** The factory to obtain new vectors from */
+    private final VectorFactory base;
+
+    /** Maximum amount of memory (bytes) kept in the pool */
+    private long maxBytes;
+
+    /** Amount of memory (bytes) currently kept in the pool */
+    private long pooledBytes = 0;
+
+    private long hits=0, misses=0, dropped=0;
+
+    /** vectors available for reuse, sorted by their shape */
+    private final Map<Shape, ArrayDeque<Object>> pool =
+	new HashMap<Shape, ArrayDeque<Object>>();
+
+    /** vectors currently in the pool, to detect double releases */
+    private final Set<Object> inPool =
+	Collections.newSetFromMap( new IdentityHashMap<Object, Boolean>() );
+
+    /** vectors created by the pool, only those are taken back */
+    private final Set<Object> created =
+	Collections.newSetFromMap( new WeakHashMap<Object, Boolean>() );
+
+    /** per-thread scratch vectors, dropped with their thread */
+    private final Map<Thread, Map<Shape,Object>> scratch =
+	new WeakHashMap<Thread, Map<Shape,Object>>();
+
+    /** Memory (bytes) held in scratch vectors, and the number of threads
+     *  it was counted for. If a thread ended (and its scratch was
+     *  dropped from the weak map), the count is redone. */
+    private long scratchBytes = 0;
+    private int  scratchThreads = 0;
+
+    /** Create a pool on top of the vector factory 'base', which keeps
+     *  at most 1/4 of the maximum heap size in recycled vectors. */
+    public VectorPool( VectorFactory base ) {
+	this( base, Runtime.getRuntime().maxMemory()/4 );
+    }
+
+    /** Create a pool on top of the vector factory 'base'.
+     *  @param base The factory to obtain new vectors from
+     *  @param maxBytes Maximum amount of memory (in bytes) to keep in the pool */
+    public VectorPool( VectorFactory base, long maxBytes ) {
+	if (base == null)
+	    throw new NullPointerException("base vector factory is null");
+	if (base instanceof VectorPool)
+	    throw new IllegalArgumentException("Pools should not be stacked");
+	this.base = base;
+	this.maxBytes = maxBytes;
+    }
+
+    /** Returns the factory this pool obtains its vectors from */
+    public VectorFactory getBaseFactory() {
+	return base;
+    }
+
+    /** Set the maximum amount of memory (bytes) kept in the pool. If
+     *  the pool currently holds more, vectors are dropped. */
+    public synchronized void setMaxBytes( long max ) {
+	maxBytes = max;
+	trim();
+    }
+
+    // ------ Vector factory ------
+
+    @Override
+    public Vec.Real createReal(int n) {
+	Vec.Real ret = (Vec.Real)get( new Shape( Shape.REAL, n, 1, 1 ));
+	if (ret==null) return track( base.createReal(n) );
+	ret.zero();
+	return ret;
+    }
+
+    @Override
+    public Vec.Cplx createCplx(int n) {
+	Vec.Cplx ret = (Vec.Cplx)get( new Shape( Shape.CPLX, n, 1, 1 ));
+	if (ret==null) return track( base.createCplx(n) );
+	ret.zero();
+	return ret;
+    }
+
+    @Override
+    public Vec2d.Real createReal2D(int w, int h) {
+	Vec2d.Real ret = (Vec2d.Real)get( new Shape( Shape.REAL2D, w, h, 1 ));
+	if (ret==null) return track( base.createReal2D(w,h) );
+	ret.zero();
+	return ret;
+    }
+
+    @Override
+    public Vec2d.Cplx createCplx2D(int w, int h) {
+	Vec2d.Cplx ret = (Vec2d.Cplx)get( new Shape( Shape.CPLX2D, w, h, 1 ));
+	if (ret==null) return track( base.createCplx2D(w,h) );
+	ret.zero();
+	return ret;
+    }
+
+    @Override
+    public Vec3d.Real createReal3D(int w, int h, int d) {
+	Vec3d.Real ret = (Vec3d.Real)get( new Shape( Shape.REAL3D, w, h, d ));
+	if (ret==null) return track( base.createReal3D(w,h,d) );
+	ret.zero();
+	return ret;
+    }
+
+    @Override
+    public Vec3d.Cplx createCplx3D(int w, int h, int d) {
+	Vec3d.Cplx ret = (Vec3d.Cplx)get( new Shape( Shape.CPLX3D, w, h, d ));
+	if (ret==null) return track( base.createCplx3D(w,h,d) );
+	ret.zero();
+	return ret;
+    }
+
+    @Override
+    public void syncConcurrent() {
+	base.syncConcurrent();
+    }
+
+    // ------ releasing vectors ------
+
+    /** Hand vectors back to the pool. The vectors must not be used
+     *  after this call. Null entries, vectors already in the pool and
+     *  vectors not created by the pool (e.g. scratch vectors, views into
+     *  a {@link MappedStack}) are ignored. */
+    public void release( Vec.Real ... vecs ) {
+	for ( Vec.Real v : vecs ) {
+	    if (v==null || v instanceof MappedStack.View || !fromPool( v )) continue;
+	    if (v instanceof Vec2d.Real) {
+		Vec2d.Real v2 = (Vec2d.Real)v;
+		put( new Shape( Shape.REAL2D, v2.vectorWidth(), v2.vectorHeight(), 1), v);
+	    } else if (v instanceof Vec3d.Real) {
+		Vec3d.Real v3 = (Vec3d.Real)v;
+		put( new Shape( Shape.REAL3D, v3.vectorWidth(),
+		    v3.vectorHeight(), v3.vectorDepth()), v);
+	    } else {
+		put( new Shape( Shape.REAL, v.vectorSize(), 1, 1 ), v);
+	    }
+	}
+    }
+
+    /** Hand vectors back to the pool. The vectors must not be used
+     *  after this call. Null entries, vectors already in the pool and
+     *  vectors not created by the pool (e.g. scratch vectors, views into
+     *  a {@link MappedStack}) are ignored. */
+    public void release( Vec.Cplx ... vecs ) {
+	for ( Vec.Cplx v : vecs ) {
+	    if (v==null || v instanceof MappedStack.View || !fromPool( v )) continue;
+	    if (v instanceof Vec2d.Cplx) {
+		Vec2d.Cplx v2 = (Vec2d.Cplx)v;
+		put( new Shape( Shape.CPLX2D, v2.vectorWidth(), v2.vectorHeight(), 1), v);
+	    } else if (v instanceof Vec3d.Cplx) {
+		Vec3d.Cplx v3 = (Vec3d.Cplx)v;
+		put( new Shape( Shape.CPLX3D, v3.vectorWidth(),
+		    v3.vectorHeight(), v3.vectorDepth()), v);
+	    } else {
+		put( new Shape( Shape.CPLX, v.vectorSize(), 1, 1 ), v);
+	    }
+	}
+    }
+
+    /** Drop all vectors currently held by the pool, and the scratch
+     *  vectors of all threads */
+    public synchronized void clear() {
+	pool.clear();
+	inPool.clear();
+	scratch.clear();
+	pooledBytes = 0;
+	scratchBytes = 0;
+	scratchThreads = 0;
+    }
+
+    // ------ scratch vectors ------
+
+    /** Returns a per-thread scratch vector, sized w x h, complex-valued.
+     *  Each call from the same thread, with the same slot number and size,
+     *  returns the same vector. Its content is undefined, and it must not
+     *  be released or handed to another thread.
+     *  @param slot Slot number, to obtain more than one vector of the same size */
+    public synchronized Vec2d.Cplx scratchCplx2D( int slot, int w, int h ) {
+	Shape s = new Shape( Shape.CPLX2D, w, h, slot );
+	Map<Shape,Object> m = threadScratch();
+	Vec2d.Cplx ret = (Vec2d.Cplx)m.get(s);
+	if (ret == null) {
+	    ret = base.createCplx2D(w,h);
+	    m.put( s, ret );
+	    scratchBytes += s.bytes();
+	    trim();
+	}
+	return ret;
+    }
+
+    /** Returns a per-thread scratch vector, sized w x h, real-valued.
+     *  See {@link #scratchCplx2D}. */
+    public synchronized Vec2d.Real scratchReal2D( int slot, int w, int h ) {
+	Shape s = new Shape( Shape.REAL2D, w, h, slot );
+	Map<Shape,Object> m = threadScratch();
+	Vec2d.Real ret = (Vec2d.Real)m.get(s);
+	if (ret == null) {
+	    ret = base.createReal2D(w,h);
+	    m.put( s, ret );
+	    scratchBytes += s.bytes();
+	    trim();
+	}
+	return ret;
+    }
+
+    /** Drops the calling thread's scratch vectors. Long-lived threads
+     *  (e.g. those of {@link org.fairsim.utils.SimpleMT}) keep theirs
+     *  otherwise, use {@link #clear} to drop those of all threads. */
+    public synchronized void clearScratch() {
+	Map<Shape,Object> m = scratch.remove( Thread.currentThread() );
+	if (m != null) {
+	    for ( Shape s : m.keySet() )
+		scratchBytes -= s.bytes();
+	    scratchThreads--;
+	}
+    }
+
+    /** scratch map of the calling thread */
+    private Map<Shape,Object> threadScratch() {
+	Map<Shape,Object> m = scratch.get( Thread.currentThread() );
+	if (m == null) {
+	    m = new HashMap<Shape,Object>();
+	    scratch.put( Thread.currentThread(), m );
+	    scratchThreads++;
+	}
+	return m;
+    }
+
+    /** Memory (bytes) held in scratch vectors of all threads */
+    public synchronized long getScratchBytes() {
+	// size() drops ended threads, recount only then
+	if ( scratch.size() != scratchThreads ) {
+	    scratchBytes = 0;
+	    for ( Map<Shape,Object> m : scratch.values() )
+		for ( Shape s : m.keySet() )
+		    scratchBytes += s.bytes();
+	    scratchThreads = scratch.size();
+	}
+	return scratchBytes;
+    }
+
+    // ------ scopes ------
+
+    /** Returns a new scope. Vectors created through the scope are
+     *  released back to this pool once the scope is closed. Typical use:
+     *  <pre>
+     *  VectorPool.Scope sc = pool.scope();
+     *  try {
+     *	    Vec2d.Cplx tmp = sc.createCplx2D( w, h );
+     *	    ...
+     *  } finally {
+     *	    sc.close();
+     *  }
+     *  </pre>
+     *  */
+    public Scope scope() {
+	return new Scope();
+    }
+
+    /** Collects vectors and releases them to the pool on {@link #close}.
+     *  Not thread-safe, each thread should open its own scope. */
+    public final class Scope implements java.io.Closeable {
+
+	private final List<Vec.Real> reals = new ArrayList<Vec.Real>();
+	private final List<Vec.Cplx> cplxs = new ArrayList<Vec.Cplx>();
+
+	private Scope() {};
+
+	/** Create a real-valued 2d vector, released when the scope closes */
+	public Vec2d.Real createReal2D( int w, int h) {
+	    Vec2d.Real ret = VectorPool.this.createReal2D( w, h );
+	    reals.add( ret );
+	    return ret;
+	}
+
+	/** Create a complex-valued 2d vector, released when the scope closes */
+	public Vec2d.Cplx createCplx2D( int w, int h) {
+	    Vec2d.Cplx ret = VectorPool.this.createCplx2D( w, h );
+	    cplxs.add( ret );
+	    return ret;
+	}
+
+	/** Create an array of complex-valued 2d vectors, released when the scope closes */
+	public Vec2d.Cplx [] createArrayCplx2D( int n, int w, int h) {
+	    Vec2d.Cplx [] ret = new Vec2d.Cplx[n];
+	    for (int i=0; i<n; i++)
+		ret[i] = createCplx2D( w, h );
+	    return ret;
+	}
+
+	/** Release all vectors created through this scope */
+	@Override
+	public void close() {
+	    release( reals.toArray( new Vec.Real[ reals.size() ]));
+	    release( cplxs.toArray( new Vec.Cplx[ cplxs.size() ]));
+	    reals.clear();
+	    cplxs.clear();
+	}
+    }
+
+    // ------ statistics ------
+
+    /** Number of create calls served from the pool */
+    public synchronized long getHits() {
+	return hits;
+    }
+
+    /** Number of create calls that had to allocate a new vector */
+    public synchronized long getMisses() {
+	return misses;
+    }
+
+    /** Amount of memory (bytes) currently held by the pool */
+    public synchronized long getPooledBytes() {
+	return pooledBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+	return String.format("VectorPool: %d hits, %d misses, %d dropped, "
+	    +"%7.2f MB pooled, %7.2f MB scratch",
+	    hits, misses, dropped, pooledBytes/1024./1024., getScratchBytes()/1024./1024.);
+    }
+
+    // ------ internals ------
+
+    /** note a vector as created by the pool */
+    private synchronized <T> T track( T v ) {
+	created.add( v );
+	return v;
+    }
+
+    /** true if 'v' was created by the pool (and is not a scratch vector) */
+    private synchronized boolean fromPool( Object v ) {
+	if ( created.contains( v ))
+	    return true;
+	Tool.trace("VectorPool: vector not created by the pool, not taken back");
+	return false;
+    }
+
+    /** retrieve a vector from the pool, or null if none available */
+    private synchronized Object get( Shape s ) {
+	ArrayDeque<Object> q = pool.get(s);
+	if (q == null || q.isEmpty()) {
+	    misses++;
+	    return null;
+	}
+	hits++;
+	pooledBytes -= s.bytes();
+	Object ret = q.pollLast();
+	inPool.remove( ret );
+	return ret;
+    }
+
+    /** store a vector in the pool */
+    private synchronized void put( Shape s, Object v ) {
+	if ( inPool.contains( v )) {
+	    Tool.trace("VectorPool: vector released twice, ignored");
+	    return;
+	}
+	if ( pooledBytes + getScratchBytes() + s.bytes() > maxBytes ) {
+	    dropped++;
+	    return;
+	}
+	ArrayDeque<Object> q = pool.get(s);
+	if (q==null) {
+	    q = new ArrayDeque<Object>();
+	    pool.put( s, q );
+	}
+	q.addLast(v);
+	inPool.add(v);
+	pooledBytes += s.bytes();
+    }
+
+    /** drop vectors until the pool (and scratch) is below its maximum size */
+    private void trim() {
+	final long max = maxBytes - getScratchBytes();
+	for ( Map.Entry<Shape, ArrayDeque<Object>> e : pool.entrySet() ) {
+	    ArrayDeque<Object> q = e.getValue();
+	    while ( pooledBytes > max && !q.isEmpty() ) {
+		inPool.remove( q.pollFirst() );
+		pooledBytes -= e.getKey().bytes();
+		dropped++;
+	    }
+	}
+	if (pooledBytes > max)
+	    Tool.trace("VectorPool: could not trim to "+maxBytes+" bytes");
+    }
+
+    /** Shape (type and size) of a vector, used as key */
+    private static final class Shape {
+	static final int REAL=0, CPLX=1, REAL2D=2, CPLX2D=3, REAL3D=4, CPLX3D=5;
+	final int type, w, h, d;
+
+	Shape( int type, int w, int h, int d ) {
+	    this.type=type; this.w=w; this.h=h; this.d=d;
+	}
+
+	/** memory footprint of a vector of this shape */
+	long bytes() {
+	    long n = (long)w*h*((type==REAL2D||type==CPLX2D)?(1):(d));
+	    return ((type%2==0)?(4):(8))*n;
+	}
+
+	@Override
+	public boolean equals( Object o ) {
+	    if (!(o instanceof Shape)) return false;
+	    Shape s = (Shape)o;
+	    return (s.type==type && s.w==w && s.h==h && s.d==d);
+	}
+
+	@Override
+	public int hashCode() {
+	    return ((type*31 + w)*31 + h)*31 + d;
+	}
+    }
+
+}
@@ -0,0 +1,684 @@
+/*
+This file is part of Free Analysis and Interactive Reconstruction
+for Structured Illumination Microscopy (fairSIM).
+
+fairSIM is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 2 of the License, or
+(at your option) any later version.
+
+fairSIM is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package org.fairsim.linalg;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Vector factory that counts what is done with its vectors.
+ *  <p>
+ *  Every vector created is wrapped, and each operation on it (add,
+ *  times, fft2d, fourierShift, copy, duplicate, ...) is counted:
+ *  number of calls, elements processed and time spent, keyed by
+ *  operation and vector shape (e.g. 'Cplx2D 1024x1024'). Element
+ *  access (get, set, rows) and vectorData() are passed through
+ *  uncounted, they are too fine-grained to time. FFTs run through the
+ *  static {@link Transforms} functions (e.g. batches) are not seen
+ *  either, only those called on the vectors.
+ *  <p>
+ *  Install it with {@link #install}, which keeps a {@link VectorPool}
+ *  in place (the profiler goes below the pool, so recycled vectors
+ *  stay profiled), run the code in question, then read the counters
+ *  through {@link #toString} (table) or {@link #writeJson}.
+ *  */
+public final class VectorProfiler implements VectorFactory {
+
+    private final VectorFactory base;
+    private final ConcurrentMap<String, Shape> shapes =
+	new ConcurrentHashMap<String, Shape>();
+
+    /** Profile vectors obtained from 'base' */
+    public VectorProfiler( VectorFactory base ) {
+	if ( base == null )
+	    throw new NullPointerException("base vector factory is null");
+	this.base = base;
+    }
+
+    /** Returns the factory this profiler obtains its vectors from */
+    public VectorFactory getBaseFactory() {
+	return base;
+    }
+
+    // ------ installing ------
+
+    private static VectorFactory before = null;
+
+    /** Profile all vectors created from now on. If the current
+     *  factory is a pool, a new pool is set up on top of the profiler. */
+    public static synchronized VectorProfiler install() {
+	if ( before != null )
+	    throw new RuntimeException("Profiler already installed");
+	VectorFactory cur = Vec.getVectorFactory();
+	VectorProfiler p;
+	if ( cur instanceof VectorPool ) {
+	    p = new VectorProfiler( ((VectorPool)cur).getBaseFactory() );
+	    Vec.setVectorFactory( new VectorPool( p ));
+	} else {
+	    p = new VectorProfiler( cur );
+	    Vec.setVectorFactory( p );
+	}
+	before = cur;
+	return p;
+    }
+
+    /** Restore the factory active before {@link #install} */
+    public static synchronized void uninstall() {
+	if ( before == null )
+	    return;
+	Vec.setVectorFactory( before );
+	before = null;
+    }
+
+    // ------ counters ------
+
+    /** Calls, elements and time of one operation on one shape */
+    public static final class Counter {
+	public final String op, shape;
+	final AtomicLong calls = new AtomicLong(), elements = new AtomicLong(),
+	    nanos = new AtomicLong();
+
+	Counter( String op, String shape ) {
+	    this.op = op; this.shape = shape;
+	}
+
+	public long calls()    { return calls.get(); }
+	public long elements() { return elements.get(); }
+	public double ms()     { return nanos.get() / 1e6; }
+    }
+
+    /** The counters of one shape, by operation. Looked up once per
+     *  vector, so counting an operation needs no key to be built. */
+    static final class Shape {
+	final String name;
+	final ConcurrentMap<String, Counter> ops =
+	    new ConcurrentHashMap<String, Counter>();
+
+	Shape( String name ) {
+	    this.name = name;
+	}
+    }
+
+    /** The counters of shape 'name' */
+    Shape shape( String name ) {
+	Shape s = shapes.get( name );
+	if ( s == null ) {
+	    Shape n = new Shape( name );
+	    s = shapes.putIfAbsent( name, n );
+	    if ( s == null ) s = n;
+	}
+	return s;
+    }
+
+    void record( String op, Shape shape, long elem, long t0 ) {
+	final long t = System.nanoTime() - t0;
+	Counter c = shape.ops.get( op );
+	if ( c == null ) {
+	    Counter n = new Counter( op, shape.name );
+	    c = shape.ops.putIfAbsent( op, n );
+	    if ( c == null ) c = n;
+	}
+	c.calls.incrementAndGet();
+	c.elements.addAndGet( elem );
+	c.nanos.addAndGet( t );
+    }
+
+    /** Clear all counters */
+    public void reset() {
+	// the shapes stay, vectors already created keep theirs
+	for ( Shape s : shapes.values() )
+	    s.ops.clear();
+    }
+
+    /** All counters, most time spent first */
+    public List<Counter> getCounters() {
+	List<Counter> ret = new ArrayList<Counter>();
+	for ( Shape s : shapes.values() )
+	    ret.addAll( s.ops.values() );
+	Collections.sort( ret, new Comparator<Counter>() {
+	    public int compare( Counter a, Counter b ) {
+		return Long.valueOf( b.nanos.get() ).compareTo( a.nanos.get() );
+	    }
+	});
+	return ret;
+    }
+
+    /** Counters as a table, most time spent first */
+    @Override
+    public String toString() {
+	List<Counter> all = getCounters();
+	double total = 0;
+	for ( Counter c : all )
+	    total += c.ms();
+	StringBuilder sb = new StringBuilder();
+	sb.append( String.format( Locale.US, "%-20s %-22s %10s %14s %12s %6s%n",
+	    "operation", "shape", "calls", "elements", "ms", "%" ));
+	for ( Counter c : all )
+	    sb.append( String.format( Locale.US, "%-20s %-22s %10d %14d %12.2f %6.1f%n",
+		c.op, c.shape, c.calls(), c.elements(), c.ms(),
+		( total > 0 ) ? 100*c.ms()/total : 0 ));
+	sb.append( String.format( Locale.US, "%-20s %-22s %10s %14s %12.2f%n",
+	    "total", "", "", "", total ));
+	return sb.toString();
+    }
+
+    /** Write the counters as JSON array, most time spent first */
+    public void writeJson( Writer w ) throws IOException {
+	w.write("[\n");
+	List<Counter> all = getCounters();
+	for (int i=0; i<all.size(); i++) {
+	    Counter c = all.get(i);
+	    w.write( String.format( Locale.US,
+		"  { \"op\": \"%s\", \"shape\": \"%s\", \"calls\": %d, "
+		+"\"elements\": %d, \"ms\": %.3f }%s\n",
+		c.op, c.shape, c.calls(), c.elements(), c.ms(),
+		( i < all.size()-1 ) ? "," : "" ));
+	}
+	w.write("]\n");
+    }
+
+    // ------ vector factory ------
+
+    @Override
+    public Vec.Real createReal( int n ) {
+	long t = System.nanoTime();
+	PReal r = new PReal( this, base.createReal( n ), shape( "Real "+n ));
+	r.rec( "create", t );
+	return r;
+    }
+
+    @Override
+    public Vec.Cplx createCplx( int n ) {
+	long t = System.nanoTime();
+	PCplx r = new PCplx( this, base.createCplx( n ), shape( "Cplx "+n ));
+	r.rec( "create", t );
+	return r;
+    }
+
+    @Override
+    public Vec2d.Real createReal2D( int w, int h ) {
+	long t = System.nanoTime();
+	PReal2D r = new PReal2D( this, base.createReal2D( w, h ),
+	    shape( "Real2D "+w+"x"+h ));
+	r.rec( "create", t );
+	return r;
+    }
+
+    @Override
+    public Vec2d.Cplx createCplx2D( int w, int h ) {
+	long t = System.nanoTime();
+	PCplx2D r = new PCplx2D( this, base.createCplx2D( w, h ),
+	    shape( "Cplx2D "+w+"x"+h ));
+	r.rec( "create", t );
+	return r;
+    }
+
+    @Override
+    public Vec3d.Real createReal3D( int w, int h, int d ) {
+	long t = System.nanoTime();
+	PReal3D r = new PReal3D( this, base.createReal3D( w, h, d ),
+	    shape( "Real3D "+w+"x"+h+"x"+d ));
+	r.rec( "create", t );
+	return r;
+    }
+
+    @Override
+    public Vec3d.Cplx createCplx3D( int w, int h, int d ) {
+	long t = System.nanoTime();
+	PCplx3D r = new PCplx3D( this, base.createCplx3D( w, h, d ),
+	    shape( "Cplx3D "+w+"x"+h+"x"+d ));
+	r.rec( "create", t );
+	return r;
+    }
+
+    @Override
+    public void syncConcurrent() {
+	base.syncConcurrent();
+    }
+
+    // ------ unwrapping, so the base vectors see their own kind ------
+
+    static Vec.Real in( Vec.Real x ) {
+	return ( x instanceof PReal ) ? ((PReal)x).v : x;
+    }
+    static Vec.Cplx in( Vec.Cplx x ) {
+	return ( x instanceof PCplx ) ? ((PCplx)x).v : x;
+    }
+    static Vec2d.Real in( Vec2d.Real x ) {
+	return ( x instanceof PReal ) ? (Vec2d.Real)((PReal)x).v : x;
+    }
+    static Vec2d.Cplx in( Vec2d.Cplx x ) {
+	return ( x instanceof PCplx ) ? (Vec2d.Cplx)((PCplx)x).v : x;
+    }
+    static Vec3d.Real in( Vec3d.Real x ) {
+	return ( x instanceof PReal ) ? (Vec3d.Real)((PReal)x).v : x;
+    }
+    static Vec3d.Cplx in( Vec3d.Cplx x ) {
+	return ( x instanceof PCplx ) ? (Vec3d.Cplx)((PCplx)x).v : x;
+    }
+    static Vec.Real [] in( Vec.Real [] x ) {
+	Vec.Real [] ret = new Vec.Real[ x.length ];
+	for (int i=0; i<x.length; i++) ret[i] = in( x[i] );
+	return ret;
+    }
+    static Vec.Cplx [] in( Vec.Cplx [] x ) {
+	Vec.Cplx [] ret = new Vec.Cplx[ x.length ];
+	for (int i=0; i<x.length; i++) ret[i] = in( x[i] );
+	return ret;
+    }
+
+    // ------ 1D vectors ------
+
+    /** Profiled real-valued vector */
+    static class PReal implements Vec.Real {
+	final VectorProfiler p;
+	final Vec.Real v;
+	final Shape shape;
+
+	PReal( VectorProfiler p, Vec.Real v, Shape shape ) {
+	    this.p = p; this.v = v; this.shape = shape;
+	}
+
+	final void rec( String op, long t0 ) {
+	    p.record( op, shape, v.vectorSize(), t0 );
+	}
+
+	/** Wrap a vector returned by the base vector */
+	PReal wrap( Vec.Real r ) {
+	    return new PReal( p, r, shape );
+	}
+
+	@Override public PReal duplicate() {
+	    long t = System.nanoTime(); PReal r = wrap( v.duplicate() ); rec("duplicate", t); return r;
+	}
+	@Override public int vectorSize() { return v.vectorSize(); }
+	@Override public float [] vectorData() { return v.vectorData(); }
+	@Override public void syncBuffer() { v.syncBuffer(); }
+	@Override public void makeCoherent() { v.makeCoherent(); }
+	@Override public float get( int i ) { return v.get( i ); }
+	@Override public void set( int i, float x ) { v.set( i, x ); }
+
+	@Override public void copy( Vec.Real x ) {
+	    long t = System.nanoTime(); v.copy( in( x )); rec("copy", t);
+	}
+	@Override public void copy( Vec.Cplx x, boolean imag ) {
+	    long t = System.nanoTime(); v.copy( in( x ), imag ); rec("copy(Cplx)", t);
+	}
+	@Override public void copy( Vec.Cplx x ) {
+	    long t = System.nanoTime(); v.copy( in( x )); rec("copy(Cplx)", t);
+	}
+	@Override public void copyMagnitude( Vec.Cplx x ) {
+	    long t = System.nanoTime(); v.copyMagnitude( in( x )); rec("copyMagnitude", t);
+	}
+	@Override public void copyPhase( Vec.Cplx x ) {
+	    long t = System.nanoTime(); v.copyPhase( in( x )); rec("copyPhase", t);
+	}
+	@Override public void zero() {
+	    long t = System.nanoTime(); v.zero(); rec("zero", t);
+	}
+	@Override public void add( Vec.Real ... x ) {
+	    long t = System.nanoTime(); v.add( in( x )); rec("add", t);
+	}
+	@Override public void axpy( float a, Vec.Real x ) {
+	    long t = System.nanoTime(); v.axpy( a, in( x )); rec("axpy", t);
+	}
+	@Override public void addConst( float a ) {
+	    long t = System.nanoTime(); v.addConst( a ); rec("addConst", t);
+	}
+	@Override public void scal( float a ) {
+	    long t = System.nanoTime(); v.scal( a ); rec("scal", t);
+	}
+	@Override public double dot( Vec.Real x ) {
+	    long t = System.nanoTime(); double r = v.dot( in( x )); rec("dot", t); return r;
+	}
+	@Override public double norm2() {
+	    long t = System.nanoTime(); double r = v.norm2(); rec("norm2", t); return r;
+	}
+	@Override public void times( Vec.Real x ) {
+	    long t = System.nanoTime(); v.times( in( x )); rec("times", t);
+	}
+	@Override public double sumElements() {
+	    long t = System.nanoTime(); double r = v.sumElements(); rec("sumElements", t); return r;
+	}
+	@Override public void normalize() {
+	    long t = System.nanoTime(); v.normalize(); rec("normalize", t);
+	}
+	@Override public void normalize( float vmin, float vmax ) {
+	    long t = System.nanoTime(); v.normalize( vmin, vmax ); rec("normalize", t);
+	}
+	@Override public void reciproc() {
+	    long t = System.nanoTime(); v.reciproc(); rec("reciproc", t);
+	}
+	@Override public void addSqr( Vec.Real x ) {
+	    long t = System.nanoTime(); v.addSqr( in( x )); rec("addSqr", t);
+	}
+	@Override public String first10Elem() { return v.first10Elem(); }
+	@Override public int [] nLargestIdx( int n ) {
+	    long t = System.nanoTime(); int [] r = v.nLargestIdx( n ); rec("nLargestIdx", t); return r;
+	}
+	@Override public double avr() {
+	    long t = System.nanoTime(); double r = v.avr(); rec("avr", t); return r;
+	}
+	@Override public double median() {
+	    long t = System.nanoTime(); double r = v.median(); rec("median", t); return r;
+	}
+	@Override public float min() {
+	    long t = System.nanoTime(); float r = v.min(); rec("min", t); return r;
+	}
+	@Override public float max() {
+	    long t = System.nanoTime(); float r = v.max(); rec("max", t); return r;
+	}
+    }
+
+    /** Profiled complex-valued vector */
+    static class PCplx implements Vec.Cplx {
+	final VectorProfiler p;
+	final Vec.Cplx v;
+	final Shape shape;
+
+	PCplx( VectorProfiler p, Vec.Cplx v, Shape shape ) {
+	    this.p = p; this.v = v; this.shape = shape;
+	}
+
+	final void rec( String op, long t0 ) {
+	    p.record( op, shape, v.vectorSize(), t0 );
+	}
+
+	/** Wrap a vector returned by the base vector */
+	PCplx wrap( Vec.Cplx r ) {
+	    return new PCplx( p, r, shape );
+	}
+
+	private Shape realShape = null;
+
+	/** Shape of the real-valued vectors returned */
+	final Shape realShape() {
+	    if ( realShape == null )
+		realShape = p.shape( shape.name.replace("Cplx", "Real") );
+	    return realShape;
+	}
+
+	/** Wrap a real-valued vector returned by the base vector */
+	PReal wrapReal( Vec.Real r ) {
+	    return new PReal( p, r, realShape() );
+	}
+
+	@Override public PCplx duplicate() {
+	    long t = System.nanoTime(); PCplx r = wrap( v.duplicate() ); rec("duplicate", t); return r;
+	}
+	@Override public void syncBuffer() { v.syncBuffer(); }
+	@Override public void makeCoherent() { v.makeCoherent(); }
+	@Override public float [] vectorData() { return v.vectorData(); }
+	@Override public int vectorSize() { return v.vectorSize(); }
+	@Override public Cplx.Float get( int n ) { return v.get( n ); }
+	@Override public void set( int n, Cplx.Float x ) { v.set( n, x ); }
+	@Override public void set( int n, Cplx.Double x ) { v.set( n, x ); }
+
+	@Override public PReal duplicateReal() {
+	    long t = System.nanoTime(); PReal r = wrapReal( v.duplicateReal() ); rec("duplicateReal", t); return r;
+	}
+	@Override public PReal duplicateImag() {
+	    long t = System.nanoTime(); PReal r = wrapReal( v.duplicateImag() ); rec("duplicateImag", t); return r;
+	}
+	@Override public PReal duplicateMagnitude() {
+	    long t = System.nanoTime(); PReal r = wrapReal( v.duplicateMagnitude() ); rec("duplicateMagnitude", t); return r;
+	}
+	@Override public PReal duplicatePhase() {
+	    long t = System.nanoTime(); PReal r = wrapReal( v.duplicatePhase() ); rec("duplicatePhase", t); return r;
+	}
+	@Override public void copy( Vec.Cplx x ) {
+	    long t = System.nanoTime(); v.copy( in( x )); rec("copy", t);
+	}
+	@Override public void copy( Vec.Real x ) {
+	    long t = System.nanoTime(); v.copy( in( x )); rec("copy(Real)", t);
+	}
+	@Override public void zero() {
+	    long t = System.nanoTime(); v.zero(); rec("zero", t);
+	}
+	@Override public void add( Vec.Cplx ... x ) {
+	    long t = System.nanoTime(); v.add( in( x )); rec("add", t);
+	}
+	@Override public void axpy( float a, Vec.Cplx x ) {
+	    long t = System.nanoTime(); v.axpy( a, in( x )); rec("axpy", t);
+	}
+	@Override public void axpy( Cplx.Float a, Vec.Cplx x ) {
+	    long t = System.nanoTime(); v.axpy( a, in( x )); rec("axpy", t);
+	}
+	@Override public void reciproc() {
+	    long t = System.nanoTime(); v.reciproc(); rec("reciproc", t);
+	}
+	@Override public void addConst( Cplx.Float a ) {
+	    long t = System.nanoTime(); v.addConst( a ); rec("addConst", t);
+	}
+	@Override public void scal( float a ) {
+	    long t = System.nanoTime(); v.scal( a ); rec("scal", t);
+	}
+	@Override public void scal( Cplx.Float a ) {
+	    long t = System.nanoTime(); v.scal( a ); rec("scal", t);
+	}
+	@Override public double norm2() {
+	    long t = System.nanoTime(); double r = v.norm2(); rec("norm2", t); return r;
+	}
+	@Override public void conj() {
+	    long t = System.nanoTime(); v.conj(); rec("conj", t);
+	}
+	@Override public Cplx.Double dot( Vec.Cplx x ) {
+	    long t = System.nanoTime(); Cplx.Double r = v.dot( in( x )); rec("dot", t); return r;
+	}
+	@Override public void times( Vec.Cplx x ) {
+	    long t = System.nanoTime(); v.times( in( x )); rec("times", t);
+	}
+	@Override public void timesConj( Vec.Cplx x ) {
+	    long t = System.nanoTime(); v.timesConj( in( x )); rec("timesConj", t);
+	}
+	@Override public void times( Vec.Cplx x, boolean conj ) {
+	    long t = System.nanoTime(); v.times( in( x ), conj ); rec( conj ? "timesConj" : "times", t);
+	}
+	@Override public void times( Vec.Real x ) {
+	    long t = System.nanoTime(); v.times( in( x )); rec("times(Real)", t);
+	}
+	@Override public void times( Vec.Real a, Vec.Cplx b ) {
+	    long t = System.nanoTime(); v.times( in( a ), in( b )); rec("times(Real,Cplx)", t);
+	}
+	@Override public void axpyTimes( float a, Vec.Cplx x, Vec.Real m ) {
+	    long t = System.nanoTime(); v.axpyTimes( a, in( x ), in( m )); rec("axpyTimes", t);
+	}
+	@Override public Cplx.Double timesConjSum( Vec.Cplx x ) {
+	    long t = System.nanoTime(); Cplx.Double r = v.timesConjSum( in( x )); rec("timesConjSum", t); return r;
+	}
+	@Override public double distanceNorm2( Vec.Cplx x ) {
+	    long t = System.nanoTime(); double r = v.distanceNorm2( in( x )); rec("distanceNorm2", t); return r;
+	}
+	@Override public Cplx.Double sumElements() {
+	    long t = System.nanoTime(); Cplx.Double r = v.sumElements(); rec("sumElements", t); return r;
+	}
+	@Override public void addSqr( Vec.Cplx x ) {
+	    long t = System.nanoTime(); v.addSqr( in( x )); rec("addSqr", t);
+	}
+	@Override public String first10Elem() { return v.first10Elem(); }
+    }
+
+    // ------ 2D vectors ------
+
+    /** Profiled real-valued 2d vector */
+    static class PReal2D extends PReal implements Vec2d.Real {
+	final Vec2d.Real v2;
+
+	PReal2D( VectorProfiler p, Vec2d.Real v, Shape shape ) {
+	    super( p, v, shape );
+	    v2 = v;
+	}
+
+	@Override PReal2D wrap( Vec.Real r ) { return new PReal2D( p, (Vec2d.Real) r, shape ); }
+	@Override public PReal2D duplicate() { return (PReal2D) super.duplicate(); }
+
+	@Override public int vectorWidth()  { return v2.vectorWidth(); }
+	@Override public int vectorHeight() { return v2.vectorHeight(); }
+	@Override public float get( int x, int y ) { return v2.get( x, y ); }
+	@Override public void set( int x, int y, float a ) { v2.set( x, y, a ); }
+	@Override public void getRow( int y, float [] row ) { v2.getRow( y, row ); }
+	@Override public void setRow( int y, float [] row ) { v2.setRow( y, row ); }
+
+	@Override public void paste( Vec2d.Real x, int ulx, int uly, boolean zero ) {
+	    long t = System.nanoTime(); v2.paste( in( x ), ulx, uly, zero ); rec("paste", t);
+	}
+	@Override public void project( Vec3d.Real x, int start, int end ) {
+	    long t = System.nanoTime(); v2.project( in( x ), start, end ); rec("project", t);
+	}
+	@Override public void project( Vec3d.Real x ) {
+	    long t = System.nanoTime(); v2.project( in( x )); rec("project", t);
+	}
+	@Override public void slice( Vec3d.Real x, int n ) {
+	    long t = System.nanoTime(); v2.slice( in( x ), n ); rec("slice", t);
+	}
+	@Override public void setFrom16bitPixels( short [] x ) {
+	    long t = System.nanoTime(); v2.setFrom16bitPixels( x ); rec("setFrom16bitPixels", t);
+	}
+    }
+
+    /** Profiled complex-valued 2d vector */
+    static class PCplx2D extends PCplx implements Vec2d.Cplx {
+	final Vec2d.Cplx v2;
+
+	PCplx2D( VectorProfiler p, Vec2d.Cplx v, Shape shape ) {
+	    super( p, v, shape );
+	    v2 = v;
+	}
+
+	@Override PCplx2D wrap( Vec.Cplx r ) { return new PCplx2D( p, (Vec2d.Cplx) r, shape ); }
+	@Override PReal wrapReal( Vec.Real r ) {
+	    return ( r instanceof Vec2d.Real ) ? new PReal2D( p, (Vec2d.Real) r, realShape() ) : super.wrapReal( r );
+	}
+	@Override public PCplx2D duplicate() { return (PCplx2D) super.duplicate(); }
+
+	@Override public int vectorWidth()  { return v2.vectorWidth(); }
+	@Override public int vectorHeight() { return v2.vectorHeight(); }
+	@Override public Cplx.Float get( int x, int y ) { return v2.get( x, y ); }
+	@Override public void set( int x, int y, Cplx.Float a ) { v2.set( x, y, a ); }
+	@Override public void set( int x, int y, Cplx.Double a ) { v2.set( x, y, a ); }
+	@Override public float getRe( int x, int y ) { return v2.getRe( x, y ); }
+	@Override public float getIm( int x, int y ) { return v2.getIm( x, y ); }
+	@Override public void setReIm( int x, int y, float re, float im ) { v2.setReIm( x, y, re, im ); }
+	@Override public void getRow( int y, float [] row ) { v2.getRow( y, row ); }
+	@Override public void setRow( int y, float [] row ) { v2.setRow( y, row ); }
+
+	@Override public void fft2d( boolean inverse ) {
+	    long t = System.nanoTime(); v2.fft2d( inverse ); rec("fft2d", t);
+	}
+	@Override public void paste( Vec2d.Cplx x, int ulx, int uly, boolean zero ) {
+	    long t = System.nanoTime(); v2.paste( in( x ), ulx, uly, zero ); rec("paste", t);
+	}
+	@Override public void pasteFreq( Vec2d.Cplx x, int xOff, int yOff ) {
+	    long t = System.nanoTime(); v2.pasteFreq( in( x ), xOff, yOff ); rec("pasteFreq", t);
+	}
+	@Override public void pasteFreq( Vec2d.Cplx x ) {
+	    long t = System.nanoTime(); v2.pasteFreq( in( x )); rec("pasteFreq", t);
+	}
+	@Override public void fourierShift( double kx, double ky ) {
+	    long t = System.nanoTime(); v2.fourierShift( kx, ky ); rec("fourierShift", t);
+	}
+	@Override public void project( Vec3d.Cplx x, int start, int end ) {
+	    long t = System.nanoTime(); v2.project( in( x ), start, end ); rec("project", t);
+	}
+	@Override public void project( Vec3d.Cplx x ) {
+	    long t = System.nanoTime(); v2.project( in( x )); rec("project", t);
+	}
+	@Override public void slice( Vec3d.Cplx x, int n ) {
+	    long t = System.nanoTime(); v2.slice( in( x ), n ); rec("slice", t);
+	}
+	@Override public void setFrom16bitPixels( short [] x ) {
+	    long t = System.nanoTime(); v2.setFrom16bitPixels( x ); rec("setFrom16bitPixels", t);
+	}
+    }
+
+    // ------ 3D vectors ------
+
+    /** Profiled real-valued 3d vector */
+    static class PReal3D extends PReal implements Vec3d.Real {
+	final Vec3d.Real v3;
+
+	PReal3D( VectorProfiler p, Vec3d.Real v, Shape shape ) {
+	    super( p, v, shape );
+	    v3 = v;
+	}
+
+	@Override PReal3D wrap( Vec.Real r ) { return new PReal3D( p, (Vec3d.Real) r, shape ); }
+	@Override public PReal3D duplicate() { return (PReal3D) super.duplicate(); }
+
+	@Override public int vectorWidth()  { return v3.vectorWidth(); }
+	@Override public int vectorHeight() { return v3.vectorHeight(); }
+	@Override public int vectorDepth()  { return v3.vectorDepth(); }
+	@Override public float get( int x, int y, int z ) { return v3.get( x, y, z ); }
+	@Override public void set( int x, int y, int z, float a ) { v3.set( x, y, z, a ); }
+
+	@Override public void setSlice( int z, Vec2d.Real x ) {
+	    long t = System.nanoTime(); v3.setSlice( z, in( x )); rec("setSlice", t);
+	}
+    }
+
+    /** Profiled complex-valued 3d vector */
+    static class PCplx3D extends PCplx implements Vec3d.Cplx {
+	final Vec3d.Cplx v3;
+
+	PCplx3D( VectorProfiler p, Vec3d.Cplx v, Shape shape ) {
+	    super( p, v, shape );
+	    v3 = v;
+	}
+
+	@Override PCplx3D wrap( Vec.Cplx r ) { return new PCplx3D( p, (Vec3d.Cplx) r, shape ); }
+	@Override PReal wrapReal( Vec.Real r ) {
+	    return ( r instanceof Vec3d.Real ) ? new PReal3D( p, (Vec3d.Real) r, realShape() ) : super.wrapReal( r );
+	}
+	@Override public PCplx3D duplicate() { return (PCplx3D) super.duplicate(); }
+
+	@Override public int vectorWidth()  { return v3.vectorWidth(); }
+	@Override public int vectorHeight() { return v3.vectorHeight(); }
+	@Override public int vectorDepth()  { return v3.vectorDepth(); }
+	@Override public Cplx.Float get( int x, int y, int z ) { return v3.get( x, y, z ); }
+	@Override public void set( int x, int y, int z, Cplx.Float a ) { v3.set( x, y, z, a ); }
+	@Override public void set( int x, int y, int z, Cplx.Double a ) { v3.set( x, y, z, a ); }
+	@Override public float getRe( int x, int y, int z ) { return v3.getRe( x, y, z ); }
+	@Override public float getIm( int x, int y, int z ) { return v3.getIm( x, y, z ); }
+	@Override public void setReIm( int x, int y, int z, float re, float im ) { v3.setReIm( x, y, z, re, im ); }
+
+	@Override public void setSlice( int z, Vec2d.Cplx x ) {
+	    long t = System.nanoTime(); v3.setSlice( z, in( x )); rec("setSlice", t);
+	}
+	@Override public void setSlice( int z, Vec2d.Real x ) {
+	    long t = System.nanoTime(); v3.setSlice( z, in( x )); rec("setSlice(Real)", t);
+	}
+	@Override public void fft3d( boolean inverse ) {
+	    long t = System.nanoTime(); v3.fft3d( inverse ); rec("fft3d", t);
+	}
+	@Override public void pasteFreq( Vec3d.Cplx x ) {
+	    long t = System.nanoTime(); v3.pasteFreq( in( x )); rec("pasteFreq", t);
+	}
+	@Override public void fourierShift( double kx, double ky, double kz ) {
+	    long t = System.nanoTime(); v3.fourierShift( kx, ky, kz ); rec("fourierShift", t);
+	}
+    }
+
+}
@@ -0,0 +1,407 @@
+/*
+This file is part of Free Analysis and Interactive Reconstruction
+for Structured Illumination Microscopy (fairSIM).
+
+fairSIM is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 2 of the License, or
+(at your option) any later version.
+
+fairSIM is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package org.fairsim.linalg;
+
+import java.util.Arrays;
+
+import org.fairsim.utils.SimpleMT;
+
+/** Order statistics and histograms of real-valued vectors.
+ *  <p>
+ *  Median and percentiles use selection (quickselect, falling back to
+ *  sorting the remaining range if partitioning degenerates), which is
+ *  O(n) instead of the O(n log n) of a full sort. They work on a copy
+ *  of the vector held in a scratch buffer, which is kept and reused by
+ *  further calls on the same instance. Instances are thus not thread-safe,
+ *  use one per thread (e.g. one per display).
+ *  <p>
+ *  Top-k and histograms run block-wise in parallel for large vectors, and
+ *  combine the block results in fixed order, so they do not depend on
+ *  the number of threads.
+ *  */
+public class VectorStatistics {
+
+    private float [] scratch = null;
+
+    /** Median of all elements. For an even number of elements,
+     *  the average of the two central elements. */
+    public double median( Vec.Real v ) {
+	return percentiles( v, 50 )[0];
+    }
+
+    /** The p'th percentile (p in 0..100) of all elements, linearly
+     *  interpolated between the closest ranks (p=50 is the median) */
+    public double percentile( Vec.Real v, double p ) {
+	return percentiles( v, p )[0];
+    }
+
+    /** Several percentiles (each in 0..100) at once,
+     *  see {@link #percentile}. This is cheaper than
+     *  separate calls, as each selection narrows down the next. */
+    public double [] percentiles( Vec.Real v, double ... p ) {
+	final int n = v.vectorSize();
+	if ( n == 0 )
+	    throw new RuntimeException("Percentile of empty vector");
+	for ( double pi : p )
+	    if ( !( pi >= 0 && pi <= 100 ))
+		throw new RuntimeException("Percentile not in 0..100: "+pi);
+
+	if ( scratch == null || scratch.length < n )
+	    scratch = new float[ n ];
+	final float [] a = scratch;
+	System.arraycopy( v.vectorData(), 0, a, 0, n );
+
+	// process in ascending order, so each selection
+	// only has to look right of the previous one
+	Integer [] order = new Integer[ p.length ];
+	for (int i=0; i<p.length; i++)
+	    order[i] = i;
+	final double [] pp = p;
+	Arrays.sort( order, new java.util.Comparator<Integer>() {
+	    public int compare( Integer i, Integer j ) {
+		return Double.compare( pp[i], pp[j] );
+	    }
+	});
+
+	double [] ret = new double[ p.length ];
+	int from = 0;
+	for ( int idx : order ) {
+	    final double rank = p[idx] / 100. * (n-1);
+	    final int lo = (int)Math.floor( rank );
+	    final double frac = rank - lo;
+
+	    select( a, from, n-1, lo );
+	    from = lo;
+
+	    double val = a[lo];
+	    if ( frac > 0 ) {
+		// a[lo+1..n) are all >= a[lo], the next rank is their minimum
+		float next = a[lo+1];
+		for (int i=lo+2; i<n; i++)
+		    if ( a[i] < next ) next = a[i];
+		val += frac * ( next - val );
+	    }
+	    ret[idx] = val;
+	}
+	return ret;
+    }
+
+    /** Drop the scratch buffer */
+    public void release() {
+	scratch = null;
+    }
+
+    // ------ selection ------
+
+    /** Reorder a[l..r] so that a[k] is the element that would be there
+     *  if sorted, with all smaller ones left and larger ones right of it */
+    static void select( float [] a, int l, int r, final int k ) {
+	int depth = 2 * (32 - Integer.numberOfLeadingZeros( r-l+1 ));
+
+	while ( r > l ) {
+	    if ( depth-- == 0 || r-l < 16 ) {
+		Arrays.sort( a, l, r+1 );
+		return;
+	    }
+
+	    // median of three as pivot
+	    final int m = (l+r) >>> 1;
+	    if ( a[m] < a[l] ) swap( a, l, m );
+	    if ( a[r] < a[l] ) swap( a, l, r );
+	    if ( a[r] < a[m] ) swap( a, m, r );
+	    final float pivot = a[m];
+
+	    // Hoare partition
+	    int i = l, j = r;
+	    while ( i <= j ) {
+		while ( a[i] < pivot ) i++;
+		while ( a[j] > pivot ) j--;
+		if ( i <= j ) {
+		    swap( a, i, j );
+		    i++; j--;
+		}
+	    }
+
+	    // now a[l..j] <= pivot <= a[i..r], elements between equal pivot
+	    if ( k <= j )
+		r = j;
+	    else if ( k >= i )
+		l = i;
+	    else
+		return;
+	}
+    }
+
+    private static void swap( float [] a, int i, int j ) {
+	final float t = a[i]; a[i] = a[j]; a[j] = t;
+    }
+
+
+    // ------ top-k ------
+
+    /** Indices of the k largest elements, largest first. Of equal
+     *  elements, the one with the lower index comes first. If the vector
+     *  has less than k elements, the remaining indices are set to -1. */
+    public static int [] largestIdx( Vec.Real v, final int k ) {
+	if ( k < 0 )
+	    throw new RuntimeException("Negative number of elements requested");
+
+	final float [] data = v.vectorData();
+	final int n = v.vectorSize();
+	final int nb = nrBlocks( n );
+	final Heap [] part = new Heap[ nb ];
+
+	blocks( n, new Block() {
+	    void run( int b, int s, int e ) {
+		Heap h = new Heap( k, data );
+		for (int i=s; i<e; i++)
+		    h.offer( i );
+		part[b] = h;
+	    }
+	});
+
+	Heap all = new Heap( k, data );
+	for ( Heap h : part )
+	    for (int i=0; i<h.size; i++)
+		all.offer( h.idx[i] );
+
+	int [] ret = new int[ k ];
+	Arrays.fill( ret, -1 );
+	for (int i=all.size-1; i>=0; i--)
+	    ret[i] = all.poll();
+	return ret;
+    }
+
+    /** Min-heap of (at most) k indices, keeping the k largest elements */
+    static final class Heap {
+	final float [] data;
+	final int [] idx;
+	int size = 0;
+
+	Heap( int k, float [] data ) {
+	    this.data = data;
+	    idx = new int[ k ];
+	}
+
+	/** true if element i ranks below element j */
+	boolean less( int i, int j ) {
+	    return data[i] < data[j] || ( data[i] == data[j] && i > j );
+	}
+
+	void offer( int i ) {
+	    if ( size < idx.length ) {
+		idx[ size ] = i;
+		up( size++ );
+	    } else if ( size > 0 && less( idx[0], i )) {
+		idx[0] = i;
+		down( 0 );
+	    }
+	}
+
+	/** remove and return the lowest-ranked index */
+	int poll() {
+	    int ret = idx[0];
+	    idx[0] = idx[ --size ];
+	    down( 0 );
+	    return ret;
+	}
+
+	void up( int c ) {
+	    while ( c > 0 ) {
+		int p = (c-1)/2;
+		if ( !less( idx[c], idx[p] )) return;
+		swap( c, p ); c = p;
+	    }
+	}
+
+	void down( int p ) {
+	    while ( true ) {
+		int c = 2*p+1;
+		if ( c >= size ) return;
+		if ( c+1 < size && less( idx[c+1], idx[c] )) c++;
+		if ( !less( idx[c], idx[p] )) return;
+		swap( c, p ); p = c;
+	    }
+	}
+
+	void swap( int i, int j ) {
+	    final int t = idx[i]; idx[i] = idx[j]; idx[j] = t;
+	}
+    }
+
+
+    // ------ histograms ------
+
+    /** Histogram with a fixed number of equally sized bins */
+    public static final class Histogram {
+	/** Counts per bin */
+	public final int [] counts;
+	/** Range covered by the bins */
+	public final float lower, upper;
+	/** Elements below / above the range, and NaNs */
+	public final long underflow, overflow, nan;
+	/** Minimum and maximum element (NaNs ignored) */
+	public final float min, max;
+
+	Histogram( int [] c, float lower, float upper,
+	    long uf, long of, long nan, float min, float max ) {
+	    this.counts = c; this.lower = lower; this.upper = upper;
+	    this.underflow = uf; this.overflow = of; this.nan = nan;
+	    this.min = min; this.max = max;
+	}
+
+	/** Number of bins */
+	public int nrBins() {
+	    return counts.length;
+	}
+
+	/** Lower edge of bin i */
+	public double binStart( int i ) {
+	    return lower + (double)i * (upper-lower) / counts.length;
+	}
+
+	/** Approximate p'th percentile (p in 0..100), by linear
+	 *  interpolation within the bin. Under- and overflow count
+	 *  at the range borders, NaNs are ignored. */
+	public double percentile( double p ) {
+	    long total = underflow + overflow;
+	    for ( int c : counts ) total += c;
+	    double target = p/100. * total;
+
+	    double acc = underflow;
+	    if ( target <= acc )
+		return lower;
+	    for (int i=0; i<counts.length; i++) {
+		if ( acc + counts[i] >= target && counts[i] > 0 )
+		    return binStart(i) + (target-acc)/counts[i] * (upper-lower) / counts.length;
+		acc += counts[i];
+	    }
+	    return upper;
+	}
+    }
+
+    /** Histogram with 'bins' bins spanning the full range of
+     *  the vector (min to max) */
+    public static Histogram histogram( Vec.Real v, int bins ) {
+	final float [] mm = minMax( v.vectorData(), v.vectorSize() );
+	return histogram( v, bins, mm[0], mm[1] );
+    }
+
+    /** Histogram with 'bins' bins spanning [lower,upper]. Min / max
+     *  of the vector are determined in the same pass. */
+    public static Histogram histogram( Vec.Real v, final int bins,
+	final float lower, final float upper ) {
+
+	if ( bins < 1 )
+	    throw new RuntimeException("Histogram needs at least one bin");
+	if ( !( upper >= lower ))
+	    throw new RuntimeException("Histogram range invalid");
+
+	final float [] data = v.vectorData();
+	final int n = v.vectorSize();
+	final int nb = nrBlocks( n );
+	final int [][] cnt = new int[ nb ][ bins ];
+	final long [][] oth = new long[ nb ][ 3 ];
+	final float [][] mm = new float[ nb ][];
+	final float scale = ( upper > lower ) ? ( bins / ( upper - lower )) : 0;
+
+	blocks( n, new Block() {
+	    void run( int b, int s, int e ) {
+		final int [] c = cnt[b];
+		long uf=0, of=0, nan=0;
+		float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+		for (int i=s; i<e; i++) {
+		    final float x = data[i];
+		    if ( x < min ) min = x;
+		    if ( x > max ) max = x;
+		    if ( x < lower ) { uf++; continue; }
+		    if ( x > upper ) { of++; continue; }
+		    if ( x != x ) { nan++; continue; }
+		    int bin = (int)( (x-lower)*scale );
+		    c[ ( bin < bins ) ? bin : bins-1 ]++;
+		}
+		oth[b][0] = uf; oth[b][1] = of; oth[b][2] = nan;
+		mm[b] = new float [] { min, max };
+	    }
+	});
+
+	int [] c = new int[ bins ];
+	long uf=0, of=0, nan=0;
+	float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+	for (int b=0; b<nb; b++) {
+	    for (int i=0; i<bins; i++)
+		c[i] += cnt[b][i];
+	    uf += oth[b][0]; of += oth[b][1]; nan += oth[b][2];
+	    min = Math.min( min, mm[b][0] );
+	    max = Math.max( max, mm[b][1] );
+	}
+	return new Histogram( c, lower, upper, uf, of, nan, min, max );
+    }
+
+    /** Minimum and maximum of the first n elements of data, NaNs ignored */
+    static float [] minMax( final float [] data, final int n ) {
+	final float [][] mm = new float[ nrBlocks(n) ][];
+	blocks( n, new Block() {
+	    void run( int b, int s, int e ) {
+		float min = Float.POSITIVE_INFINITY, max = Float.NEGATIVE_INFINITY;
+		for (int i=s; i<e; i++) {
+		    if ( data[i] < min ) min = data[i];
+		    if ( data[i] > max ) max = data[i];
+		}
+		mm[b] = new float [] { min, max };
+	    }
+	});
+	float [] ret = { Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY };
+	for ( float [] m : mm ) {
+	    ret[0] = Math.min( ret[0], m[0] );
+	    ret[1] = Math.max( ret[1], m[1] );
+	}
+	if ( ret[0] > ret[1] )
+	    ret[0] = ret[1] = 0;    // empty or NaN-only
+	return ret;
+    }
+
+
+    // ------ block helpers ------
+
+    /** Kernel working on block b, elements [s,e) */
+    static abstract class Block {
+	abstract void run( int b, int s, int e );
+    }
+
+    private static int nrBlocks( int n ) {
+	return Math.max( 1, (n+VectorBlocks.BLOCK-1)/VectorBlocks.BLOCK );
+    }
+
+    /** Run 'k' for all blocks of [0,n), in parallel for large n */
+    private static void blocks( final int n, final Block k ) {
+	final int nb = nrBlocks( n );
+	if ( n < VectorBlocks.getThreshold() ) {
+	    for (int b=0; b<nb; b++)
+		k.run( b, b*VectorBlocks.BLOCK, Math.min( n, (b+1)*VectorBlocks.BLOCK ));
+	    return;
+	}
+	new SimpleMT.StrPFor( 0, nb ) {
+	    public void at( int b ) {
+		k.run( b, b*VectorBlocks.BLOCK, Math.min( n, (b+1)*VectorBlocks.BLOCK ));
+	    }
+	};
+    }
+
+}
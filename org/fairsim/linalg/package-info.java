@@ -24,6 +24,8 @@ along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
  * Real- and complex-valued vectors in {@link org.fairsim.linalg.Vec}, extension
  * to 2D in {@link org.fairsim.linalg.Vec2d}. Fourier-transformation of these
  * vectors through methods in {@link org.fairsim.linalg.Transforms}.
+ * Vectors are created through a {@link org.fairsim.linalg.VectorFactory},
+ * e.g. {@link org.fairsim.linalg.NativeVector} to keep data off the Java heap.
  *
  * <p>
  * Complex numbers in {@link org.fairsim.linalg.Cplx} (based on floati and double),
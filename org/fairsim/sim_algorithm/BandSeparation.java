@@ -18,6 +18,10 @@ along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
 
 package org.fairsim.sim_algorithm;
 
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import org.fairsim.linalg.*;
 import org.fairsim.utils.Tool;
 
@@ -26,6 +30,71 @@ import org.fairsim.utils.Tool;
  */
 public class BandSeparation {
 
+    /** Number of separation matrices kept in the cache */
+    static final int MATRIX_CACHE_SIZE = 64;
+
+    /** Inverted separation matrices, least recently used dropped first */
+    private static final Map<MatrixKey, MatrixComplex> matrixCache = 
+	new LinkedHashMap<MatrixKey, MatrixComplex>( 16, .75f, true ) {
+	    @Override
+	    protected boolean removeEldestEntry( Map.Entry<MatrixKey, MatrixComplex> e ) {
+		return size() > MATRIX_CACHE_SIZE;
+	    }
+	};
+
+    /** Key for the matrix cache: phases, bands and factors */
+    private static final class MatrixKey {
+	final double [][] phases;
+	final int bands;
+	final double [] fac;
+
+	MatrixKey( double [][] phases, int bands, double [] fac ) {
+	    this.phases = new double[ phases.length ][];
+	    for (int i=0; i<phases.length; i++)
+		this.phases[i] = phases[i].clone();
+	    this.bands = bands;
+	    this.fac = ( fac == null ) ? null : fac.clone();
+	}
+
+	@Override
+	public boolean equals( Object o ) {
+	    if (!( o instanceof MatrixKey )) return false;
+	    MatrixKey k = (MatrixKey)o;
+	    return bands == k.bands && Arrays.deepEquals( phases, k.phases )
+		&& Arrays.equals( fac, k.fac );
+	}
+
+	@Override
+	public int hashCode() {
+	    return ( Arrays.deepHashCode( phases )*31 + bands )*31 + Arrays.hashCode( fac );
+	}
+    }
+
+    /** Return the (shared, not to be modified) inverted separation matrix,
+     *  from the cache if available. See {@link #createSeparationMatrix}. */
+    static MatrixComplex getSeparationMatrix( 
+	double [][] phases, final int bands, double [] fac ) {
+	
+	MatrixKey k = new MatrixKey( phases, bands, fac );
+	synchronized ( matrixCache ) {
+	    MatrixComplex ret = matrixCache.get( k );
+	    if ( ret != null )
+		return ret;
+	}
+	MatrixComplex ret = createSeparationMatrix( phases, bands, fac, false );
+	synchronized ( matrixCache ) {
+	    matrixCache.put( k, ret );
+	}
+	return ret;
+    }
+
+    /** Drop all cached separation matrices */
+    public static void clearMatrixCache() {
+	synchronized ( matrixCache ) {
+	    matrixCache.clear();
+	}
+    }
+
     /** Obtain a separation matrix for arbitrary amount 
      *  of bands. Note: Not really tested with more than
      *  3 bands yet. <br> If #phases > #bands*2-1, pseudo-inverse
@@ -74,12 +143,13 @@ public class BandSeparation {
 	    Tool.trace(tmp);
 	}
 
-	// set scaling factors (if they are null)
+	// set scaling factors (if they are null), do not modify the callers array
 	if ( fac == null ) {
 	    fac = new double[ bands ];
 	    for (int i=0;i<bands; i++)
 		fac[i]=(i==0)?(1.0):(.5);
 	} else {
+	    fac = fac.clone();
 	    for (int i=1;i<bands; i++)
 		fac[i]*=0.5;
 	}
@@ -166,8 +236,8 @@ public class BandSeparation {
 	for (int p=0; p<phases.length; p++)
 	    pha[b-1][p] = phases[p]*b;
 
-	// create separation matrix
-	MatrixComplex  SpM = createSeparationMatrix( pha, bands, fac );
+	// obtain separation matrix
+	MatrixComplex  SpM = getSeparationMatrix( pha, bands, fac );
 
 	// some debug output
 	String lg = "Band sep. ("+bands+" bands) with phases";
@@ -181,7 +251,7 @@ public class BandSeparation {
 	// multiply, output 0 .. bands*2-1
 	for ( int p=0; p<phases.length; p++) 
 	for ( int b=0; b<(bands*2-1); b++)
-	    out[b].axpy( SpM.get(b,p).toFlt() , in[p] );
+	    out[b].axpy( new Cplx.Float( (float)SpM.getRe(b,p), (float)SpM.getIm(b,p) ), in[p] );
 
     }
 
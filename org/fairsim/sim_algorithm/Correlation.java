@@ -56,8 +56,10 @@ public class Correlation {
 	    Tool.tell("fitting peak "+(iter+1)+"/3");
 
 	    // copy input data
-	    final Vec2d.Cplx b0 = band0.duplicate();
-	    final Vec2d.Cplx b1 = band1.duplicate();
+	    final Vec2d.Cplx b0 = Vec2d.createCplx( band0 );
+	    final Vec2d.Cplx b1 = Vec2d.createCplx( band1 );
+	    b0.copy( band0 );
+	    b1.copy( band1 );
 
 	    // define common region, with current search guess
 	    commonRegion( b0, b1, bn0, bn1, otf, kx, ky, 0.15, weightLimit, true);
@@ -87,15 +89,17 @@ public class Correlation {
 		    double xpos = tkx + ((xi-4.5)/4.5)*ts;
 		    double ypos = tky + ((yi-4.5)/4.5)*ts;
 	
-		    // copy and Fourier-shift band1
-		    Vec2d.Cplx b1s = b1.duplicate();
+		    // copy and Fourier-shift band1 (into this threads scratch vector)
+		    Vec2d.Cplx b1s = Vec2d.createScratchCplx( 0, 
+			b1.vectorWidth(), b1.vectorHeight() );
+		    b1s.copy( b1 );
 		    b1s.fourierShift( xpos, -ypos);
 
 		    // get correlation by multiplication, summing elements, scaling by b0
-		    b1s.timesConj( b0 );
-		    corr[xi][yi] = Cplx.mult( b1s.sumElements(), scal);
+		    corr[xi][yi] = Cplx.mult( b1s.timesConjSum( b0 ), scal);
 		}
 	    };
+	    Vec.release( b0, b1 );
 	    
 	    // find the maximum, set as new starting point
 	    for ( int yi=0;yi<10;yi++ )	
@@ -150,9 +154,9 @@ public class Correlation {
 	    // distance to DC component
 	    double rad = Math.sqrt( 
 		((x<w/2)?(x*x):((x-w)*(x-w))) + ((y<h/2)?(y*y):((y-h)*(y-h)))  );
-	    if ((rad>kMin)&&( vec.get(x,y).abs() > max )) {
-		max = vec.get(x,y).abs();
-		xPos = x; yPos=y; phase = vec.get(x,y).phase();
+	    if ((rad>kMin)&&( abs( vec, x, y ) > max )) {
+		max = abs( vec, x, y );
+		xPos = x; yPos=y; phase = Math.atan2( vec.getIm(x,y), vec.getRe(x,y) );
 	    }
 	}
 	// convert to our coordinate convention
@@ -185,8 +189,10 @@ public class Correlation {
 
 	// copy input data
 	Vec2d.failSize( band0, band1 );
-	Vec2d.Cplx b0 = band0.duplicate();
-	Vec2d.Cplx b1 = band1.duplicate();
+	Vec2d.Cplx b0 = Vec2d.createCplx( band0 );
+	Vec2d.Cplx b1 = Vec2d.createCplx( band1 );
+	b0.copy( band0 );
+	b1.copy( band1 );
    
 	// define common freq. region
 	commonRegion( b0, b1, bn0, bn1, otf, kx,ky, 0.15, weightLimit, true );
@@ -198,13 +204,11 @@ public class Correlation {
 	// Fourier-shift band1 to correct position
 	b1.fourierShift( kx, -ky ); 
 	
-	// mult b0 to b1
-	b1.timesConj( b0 );
-
-	// scale by |band2|^2
+	// mult b0 to b1, sum, scale by |band2|^2
 	Cplx.Double scal = new Cplx.Double(1. /  b0.norm2()  );
-	Cplx.Double ret = Cplx.mult( b1.sumElements() , scal );
+	Cplx.Double ret = Cplx.mult( b1.timesConjSum( b0 ) , scal );
 
+	Vec.release( b0, b1 );
 	return ret;
     }
     
@@ -255,39 +259,54 @@ public class Correlation {
 	    double ratio = rad / max;
 
 	    // set zero if minimal weight not reached in one or both OTFs
-	    if (    (weight0.get(x,y).abs() < weightLimit) 
-		    || ( wt0.get(x,y).abs() < weightLimit) ) {
+	    if (    (abs( weight0, x, y ) < weightLimit) 
+		    || ( abs( wt0, x, y ) < weightLimit) ) {
 		cutCount++;
-		band0.set(x,y, Cplx.Float.zero());
+		band0.setReIm(x,y, 0, 0);
 	    } else {
 		if (divideByOtf)
-		band0.set(x,y, band0.get(x,y).div( weight0.get(x,y)));
+		divide( band0, weight0, x, y );
 	    }
-	    if (    (weight1.get(x,y).abs() < weightLimit ) 
-		    || ( wt1.get(x,y).abs() < weightLimit)) { 
-		band1.set(x,y, Cplx.Float.zero());
+	    if (    (abs( weight1, x, y ) < weightLimit ) 
+		    || ( abs( wt1, x, y ) < weightLimit)) { 
+		band1.setReIm(x,y, 0, 0);
 	    } else {
 		if (divideByOtf)
-		band1.set(x,y, band1.get(x,y).div( weight1.get(x,y)));
+		divide( band1, weight1, x, y );
 	    }
 	    
 	    // set zero around DC component
 	    if ((ratio<dist )||(ratio>(1-dist))) {
-		band0.set(x,y, Cplx.Float.zero());
-		band1.set(
+		band0.setReIm(x,y, 0, 0);
+		band1.setReIm(
 		    (x-(int)kx+w)%w,
 		    (y+(int)ky+h)%h, 
-		    Cplx.Float.zero());
+		    0, 0);
 		cutCount++;
 	    }
 	
 	}
 	
 	//Tool.trace("Cuts: "+cutCount+"/"+(w*h)+" --> "+(float)cutCount/(w*h));
+	Vec.release( weight0, weight1, wt0, wt1 );
 
     }
 
 
+    /** Magnitude of element x,y */
+    private static double abs( Vec2d.Cplx v, int x, int y ) {
+	final double re = v.getRe(x,y), im = v.getIm(x,y);
+	return Math.sqrt( re*re + im*im );
+    }
+
+    /** Set element x,y of 'a' to a/b */
+    private static void divide( Vec2d.Cplx a, Vec2d.Cplx b, int x, int y ) {
+	final float ar = a.getRe(x,y), ai = a.getIm(x,y);
+	final float br = b.getRe(x,y), bi = b.getIm(x,y);
+	final float s  = br*br + bi*bi;
+	a.setReIm( x, y, (ar*br + ai*bi)/s, (ai*br - ar*bi)/s );
+    }
+
     /** Computes the autocorrelation of inV at kx, ky. Used for Wickers 
      *  non-iterative phase determination. 
      *  */
@@ -300,10 +319,9 @@ public class Correlation {
 	Vec2d.Cplx aV = Vec2d.createCplx(inV,2);
 	Vec2d.Cplx bV = Vec2d.createCplx(inV,2);
 	SimUtils.placeFreq( inV, aV);
-	SimUtils.placeFreq( inV, bV);
 
 	// move one copy to its new position kx, ky
-	Transforms.fft2d( bV, true  );
+	Transforms.ifft2dPadded( inV, bV );
 	Transforms.timesShiftVector( bV, kx, -ky);
 	Transforms.fft2d( bV, false );
 
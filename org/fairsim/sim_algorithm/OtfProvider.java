@@ -171,6 +171,18 @@ public class OtfProvider {
      *  @param att  If true, return attenuated value (see {@link #setAttenuation})
      * */
     public Cplx.Float getOtfVal(int band, double cycl, boolean att) {
+	float [] reIm = new float[2];
+	getOtfVal( band, cycl, att, reIm );
+	return new Cplx.Float( reIm[0], reIm[1] );
+    }
+
+    /** Get the OTF value at 'cycl', without creating objects. 
+     *  @param band OTF band
+     *  @param cycl Position in cycles/micron
+     *  @param att  If true, return attenuated value (see {@link #setAttenuation})
+     *  @param reIm Array to store real and imaginary part in, at index 0 and 1
+     * */
+    public void getOtfVal(int band, double cycl, boolean att, float [] reIm) {
 	// checks
 	if ( !this.isMultiBand ) 
 	    band=0;
@@ -180,29 +192,20 @@ public class OtfProvider {
 	    throw new IndexOutOfBoundsException("cylc negative!");
 	
 	// out of support, return 0
-	if ( cycl >= cutOff )
-	    return Cplx.Float.zero();
-	
 	final double pos = cycl / cyclesPerMicron;
-	if (pos+1 >= samplesLateral)
-	    return Cplx.Float.zero();
-
+	if ( cycl >= cutOff || pos+1 >= samplesLateral ) {
+	    reIm[0] = 0; reIm[1] = 0;
+	    return;
+	}
     
 	// for now, linear interpolation, could be better with a nice cspline
 	int lPos = (int)Math.floor( pos );	
 	int hPos = (int)Math.ceil( pos );
 	float f = (float)(pos - lPos);
     
-	if (att) {
-	    Cplx.Float retl = valsAtt[band][lPos].mult( 1-f );
-	    Cplx.Float reth = valsAtt[band][hPos].mult( f );
-	    return Cplx.add( retl, reth );
-	} else {
-	    Cplx.Float retl = vals[band][lPos].mult( 1-f );
-	    Cplx.Float reth = vals[band][hPos].mult( f );
-	    return Cplx.add( retl, reth );
-	}
-
+	final Cplx.Float [] v = (att)?(valsAtt[band]):(vals[band]);
+	reIm[0] = v[lPos].re * (1-f) + v[hPos].re * f;
+	reIm[1] = v[lPos].im * (1-f) + v[hPos].im * f;
     }
    
     /** Sets pixel size, for output to vectors
@@ -324,6 +327,7 @@ public class OtfProvider {
 	// loop output vector
 	new SimpleMT.StrPFor(0,h) {
 	    public void at(int y) {
+		final float [] val = new float[2];
 		for (int x=0; x<w; x++) {
 		    // wrap to coordinates: x in [-w/2,w/2], y in [-h/2, h/2]
 		    double xh = (x<w/2)?( x):(x-w);
@@ -334,20 +338,22 @@ public class OtfProvider {
 		    
 		    // over cutoff? just set zero
 		    if ( cycl > cutOff ) {
-			vec.set(x,y, Cplx.Float.zero());
+			vec.setReIm(x,y, 0, 0);
 		    } 
 		    
 		    // within cutoff?
 		    if ( cycl <= cutOff ) {
 		    
 			// get the OTF value
-			Cplx.Float val = getOtfVal(band, cycl, useAtt);
+			getOtfVal(band, cycl, useAtt, val);
 
-			// multiply to vector or write to vector
+			// multiply conj. OTF to vector or write to vector
 			if (!write) {
-			    vec.set(x, y, vec.get(x,y).mult( val.conj() ) );
+			    final float re = vec.getRe(x,y), im = vec.getIm(x,y);
+			    vec.setReIm(x, y, 
+				re*val[0] + im*val[1], im*val[0] - re*val[1] );
 			} else {
-			    vec.set(x, y, val );
+			    vec.setReIm(x, y, val[0], val[1] );
 			}
 		    }
 		}
@@ -435,7 +441,7 @@ public class OtfProvider {
 		    double frac = cycl / (getCutoff()*cutOff);
 		    double val  = Math.pow( valIdealOTF( frac ), bend );
 		    // set output to that value	
-		    vec.set(x,y, new Cplx.Float((float)val));
+		    vec.setReIm(x,y, (float)val, 0);
 		}
 	    }
 	}; 
@@ -500,7 +506,7 @@ public class OtfProvider {
 		    double rad = MTool.fhypot( xh-kx, yh-ky ) * vecCyclesPerMicron;
 		    // if outside of support, set zero
 		    if (rad>otfSupport)
-			vec.set(x,y, Cplx.Float.zero());
+			vec.setReIm(x,y, 0, 0);
 		}
 	    }
 	}; 
@@ -56,7 +56,6 @@ public class RLDeconvolution {
 
 	Vec2d.Cplx deconvImg	= Vec2d.createCplx( img );
 	Vec2d.Cplx nextImg	= Vec2d.createCplx( img );
-	Vec2d.Cplx errEst	= Vec2d.createCplx( img );
 	
 	if (inputIsInFreqSpace)
 	    img.fft2d(true);
@@ -85,10 +84,8 @@ public class RLDeconvolution {
 
 	    // 5: now nextImg contains the next guess (u_{j+1})
 	    // 5a: compute how much the iteration changed u_j -> u_{j+1}
-	    errEst.copy( nextImg );
-	    errEst.scal( -1 );
-	    errEst.add( deconvImg );
-	    Tool.trace("RL-iteration "+i+": "+Math.sqrt(errEst.norm2())/errEst.vectorSize());
+	    Tool.trace("RL-iteration "+i+": "+
+		Math.sqrt(nextImg.distanceNorm2( deconvImg ))/nextImg.vectorSize());
 
 	    // 5b: set the new image as the current deconv. image
 	    deconvImg.copy( nextImg );
@@ -100,6 +97,8 @@ public class RLDeconvolution {
 	if (inputIsInFreqSpace)
 	    img.fft2d(false);
 
+	Vec.release( deconvImg, nextImg );
+
     }
 
 
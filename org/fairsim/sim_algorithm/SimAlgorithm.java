@@ -77,6 +77,7 @@ public class SimAlgorithm {
 	    "Fitband neither 1 nor 2");
 
 	if (tEst!=null) tEst.start();
+	StageTimes.begin( StageTimes.Stage.ESTIMATION );
     
 	// The attenuation vector helps well to fade out the DC component,
 	// which is uninteresting for the correlation anyway
@@ -117,26 +118,20 @@ public class SimAlgorithm {
 	    }
 
 
-	    // duplicate input, as we will modify it for coarse peak finding
-	    // TODO: this could be avoided it neither coarse peak finding
-	    // NOR visual feedback is requested
-	    Vec2d.Cplx c0 = separate[0].duplicate();
-	    Vec2d.Cplx c1 = separate[lb].duplicate();
-	    Vec2d.Cplx c2 = separate[hb].duplicate();
-
-	    // dampen region around DC 
-	    c0.times( otfAtt );
-	    c1.times( otfAtt );
-	    c2.times( otfAtt ); 
+	    // copy input, dampening the region around DC in the same pass,
+	    // as we will modify it for coarse peak finding
+	    Vec2d.Cplx c0 = Vec2d.createCplx( separate[0] );
+	    Vec2d.Cplx c1 = Vec2d.createCplx( separate[lb] );
+	    Vec2d.Cplx c2 = Vec2d.createCplx( separate[hb] );
+	    c0.axpyTimes( 1, separate[0],  otfAtt );
+	    c1.axpyTimes( 1, separate[lb], otfAtt );
+	    c2.axpyTimes( 1, separate[hb], otfAtt );
 	    
 	    // compute correlation: ifft, mult. in spatial, fft back
-	    Transforms.fft2d( c0, true);
-	    Transforms.fft2d( c1, true);
-	    Transforms.fft2d( c2, true);
+	    Transforms.fft2d( new Vec2d.Cplx [] { c0, c1, c2 }, true);
 	    c1.timesConj( c0 );
 	    c2.timesConj( c0 );
-	    Transforms.fft2d( c1, false);
-	    Transforms.fft2d( c2, false);
+	    Transforms.fft2d( new Vec2d.Cplx [] { c1, c2 }, false);
 	    
 	    double [] peak ;
 	    double minDist =2;
@@ -302,6 +297,7 @@ public class SimAlgorithm {
 	
 	}
     
+	StageTimes.end( StageTimes.Stage.ESTIMATION );
 	if (tEst!=null) tEst.stop();
 
 	if (idf!=null) {
@@ -429,7 +425,9 @@ public class SimAlgorithm {
 	
 	// setup WienerFilter
 	Tool.tell("Setting up Wiener filter");
+	StageTimes.begin( StageTimes.Stage.WIENER_FILTER );
 	WienerFilter wFilter = new WienerFilter( param );
+	StageTimes.end( StageTimes.Stage.WIENER_FILTER );
 	double wienParam     = param.getWienerFilter();
 
 	if (visualFeedback>0 && param.useWienerFilter()) {
@@ -461,6 +459,7 @@ public class SimAlgorithm {
 	    final SimParam.Dir par = param.dir(angIdx);
 	    Tool.tell("Reconstr. for angle "+(angIdx+1)+"/"+param.nrDir());
 	    
+	    StageTimes.begin( StageTimes.Stage.BAND_SEPARATION );
 	    Vec2d.Cplx [] separate  = Vec2d.createArrayCplx( par.nrComp(), w, h);
 	  
 	    // copy into temp. array (to not override input data) 
@@ -478,6 +477,8 @@ public class SimAlgorithm {
 	    // ---- Richardson-Lucy: Deconvolve input data here ----
 	    if ( param.useRLonInput() ) {
 		
+		StageTimes.end( StageTimes.Stage.BAND_SEPARATION );
+		StageTimes.begin( StageTimes.Stage.RL_DECONVOLUTION );
 			// deconvolve the input data
 		for (int i=0; i< par.nrPha() ;i++) { 
 
@@ -495,42 +496,61 @@ public class SimAlgorithm {
 		    }
 		
 		}
+		StageTimes.end( StageTimes.Stage.RL_DECONVOLUTION );
+		StageTimes.begin( StageTimes.Stage.BAND_SEPARATION );
 	    }
 
 	    // use the temp array as input for the band separation
 	    BandSeparation.separateBands( tmpArray , separate , 
 		par.getPhases(), par.nrBand(), par.getModulations());
+	    StageTimes.end( StageTimes.Stage.BAND_SEPARATION );
 	    
 
 	    // Wiener filter: Apply OTF here
-	    if (otfBeforeShift && param.useWienerFilter() )
+	    if (otfBeforeShift && param.useWienerFilter() ) {
+		StageTimes.begin( StageTimes.Stage.WIENER_FILTER );
 		for (int i=0; i<(par.nrComp()) ;i++)  
 		    otfPr.applyOtf( separate[i], (i+1)/2);
+		StageTimes.end( StageTimes.Stage.WIENER_FILTER );
+	    }
 
 	    // ------- Shifts to correct position ----------
+	    StageTimes.begin( StageTimes.Stage.SHIFT );
 	    Vec2d.Cplx [] shifted		= Vec2d.createArrayCplx(5, 2*w, 2*h);
 
 	    // band 0 is DC, so does not need shifting, only a bigger vector
 	    SimUtils.placeFreq( separate[0],  shifted[0]);
 	    
 	    // higher bands need shifting
+	    Vec2d.Cplx [] toShift = new Vec2d.Cplx[ par.nrBand()*2-2 ];
+	    
+	    // first, to real space on the larger vectors (pruned FFT
+	    // of the zero-padded bands, replaces placeFreq + FFT)
+	    for ( int b=1; b<par.nrBand(); b++) {
+		int pos = b*2, neg = (b*2)-1;	// pos/neg contr. to band
+		Transforms.ifft2dPadded( separate[pos] , shifted[pos]);
+		Transforms.ifft2dPadded( separate[neg] , shifted[neg]);
+		toShift[pos-1] = shifted[pos];
+		toShift[neg-1] = shifted[neg];
+	    }
+
+	    // then, fourier shift (see SimUtils.fourierShift), 
+	    // with the forward FFTs of all bands run as one batch
 	    for ( int b=1; b<par.nrBand(); b++) {
 		
 		Tool.trace("reconstr.: dir "+angIdx+": shift band: "+b+" to: "+par.px(b)+" "+par.py(b));
 		
-		// first, copy to larger vectors
 		int pos = b*2, neg = (b*2)-1;	// pos/neg contr. to band
-		SimUtils.placeFreq( separate[pos] , shifted[pos]);
-		SimUtils.placeFreq( separate[neg] , shifted[neg]);
-
-		// then, fourier shift
-		SimUtils.fourierShift( shifted[pos] ,  par.px(b),  par.py(b) );
-		SimUtils.fourierShift( shifted[neg] , -par.px(b), -par.py(b) );
+		shifted[pos].fourierShift(  par.px(b), -par.py(b) );
+		shifted[neg].fourierShift( -par.px(b),  par.py(b) );
 	    }
+	    Transforms.fft2d( toShift, false );
+	    StageTimes.end( StageTimes.Stage.SHIFT );
 	   
 	    // ------ OTF multiplication or masking ------
 	   
 	    if ( param.useWienerFilter() ) {
+		StageTimes.begin( StageTimes.Stage.WIENER_FILTER );
 		if (!otfBeforeShift) {
 		    // multiply with shifted OTF
 		    otfPr.applyOtf( shifted[0], 0 );
@@ -547,6 +567,7 @@ public class SimAlgorithm {
 			otfPr.maskOtf( shifted[neg], -par.px(b), -par.py(b) );
 		    }
 		}
+		StageTimes.end( StageTimes.Stage.WIENER_FILTER );
 	    }
 	    // ------ Sum up result ------
 	    
@@ -584,10 +605,10 @@ public class SimAlgorithm {
 	
 		    // output the wiener denominator
 		    if (visualFeedback>1 && !param.useNoFiltering()) {
-			Vec2d.Real wd = denom.duplicate();
+			Vec2d.Real wd = Vec2d.createReal( denom );
+			Transforms.fftshift( denom, wd );
 			wd.reciproc();
 			wd.normalize();
-			Transforms.swapQuadrant( wd );
 			pwSt2.addImage( wd, String.format(
 			    "a%1d: OTF/Wiener band %1d",angIdx,(i/2) ));
 		    }
@@ -601,6 +622,7 @@ public class SimAlgorithm {
 			"a%1d: band %1d",angIdx,i));
 		    spSt2.addImage( SimUtils.spatial( thisband, imgClipScale ) ,String.format(
 			"a%1d: band %1d",angIdx,i));
+		    Vec.release( denom );
 		}
 
 		// per direction wiener denominator	
@@ -610,13 +632,14 @@ public class SimAlgorithm {
 		    
 		    // output the wiener denominator
 		    if (visualFeedback>1) {
-			Vec2d.Real wd = fDenom.duplicate();
+			Vec2d.Real wd = Vec2d.createReal( fDenom );
+			Transforms.fftshift( fDenom, wd );
 			wd.reciproc();
 			wd.normalize();
-			Transforms.swapQuadrant( wd );
 			pwSt2.addImage( wd, String.format(
 			    "a%1d: OTF/Wiener all bands",angIdx ));
 		    }
+		    Vec.release( fDenom );
 		}
 		
 		pwSt2.addImage( SimUtils.pwSpec( result ) ,String.format(
@@ -630,9 +653,14 @@ public class SimAlgorithm {
 		    pwSt.addImage( SimUtils.pwSpec( separate[i] ), String.format(
 			"a%1d, sep%1d, seperated band", angIdx, i));
 		}
+		Vec.release( result );
 	   
 	    }
 
+	    // hand the temporary vectors back for reuse (if pooled)
+	    Vec.release( tmpArray );
+	    Vec.release( separate );
+	    Vec.release( shifted );
 
 	}   
 	
@@ -647,30 +675,37 @@ public class SimAlgorithm {
 	if ( param.useWienerFilter() ) {
 
 	    Tool.tell("Applying Wiener filter");
+	    StageTimes.begin( StageTimes.Stage.WIENER_FILTER );
 
-	    // multiply by wiener denominator
+	    // wiener denominator and apotization filter
 	    Vec2d.Real denom = wFilter.getDenominator( wienParam );
-	    fullResult.times(denom);
-	    
+	    Vec2d.Cplx apo = Vec2d.createCplx(2*w,2*h);
+	    otfPr.writeApoVector( apo, apoB, apoF);
+
 	    if (visualFeedback>0) {
+		// apply separately, to show the intermediate result
+		fullResult.times(denom);
 		pwSt2.addImage(  SimUtils.pwSpec( fullResult), "full (w/o APO)");
 		spSt2.addImage(  SimUtils.spatial(fullResult, imgClipScale), "full (w/o APO)");
-	    }
-
-	    // apply apotization filter
-	    Vec2d.Cplx apo = Vec2d.createCplx(2*w,2*h);
-	    otfPr.writeApoVector( apo, apoB, apoF);
 	    
-	    if (visualFeedback>1) {
-		Vec2d.Real tmp = Vec2d.createReal(2*w,2*h);
-		tmp.copy( apo );
-		Transforms.swapQuadrant( tmp );
-		pwSt2.addImage( tmp, "Apo filter");
+		if (visualFeedback>1) {
+		    Vec2d.Real tmp = Vec2d.createReal(2*w,2*h);
+		    tmp.copy( apo );
+		    Transforms.fftshift( tmp );
+		    pwSt2.addImage( tmp, "Apo filter");
+		}
+		fullResult.times(apo);
+	    } else {
+		// apply both in one pass
+		fullResult.times( denom, apo );
 	    }
+	    Vec.release( denom );
+	    Vec.release( apo );
+	    StageTimes.end( StageTimes.Stage.WIENER_FILTER );
 	    
-	    fullResult.times(apo);
-	    
+	    StageTimes.begin( StageTimes.Stage.OUTPUT );
 	    fullResultImage = SimUtils.spatial( fullResult, imgClipScale);
+	    StageTimes.end( StageTimes.Stage.OUTPUT );
 
 	    if (spSt2 != null) 
 		spSt2.addImage( fullResultImage, "full result");
@@ -686,8 +721,9 @@ public class SimAlgorithm {
 	    
 		Tool.tell("Computing wide-field");
 		
-		// obtain the low freq result
+		// obtain the low freq result, summed at input size
 		Vec2d.Cplx lowFreqResult = Vec2d.createCplx( param, 2);
+		Vec2d.Cplx lowFreq = Vec2d.createCplx( w, h );
 		
 		// have to do the separation again, result before had the OTF multiplied
 		for (int angIdx = 0; angIdx < param.nrDir(); angIdx ++ ) {
@@ -698,10 +734,11 @@ public class SimAlgorithm {
 		    BandSeparation.separateBands( inFFT[angIdx] , separate , 
 			par.getPhases(), par.nrBand(), par.getModulations());
 
-		    Vec2d.Cplx tmp  = Vec2d.createCplx( param, 2 );
-		    SimUtils.placeFreq( separate[0],  tmp);
-		    lowFreqResult.add( tmp );
+		    lowFreq.add( separate[0] );
+		    Vec.release( separate );
 		}	
+		SimUtils.placeFreq( lowFreq, lowFreqResult );
+		Vec.release( lowFreq );
 		
 		// now, output the widefield
 		if (visualFeedback>0)
@@ -719,6 +756,7 @@ public class SimAlgorithm {
 
 		Vec2d.Real lfDenom = wFilter.getWidefieldDenominator( wienParam );
 		lowFreqResult.times( lfDenom );
+		Vec.release( lfDenom );
 	       
 		// mask out freq. that could not have passed 
 		// (does not really change the image)
@@ -739,6 +777,7 @@ public class SimAlgorithm {
 		    filteredWidefieldResult.copy( SimUtils.spatial(lowFreqResult,imgClipScale));
 		    Tool.trace("generating filtered widefield output");
 		}
+		Vec.release( lowFreqResult );
 
 	    }
 	}	
@@ -750,6 +789,7 @@ public class SimAlgorithm {
 	if ( param.useRLonOutput() ) {
 
 	    Tool.tell("Applying RL deconvolution filter");
+	    StageTimes.begin( StageTimes.Stage.RL_DECONVOLUTION );
 
 	    
 	    // generate the effective SIM OTF
@@ -796,8 +836,12 @@ public class SimAlgorithm {
 	    // deconvolve the result
 	    RLDeconvolution.deconvolve( fullResult, otfSim, 
 		param.getRLiterations(), true);
+	    Vec.release( otfSim, otfTmpPos, otfTmpNeg );
+	    StageTimes.end( StageTimes.Stage.RL_DECONVOLUTION );
 	    
+	    StageTimes.begin( StageTimes.Stage.OUTPUT );
 	    fullResultImage = SimUtils.spatial( fullResult, imgClipScale);
+	    StageTimes.end( StageTimes.Stage.OUTPUT );
 
 	    if (spSt2 != null) 
 		spSt2.addImage( fullResultImage, "full result (RL)");
@@ -813,8 +857,9 @@ public class SimAlgorithm {
 	    
 		Tool.tell("Computing wide-field");
 		
-		// obtain the low freq result
+		// obtain the low freq result, summed at input size
 		Vec2d.Cplx lowFreqResult = Vec2d.createCplx( param, 2);
+		Vec2d.Cplx lowFreq = Vec2d.createCplx( w, h );
 		
 		// have to do the separation again, result before had the OTF multiplied
 		for (int angIdx = 0; angIdx < param.nrDir(); angIdx ++ ) {
@@ -825,10 +870,11 @@ public class SimAlgorithm {
 		    BandSeparation.separateBands( inFFT[angIdx] , separate , 
 			par.getPhases(), par.nrBand(), par.getModulations());
 
-		    Vec2d.Cplx tmp  = Vec2d.createCplx( param, 2 );
-		    SimUtils.placeFreq( separate[0],  tmp);
-		    lowFreqResult.add( tmp );
+		    lowFreq.add( separate[0] );
+		    Vec.release( separate );
 		}	
+		SimUtils.placeFreq( lowFreq, lowFreqResult );
+		Vec.release( lowFreq );
 		
 		// now, output the widefield
 		if (visualFeedback>0)
@@ -846,6 +892,7 @@ public class SimAlgorithm {
 		otfPr.writeOtfVector( zeroOrderOtf, 0,0,0);
 		RLDeconvolution.deconvolve( lowFreqResult, zeroOrderOtf, 
 		    param.getRLiterations(), true);
+		Vec.release( zeroOrderOtf );
 		
 		if (visualFeedback>0)
 		    pwSt2.addImage( SimUtils.pwSpec( lowFreqResult), "filtered Widefield" );
@@ -856,6 +903,7 @@ public class SimAlgorithm {
 		    filteredWidefieldResult.copy( SimUtils.spatial(lowFreqResult,imgClipScale));
 		    Tool.trace("generating filtered widefield output");
 		}
+		Vec.release( lowFreqResult );
 
 
 	    }
@@ -871,7 +919,9 @@ public class SimAlgorithm {
 
 	    Tool.tell("Computing unfiltered result");
 	    
+	    StageTimes.begin( StageTimes.Stage.OUTPUT );
 	    fullResultImage = SimUtils.spatial( fullResult, imgClipScale);
+	    StageTimes.end( StageTimes.Stage.OUTPUT );
 
 	    if (spSt2 != null) 
 		spSt2.addImage( fullResultImage, "full result (unfiltered!)");
@@ -887,8 +937,9 @@ public class SimAlgorithm {
 	    
 		Tool.tell("Computing wide-field");
 		
-		// obtain the low freq result
+		// obtain the low freq result, summed at input size
 		Vec2d.Cplx lowFreqResult = Vec2d.createCplx( param, 2);
+		Vec2d.Cplx lowFreq = Vec2d.createCplx( w, h );
 		
 		// have to do the separation again, result before had the OTF multiplied
 		for (int angIdx = 0; angIdx < param.nrDir(); angIdx ++ ) {
@@ -899,10 +950,11 @@ public class SimAlgorithm {
 		    BandSeparation.separateBands( inFFT[angIdx] , separate , 
 			par.getPhases(), par.nrBand(), par.getModulations());
 
-		    Vec2d.Cplx tmp  = Vec2d.createCplx( param, 2 );
-		    SimUtils.placeFreq( separate[0],  tmp);
-		    lowFreqResult.add( tmp );
+		    lowFreq.add( separate[0] );
+		    Vec.release( separate );
 		}	
+		SimUtils.placeFreq( lowFreq, lowFreqResult );
+		Vec.release( lowFreq );
 		
 		// now, output the widefield
 		if (visualFeedback>0)
@@ -914,6 +966,7 @@ public class SimAlgorithm {
 		    widefieldResult.copy( SimUtils.spatial(lowFreqResult, imgClipScale));
 		    Tool.trace("generating widefield output");
 		}
+		Vec.release( lowFreqResult );
 
 	    }
 	}	
@@ -923,6 +976,9 @@ public class SimAlgorithm {
 
 	// -----------------------------------------------------------------------
 
+	// the result has been copied to 'fullResultImage'
+	Vec.release( fullResult, inputOtf );
+
 	// stop timers
 	if (tRec!=null) tRec.stop();	
 
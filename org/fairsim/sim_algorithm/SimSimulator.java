@@ -0,0 +1,317 @@
+/*
+This file is part of Free Analysis and Interactive Reconstruction
+for Structured Illumination Microscopy (fairSIM).
+
+fairSIM is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 2 of the License, or
+(at your option) any later version.
+
+fairSIM is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package org.fairsim.sim_algorithm;
+
+import java.util.Random;
+
+import org.fairsim.linalg.Vec2d;
+import org.fairsim.utils.SimpleMT;
+import org.fairsim.utils.Tool;
+
+/** Headless simulation of raw SIM data of a bead sample, e.g. for
+ *  testing and benchmarking the reconstruction.
+ *  <p>
+ *  This is the one simulation model of fairSIM, the BeadsCreator and
+ *  SimPatternSimulator ImageJ plugins use its building blocks
+ *  ({@link #addRandomBead}, {@link #simPattern}, {@link #bandLimit},
+ *  {@link #camera}): solid and hollow beads are drawn on a grid
+ *  'oversample' times finer than the camera, multiplied with the
+ *  illumination pattern, band-limited by the OTF, binned to camera pixels
+ *  and converted to photons with shot noise, camera offset and read noise.
+ *  For 3 bands, the pattern also holds half the pattern frequency,
+ *  as in 3-beam SIM. All output is reproducible for a given seed.
+ *  */
+public class SimSimulator {
+
+    final int size, nrBands, nrDirs, nrPhases;
+
+    int oversample    = 4;
+    double pxlSize    = 0.08;	// microns
+    double simResImpr = 0.9;
+    double modDepth   = 0.8;
+    double na = 1.4, lambda = 525;
+    double photons    = 50;
+    double camOffset  = 100, camNoise = 2;
+    double beadRadius = 0.1, beadDensity = 0.5, hollowFraction = 0.5;
+    long seed = 1337;
+
+    /** Simulation of square raw images
+     *  @param size Width and height of the raw images, in pixels
+     *  @param nrBands Number of bands (2 or 3)
+     *  @param nrDirs  Number of pattern orientations
+     *  @param nrPhases Number of phases */
+    public SimSimulator( int size, int nrBands, int nrDirs, int nrPhases ) {
+	if ( nrBands<2 || nrBands>3 )
+	    throw new RuntimeException("Number of bands has to be 2 or 3");
+	if ( size<1 || nrDirs<1 || nrPhases < 2*nrBands-1 )
+	    throw new RuntimeException("Not enough phases for "+nrBands+" bands");
+	this.size = size; this.nrBands = nrBands;
+	this.nrDirs = nrDirs; this.nrPhases = nrPhases;
+    }
+
+    /** Camera pixel size, in microns (default 0.08) */
+    public SimSimulator setPixelSize( double microns ) {
+	pxlSize = microns;
+	return this;
+    }
+
+    /** Simulation grid points per camera pixel and axis (default 4) */
+    public SimSimulator setOversample( int o ) {
+	if ( o<1 ) throw new RuntimeException("Oversampling has to be positive");
+	oversample = o;
+	return this;
+    }
+
+    /** Objective NA (default 1.4) and emission wavelength
+     *  in nm (default 525) */
+    public SimSimulator setObjective( double na, double lambda ) {
+	this.na = na; this.lambda = lambda;
+	return this;
+    }
+
+    /** Pattern frequency, as fraction of the OTF
+     *  cutoff (default 0.9), and modulation depth (default 0.8) */
+    public SimSimulator setPattern( double resImpr, double modDepth ) {
+	this.simResImpr = resImpr; this.modDepth = modDepth;
+	return this;
+    }
+
+    /** Photons per unit of bead intensity (default 50), camera
+     *  offset (default 100) and read noise (default 2) */
+    public SimSimulator setCamera( double photons, double offset, double noise ) {
+	this.photons = photons; this.camOffset = offset; this.camNoise = noise;
+	return this;
+    }
+
+    /** Bead radius in microns (default 0.1), beads per square micron
+     *  (default 0.5) and fraction of hollow beads (default 0.5) */
+    public SimSimulator setBeads( double radius, double density, double hollow ) {
+	this.beadRadius = radius; this.beadDensity = density;
+	this.hollowFraction = hollow;
+	return this;
+    }
+
+    /** Seed for the random number generators (default 1337) */
+    public SimSimulator setSeed( long s ) {
+	seed = s;
+	return this;
+    }
+
+    /** Cycles per micron of one frequency pixel */
+    double cyclesPerMicron() {
+	return 1. / ( pxlSize * size );
+    }
+
+    /** The OTF used in the simulation, set to the raw image pixel size */
+    public OtfProvider createOtf() {
+	OtfProvider otf = OtfProvider.fromEstimate( na, lambda, .7 );
+	otf.setPixelSize( cyclesPerMicron() );
+	return otf;
+    }
+
+    /** SIM parameters matching the simulation (but with pattern
+     *  parameters still to be estimated) */
+    public SimParam createParam() {
+	return SimParam.create( nrBands, nrDirs, nrPhases, size, pxlSize, createOtf() );
+    }
+
+    /** Pattern wave vector (highest band) of direction d, in
+     *  frequency pixels, as {kx, ky} */
+    public double [] pattern( int d ) {
+	final double k0 = createOtf().getCutoff() * simResImpr / cyclesPerMicron();
+	return new double [] {
+	    Math.sin( (d/(double)nrDirs+.2)*Math.PI*2 )*k0,
+	    Math.cos( (d/(double)nrDirs+.2)*Math.PI*2 )*k0 };
+    }
+
+    /** The bead sample, on the oversampled grid */
+    public Vec2d.Real groundTruth() {
+	final int len = size*oversample;
+	final double pxl = pxlSize / oversample;
+	Vec2d.Real gt = Vec2d.createReal( len, len );
+
+	Random posPRNG    = new Random( seed );
+	Random hollowPRNG = new Random( seed*123+2 );
+
+	final int nrBeads = (int)( beadDensity * Math.pow( size*pxlSize, 2 ));
+	for (int i=0; i<nrBeads; i++) {
+	    boolean hollow = hollowPRNG.nextDouble() < hollowFraction;
+	    addRandomBead( gt, posPRNG, beadRadius/pxl, hollow );
+	}
+	return gt;
+    }
+
+    /** Draw a bead of radius 'rad' (in grid points) at a random
+     *  empty spot, up to 20 tries. Always draws 20 positions from
+     *  'posPRNG', so the sequence does not depend on the outcome.
+     *  @return true if the bead was placed */
+    public static boolean addRandomBead( Vec2d.Real dat, Random posPRNG,
+	double rad, boolean hollow ) {
+	final int w = dat.vectorWidth(), h = dat.vectorHeight();
+	boolean placed = false;
+	for (int t=0; t<20; t++) {
+	    double x = posPRNG.nextDouble()*w;
+	    double y = posPRNG.nextDouble()*h;
+	    if ( !placed && dat.get( (int)x, (int)y ) < 1e-8 ) {
+		addBead( dat, x, y, rad, hollow );
+		placed = true;
+	    }
+	}
+	return placed;
+    }
+
+    /** Draw a bead of radius 'rad' (in grid points) at x,y */
+    public static void addBead( Vec2d.Real dat, double xPos, double yPos,
+	double rad, boolean hollow ) {
+
+	final int w = dat.vectorWidth(), h = dat.vectorHeight();
+	final int s = (int)(2*rad+2);
+
+	for (int y = (int)yPos-s ; y<(int)yPos+s; y++) {
+	    for (int x = (int)xPos-s ; x<(int)xPos+s; x++) {
+
+		if (y<0 || y>=h || x<0 || x>=w) continue;
+		double dist = Math.hypot( x-xPos, y-yPos ) / rad;
+
+		if (dist>1) {
+		    // mark the surrounding as occupied
+		    if (dist<2)
+			dat.set( x,y,dat.get(x,y)+(float)1e-6);
+		    continue;
+		}
+
+		if (!hollow) {
+		    if (dist<0.5)
+			dat.set(x,y,dat.get(x,y)+1);
+		    else
+			dat.set(x,y,dat.get(x,y) +
+			    (float)(Math.cos( ((dist-0.5)*2*Math.PI))+1)*.5f);
+		} else if (dist>.2) {
+		    dat.set(x,y,dat.get(x,y) + (float)(Math.sin( (dist-.2)/.8*Math.PI)));
+		}
+	    }
+	}
+    }
+
+    /** Simulate the raw images of the sample returned by {@link #groundTruth}
+     *  @return Raw images, indexed [direction][phase] */
+    public Vec2d.Real [][] simulate() {
+	return simulate( groundTruth() );
+    }
+
+    /** Simulate the raw images of a sample
+     *  @param groundTruth Sample, on the oversampled grid
+     *  @return Raw images, indexed [direction][phase] */
+    public Vec2d.Real [][] simulate( Vec2d.Real groundTruth ) {
+
+	final int len = size*oversample;
+	if ( groundTruth.vectorWidth()!=len || groundTruth.vectorHeight()!=len )
+	    throw new RuntimeException("Ground truth has to be "+len+"x"+len);
+
+	final OtfProvider otf = createOtf();
+	final Random noisePRNG = new Random( seed*2+123 );
+
+	Vec2d.Real pattern = Vec2d.createReal( len, len );
+	Vec2d.Cplx buf     = Vec2d.createCplx( len, len );
+	Vec2d.Real tmp     = Vec2d.createReal( len, len );
+
+	Vec2d.Real [][] raw = new Vec2d.Real[ nrDirs ][ nrPhases ];
+
+	for (int a=0; a<nrDirs; a++) {
+	    final double [] k = pattern( a );
+	    Tool.trace(String.format("Simulating SIM: dir %d, kx %7.3f ky %7.3f",
+		a, k[0], k[1]));
+
+	    for (int p=0; p<nrPhases; p++) {
+
+		simPattern( pattern, k[0], k[1], p*Math.PI*2/nrPhases );
+		bandLimit( groundTruth, pattern, otf, buf, tmp );
+		raw[a][p] = camera( tmp, noisePRNG );
+	    }
+	}
+	return raw;
+    }
+
+    /** Illuminate the sample with the pattern and apply the OTF.
+     *  @param sample Sample, on the oversampled grid
+     *  @param pattern Illumination, see {@link #simPattern}
+     *  @param otf The OTF, see {@link #createOtf}
+     *  @param buf Work space, same size as the sample
+     *  @param out Band-limited image, same size as the sample */
+    public void bandLimit( Vec2d.Real sample, Vec2d.Real pattern,
+	OtfProvider otf, Vec2d.Cplx buf, Vec2d.Real out ) {
+	buf.copy( sample );
+	buf.times( pattern );
+	buf.fft2d( false );
+	otf.applyOtf( buf, 0 );
+	buf.fft2d( true );
+	out.copy( buf );
+    }
+
+    /** Write the illumination pattern, on the oversampled grid. For 3
+     *  bands, the full frequency moves at twice the phase of the half
+     *  frequency.
+     *  @param kx Pattern wave vector, see {@link #pattern}
+     *  @param ky Pattern wave vector, see {@link #pattern}
+     *  @param pha Pattern phase */
+    public void simPattern( Vec2d.Real dat, final double kx, final double ky,
+	final double pha ) {
+
+	final int len = dat.vectorWidth();
+	final float [] v = dat.vectorData();
+	final int nb = nrBands-1;
+	final double md = modDepth;
+
+	new SimpleMT.PFor(0, len) {
+	    public void at( int y ) {
+		for (int x=0; x<len; x++) {
+		    double arg = 2*Math.PI*(-kx*x + ky*y)/(len*nb) + pha;
+		    double c = 0;
+		    for (int b=1; b<=nb; b++)
+			c += Math.cos( arg * b ) / nb;
+		    v[ y*len+x ] = (float)((c+1)*0.5*md + (1-md));
+		}
+	    }
+	};
+	dat.syncBuffer();
+    }
+
+    /** Bin to camera pixels, add shot noise, offset and read noise */
+    public Vec2d.Real camera( Vec2d.Real img, Random noisePRNG ) {
+
+	Vec2d.Real res = Vec2d.createReal( size, size );
+	final double norm = photons / oversample / oversample;
+
+	for (int y=0; y<size; y++) {
+	    for (int x=0; x<size; x++) {
+		double acc = 0;
+		for (int y1=0; y1<oversample; y1++)
+		    for (int x1=0; x1<oversample; x1++)
+			acc += img.get( x*oversample+x1, y*oversample+y1 );
+
+		acc *= norm;
+		acc += noisePRNG.nextGaussian() * Math.sqrt( Math.max( acc, 0 ));
+		acc += camOffset + noisePRNG.nextGaussian()*camNoise;
+		res.set( x, y, (float)Math.max( acc, 0 ));
+	    }
+	}
+	return res;
+    }
+
+}
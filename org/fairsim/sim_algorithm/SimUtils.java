@@ -123,9 +123,7 @@ public class SimUtils {
     /** Create an image by FFTin back 'in' to spatial */
     public static Vec2d.Real spatial(Vec2d.Cplx in ) {
 	Vec2d.Real pw = Vec2d.createReal(in);
-	Vec2d.Cplx tmp = in.duplicate();
-	Transforms.fft2d( tmp, true );
-	pw.copy( tmp );
+	Transforms.ifft2d( in, pw );
 	return pw;
     }
     
@@ -134,8 +132,7 @@ public class SimUtils {
 	Vec2d.Real pw  = Vec2d.createReal(in.vectorWidth(), in.vectorHeight());
 	Vec2d.Cplx tmp = Vec2d.createCplx( pw );
 	tmp.project( in );
-	Transforms.fft2d( tmp, true );
-	pw.copy( tmp );
+	Transforms.ifft2d( tmp, pw );
 	return pw;
     }
     
@@ -0,0 +1,139 @@
+/*
+This file is part of Free Analysis and Interactive Reconstruction
+for Structured Illumination Microscopy (fairSIM).
+
+fairSIM is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 2 of the License, or
+(at your option) any later version.
+
+fairSIM is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package org.fairsim.sim_algorithm;
+
+/** Time (and optionally memory allocated) spent in the stages
+ *  of the SIM pipeline, for benchmarking.
+ *  <p>
+ *  {@link SimAlgorithm} marks its stages through {@link #begin} and
+ *  {@link #end}, which do nothing unless a recorder has been
+ *  {@link #install}ed. Stages are timed in the thread running the
+ *  pipeline, so only one pipeline should run while a recorder is
+ *  installed.
+ *  */
+public final class StageTimes {
+
+    /** Stages of the pipeline */
+    public enum Stage {
+	/** Preparing the raw images and their FFT (done by the caller) */
+	IMPORT_FFT,
+	/** Parameter estimation (kx,ky, phases, modulation) */
+	ESTIMATION,
+	/** Band separation */
+	BAND_SEPARATION,
+	/** Moving bands to their correct position */
+	SHIFT,
+	/** OTF multiplication, Wiener filter and apodization */
+	WIENER_FILTER,
+	/** Richardson-Lucy deconvolution (input or output) */
+	RL_DECONVOLUTION,
+	/** Transforming results back to real space */
+	OUTPUT
+    }
+
+    /** Source of the number of bytes allocated so far (by all threads) */
+    public interface AllocationCounter {
+	/** Bytes allocated so far, or -1 if not available */
+	public long allocatedBytes();
+    }
+
+    private static volatile StageTimes active = null;
+
+    private final AllocationCounter counter;
+    private final int n = Stage.values().length;
+    private final long [] startNs    = new long[n], startBytes = new long[n];
+    private final long [] nanos	     = new long[n], bytes = new long[n];
+    private final int  [] calls      = new int[n];
+
+    private StageTimes( AllocationCounter c ) {
+	counter = c;
+    }
+
+    /** Install a new recorder, replacing the current one.
+     *  @param c Allocation counter, may be null */
+    public static StageTimes install( AllocationCounter c ) {
+	StageTimes s = new StageTimes( c );
+	active = s;
+	return s;
+    }
+
+    /** Remove the currently installed recorder */
+    public static void uninstall() {
+	active = null;
+    }
+
+    /** Mark the begin of a stage */
+    public static void begin( Stage s ) {
+	StageTimes st = active;
+	if ( st == null ) return;
+	final int i = s.ordinal();
+	st.startBytes[i] = st.allocated();
+	st.startNs[i]    = System.nanoTime();
+    }
+
+    /** Mark the end of a stage */
+    public static void end( Stage s ) {
+	StageTimes st = active;
+	if ( st == null ) return;
+	final int i = s.ordinal();
+	st.nanos[i] += System.nanoTime() - st.startNs[i];
+	st.bytes[i] += st.allocated() - st.startBytes[i];
+	st.calls[i]++;
+    }
+
+    private long allocated() {
+	if ( counter == null ) return 0;
+	long b = counter.allocatedBytes();
+	return ( b < 0 ) ? 0 : b;
+    }
+
+    /** Clear all stages */
+    public void reset() {
+	for (int i=0; i<n; i++) {
+	    nanos[i] = 0; bytes[i] = 0; calls[i] = 0;
+	}
+    }
+
+    /** Milliseconds spent in stage s */
+    public double ms( Stage s ) {
+	return nanos[ s.ordinal() ] / 1e6;
+    }
+
+    /** Bytes allocated during stage s (0 if no counter is set) */
+    public long bytes( Stage s ) {
+	return bytes[ s.ordinal() ];
+    }
+
+    /** How often stage s has been run */
+    public int calls( Stage s ) {
+	return calls[ s.ordinal() ];
+    }
+
+    @Override
+    public String toString() {
+	StringBuilder sb = new StringBuilder();
+	for ( Stage s : Stage.values() ) {
+	    if ( calls( s ) == 0 ) continue;
+	    sb.append( String.format("%-16s %10.3f ms %10.1f MB (%d calls)%n",
+		s, ms( s ), bytes( s )/1024./1024., calls( s )));
+	}
+	return sb.toString();
+    }
+
+}
@@ -18,11 +18,22 @@ along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
 
 package org.fairsim.sim_algorithm;
 
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+
 import org.fairsim.linalg.*;
 import org.fairsim.utils.Tool;
 import org.fairsim.utils.SimpleMT;
 
-/** Wiener filter implementation */
+/** Wiener filter implementation.
+ *  Denominators (OTF^2 sums and their reciprocals) are cached per
+ *  OTF and shared by all instances using that OTF, so repeated
+ *  reconstructions and changes to the Wiener parameter do not
+ *  recompute the OTF. The cache of an OTF is dropped together with
+ *  the OTF. */
 public class WienerFilter {
 
     // our sim parameters and otf
@@ -36,24 +47,188 @@ public class WienerFilter {
 	updateCache();
     }
 
-    // cache for denominator values
-    private Vec2d.Real wDenom = null;
+    // key of the full denominator, its OTF, and the parameter
+    // timestamp it was set up at
+    private DenomKey wDenom = null;
+    private OtfProvider wOtf = null;
+    private long wDenomStamp;
 
-    /** Add OTF^2, for band and direction, to a vector.
-     * @param d Direction
-     * @param b Band
-     * @param useAtt Include attenuation */
-    public void addWienerDenominator( final Vec2d.Real vec, 
-	final int d, final int b, final boolean useAtt ) {
+    // ------ denominator cache ------
+
+    /** Upper bound on cached denominator data per OTF, in floats (64 MB) */
+    static final int CACHE_FLOATS = 16*1024*1024;
+
+    /** Cached denominators of one OTF, least recently used dropped first */
+    private static final class DenomCache {
+	final LinkedHashMap<DenomKey, float []> map = 
+	    new LinkedHashMap<DenomKey, float []>( 16, .75f, true );
+	long floats = 0;
+    }
+
+    /** Caches, weakly keyed on the OTF. The keys and values do not
+     *  reference the OTF, so a cache goes away with its OTF. */
+    private static final WeakHashMap<OtfProvider, DenomCache> denomCache = 
+	new WeakHashMap<OtfProvider, DenomCache>();
+
+    /** Key for the denominator cache of an OTF. Holds everything else
+     *  the OTF^2 sum depends on, so a changed parameter never hits a
+     *  stale entry. */
+    static final class DenomKey {
+	final boolean useAtt;
+	final double attStr, attFWHM, cyclMicron;
+	final int w, h;
+	final double [] bands;	// (band, kx, ky) per component
+	final double wParam;	// NaN for the plain OTF^2 sum
+
+	DenomKey( SimParam sp, int [] dirs, int [] bands, boolean useAtt, double wParam ) {
+	    final OtfProvider otf = sp.otf();
+	    this.useAtt = useAtt;
+	    this.attStr  = useAtt ? otf.getAttStr(0)  : 0;
+	    this.attFWHM = useAtt ? otf.getAttFWHM(0) : 0;
+	    this.cyclMicron = sp.pxlSizeCyclesMicron();
+	    this.w = 2*sp.vectorWidth(); 
+	    this.h = 2*sp.vectorHeight();
+	    this.bands = new double[ 3*dirs.length ];
+	    for (int i=0; i<dirs.length; i++) {
+		SimParam.Dir dir = sp.dir( dirs[i] );
+		this.bands[3*i  ] = bands[i];
+		this.bands[3*i+1] = dir.px( bands[i] );
+		this.bands[3*i+2] = dir.py( bands[i] );
+	    }
+	    this.wParam = wParam;
+	}
+
+	private DenomKey( DenomKey k, double wParam ) {
+	    useAtt = k.useAtt; attStr = k.attStr; attFWHM = k.attFWHM;
+	    cyclMicron = k.cyclMicron; w = k.w; h = k.h; bands = k.bands;
+	    this.wParam = wParam;
+	}
+
+	/** The same denominator, with Wiener parameter */
+	DenomKey withWiener( double wParam ) {
+	    return new DenomKey( this, wParam );
+	}
+
+	@Override
+	public boolean equals( Object o ) {
+	    if (!( o instanceof DenomKey )) return false;
+	    DenomKey k = (DenomKey)o;
+	    return useAtt == k.useAtt && w == k.w && h == k.h
+		&& Double.compare( attStr, k.attStr ) == 0
+		&& Double.compare( attFWHM, k.attFWHM ) == 0
+		&& Double.compare( cyclMicron, k.cyclMicron ) == 0
+		&& Double.compare( wParam, k.wParam ) == 0
+		&& Arrays.equals( bands, k.bands );
+	}
+
+	@Override
+	public int hashCode() {
+	    int r = w; r = r*31 + h;
+	    r = r*31 + Arrays.hashCode( new double [] { attStr, attFWHM, cyclMicron, wParam } );
+	    return r*31 + Arrays.hashCode( bands );
+	}
+    }
+
+    private static float [] cacheGet( OtfProvider otf, DenomKey k ) {
+	synchronized ( denomCache ) {
+	    DenomCache c = denomCache.get( otf );
+	    return ( c == null ) ? null : c.map.get( k );
+	}
+    }
+
+    /** Store 'v' for 'k', dropping least recently used entries of the
+     *  same OTF to stay within budget. The entry 'keep' (e.g. the OTF^2
+     *  sum a reciprocal was computed from) is not dropped; if the budget
+     *  cannot be met otherwise, 'v' is not stored. Entries larger than
+     *  the budget are never stored. */
+    private static void cachePut( OtfProvider otf, DenomKey k, float [] v,
+	DenomKey keep ) {
+	if ( v.length > CACHE_FLOATS )
+	    return;
+	synchronized ( denomCache ) {
+	    DenomCache c = denomCache.get( otf );
+	    if ( c == null ) {
+		c = new DenomCache();
+		denomCache.put( otf, c );
+	    }
+	    float [] old = c.map.put( k, v );
+	    if ( old != null )
+		c.floats -= old.length;
+	    c.floats += v.length;
+	    Iterator<Map.Entry<DenomKey, float []>> it = c.map.entrySet().iterator();
+	    while ( c.floats > CACHE_FLOATS && it.hasNext() ) {
+		Map.Entry<DenomKey, float []> e = it.next();
+		if ( e.getKey().equals( k ) || e.getKey().equals( keep ) )
+		    continue;
+		c.floats -= e.getValue().length;
+		it.remove();
+	    }
+	    if ( c.floats > CACHE_FLOATS ) {
+		c.map.remove( k );
+		c.floats -= v.length;
+	    }
+	}
+    }
+
+    /** Drop all cached denominators */
+    public static void clearCache() {
+	synchronized ( denomCache ) {
+	    denomCache.clear();
+	}
+    }
+
+    /** OTF^2 sum for a key, from the cache if available (not to be modified) */
+    static float [] otfSquared( OtfProvider otf, DenomKey k ) {
+	float [] ret = cacheGet( otf, k );
+	if ( ret != null )
+	    return ret;
+	ret = new float[ k.w * k.h ];
+	for (int i=0; i<k.bands.length; i+=3)
+	    addOtfSquared( ret, k.w, k.h, otf, (int)k.bands[i], 
+		k.bands[i+1], k.bands[i+2], k.useAtt, k.cyclMicron );
+	cachePut( otf, k, ret, null );
+	return ret;
+    }
+
+    /** Reciprocal denominator 1/(OTF^2 + wParam^2) for a key,
+     *  from the cache if available (not to be modified) */
+    static float [] reciprocal( OtfProvider otf, DenomKey k, double wParam ) {
+	final DenomKey kw = k.withWiener( wParam );
+	float [] ret = cacheGet( otf, kw );
+	if ( ret != null )
+	    return ret;
 	
-	// parameters
-	final int w = vec.vectorWidth(), h = vec.vectorHeight();
-	final SimParam.Dir dir = sp.dir(d);  
-	final double cyclMicron = sp.pxlSizeCyclesMicron();
+	final float [] otf2 = otfSquared( otf, k );
+	final float [] rec  = new float[ otf2.length ];
+	final float w2 = (float)(wParam*wParam);
+	final int w = k.w;
+	new SimpleMT.PFor(0, k.h) {
+	    public void at(int y) {
+		for (int i=y*w; i<(y+1)*w; i++)
+		    rec[i] = 1/( otf2[i] + w2 );
+	    }
+	};
+	cachePut( otf, kw, rec, k );
+	return rec;
+    }
+
+    /** Copy (cached) denominator data to a new vector */
+    private static Vec2d.Real toVector( DenomKey k, float [] dat ) {
+	Vec2d.Real ret = Vec2d.createReal( k.w, k.h );
+	System.arraycopy( dat, 0, ret.vectorData(), 0, dat.length );
+	ret.syncBuffer();
+	return ret;
+    }
+
+    /** Add OTF^2, for one band shifted to (kx,ky), to w x h data */
+    static void addOtfSquared( final float [] dat, final int w, final int h,
+	final OtfProvider otf, final int b, final double kx, final double ky,
+	final boolean useAtt, final double cyclMicron ) {
 
 	// loop the vector x,y
 	new SimpleMT.PFor(0, h) {
 	    public void at(int y) {
+		final float [] otfVal = new float[2];
 		for (int x=0; x<w; x++) {
 		    
 		    // wrap to coordinates: x in [-w,w], y in [-h, h]
@@ -61,45 +236,65 @@ public class WienerFilter {
 		    double yh = (y<h/2)?(-y):(h-y);
 		    
 		    // from these, calculate distance to +-(kx,ky), convert to cycl/microns
-		    double rad1 = MTool.fhypot( xh-dir.px(b), yh-dir.py(b) ) * cyclMicron;
-		    double rad2 = MTool.fhypot( xh+dir.px(b), yh+dir.py(b) ) * cyclMicron;
+		    double rad1 = MTool.fhypot( xh-kx, yh-ky ) * cyclMicron;
+		    double rad2 = MTool.fhypot( xh+kx, yh+ky ) * cyclMicron;
 		    
 		    // get OTF, at that distance, for that band, un-attenuated
-		    float otfVal1 = sp.otf().getOtfVal(b, rad1, false).absSq();
-		    float otfVal2 = sp.otf().getOtfVal(b, rad2, false).absSq();
+		    otf.getOtfVal(b, rad1, false, otfVal);
+		    float otfVal1 = otfVal[0]*otfVal[0] + otfVal[1]*otfVal[1];
+		    otf.getOtfVal(b, rad2, false, otfVal);
+		    float otfVal2 = otfVal[0]*otfVal[0] + otfVal[1]*otfVal[1];
 		    
 		    // if attenuate, do so
 		    if ( useAtt ) {
-			otfVal1 *= sp.otf().getAttVal( b, rad1 ) ;
-			otfVal2 *= sp.otf().getAttVal( b, rad2 ) ;
+			otfVal1 *= otf.getAttVal( b, rad1 ) ;
+			otfVal2 *= otf.getAttVal( b, rad2 ) ;
 		    }
 		    
 		    // store for Wiener denominator
-		    vec.set( x,y, vec.get(x,y) + otfVal1 + otfVal2 );
-
+		    dat[ x + y*w ] = dat[ x + y*w ] + otfVal1 + otfVal2;
 		}
 	    }
 	};
     }
 
+    /** Add OTF^2, for band and direction, to a vector.
+     * @param d Direction
+     * @param b Band
+     * @param useAtt Include attenuation */
+    public void addWienerDenominator( final Vec2d.Real vec, 
+	final int d, final int b, final boolean useAtt ) {
+	
+	final SimParam.Dir dir = sp.dir(d);  
+	addOtfSquared( vec.vectorData(), vec.vectorWidth(), vec.vectorHeight(),
+	    sp.otf(), b, dir.px(b), dir.py(b), useAtt, sp.pxlSizeCyclesMicron() );
+	vec.syncBuffer();
+    }
+
 
     /** Setup the Wiener filter. This (re)initiates the cached
-     *  filter values. Has to be called if the OTF or the shift parameters change.*/
+     *  filter values. Has to be called if the OTF or the shift parameters
+     *  change, unless signaled via {@link SimParam#signalRuntimeChange}. */
     public void updateCache() {
 
 	Tool.Timer t1 = Tool.getTimer();
-	final int w = sp.vectorWidth(), h = sp.vectorHeight();
-
 	t1.start();
-	wDenom   = Vec2d.createReal(2*w, 2*h); 
-	boolean useAtt = sp.otf().isAttenuate();
 
 	// loop directions, bands
+	int n=0;
+	for (int d=0; d<sp.nrDir(); d++) 
+	    n += sp.dir(d).nrBand();
+	int [] dirs = new int[n], bands = new int[n];
+	n=0;
 	for (int d=0; d<sp.nrDir(); d++) { 
 	    for (int b=0; b< sp.dir(d).nrBand(); b++) {
-		addWienerDenominator(wDenom, d,b, useAtt);
+		dirs[n] = d; bands[n++] = b;
 	    }
 	}
+	wDenomStamp = sp.getRuntimeTimestamp();
+	wOtf   = sp.otf();
+	wDenom = new DenomKey( sp, dirs, bands, wOtf.isAttenuate(), Double.NaN );
+	otfSquared( wOtf, wDenom );
 	t1.stop();
 
 	Tool.trace("Wiener filter setup complete, took "+t1);
@@ -113,12 +308,9 @@ public class WienerFilter {
      *	@param wParam Wiener filter parameter
      *  */
     public Vec2d.Real getDenominator(double wParam) {
-	Vec2d.Real ret = wDenom.duplicate();
-	final int w = ret.vectorWidth(), h = ret.vectorHeight();
-	for (int y=0; y<h; y++)
-	for (int x=0; x<w; x++)
-	    ret.set(x, y, 1/( ret.get(x,y) + (float)(wParam*wParam) ) );
-	return ret;
+	if ( sp.compareRuntimeTimestamp( wDenomStamp ) || sp.otf() != wOtf )
+	    updateCache();
+	return toVector( wDenom, reciprocal( wOtf, wDenom, wParam ));
     }
     
     
@@ -127,15 +319,8 @@ public class WienerFilter {
      *	@param wParam Wiener filter parameter
      *  */
     public Vec2d.Real getWidefieldDenominator(double wParam) {
-
-	Vec2d.Real ret = Vec2d.createReal( sp, 2);
-	addWienerDenominator( ret, 0,0, false );
-	
-	final int w = ret.vectorWidth(), h = ret.vectorHeight();
-	for (int y=0; y<h; y++)
-	for (int x=0; x<w; x++)
-	    ret.set(x, y, 1/( ret.get(x,y) + (float)(wParam*wParam) ) );
-	return ret;
+	DenomKey k = new DenomKey( sp, new int [] {0}, new int [] {0}, false, Double.NaN );
+	return toVector( k, reciprocal( sp.otf(), k, wParam ));
     }
  
     /** Returns a copy of a per-direction Wiener denominator, with all bands. 
@@ -144,18 +329,13 @@ public class WienerFilter {
      *	@param wParam Wiener filter parameter
      *  */
     public Vec2d.Real getIntermediateDenominator(int d, double wParam) {
-
-	// get the otf
-	Vec2d.Real ret = Vec2d.createReal( sp, 2);
-	for (int b=0; b<sp.dir(d).nrBand(); b++)
-	    addWienerDenominator( ret, d, b, sp.otf().isAttenuate() );
-
-	// add the wiener parameter
-	final int w = ret.vectorWidth(), h = ret.vectorHeight();
-	for (int y=0; y<h; y++)
-	for (int x=0; x<w; x++)
-	    ret.set(x, y, 1/( ret.get(x,y) + (float)(wParam*wParam) ) );
-	return ret;
+	final int n = sp.dir(d).nrBand();
+	int [] dirs = new int[n], bands = new int[n];
+	for (int b=0; b<n; b++) {
+	    dirs[b] = d; bands[b] = b;
+	}
+	DenomKey k = new DenomKey( sp, dirs, bands, sp.otf().isAttenuate(), Double.NaN );
+	return toVector( k, reciprocal( sp.otf(), k, wParam ));
     }
 
     /** Returns a copy of a per-band, per-direction Wiener denominator.
@@ -165,17 +345,9 @@ public class WienerFilter {
      *	@param wParam Wiener filter parameter
      *  */
     public Vec2d.Real getIntermediateDenominator(int d, int b, double wParam) {
-
-	// get the otf
-	Vec2d.Real ret = Vec2d.createReal( sp, 2);
-	addWienerDenominator( ret, d, b, sp.otf().isAttenuate() );
-
-	// add the wiener parameter
-	final int w = ret.vectorWidth(), h = ret.vectorHeight();
-	for (int y=0; y<h; y++)
-	for (int x=0; x<w; x++)
-	    ret.set(x, y, 1/( ret.get(x,y) + (float)(wParam*wParam) ) );
-	return ret;
+	DenomKey k = new DenomKey( sp, new int [] {d}, new int [] {b}, 
+	    sp.otf().isAttenuate(), Double.NaN );
+	return toVector( k, reciprocal( sp.otf(), k, wParam ));
     }
 
     
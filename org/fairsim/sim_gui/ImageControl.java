@@ -63,9 +63,14 @@ import org.fairsim.sim_algorithm.SimParam;
 import org.fairsim.sim_algorithm.SimUtils;
 import org.fairsim.sim_algorithm.SimAlgorithm;
 
+import org.fairsim.linalg.Vec;
 import org.fairsim.linalg.Vec2d;
+import org.fairsim.linalg.VectorFactory;
+import org.fairsim.linalg.VectorPool;
+import org.fairsim.linalg.VectorStatistics;
 import org.fairsim.linalg.MTool;
 import org.fairsim.linalg.Transforms;
+import org.fairsim.linalg.FftSizePlan;
 
 /**
  * GUI elements to set up OTF
@@ -118,9 +123,20 @@ public class ImageControl {
 	= new Tiles.LComboBox<String>("estimate, by", "average", "median"); 
 
 
+    // median for the prefactor estimation, the scratch buffer is reused
+    // (estimation runs both from the GUI and from batch / video threads)
+    private final ThreadLocal<VectorStatistics> prefactorStats =
+	new ThreadLocal<VectorStatistics>() {
+	    @Override
+	    protected VectorStatistics initialValue() {
+		return new VectorStatistics();
+	    }
+	};
+
     // the images
     Vec2d.Real [][] theImages    =null;
     Vec2d.Cplx [][] theFFTImages =null;
+    FftSizePlan importPlan = null;	// padding of the imported images
     double pxlSize;
     boolean pxlSet;
     
@@ -936,10 +952,15 @@ public class ImageControl {
 	ourState.setForeground(Color.BLUE);
 	ourState.repaint(20);
 
-	// square images
-	final boolean doResize =
-	    ((img.width != img.height) | ( img.width % 32 != 0));
-	int imgSize = next32( Math.max(img.width, img.height) );
+	// square images, padded to an FFT-friendly size (also at 2x)
+	if ( importPlan == null || importPlan.inWidth != img.width
+	    || importPlan.inHeight != img.height ) {
+	    importPlan = FftSizePlan.plan( img.width, img.height, true, 2,
+		FftSizePlan.getDefault() );
+	    Tool.trace("Input size plan: "+importPlan);
+	}
+	final boolean doResize = importPlan.needsPadding();
+	int imgSize = importPlan.width;
 	
 	final ImageDisplay curSlice = (showOutput)?(idpFactory.create( 
 	    imgSize, imgSize, "Slice to reconstruct")):(null);
@@ -984,7 +1005,7 @@ public class ImageControl {
 
 		imageCount++;
 
-		// import and store images  // TODO: move the FFT to somewhere else
+		// import and store images
 		Vec2d.Real curImg   = imgSelect.getImage(img,pos).duplicate();
 
 		// if we have to do background subtraction
@@ -999,16 +1020,13 @@ public class ImageControl {
 		if (doResize) {
 		    Tool.trace("Resizing input to square "+imgSize+"x"+imgSize);
 		    Tool.tell("Input resize to "+imgSize+"x"+imgSize);
-		    theImages[d][p] = Vec2d.createReal( imgSize, imgSize);
-		    theImages[d][p].paste(curImg,0,0, false);
+		    theImages[d][p] = importPlan.pad( curImg );
 		} else {
 		    theImages[d][p] = curImg;
 		}
 		
 		
 		theFFTImages[d][p] = Vec2d.createCplx( theImages[d][p] );
-		theFFTImages[d][p].copy( theImages[d][p] );
-		Transforms.fft2d( theFFTImages[d][p], false );
 		
 		if (rawDataDisplay != null) {
 		    
@@ -1021,6 +1039,9 @@ public class ImageControl {
 		    widefield.add( theImages[d][p]);
 		}
 	    }
+	    
+	    // transform all phases of this direction in one batch
+	    Transforms.fft2d( theImages[d], theFFTImages[d] );
 	}
     
 	if (rawDataDisplay!=null) {
@@ -1059,7 +1080,7 @@ public class ImageControl {
 		Tool.trace("angle "+ang+": average "+String.format("%7.4f",vals[ang]));
 	    }
 	    if (method==1) {
-		vals[ang] = sum.median()/simParam.dir(ang).nrPha();
+		vals[ang] = prefactorStats.get().median( sum )/simParam.dir(ang).nrPha();
 		Tool.trace("angle "+ang+": median "+String.format("%7.4f",vals[ang]));
 	    }
 	}
@@ -1106,7 +1127,7 @@ public class ImageControl {
 			": average "+String.format("%7.4f",vals[pha]));
 		}
 		if (method==1) {
-		    vals[pha] = theImages[ang][pha].median();
+		    vals[pha] = prefactorStats.get().median( theImages[ang][pha] );
 		    Tool.trace("angle "+ang+" phase "+pha+
 			": median "+String.format("%7.4f",vals[pha]));
 		}
@@ -1322,8 +1343,11 @@ public class ImageControl {
 	@Override
 	public void run() {
 
-	    int simWidth  = theFFTImages[0][0].vectorWidth()*2;
-	    int simHeight = theFFTImages[0][0].vectorHeight()*2;
+	    // results are cropped back to the input's field of view
+	    int simWidth  = importPlan.inWidth*2;
+	    int simHeight = importPlan.inHeight*2;
+	    int padWidth  = importPlan.width*2;
+	    int padHeight = importPlan.height*2;
 	    
 	    Tool.trace("Outputting widefield in batch: "+compWidefield);
 	    Tool.trace("Outputting filtered widefield in batch: "+compFilteredWidefield);
@@ -1337,68 +1361,84 @@ public class ImageControl {
 	    ImageDisplay filteredWidefieldOutputDisplay = (compFilteredWidefield)?(
 		idpFactory.create(simWidth, simHeight, "filtered widefield batch results")):(null);
 
+	    // recycle the temporary vectors between time points
+	    final VectorFactory oldFactory = Vec.getVectorFactory();
+	    final VectorPool pool = (oldFactory instanceof VectorPool)?(null):
+		(new VectorPool( oldFactory ));
+	    if (pool != null)
+		Vec.setVectorFactory( pool );
+
+	    try {
 
-	    for (int timePos=start; timePos<stop; timePos++) {
+		for (int timePos=start; timePos<stop; timePos++) {
 		
-		// update the input images
-		importImages(imgBox.getSelectedItem(), videoStackPositionZ, 
-		    timePos, true ); 
+		    // update the input images
+		    importImages(imgBox.getSelectedItem(), videoStackPositionZ, 
+			timePos, true ); 
 
 
-		// update the correction factors
-		if (prefactorAutoUpdateAngle.isSelected()) {
-		    runEstimateAngleVariation(prefactorMethodBox.getSelectedIndex());
-		}
-		if (prefactorAutoUpdatePhase.isSelected()) {
-		    runEstimatePhaseVariation(prefactorMethodBox.getSelectedIndex());
-		}
+		    // update the correction factors
+		    if (prefactorAutoUpdateAngle.isSelected()) {
+			runEstimateAngleVariation(prefactorMethodBox.getSelectedIndex());
+		    }
+		    if (prefactorAutoUpdatePhase.isSelected()) {
+			runEstimatePhaseVariation(prefactorMethodBox.getSelectedIndex());
+		    }
 
 
-		// update the parameter estimation
-		if (updateMode>=1) {
-			Tool.trace(String.format("Batch mode: Running parameter estimation (time slice %d)", timePos ));
-		    SimAlgorithm.estimateParameters( 
-			simParam, theFFTImages, 
-			fsGUI.parc.getFitBand(), 
-			fsGUI.parc.getFitExclude(), 
-			null, 0, null);
-		}
+		    // update the parameter estimation
+		    if (updateMode>=1) {
+			    Tool.trace(String.format("Batch mode: Running parameter estimation (time slice %d)", timePos ));
+			SimAlgorithm.estimateParameters( 
+			    simParam, theFFTImages, 
+			    fsGUI.parc.getFitBand(), 
+			    fsGUI.parc.getFitExclude(), 
+			    null, 0, null);
+		    }
 
-		// update individual phase estimations
-		if (updateMode>=2) {
-			Tool.trace(String.format("Batch mode: Running individual absolute phases (time slice %d)", timePos));
-			SimAlgorithm.estimateAbsolutePhases(
-			simParam, theFFTImages, null); 
-		}
+		    // update individual phase estimations
+		    if (updateMode>=2) {
+			    Tool.trace(String.format("Batch mode: Running individual absolute phases (time slice %d)", timePos));
+			    SimAlgorithm.estimateAbsolutePhases(
+			    simParam, theFFTImages, null); 
+		    }
 
-		Vec2d.Real widefield = ( compWidefield )?(Vec2d.createReal(simWidth,simHeight)):(null);
-		Vec2d.Real filteredWidefield = ( compFilteredWidefield )?(Vec2d.createReal(simWidth,simHeight)):(null);
+		    Vec2d.Real widefield = ( compWidefield )?(Vec2d.createReal(padWidth,padHeight)):(null);
+		    Vec2d.Real filteredWidefield = ( compFilteredWidefield )?(Vec2d.createReal(padWidth,padHeight)):(null);
 
-		Vec2d.Real simRecon = SimAlgorithm.runReconstruction( 
-		    simParam, theFFTImages, null,  0, false, 
-		    simParam.getClipScale(), widefield, filteredWidefield, null);
+		    Vec2d.Real simRecon = SimAlgorithm.runReconstruction( 
+			simParam, theFFTImages, null,  0, false, 
+			simParam.getClipScale(), widefield, filteredWidefield, null);
 		
-		simOutputDisplay.addImage( simRecon,"timeslice t:"+timePos);
-		if (compWidefield) {
-		    widefieldOutputDisplay.addImage( widefield,"timeslice t:"+timePos);
-		}
-		if (compFilteredWidefield) {
-		    filteredWidefieldOutputDisplay.addImage( filteredWidefield,"timeslice t:"+timePos);
-		}
+		    simOutputDisplay.addImage( importPlan.crop( simRecon, 2 ),"timeslice t:"+timePos);
+		    if (compWidefield) {
+			widefieldOutputDisplay.addImage( importPlan.crop( widefield, 2 ),"timeslice t:"+timePos);
+		    }
+		    if (compFilteredWidefield) {
+			filteredWidefieldOutputDisplay.addImage( importPlan.crop( filteredWidefield, 2 ),"timeslice t:"+timePos);
+		    }
+		    Vec.release( simRecon, widefield, filteredWidefield );
 
-		jpBar.setValue( ((timePos-start+1)*1000) / (stop-start));
+		    jpBar.setValue( ((timePos-start+1)*1000) / (stop-start));
 
-		if (timePos>start) {
-		    simOutputDisplay.display();
+		    if (timePos>start) {
+			simOutputDisplay.display();
 		    
-		    if (compWidefield)
-			widefieldOutputDisplay.display();
+			if (compWidefield)
+			    widefieldOutputDisplay.display();
 
-		    if (compFilteredWidefield)
-			filteredWidefieldOutputDisplay.display();
-		}
+			if (compFilteredWidefield)
+			    filteredWidefieldOutputDisplay.display();
+		    }
 
-		if (cancel) break;
+		    if (cancel) break;
+		}
+	    } finally {
+		Tool.trace(Transforms.getPlanCacheInfo());
+		if (pool != null) {
+		    Tool.trace(pool.toString());
+		    Vec.setVectorFactory( oldFactory );
+		}
 	    }
 
 	    simOutputDisplay.display();
@@ -1420,15 +1460,6 @@ public class ImageControl {
 
 
 
-    /** The lowest multiple of 32 larger or equal to 'in' */
-    int next32( int in ) {
-	for (int i=0 ; i<1048576; i+=32 )
-	    if (i>=in)
-		return i;
-	return -1;
-    }
-
-
     /** for testing */
     public static void main( String [] arg ) {
 	JFrame main = new JFrame("Test");
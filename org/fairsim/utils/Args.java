@@ -41,7 +41,7 @@ public class Args {
 
     public String addStr( String k, String v, String des ) {
 	ArgEntry a = new ArgEntry();
-	a.key = k; a.strValue = v; a.description=des; a.type = ArgType.DBL;
+	a.key = k; a.strValue = v; a.description=des; a.type = ArgType.STR;
 	entries.put(k,a);
 	return v;
     }
@@ -20,12 +20,12 @@ package org.fairsim.utils;
 
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Callable;
-import java.util.concurrent.Future;
-import java.util.concurrent.ExecutionException ;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import java.util.List;
-import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 
 /** A utility class to help multi-threading loops.
@@ -51,48 +51,67 @@ new SimpleMT.PFor(0,len) {
 };
 
  *  </code>
- *
+ *  <p>
+ *  Loop iterations are not assigned to threads up front. Instead, the
+ *  calling thread and up to nrThreads-1 pool threads claim chunks of
+ *  the loop until it is done, so uneven iterations are balanced
+ *  automatically. The calling thread always takes part, so loops can
+ *  be nested and started from several threads at once: if the pool is
+ *  busy, the caller simply runs the remaining iterations itself.
  * */
 public final class SimpleMT {
 
-    private static int nrThreads = Runtime.getRuntime().availableProcessors();
+    /** Chunks per thread a PFor loop is split into */
+    private static final int CHUNKS_PER_THREAD = 8;
+
+    private static volatile int nrThreads = Runtime.getRuntime().availableProcessors();
     static {
 	Tool.trace("SimpleMT: Init to "+nrThreads+" threads ");
     }
-    private static ExecutorService ex = 
-	Executors.newFixedThreadPool(nrThreads);
-
-    static private boolean doParallel = true;
-    static private boolean parallelInProgress = false;
-
+    private static volatile ExecutorService ex = createPool( nrThreads );
+    private static volatile boolean ownPool = true;
 
-    /*
-    public interface SubLoop {
-	public void pfor(int s, int e); 
+    static private volatile boolean doParallel = true;
+    
+    /** Nesting depth of parallel loops in the current thread */
+    private static final ThreadLocal<int []> loopDepth = new ThreadLocal<int []>() {
+	@Override
+	protected int [] initialValue() { return new int[1]; }
+    };
+
+    private static final List<PoolListener> listeners = 
+	new CopyOnWriteArrayList<PoolListener>();
+
+    /** Gets notified if the thread pool changes, e.g. for
+     *  libraries (FFT) that run their own threads */
+    public interface PoolListener {
+	/** Called with the new pool and number of threads */
+	public void threadPoolChanged( ExecutorService pool, int nrThreads );
+    }
 
-    } */
     
     /** Helpfull class to run parallel loops */
     public static abstract class PFor {
-	private final int start, end, inc;
 	
 	/** Like for(int i=s; i<e; i++) */
 	protected PFor(int s, int e) {
-	    start=s; end=e; inc=1;
-	    SimpleMT.execute(this);
+	    SimpleMT.execute( new Loop(s, e, grain( e-s ) ) {
+		void at(int i) { PFor.this.at(i); }
+	    });
 	}
 	/** Called for every index in loop **/
 	protected abstract void at(int pos) ;
     }
     
-    /** Helpfull class to run parallel loops */
+    /** Helpfull class to run parallel loops. Hands out single iterations,
+     *  so it is best for loops with only a few, long-running iterations. */
     public static abstract class StrPFor {
-	private final int start, end;
 	
 	/** Like for(int i=s; i<e; i++) */
 	protected StrPFor(int s, int e) {
-	    start=s; end=e;
-	    SimpleMT.execute(this);
+	    SimpleMT.execute( new Loop(s, e, 1) {
+		void at(int i) { StrPFor.this.at(i); }
+	    });
 	}
 	/** Called for every index in loop **/
 	protected abstract void at(int pos) ;
@@ -100,85 +119,168 @@ public final class SimpleMT {
     
     // -----------------------------------------------------
 
+    /** Shut down the thread pool. Loops started afterwards run serially. */
     public static void shutdown() {
 	ex.shutdown();
     }
+
+    /** Set the number of threads, creating a new thread pool. */
+    public static void setNrThreads( int n ) {
+	if ( n < 1 )
+	    throw new RuntimeException("Number of threads has to be positive");
+	setPool( createPool( n ), n, true );
+    }
+
+    /** Use an externally managed thread pool. The pool is not shut down
+     *  by SimpleMT, and should provide at least 'n' threads. */
+    public static void setThreadPool( ExecutorService pool, int n ) {
+	if ( pool == null || n < 1 )
+	    throw new RuntimeException("Invalid thread pool");
+	setPool( pool, n, false );
+    }
+
+    /** Return the thread pool currently in use */
+    public static ExecutorService getThreadPool() {
+	return ex;
+    }
+
+    /** Return the number of threads currently in use */
+    public static int getNrThreads() {
+	return nrThreads;
+    }
+
+    /** Returns true if the current thread is running a parallel loop */
+    public static boolean isParallelThread() {
+	return loopDepth.get()[0] > 0;
+    }
+
+    /** Register a listener, it is called once immediately with the current pool */
+    public static void addPoolListener( PoolListener l ) {
+	listeners.add( l );
+	l.threadPoolChanged( ex, nrThreads );
+    }
+
+    /** Remove a listener */
+    public static void removePoolListener( PoolListener l ) {
+	listeners.remove( l );
+    }
     
-    /** Execute a parallel loop, called by the constructor */
-    private static void execute(final PFor loop){
-	if (doParallel&&(!parallelInProgress)) {
-	    // only run the outermost loop in parallel
-	    parallelInProgress=true;
-	    
-	    // split the loop into sub-loop
-	    final int [][] sp = split( nrThreads, loop.start, loop.end );
-	    List<Calls> cb = new ArrayList<Calls>(nrThreads);
-	    for (int i=0; i<nrThreads; i++) {
-		final int j=i;
-		cb.add( new Calls() {
-		    final int s = sp[j][0], e = sp[j][1];
-		    public Object call() {
-			for(int i=s;i<e;i+=loop.inc)
-			    loop.at(i);
-			return null;
-		    }
-		} );
+    private static synchronized void setPool( ExecutorService pool, int n, boolean own ) {
+	ExecutorService old = ex;
+	boolean oldOwn = ownPool;
+	ex = pool; nrThreads = n; ownPool = own;
+	if ( oldOwn && old != pool )
+	    old.shutdown();
+	Tool.trace("SimpleMT: set to "+n+" threads ");
+	for ( PoolListener l : listeners )
+	    l.threadPoolChanged( pool, n );
+    }
+
+    /** Pool of daemon threads, so an idle pool does not keep the VM alive */
+    private static ExecutorService createPool( int n ) {
+	final AtomicInteger count = new AtomicInteger(0);
+	return Executors.newFixedThreadPool( n, new ThreadFactory() {
+	    public Thread newThread( Runnable r ) {
+		Thread t = new Thread( r, "SimpleMT-"+count.incrementAndGet() );
+		t.setDaemon( true );
+		return t;
 	    }
-	    execute( cb );
-	    parallelInProgress=false;
-	
-	} else {
-	    // run in serial if already in parallel loop, or parallel is turned off
-	    for (int i=loop.start; i<loop.end; i+=loop.inc)
-		loop.at(i);
-	}
+	});
     }
 
-    /** Execute a parallel loop, called by the constructor */
-    private static void execute(final StrPFor loop){
-	if (doParallel&&(!parallelInProgress)) {
-	    // only run the outermost loop in parallel
-	    parallelInProgress=true;
-	    
-	    // split the loop into sub-loop
-	    List<Calls> cb = new ArrayList<Calls>(nrThreads);
-	    final int nr = nrThreads;
-
-	    for (int i=0; i<nr; i++) {
-		final int j=i;
-		cb.add( new Calls() {
-		    public Object call() {
-			for(int i=loop.start+j; i<loop.end; i+=nr)
-			    loop.at(i);
-			return null;
+    /** Chunk size for a PFor loop of n iterations */
+    private static int grain( int n ) {
+	return Math.max( 1, n / ( nrThreads * CHUNKS_PER_THREAD ) );
+    }
+    
+    /** State of one parallel loop, shared by the calling
+     *  thread and the pool threads helping out */
+    private static abstract class Loop implements Runnable {
+	final int end, grain;
+	final AtomicInteger next;
+	final AtomicInteger open;
+	volatile Throwable err = null;
+
+	Loop( int s, int e, int g ) {
+	    end = e; grain = g;
+	    next = new AtomicInteger( s );
+	    open = new AtomicInteger( Math.max( 0, e-s ) );
+	}
+
+	abstract void at( int i );
+
+	/** Claim and run chunks until the loop is done */
+	public void run() {
+	    final int [] depth = loopDepth.get();
+	    depth[0]++;
+	    try {
+		while ( true ) {
+		    final int s = next.getAndAdd( grain );
+		    if ( s >= end || s < 0 ) 
+			break;
+		    final int e = Math.min( end, s+grain );
+		    try {
+			if ( err == null )
+			    for (int i=s; i<e; i++)
+				at(i);
+		    } catch ( Throwable t ) {
+			err = t;
+		    } finally {
+			if ( open.addAndGet( -(e-s) ) == 0 ) {
+			    synchronized ( this ) {
+				notifyAll();
+			    }
+			}
 		    }
-		} );
+		}
+	    } finally {
+		depth[0]--;
 	    }
-	    execute( cb );
-	    parallelInProgress=false;
-	
-	} else {
-	    // run in serial if already in parallel loop, or parallel is turned off
-	    for (int i=loop.start; i<loop.end; i++)
-		loop.at(i);
 	}
-    }
 
+	/** Wait for all claimed chunks to finish */
+	synchronized void await() {
+	    boolean interrupted = false;
+	    while ( open.get() > 0 ) {
+		try {
+		    wait();
+		} catch ( InterruptedException e ) {
+		    interrupted = true;
+		}
+	    }
+	    if ( interrupted )
+		Thread.currentThread().interrupt();
+	}
+    }
 
-    /** Abbreviation */
-    private interface Calls extends Callable<Object> {} ;
-    
-    /** execute and wait for all callables */
-    static void execute( List<Calls> jobs ) {
-	try {
-	    List<Future<Object>> fut = ex.invokeAll( jobs );
-	    for (Future<Object> t : fut )
-		t.get();
-	} catch (InterruptedException e) {
-	    System.err.println("ERR: "+e);	
-	} catch ( ExecutionException e) {
-	    System.err.println("ERR: "+e);	
+    /** Execute a parallel loop, called by the constructors */
+    private static void execute( final Loop loop ) {
+	
+	final int chunks = ( loop.open.get() + loop.grain - 1 ) / loop.grain;
+	final ExecutorService pool = ex;
+
+	if ( doParallel && chunks > 1 ) {
+	    // ask for help from the pool, do not wait for it
+	    int helpers = Math.min( nrThreads-1, chunks-1 );
+	    try {
+		for (int i=0; i<helpers; i++)
+		    pool.execute( loop );
+	    } catch ( RejectedExecutionException e ) {
+		// pool shut down, run what's left here
+	    }
 	}
+
+	// work on the loop in this thread, wait for chunks
+	// still running on other threads
+	loop.run();
+	loop.await();
+	
+	if ( loop.err instanceof RuntimeException )
+	    throw (RuntimeException)loop.err;
+	if ( loop.err instanceof Error )
+	    throw (Error)loop.err;
+	if ( loop.err != null )
+	    throw new RuntimeException( loop.err );
     }
 
 
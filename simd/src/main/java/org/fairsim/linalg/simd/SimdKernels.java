@@ -0,0 +1,222 @@
+/*
+This file is part of Free Analysis and Interactive Reconstruction
+for Structured Illumination Microscopy (fairSIM).
+
+fairSIM is free software: you can redistribute it and/or modify
+it under the terms of the GNU General Public License as published by
+the Free Software Foundation, either version 2 of the License, or
+(at your option) any later version.
+
+fairSIM is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with fairSIM.  If not, see <http://www.gnu.org/licenses/>
+*/
+
+package org.fairsim.linalg.simd;
+
+import java.util.Random;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShuffle;
+import jdk.incubator.vector.VectorSpecies;
+
+import org.fairsim.linalg.VectorKernels;
+
+/** Vector kernels using the Java Vector API (jdk.incubator.vector).
+ *  Picked up automatically by {@link VectorKernels} if on the class path.
+ *  <p>
+ *  Complex data is interleaved (re,im), so complex products swap and
+ *  duplicate lanes within a vector (rearrange) instead of loading real
+ *  and imaginary parts separately. Products and sums are done in the
+ *  same order as the plain Java kernels, so results are bit-identical,
+ *  except for norm2, which sums per lane.
+ *  */
+public final class SimdKernels extends VectorKernels {
+
+    /** Species, shuffles and signs. Static finals, so the JIT can compile
+     *  the kernels to SIMD instructions; held in a nested class, as this
+     *  class may be created while VectorKernels initializes. */
+    static final class C {
+	static final VectorSpecies<Float>  fs = FloatVector.SPECIES_PREFERRED;
+	static final VectorSpecies<Double> ds = DoubleVector.SPECIES_PREFERRED;
+	static final int len = fs.length(), h = len/2;
+
+	static final VectorShuffle<Float>
+	    swap     = VectorShuffle.fromOp( fs, i -> i^1 ),
+	    dupRe    = VectorShuffle.fromOp( fs, i -> i & ~1 ),
+	    dupIm    = VectorShuffle.fromOp( fs, i -> i | 1 ),
+	    lowHalf  = VectorShuffle.fromOp( fs, i -> i/2 ),
+	    highHalf = VectorShuffle.fromOp( fs, i -> h + i/2 );
+
+	/** (-1,1,-1,1,...) and (1,-1,1,-1,...) */
+	static final FloatVector sgnTimes = FloatVector.broadcast( fs, 1 )
+	    .blend( -1, VectorMask.fromLong( fs, 0x5555555555555555L )),
+	    sgnConj = sgnTimes.neg();
+    }
+
+    private static final VectorSpecies<Float>  fs = C.fs;
+    private static final VectorSpecies<Double> ds = C.ds;
+    private static final int len = C.len;
+
+    /** Fails (UnsupportedOperationException) if the CPU offers
+     *  less than 4 float lanes */
+    public SimdKernels() {
+	if ( C.len < 4 || C.ds.vectorBitSize() != C.fs.vectorBitSize() )
+	    throw new UnsupportedOperationException(
+		"no SIMD support on this CPU ("+C.fs+")");
+    }
+
+    @Override
+    public String getName() {
+	return "SIMD (Java Vector API, "+C.fs.vectorBitSize()+" bit)";
+    }
+
+    @Override
+    public void times( float [] y, float [] x, int s, int e, boolean conj ) {
+	// re: xr*yr - xi*yi, im: xr*yi + xi*yr (signs swapped if conj)
+	final FloatVector sgn = conj ? C.sgnConj : C.sgnTimes;
+	int j = 2*s;
+	for ( ; j + len <= 2*e; j += len ) {
+	    FloatVector vx = FloatVector.fromArray( fs, x, j );
+	    FloatVector vy = FloatVector.fromArray( fs, y, j );
+	    FloatVector xr = vx.rearrange( C.dupRe ), xi = vx.rearrange( C.dupIm );
+	    xr.mul( vy ).add( xi.mul( vy.rearrange( C.swap )).mul( sgn ))
+		.intoArray( y, j );
+	}
+	scalar().times( y, x, j/2, e, conj );
+    }
+
+    @Override
+    public void timesReal( float [] y, float [] x, int s, int e ) {
+	int i = s;
+	for ( ; i + len <= e; i += len ) {
+	    FloatVector vx = FloatVector.fromArray( fs, x, i );
+	    FloatVector.fromArray( fs, y, 2*i ).mul( vx.rearrange( C.lowHalf ))
+		.intoArray( y, 2*i );
+	    FloatVector.fromArray( fs, y, 2*i+len ).mul( vx.rearrange( C.highHalf ))
+		.intoArray( y, 2*i+len );
+	}
+	scalar().timesReal( y, x, i, e );
+    }
+
+    /** Plain Java: the JIT already vectorizes this loop, the
+     *  Vector API version measured no faster */
+    @Override
+    public void axpy( float a, float [] x, float [] y, int s, int e ) {
+	scalar().axpy( a, x, y, s, e );
+    }
+
+    @Override
+    public void reciproc( float [] y, int s, int e ) {
+	int j = 2*s;
+	for ( ; j + len <= 2*e; j += len ) {
+	    FloatVector vy = FloatVector.fromArray( fs, y, j );
+	    FloatVector sw = vy.rearrange( C.swap );
+	    FloatVector sq = vy.mul( vy ).add( sw.mul( sw ));
+	    vy.div( sq ).mul( C.sgnConj ).intoArray( y, j );
+	}
+	scalar().reciproc( y, j/2, e );
+    }
+
+    @Override
+    public double norm2( float [] y, int s, int e ) {
+	DoubleVector acc0 = DoubleVector.zero( ds ), acc1 = DoubleVector.zero( ds );
+	int j = s;
+	for ( ; j + len <= e; j += len ) {
+	    FloatVector vy = FloatVector.fromArray( fs, y, j );
+	    FloatVector sq = vy.mul( vy );
+	    acc0 = acc0.add( (DoubleVector)sq.convertShape( VectorOperators.F2D, ds, 0 ));
+	    acc1 = acc1.add( (DoubleVector)sq.convertShape( VectorOperators.F2D, ds, 1 ));
+	}
+	return acc0.add( acc1 ).reduceLanes( VectorOperators.ADD )
+	    + scalar().norm2( y, j, e );
+    }
+
+    // ------ self test and timing ------
+
+    /** Compares results to the plain Java kernels, then times both on
+     *  w x w complex vectors (default sizes 512 and 1024). */
+    public static void main( String [] args ) {
+
+	VectorKernels simd = new SimdKernels(), plain = scalar();
+	System.out.println("Comparing "+simd+" to "+plain);
+	System.out.println("Active in fairSIM: "+VectorKernels.get());
+
+	int [] sizes = { 512, 1024 };
+	if ( args.length > 0 ) {
+	    sizes = new int[ args.length ];
+	    for (int i=0; i<args.length; i++)
+		sizes[i] = Integer.parseInt( args[i] );
+	}
+
+	System.out.println(String.format("%-10s %6s %12s %12s %8s",
+	    "kernel", "size", "java ms", "simd ms", "speedup"));
+
+	for ( int w : sizes ) {
+	    final int n = w*w;
+	    Random rnd = new Random(42);
+	    float [] x = new float[2*n], y0 = new float[2*n], r = new float[n];
+	    for (int i=0; i<2*n; i++) {
+		x[i]  = rnd.nextFloat()*2-1;
+		y0[i] = rnd.nextFloat()*2-1;
+	    }
+	    for (int i=0; i<n; i++)
+		r[i] = rnd.nextFloat();
+
+	    for ( int k=0; k<6; k++ ) {
+		float [] ya = y0.clone(), yb = y0.clone();
+		run( plain, k, ya, x, r, n );
+		run( simd,  k, yb, x, r, n );
+		if ( k < 5 && !java.util.Arrays.equals( ya, yb ))
+		    throw new RuntimeException("Mismatch in kernel "+NAMES[k]);
+		double tp = time( plain, k, y0, ya, x, r, n );
+		double ts = time( simd,  k, y0, yb, x, r, n );
+		System.out.println(String.format("%-10s %6d %12.3f %12.3f %7.2fx",
+		    NAMES[k], w, tp, ts, tp/ts ));
+	    }
+	    double na = plain.norm2( y0, 0, 2*n ), nb = simd.norm2( y0, 0, 2*n );
+	    System.out.println(String.format("norm2 relative difference at %d: %.2e",
+		w, Math.abs(na-nb)/na ));
+	}
+    }
+
+    static final String [] NAMES =
+	{ "times", "timesConj", "timesReal", "axpy", "reciproc", "norm2" };
+
+    static double sink = 0;
+
+    static void run( VectorKernels k, int which, float [] y, float [] x, float [] r, int n ) {
+	switch ( which ) {
+	    case 0: k.times( y, x, 0, n, false ); break;
+	    case 1: k.times( y, x, 0, n, true ); break;
+	    case 2: k.timesReal( y, r, 0, n ); break;
+	    case 3: k.axpy( .5f, x, y, 0, 2*n ); break;
+	    case 4: k.reciproc( y, 0, n ); break;
+	    case 5: sink += k.norm2( y, 0, 2*n ); break;
+	}
+    }
+
+    /** median time (ms) of one kernel call, input reset from y0 each time */
+    static double time( VectorKernels k, int which, float [] y0, float [] y,
+	float [] x, float [] r, int n ) {
+	double [] t = new double[251];
+	for (int i=0; i<t.length; i++) {
+	    System.arraycopy( y0, 0, y, 0, y.length );
+	    long s = System.nanoTime();
+	    run( k, which, y, x, r, n );
+	    t[i] = ( System.nanoTime() - s )/1e6;
+	}
+	// the first 200 calls are warm-up
+	t = java.util.Arrays.copyOfRange( t, 200, t.length );
+	java.util.Arrays.sort( t );
+	return t[ t.length/2 ];
+    }
+
+}